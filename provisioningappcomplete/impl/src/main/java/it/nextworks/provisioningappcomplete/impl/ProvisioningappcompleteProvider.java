@@ -1,10 +1,31 @@
 package it.nextworks.provisioningappcomplete.impl;
 
+import it.nextworks.provisioningappcomplete.impl.netconf.DeviceCommitBatcher;
+import it.nextworks.provisioningappcomplete.impl.netconf.MountpointManager;
+import it.nextworks.provisioningappcomplete.impl.provisioning.BulkProvisioningService;
+import it.nextworks.provisioningappcomplete.impl.provisioning.DeviceConfigCache;
+import it.nextworks.provisioningappcomplete.impl.provisioning.EmbeddedPCE;
+import it.nextworks.provisioningappcomplete.impl.provisioning.IntentJournal;
+import it.nextworks.provisioningappcomplete.impl.provisioning.IntentRecovery;
+import it.nextworks.provisioningappcomplete.impl.provisioning.NodeTaskExecutor;
+import it.nextworks.provisioningappcomplete.impl.provisioning.PCEClient;
+import it.nextworks.provisioningappcomplete.impl.provisioning.PathComputationEngine;
+import it.nextworks.provisioningappcomplete.impl.provisioning.ProvisioningService;
+import it.nextworks.provisioningappcomplete.impl.provisioning.ReconciliationService;
+import it.nextworks.provisioningappcomplete.impl.provisioning.RequestExecutor;
+import it.nextworks.provisioningappcomplete.impl.provisioning.ResourceLocks;
+import it.nextworks.provisioningappcomplete.impl.provisioning.VlanPool;
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
+import it.nextworks.provisioningappcomplete.impl.provisioning.rpc.ProvisioningappcompleteServiceImpl;
 import it.nextworks.provisioningappcomplete.impl.provisioning.rpc.TapiConnectivityServiceImpl;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiDataStoreManager;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiTopologyIndex;
 import org.opendaylight.mdsal.binding.api.DataBroker;
 import org.opendaylight.mdsal.binding.api.MountPointService;
 import org.opendaylight.mdsal.binding.api.RpcProviderService;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.TapiConnectivityService;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.context.ConnectivityContext;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.ProvisioningappcompleteService;
 import org.opendaylight.yangtools.concepts.ObjectRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,22 +34,65 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.Properties;
 
 public class ProvisioningappcompleteProvider {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProvisioningappcompleteProvider.class);
+    private static final String PCE_MODE_REMOTE = "remote";
+    private static final String PCE_MODE_EMBEDDED = "embedded";
+    private static final int DEFAULT_PROVISIONING_THREADS = 8;
+    private static final int DEFAULT_MAX_TASKS_PER_NODE = 4;
+    private static final long DEFAULT_DEVICE_COMMIT_WINDOW_MS = 50;
+    private static final int DEFAULT_DEVICE_COMMIT_MAX_BATCH_SIZE = 64;
+    private static final long DEFAULT_DEVICE_CACHE_TTL_SECONDS = 300;
+    private static final int DEFAULT_REQUEST_THREADS = 16;
+    private static final int DEFAULT_REQUEST_QUEUE_SIZE = 4096;
+    private static final boolean DEFAULT_ATOMIC_PROVISIONING = false;
+    private static final String DEFAULT_INTENT_JOURNAL_FILE = "provisioning-intents.journal";
+    private static final int DEFAULT_INTENT_JOURNAL_SIZE_MB = 16;
+    private static final long DEFAULT_INTENT_RECOVERY_RETRY_SECONDS = 30;
+    private static final long DEFAULT_RECONCILIATION_PERIOD_SECONDS = 300;
+    private static final int DEFAULT_RECONCILIATION_NODES_PER_RUN = 16;
+    private static final boolean DEFAULT_RECONCILIATION_REPAIR = false;
 
     private final DataBroker dataBroker;
     private final RpcProviderService rpcProviderService;
     private final MountPointService mountPointService;
     //
     private ObjectRegistration<TapiConnectivityServiceImpl> tapiConnectivityServiceObjectRegistration;
+    private ObjectRegistration<ProvisioningappcompleteServiceImpl> provisioningappcompleteServiceObjectRegistration;
+    private PathComputationEngine pce;
+    private TapiTopologyIndex topologyIndex;
+    private NodeTaskExecutor nodeTaskExecutor;
+    private MountpointManager mountpointManager;
+    private DeviceConfigCache deviceConfigCache;
+    private RequestExecutor requestExecutor;
+    private DeviceCommitBatcher commitBatcher;
+    private IntentJournal intentJournal;
+    private IntentRecovery intentRecovery;
+    private ReconciliationService reconciliationService;
     //
     private String netconfUsername;
     private String netconfPsw;
+    private String pceMode;
     private String pceIp;
     private String pcePort;
+    private int provisioningThreads;
+    private int maxTasksPerNode;
+    private long deviceCommitWindowMs;
+    private int deviceCommitMaxBatchSize;
+    private boolean atomicProvisioning;
+    private String intentJournalPath;
+    private int intentJournalSizeMb;
+    private long intentRecoveryRetrySeconds;
+    private long reconciliationPeriodSeconds;
+    private int reconciliationNodesPerRun;
+    private boolean reconciliationRepair;
+    private long deviceCacheTtlSeconds;
+    private int requestThreads;
+    private int requestQueueSize;
 
     public ProvisioningappcompleteProvider(final DataBroker dataBroker,
                                            final RpcProviderService rpcProviderService,
@@ -44,9 +108,63 @@ public class ProvisioningappcompleteProvider {
     public void init() {
         if(!parseTsnPropertiesFile())
             return;
+        // Intents left unfinished by the previous run. The journal is opened before any other component is started:
+        // without it the requests could not be recovered, so the bundle fails
+        intentJournal = new IntentJournal(intentJournalPath,intentJournalSizeMb*1024*1024);
+        List<IntentJournal.Intent> unfinishedIntents;
+        try {
+            unfinishedIntents = intentJournal.open();
+        } catch (ProvisioningException ex) {
+            LOG.error("ProvisioningappcompleteProvider - " + ex.getMessage());
+            close();
+            throw new IllegalStateException("Intent journal " + intentJournalPath + " not available", ex);
+        }
 
+        // In-memory view of the TAPI topology, updated by a listener on the datastore
+        topologyIndex = new TapiTopologyIndex();
+        topologyIndex.register(dataBroker);
+        // The PCE is shared by all the requests, the PCE client in order to reuse its pooled connections
+        if (PCE_MODE_EMBEDDED.equals(pceMode))
+            pce = new EmbeddedPCE(topologyIndex);
+        else
+            pce = new PCEClient(pceIp,pcePort);
+        // The nodes of a path are configured in parallel on a pool shared by all the requests
+        nodeTaskExecutor = new NodeTaskExecutor(provisioningThreads,maxTasksPerNode);
+        // The requests are processed on a bounded pool, the RPC threads return immediately
+        requestExecutor = new RequestExecutor(requestThreads,requestQueueSize);
+        // Devices DataBrokers, tracking which nodes are connected
+        mountpointManager = new MountpointManager(mountPointService);
+        // eth-ports and mp-flows read from the devices, reloaded when a node (re)connects
+        deviceConfigCache = new DeviceConfigCache(mountpointManager,topologyIndex,deviceCacheTtlSeconds);
+        mountpointManager.addNodeAvailabilityListener(deviceConfigCache);
+        mountpointManager.register();
+        // The changes of concurrent requests for the same device are grouped in one transaction
+        commitBatcher = new DeviceCommitBatcher(mountpointManager,deviceCommitWindowMs,deviceCommitMaxBatchSize,provisioningThreads);
+        // NEP locks and VLANs in use, shared by the single and the bulk requests.
+        // The VLANs of the connectivity-services already provisioned and of the unfinished intents are reserved again
+        ResourceLocks resourceLocks = new ResourceLocks();
+        VlanPool vlanPool = new VlanPool();
+        ConnectivityContext connectivityContext = TapiDataStoreManager.readConnectivityContext(dataBroker);
+        vlanPool.rebuild(connectivityContext);
+        // A single provisioning service for the single requests, the bulk requests and the recovery
+        ProvisioningService provisioningService = new ProvisioningService(dataBroker,mountpointManager,deviceConfigCache,
+                pce,topologyIndex,resourceLocks,vlanPool,nodeTaskExecutor,commitBatcher,atomicProvisioning,intentJournal);
+        BulkProvisioningService bulkProvisioningService = new BulkProvisioningService(dataBroker,mountpointManager,
+                deviceConfigCache,pce,topologyIndex,resourceLocks,vlanPool,nodeTaskExecutor,commitBatcher,atomicProvisioning,
+                intentJournal,provisioningService);
+        intentRecovery = new IntentRecovery(provisioningService,intentJournal,unfinishedIntents,intentRecoveryRetrySeconds);
+        intentRecovery.reserveVlans(vlanPool,connectivityContext);
+        intentRecovery.start();
+        // Drifts between the devices and the datastore, checked a few nodes at a time
+        reconciliationService = new ReconciliationService(dataBroker,mountpointManager,deviceConfigCache,
+                topologyIndex,resourceLocks,nodeTaskExecutor,commitBatcher,intentJournal,reconciliationRepair,
+                reconciliationNodesPerRun,reconciliationPeriodSeconds);
+        mountpointManager.addNodeAvailabilityListener(reconciliationService);
+        reconciliationService.start();
         tapiConnectivityServiceObjectRegistration = rpcProviderService.registerRpcImplementation(TapiConnectivityService.class,
-                new TapiConnectivityServiceImpl(dataBroker,mountPointService,pceIp,pcePort));
+                new TapiConnectivityServiceImpl(provisioningService,requestExecutor));
+        provisioningappcompleteServiceObjectRegistration = rpcProviderService.registerRpcImplementation(ProvisioningappcompleteService.class,
+                new ProvisioningappcompleteServiceImpl(bulkProvisioningService,requestExecutor));
         LOG.info("ProvisioningappcompleteProvider Session Initiated");
     }
 
@@ -56,6 +174,28 @@ public class ProvisioningappcompleteProvider {
     public void close() {
         if (tapiConnectivityServiceObjectRegistration != null)
             tapiConnectivityServiceObjectRegistration.close();
+        if (provisioningappcompleteServiceObjectRegistration != null)
+            provisioningappcompleteServiceObjectRegistration.close();
+        if (intentRecovery != null)
+            intentRecovery.close();
+        if (reconciliationService != null)
+            reconciliationService.close();
+        if (requestExecutor != null)
+            requestExecutor.close();
+        if (nodeTaskExecutor != null)
+            nodeTaskExecutor.close();
+        if (commitBatcher != null)
+            commitBatcher.close();
+        if (intentJournal != null)
+            intentJournal.close();
+        if (mountpointManager != null)
+            mountpointManager.close();
+        if (deviceConfigCache != null)
+            deviceConfigCache.close();
+        if (pce != null)
+            pce.close();
+        if (topologyIndex != null)
+            topologyIndex.close();
         LOG.info("ProvisioningappcompleteProvider Closed");
     }
 
@@ -89,7 +229,59 @@ public class ProvisioningappcompleteProvider {
                 return false;
             }
             System.out.println("NETCONF configs, username: "+ netconfUsername + "  psw: " + netconfPsw);
-            // pce param
+            // provisioning param: threads configuring the devices and max parallel configurations on the same device
+            provisioningThreads = Integer.parseInt(prop.getProperty("provisioning.threads",
+                    String.valueOf(DEFAULT_PROVISIONING_THREADS)));
+            maxTasksPerNode = Integer.parseInt(prop.getProperty("provisioning.max-tasks-per-node",
+                    String.valueOf(DEFAULT_MAX_TASKS_PER_NODE)));
+            System.out.println("Provisioning threads: " + provisioningThreads + "  max tasks per node: " + maxTasksPerNode);
+            // device commit param: window in ms collecting the changes for a device (0 disables the grouping)
+            // and max number of requests grouped in one transaction
+            deviceCommitWindowMs = Long.parseLong(prop.getProperty("device-commit.window-ms",
+                    String.valueOf(DEFAULT_DEVICE_COMMIT_WINDOW_MS)));
+            deviceCommitMaxBatchSize = Integer.parseInt(prop.getProperty("device-commit.max-batch-size",
+                    String.valueOf(DEFAULT_DEVICE_COMMIT_MAX_BATCH_SIZE)));
+            System.out.println("Device commit window: " + deviceCommitWindowMs + " ms  max batch size: " + deviceCommitMaxBatchSize);
+            // atomic provisioning: the devices are configured before the datastore and restored if one of them fails
+            atomicProvisioning = Boolean.parseBoolean(prop.getProperty("provisioning.atomic",
+                    String.valueOf(DEFAULT_ATOMIC_PROVISIONING)));
+            System.out.println("Atomic provisioning: " + atomicProvisioning);
+            // intent journal param: file (next to complete.properties by default), size and retry period of the recovery
+            intentJournalPath = prop.getProperty("intent-journal.path", basepath + "/" + DEFAULT_INTENT_JOURNAL_FILE);
+            intentJournalSizeMb = Integer.parseInt(prop.getProperty("intent-journal.size-mb",
+                    String.valueOf(DEFAULT_INTENT_JOURNAL_SIZE_MB)));
+            intentRecoveryRetrySeconds = Long.parseLong(prop.getProperty("intent-journal.recovery-retry-seconds",
+                    String.valueOf(DEFAULT_INTENT_RECOVERY_RETRY_SECONDS)));
+            System.out.println("Intent journal: " + intentJournalPath + "  size: " + intentJournalSizeMb + " MB");
+            // reconciliation param: period (0 disables it), nodes reconciled at each run, repair of the drifts found twice
+            reconciliationPeriodSeconds = Long.parseLong(prop.getProperty("reconciliation.period-seconds",
+                    String.valueOf(DEFAULT_RECONCILIATION_PERIOD_SECONDS)));
+            reconciliationNodesPerRun = Integer.parseInt(prop.getProperty("reconciliation.nodes-per-run",
+                    String.valueOf(DEFAULT_RECONCILIATION_NODES_PER_RUN)));
+            reconciliationRepair = Boolean.parseBoolean(prop.getProperty("reconciliation.repair",
+                    String.valueOf(DEFAULT_RECONCILIATION_REPAIR)));
+            System.out.println("Reconciliation period: " + reconciliationPeriodSeconds + " s  nodes per run: "
+                    + reconciliationNodesPerRun + "  repair: " + reconciliationRepair);
+            // request param: threads processing the requests and max requests waiting for a thread
+            requestThreads = Integer.parseInt(prop.getProperty("provisioning.request-threads",
+                    String.valueOf(DEFAULT_REQUEST_THREADS)));
+            requestQueueSize = Integer.parseInt(prop.getProperty("provisioning.request-queue-size",
+                    String.valueOf(DEFAULT_REQUEST_QUEUE_SIZE)));
+            System.out.println("Request threads: " + requestThreads + "  request queue size: " + requestQueueSize);
+            // device cache param: seconds after which the configuration read from a device is read again
+            deviceCacheTtlSeconds = Long.parseLong(prop.getProperty("device-cache.ttl-seconds",
+                    String.valueOf(DEFAULT_DEVICE_CACHE_TTL_SECONDS)));
+            System.out.println("Device cache TTL: " + deviceCacheTtlSeconds + " s");
+            // pce param, the external PCE (remote) is used by default
+            pceMode = prop.getProperty("pce.mode", PCE_MODE_REMOTE);
+            if(!PCE_MODE_REMOTE.equals(pceMode) && !PCE_MODE_EMBEDDED.equals(pceMode)){
+                System.out.println("TsntopologyappComplete - PCE mode " + pceMode + " not supported");
+                LOG.error("TsntopologyappComplete - PCE mode " + pceMode + " not supported");
+                return false;
+            }
+            System.out.println("PCE mode: " + pceMode);
+            if(PCE_MODE_EMBEDDED.equals(pceMode))
+                return true;
             pceIp = prop.getProperty("pce.ip");
             pcePort = prop.getProperty("pce.port");
             if(pceIp == null || pcePort == null){
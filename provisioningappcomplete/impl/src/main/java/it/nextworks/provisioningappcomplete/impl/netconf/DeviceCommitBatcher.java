@@ -0,0 +1,215 @@
+package it.nextworks.provisioningappcomplete.impl.netconf;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.NodeNotConnectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Group commit of the device changes: the batches of concurrent requests for the same node are collected
+// for windowMillis (or until maxBatchSize batches are collected) and sent to the device in one transaction.
+// At most one transaction per node is in progress, the batches arriving meanwhile are grouped in the next one.
+// No thread waits for a node: a group ready while its node is busy is queued, and committed by the thread
+// completing the transaction in progress, so the scheduler threads are always available to the other nodes.
+// If the grouped transaction fails, its batches are committed again one by one, so that a wrong batch
+// does not fail the other requests of the group.
+// The batches of a group must not modify the same data, this is guaranteed by the NEP locks of the requests.
+public class DeviceCommitBatcher implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceCommitBatcher.class);
+    private final MountpointManager mountpointManager;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    // group collecting the batches of each node, guarded by this
+    private final Map<String, Group> pending = new HashMap<>();
+    // groups closed at the max size while their node is busy, in order, guarded by this
+    private final Map<String, Deque<Group>> ready = new HashMap<>();
+    // nodes with a transaction in progress, guarded by this
+    private final Set<String> committing = new HashSet<>();
+
+    private static final class Group {
+        private final String nodeId;
+        private final List<DeviceWriteBatch> batches = new ArrayList<>();
+        private final List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        // the window ended while the node was busy: the group is closed when the node is free
+        private boolean windowElapsed;
+
+        private Group(String nodeId) {
+            this.nodeId = nodeId;
+        }
+    }
+
+    // windowMillis 0 disables the grouping, each batch is committed by the caller thread
+    public DeviceCommitBatcher(MountpointManager mountpointManager, long windowMillis, int maxBatchSize, int threads) {
+        this.mountpointManager = mountpointManager;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Executors.newScheduledThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("device-commit-%d").setDaemon(true).build());
+    }
+
+    // Commit the batch, together with the batches of the other requests for the same node.
+    // It blocks until the transaction containing the batch is completed, true if the batch is applied on the device.
+    // A node not connected fails immediately, without waiting for the window
+    public boolean commit(DeviceWriteBatch batch) throws NodeNotConnectedException {
+        if (!mountpointManager.isAvailable(batch.getNodeId()))
+            throw new NodeNotConnectedException(batch.getNodeId());
+        if (windowMillis <= 0 || batch.isEmpty())
+            return batch.commit();
+        try {
+            return submit(batch).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("DeviceCommitBatcher - commit: interrupted waiting for node " + batch.getNodeId());
+            return false;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NodeNotConnectedException)
+                throw (NodeNotConnectedException) e.getCause();
+            LOG.error("DeviceCommitBatcher - commit: error on node " + batch.getNodeId() + ": " + e.getCause().getMessage());
+            return false;
+        }
+    }
+
+    public CompletableFuture<Boolean> submit(DeviceWriteBatch batch) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        Group toCommit = null;
+        synchronized (this) {
+            Group group = pending.get(batch.getNodeId());
+            if (group == null) {
+                group = new Group(batch.getNodeId());
+                pending.put(batch.getNodeId(), group);
+                final Group scheduled = group;
+                scheduler.schedule(() -> flush(scheduled), windowMillis, TimeUnit.MILLISECONDS);
+            }
+            group.batches.add(batch);
+            group.results.add(result);
+            if (group.batches.size() >= maxBatchSize) {
+                pending.remove(batch.getNodeId());
+                toCommit = close(group);
+            }
+        }
+        if (toCommit != null) {
+            final Group full = toCommit;
+            scheduler.execute(() -> commitGroup(full));
+        }
+        return result;
+    }
+
+    // End of the window: the group is closed when the node is free, so while the previous
+    // transaction is in progress it keeps collecting batches
+    private void flush(Group group) {
+        synchronized (this) {
+            // already closed because it reached the max size
+            if (pending.get(group.nodeId) != group)
+                return;
+            if (committing.contains(group.nodeId)) {
+                group.windowElapsed = true;
+                return;
+            }
+            pending.remove(group.nodeId);
+            committing.add(group.nodeId);
+        }
+        commitGroup(group);
+    }
+
+    // The group is committed by the caller if the node is free, otherwise it is queued. Called holding this
+    private Group close(Group group) {
+        if (committing.add(group.nodeId))
+            return group;
+        ready.computeIfAbsent(group.nodeId, k -> new ArrayDeque<>()).add(group);
+        return null;
+    }
+
+    // Commit the group, then the next group of the node if any, on another task so the other nodes are not delayed
+    private void commitGroup(Group group) {
+        commitOnNode(group);
+        Group next;
+        synchronized (this) {
+            next = nextGroup(group.nodeId);
+        }
+        if (next == null)
+            return;
+        try {
+            scheduler.execute(() -> commitGroup(next));
+        } catch (RejectedExecutionException e) {
+            // closed meanwhile
+            for (CompletableFuture<Boolean> result : next.results)
+                result.complete(false);
+        }
+    }
+
+    // The queued groups first, then the collecting one if its window ended. Called holding this
+    private Group nextGroup(String nodeId) {
+        Deque<Group> queue = ready.get(nodeId);
+        if (queue != null) {
+            Group next = queue.poll();
+            if (queue.isEmpty())
+                ready.remove(nodeId);
+            return next;
+        }
+        Group group = pending.get(nodeId);
+        if (group != null && group.windowElapsed) {
+            pending.remove(nodeId);
+            return group;
+        }
+        committing.remove(nodeId);
+        return null;
+    }
+
+    private void commitOnNode(Group group) {
+        try {
+            if (group.batches.size() == 1) {
+                group.results.get(0).complete(group.batches.get(0).commit());
+                return;
+            }
+            DeviceWriteBatch grouped = new DeviceWriteBatch(mountpointManager, group.nodeId);
+            for (DeviceWriteBatch batch : group.batches)
+                grouped.addAll(batch);
+            LOG.info("DeviceCommitBatcher - commit: " + group.batches.size() + " batches grouped on node " + group.nodeId);
+            if (grouped.commit()) {
+                for (CompletableFuture<Boolean> result : group.results)
+                    result.complete(true);
+                return;
+            }
+            LOG.warn("DeviceCommitBatcher - commit: grouped transaction failed on node " + group.nodeId
+                    + ", committing the " + group.batches.size() + " batches one by one");
+            for (int i = 0; i < group.batches.size(); i++)
+                group.results.get(i).complete(group.batches.get(i).commit());
+        } catch (NodeNotConnectedException | RuntimeException e) {
+            // the results already completed by the one by one commit are kept
+            LOG.error("DeviceCommitBatcher - commit: error on node " + group.nodeId + ": " + e.getMessage());
+            for (CompletableFuture<Boolean> result : group.results)
+                result.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        synchronized (this) {
+            for (Group group : pending.values())
+                for (CompletableFuture<Boolean> result : group.results)
+                    result.complete(false);
+            pending.clear();
+            for (Deque<Group> queue : ready.values())
+                for (Group group : queue)
+                    for (CompletableFuture<Boolean> result : group.results)
+                        result.complete(false);
+            ready.clear();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package it.nextworks.provisioningappcomplete.impl.netconf;
+
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.NodeNotConnectedException;
+import org.opendaylight.mdsal.binding.api.WriteTransaction;
+import org.opendaylight.mdsal.common.api.LogicalDatastoreType;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Collects the configuration changes for a single device, which are then sent in one transaction with commit().
+// Either all the changes are applied on the device or none of them.
+public class DeviceWriteBatch {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceWriteBatch.class);
+    private final MountpointManager mountpointManager;
+    private final String nodeId;
+    private final List<Consumer<WriteTransaction>> operations = new ArrayList<>();
+
+    public DeviceWriteBatch(MountpointManager mountpointManager, String nodeId) {
+        this.mountpointManager = mountpointManager;
+        this.nodeId = nodeId;
+    }
+
+    public <T extends DataObject> DeviceWriteBatch put(InstanceIdentifier<T> iid, T content) {
+        operations.add(wtx -> wtx.put(LogicalDatastoreType.CONFIGURATION, iid, content));
+        return this;
+    }
+
+    public <T extends DataObject> DeviceWriteBatch merge(InstanceIdentifier<T> iid, T content) {
+        operations.add(wtx -> wtx.merge(LogicalDatastoreType.CONFIGURATION, iid, content));
+        return this;
+    }
+
+    public DeviceWriteBatch delete(InstanceIdentifier<?> iid) {
+        operations.add(wtx -> wtx.delete(LogicalDatastoreType.CONFIGURATION, iid));
+        return this;
+    }
+
+    // Append the changes of another batch of the same node
+    public DeviceWriteBatch addAll(DeviceWriteBatch other) {
+        operations.addAll(other.operations);
+        return this;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    // false if the transaction fails, a node not connected is not retried and fails the caller immediately
+    public boolean commit() throws NodeNotConnectedException {
+        LOG.info("DeviceWriteBatch - commit: " + operations.size() + " operations on node " + nodeId);
+        return mountpointManager.submitToDataStore(nodeId, wtx -> {
+            for (Consumer<WriteTransaction> operation : operations)
+                operation.accept(wtx);
+        });
+    }
+}
@@ -1,98 +1,214 @@
 package it.nextworks.provisioningappcomplete.impl.netconf;
 
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.NodeNotConnectedException;
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
 import org.opendaylight.mdsal.binding.api.*;
 import org.opendaylight.mdsal.common.api.LogicalDatastoreType;
 import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Node;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.NodeKey;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
 import org.opendaylight.yangtools.yang.binding.DataObject;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.NoSuchElementException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
-public class MountpointManager {
+// Access to the datastore of the devices through their NETCONF mountpoints.
+// A single instance is shared by the provisioning: the DataBroker of each device is cached and the cache is
+// kept up to date by a listener on the mountpoints of the netconf topology, so a device not connected
+// is known without asking the MountPointService and the operations on it fail immediately.
+public class MountpointManager implements MountPointService.MountPointListener, AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(MountpointManager.class);
     private final MountPointService mountPointService;
+    private final Map<String, DataBroker> deviceBrokers = new ConcurrentHashMap<>();
+    private final List<NodeAvailabilityListener> availabilityListeners = new CopyOnWriteArrayList<>();
+    private ListenerRegistration<MountpointManager> registration;
 
     public MountpointManager(MountPointService mps){
         this.mountPointService = mps;
     }
 
+    public void register() {
+        registration = mountPointService.registerListener(NetconfUtils.netconfNode(), this);
+        LOG.info("MountpointManager - listening on netconf mountpoints");
+    }
+
+    @Override
+    public void close() {
+        if (registration != null)
+            registration.close();
+        deviceBrokers.clear();
+    }
+
+    public void addNodeAvailabilityListener(NodeAvailabilityListener listener) {
+        availabilityListeners.add(listener);
+    }
+
+    @Override
+    public void onMountPointCreated(InstanceIdentifier<?> path) {
+        String nodeId = nodeIdOf(path);
+        if (nodeId == null)
+            return;
+        DataBroker dataBrokerDevice = lookupDataBroker(nodeId);
+        if (dataBrokerDevice != null) {
+            deviceBrokers.put(nodeId, dataBrokerDevice);
+            LOG.info("MountpointManager - node " + nodeId + " available");
+            for (NodeAvailabilityListener listener : availabilityListeners)
+                listener.onNodeAvailable(nodeId);
+        }
+    }
+
+    @Override
+    public void onMountPointRemoved(InstanceIdentifier<?> path) {
+        String nodeId = nodeIdOf(path);
+        if (nodeId == null)
+            return;
+        if (deviceBrokers.remove(nodeId) != null)
+            LOG.info("MountpointManager - node " + nodeId + " not available");
+        for (NodeAvailabilityListener listener : availabilityListeners)
+            listener.onNodeUnavailable(nodeId);
+    }
+
+    public boolean isAvailable(String nodeId) {
+        return getDataBroker(nodeId) != null;
+    }
+
+    public Set<String> getAvailableNodes() {
+        return Collections.unmodifiableSet(new HashSet<>(deviceBrokers.keySet()));
+    }
+
+    private static String nodeIdOf(InstanceIdentifier<?> path) {
+        NodeKey key = path.firstKeyOf(Node.class);
+        return key == null ? null : key.getNodeId().getValue();
+    }
+
+    // The mountpoints created before the registration of the listener are looked up once and then cached.
+    // The lookup is done inside computeIfAbsent, so a mountpoint removed meanwhile is not cached again:
+    // onMountPointRemoved waits for the lookup and then removes its result
     private DataBroker getDataBroker(String nodeId){
-        InstanceIdentifier<Node> nodeIID = NetconfUtils.netconfNodeIid(nodeId);
-        final Optional<MountPoint> mpOptional = mountPointService.getMountPoint(nodeIID);
-        if(mpOptional==null || !mpOptional.isPresent()){
-            LOG.error("Mountpoint for node " + nodeId + " not found.");
-            return null;
+        DataBroker dataBrokerDevice = deviceBrokers.computeIfAbsent(nodeId, this::lookupDataBroker);
+        if (dataBrokerDevice == null) {
+            // asked also to check the nodes of each request: not an error here, the caller reports it
+            LOG.debug("MountpointManager - node " + nodeId + " not connected: mountpoint not found");
         }
-        final MountPoint mountPoint = mpOptional.get();
-        final DataBroker dataBrokerDevice = mountPoint.getService(DataBroker.class).get();
         return dataBrokerDevice;
     }
 
-
-    public <T extends DataObject> Optional<T> readFromDataStore(InstanceIdentifier<T> iid, String nodeId) {
+    // The DataBroker of a connected node, a node not connected fails immediately
+    private DataBroker getConnectedDataBroker(String nodeId) throws NodeNotConnectedException {
         final DataBroker dataBrokerDevice = getDataBroker(nodeId);
+        if (dataBrokerDevice == null)
+            throw new NodeNotConnectedException(nodeId);
+        return dataBrokerDevice;
+    }
+
+    private DataBroker lookupDataBroker(String nodeId){
+        final Optional<MountPoint> mpOptional = mountPointService.getMountPoint(NetconfUtils.netconfNodeIid(nodeId));
+        if(mpOptional==null || !mpOptional.isPresent())
+            return null;
+        return mpOptional.get().getService(DataBroker.class).orElse(null);
+    }
+
+
+    // Optional.empty() only if the data is not on the device: a node not connected (NodeNotConnectedException)
+    // or a failed read are reported as errors
+    public <T extends DataObject> Optional<T> readFromDataStore(InstanceIdentifier<T> iid, String nodeId)
+            throws ProvisioningException {
+        final DataBroker dataBrokerDevice = getConnectedDataBroker(nodeId);
         final ReadTransaction readTrx = dataBrokerDevice.newReadOnlyTransaction();
 
         Optional<T> data;
         try {
             data = readTrx.read(LogicalDatastoreType.CONFIGURATION, iid).get();
-        } catch (ExecutionException | InterruptedException e) {
-            LOG.error("Error reading from data store for node " + nodeId);
-            e.printStackTrace();
-            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProvisioningException("Read from node " + nodeId + " interrupted");
+        } catch (ExecutionException e) {
+            LOG.error("MountpointManager - error reading from data store for node " + nodeId + ": " + e.getMessage());
+            throw new ProvisioningException("Error reading from node " + nodeId + ": " + e.getMessage());
         } finally {
             readTrx.close();
         }
         return data;
     }
 
-    public <T extends DataObject> boolean writeToDataStore(InstanceIdentifier<T> iid, String nodeId, T content) {
-        final DataBroker dataBrokerDevice = getDataBroker(nodeId);
+    // The write operations return false if the transaction fails, a node not connected is a NodeNotConnectedException
+    public <T extends DataObject> boolean writeToDataStore(InstanceIdentifier<T> iid, String nodeId, T content)
+            throws NodeNotConnectedException {
+        final DataBroker dataBrokerDevice = getConnectedDataBroker(nodeId);
         final WriteTransaction writeTx = dataBrokerDevice.newWriteOnlyTransaction();
 
         try {
             writeTx.put(LogicalDatastoreType.CONFIGURATION, iid,content);
             writeTx.commit().get();
         } catch (ExecutionException | InterruptedException e) {
-            LOG.error("Error writing data store for node " + nodeId);
-            e.printStackTrace();
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            LOG.error("MountpointManager - error writing data store for node " + nodeId + ": " + e.getMessage());
             return false;
         }
         return true;
     }
 
-    public <T extends DataObject> boolean writeMergeToDataStore(InstanceIdentifier<T> iid, String nodeId, T content) {
-        final DataBroker dataBrokerDevice = getDataBroker(nodeId);
+    public <T extends DataObject> boolean writeMergeToDataStore(InstanceIdentifier<T> iid, String nodeId, T content)
+            throws NodeNotConnectedException {
+        final DataBroker dataBrokerDevice = getConnectedDataBroker(nodeId);
         final WriteTransaction writeTx = dataBrokerDevice.newWriteOnlyTransaction();
 
         try {
-            writeTx.put(LogicalDatastoreType.CONFIGURATION, iid,content);
+            writeTx.merge(LogicalDatastoreType.CONFIGURATION, iid,content);
             writeTx.commit().get();
         } catch (ExecutionException | InterruptedException e) {
-            LOG.error("Error writing data store for node " + nodeId);
-            e.printStackTrace();
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            LOG.error("MountpointManager - error writing data store for node " + nodeId + ": " + e.getMessage());
             return false;
         }
         return true;
     }
 
 
-    public <T extends DataObject> boolean deleteFromDataStore(InstanceIdentifier<T> iid, String nodeId) {
-        final DataBroker dataBrokerDevice = getDataBroker(nodeId);
+    public <T extends DataObject> boolean deleteFromDataStore(InstanceIdentifier<T> iid, String nodeId)
+            throws NodeNotConnectedException {
+        final DataBroker dataBrokerDevice = getConnectedDataBroker(nodeId);
         final WriteTransaction writeTx = dataBrokerDevice.newWriteOnlyTransaction();
 
         try {
             writeTx.delete(LogicalDatastoreType.CONFIGURATION, iid);
             writeTx.commit().get();
         } catch (ExecutionException | InterruptedException e) {
-            LOG.error("Error writing data store for node " + nodeId);
-            e.printStackTrace();
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            LOG.error("MountpointManager - error writing data store for node " + nodeId + ": " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    // Apply all the operations in a single transaction on the device, so a single commit is sent to the NETCONF server
+    public boolean submitToDataStore(String nodeId, Consumer<WriteTransaction> operations) throws NodeNotConnectedException {
+        final DataBroker dataBrokerDevice = getConnectedDataBroker(nodeId);
+        final WriteTransaction writeTx = dataBrokerDevice.newWriteOnlyTransaction();
+
+        try {
+            operations.accept(writeTx);
+            writeTx.commit().get();
+        } catch (ExecutionException | InterruptedException e) {
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            LOG.error("MountpointManager - error committing transaction for node " + nodeId + ": " + e.getMessage());
             return false;
         }
         return true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,9 @@
+package it.nextworks.provisioningappcomplete.impl.netconf;
+
+// Notified by the MountpointManager when the mountpoint of a node is created (node connected or reconnected)
+// or removed (node disconnected)
+public interface NodeAvailabilityListener {
+    void onNodeAvailable(String nodeId);
+
+    void onNodeUnavailable(String nodeId);
+}
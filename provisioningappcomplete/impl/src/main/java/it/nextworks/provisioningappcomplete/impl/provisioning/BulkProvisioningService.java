@@ -0,0 +1,579 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import it.nextworks.provisioningappcomplete.impl.netconf.DeviceCommitBatcher;
+import it.nextworks.provisioningappcomplete.impl.netconf.MountpointManager;
+import it.nextworks.provisioningappcomplete.impl.provisioning.NodeTaskExecutor.NodeTask;
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.PathComputationException;
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiDataStoreManager;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiTopologyIndex;
+import org.opendaylight.mdsal.binding.api.DataBroker;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connection.ConnectionEndPoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connection.LowerConnection;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.Connection;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectivityService;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.path.computation.rev200423.path.computation.context.Path;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.service.routes.ServiceRoute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+
+// Creation and deletion of many connectivity-services in one request:
+// - the paths are computed in parallel
+// - the NEPs of all the services are locked together
+// - CEPs, connectivity-services, connections and routes are written (or deleted) in a single transaction
+// - the devices are configured with one task per node, running the services of that node in sequence
+// Each service has its own result: a failure (e.g. no path, VLAN in use, device error) does not stop the others.
+public class BulkProvisioningService {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkProvisioningService.class);
+    private DataBroker dataBroker;
+    private PathComputationEngine pce;
+    private TapiTopologyIndex topologyIndex;
+    private ResourceLocks resourceLocks;
+    private VlanPool vlanPool;
+    private NodeTaskExecutor nodeTaskExecutor;
+    private DeviceCommitBatcher commitBatcher;
+    // devices configured before the datastore is updated, and restored for the services that fail
+    private boolean atomic;
+    private IntentJournal intentJournal;
+    private MountpointManager mountpointManager;
+    private DeviceConfigCache deviceConfigCache;
+    private ProvisioningService provisioningService;
+
+    public static final class CreateRequest {
+        private final String id;
+        private final String srcSip;
+        private final String dstSip;
+        private final Integer vlan;
+
+        // vlan is null if it has to be assigned
+        public CreateRequest(String id, String srcSip, String dstSip, Integer vlan) {
+            this.id = id;
+            this.srcSip = srcSip;
+            this.dstSip = dstSip;
+            this.vlan = vlan;
+        }
+    }
+
+    public static final class ItemResult {
+        private final String id;
+        private String csUuid;
+        private Integer vlan;
+        private volatile String error;
+
+        private ItemResult(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getConnectivityServiceUuid() {
+            return csUuid;
+        }
+
+        public Integer getVlan() {
+            return vlan;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        private void fail(String error) {
+            if (this.error == null)
+                this.error = error;
+        }
+
+        // Detail added to the error of a failed service
+        private void addError(String detail) {
+            this.error = this.error == null ? detail : this.error + ", " + detail;
+        }
+    }
+
+    // State of a service while it is processed
+    private static final class Item {
+        private final ItemResult result;
+        private CreateRequest request;
+        private Path path;
+        private ConnectivityService cs;
+        private ArrayList<NodeEdgePoint> traversedNEPs;
+        private List<String> nepKeys = new ArrayList<>();
+        private Set<String> nodes = new LinkedHashSet<>();
+        private List<Uuid> connectionUuids = new ArrayList<>();
+        // CEPs of the route of the top connection, deleted with the connectivity-service
+        private List<org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.route.ConnectionEndPoint> routeCeps = new ArrayList<>();
+        private ServiceRoute route;
+        // CEPs and connections written with the connectivity-service
+        private ArrayList<ConnectionEndPoint> ceps;
+        private List<Connection> connections;
+        private VLANProvisioning vlanProvisioning;
+
+        private Item(String id) {
+            this.result = new ItemResult(id);
+        }
+
+        private boolean isFailed() {
+            return !result.isSuccess();
+        }
+    }
+
+    // provisioningService is the one of the single requests, sharing with them locks, VLANs and intents
+    public BulkProvisioningService(DataBroker db, MountpointManager mountpointManager,
+                                   DeviceConfigCache deviceConfigCache, PathComputationEngine pce,
+                                   TapiTopologyIndex topologyIndex, ResourceLocks resourceLocks, VlanPool vlanPool,
+                                   NodeTaskExecutor nodeTaskExecutor, DeviceCommitBatcher commitBatcher, boolean atomic,
+                                   IntentJournal intentJournal, ProvisioningService provisioningService){
+        this.dataBroker = db;
+        this.mountpointManager = mountpointManager;
+        this.deviceConfigCache = deviceConfigCache;
+        this.pce = pce;
+        this.topologyIndex = topologyIndex;
+        this.resourceLocks = resourceLocks;
+        this.vlanPool = vlanPool;
+        this.nodeTaskExecutor = nodeTaskExecutor;
+        this.commitBatcher = commitBatcher;
+        this.atomic = atomic;
+        this.intentJournal = intentJournal;
+        this.provisioningService = provisioningService;
+    }
+
+    // CREATION
+    // The paths are requested all together, the rest is done on the executor when all the PCE answers are received
+    public CompletableFuture<List<ItemResult>> createConnectivityServices(List<CreateRequest> requests, Executor executor){
+        List<Item> items = new ArrayList<>();
+        List<CompletableFuture<Void>> paths = new ArrayList<>();
+        for(CreateRequest request: requests){
+            Item item = new Item(request.id);
+            item.request = request;
+            item.result.vlan = request.vlan;
+            items.add(item);
+            if(!topologyIndex.existSip(request.srcSip) || !topologyIndex.existSip(request.dstSip)){
+                item.result.fail("Request contains non-existent SIP or SIPs");
+                continue;
+            }
+            paths.add(pce.createP2PPath(request.srcSip, request.dstSip)
+                    .handle((path, ex) -> {
+                        if(ex != null)
+                            item.result.fail(errorMessage(ex));
+                        else if(path == null)
+                            item.result.fail("Error computing path");
+                        else
+                            item.path = path;
+                        return null;
+                    }));
+        }
+        return CompletableFuture.allOf(paths.toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync(done -> {
+                    try {
+                        provisionConnectivityServices(items);
+                    } catch (ProvisioningException ex) {
+                        throw new CompletionException(ex);
+                    }
+                    return results(items);
+                }, executor);
+    }
+
+    private void provisionConnectivityServices(List<Item> items) throws ProvisioningException {
+        // Traversed NEPs of each path
+        List<Item> pending = new ArrayList<>();
+        for(Item item: items){
+            if(item.isFailed())
+                continue;
+            ArrayList<String> sipList = new ArrayList<>();
+            sipList.add(item.request.srcSip);
+            sipList.add(item.request.dstSip);
+            try {
+                item.traversedNEPs = PathComputationUtils.buildTraversedNEPList(topologyIndex,item.path,sipList);
+                collectNeps(item);
+                provisioningService.checkNodesAvailable(item.nodes);
+            } catch (ProvisioningException | PathComputationException ex) {
+                item.result.fail(ex.getMessage());
+                continue;
+            }
+            pending.add(item);
+        }
+        if(pending.isEmpty())
+            return;
+
+        List<Lock> locks = provisioningService.lockNeps(allNepKeys(pending));
+        try {
+            // VLAN reservation, CEPs, connectivity-services, connections and routes of all the services
+            List<Item> reserved = new ArrayList<>();
+            for(Item item: pending){
+                try {
+                    item.result.vlan = provisioningService.reserveVLAN(item.nepKeys,item.result.vlan);
+                } catch (ProvisioningException ex) {
+                    item.result.fail(ex.getMessage());
+                    continue;
+                }
+                reserved.add(item);
+                CreateRequest request = item.request;
+                String vlanId = String.valueOf(item.result.vlan);
+                Uuid csUuid = new Uuid(UUID.randomUUID().toString());
+                Uuid topLevelConnectionUuid = new Uuid(UUID.randomUUID().toString());
+                item.ceps = TapiConnectivityContextUtils.createCEPs(csUuid,item.traversedNEPs);
+                item.connections = TapiConnectivityContextUtils.createConnections(item.ceps,topLevelConnectionUuid);
+                item.cs = TapiConnectivityContextUtils.createConnectivityService(request.srcSip,request.dstSip,
+                        topLevelConnectionUuid,csUuid,item.path.getUuid().getValue(),vlanId);
+                item.route = TapiConnectivityContextUtils.createServiceRoute(csUuid,item.path.getUuid().getValue(),item.traversedNEPs);
+                item.vlanProvisioning = new VLANProvisioning(mountpointManager,deviceConfigCache,nodeTaskExecutor,
+                        commitBatcher,item.traversedNEPs,vlanId);
+            }
+            if(reserved.isEmpty())
+                return;
+            // INTENT JOURNAL, the intents of all the services are forced to disk together
+            if(!beginIntents(reserved,IntentJournal.Type.CREATE)){
+                for(Item item: reserved)
+                    vlanPool.release(item.nepKeys,item.result.vlan);
+                return;
+            }
+            if(atomic)
+                provisionAtomically(reserved);
+            else
+                provision(reserved);
+        } finally {
+            leaveToRecovery(pending);
+            resourceLocks.unlock(locks);
+        }
+    }
+
+    // Datastore first, then devices
+    private void provision(List<Item> reserved) {
+        if(!writeServices(reserved)){
+            intentJournal.endAll(intentIds(reserved));
+            for(Item item: reserved){
+                vlanPool.release(item.nepKeys,item.result.vlan);
+            }
+            return;
+        }
+        recordPhase(reserved,IntentJournal.Phase.STORED);
+        // DEVICE CONFIGURATION
+        // The intents of the services whose devices fail stay open, they are removed by the recovery
+        Map<Item, Map<String, NodeTask>> tasks = new LinkedHashMap<>();
+        for(Item item: reserved)
+            tasks.put(item, item.vlanProvisioning.createVLANTasks());
+        runGroupedByNode(tasks);
+        List<Item> configured = succeeded(reserved);
+        recordPhase(configured,IntentJournal.Phase.CONFIGURED);
+        intentJournal.endAll(intentIds(configured));
+    }
+
+    // Devices first: the nodes of a failed service are restored and only the services configured
+    // on all their nodes are written in the datastore
+    private void provisionAtomically(List<Item> reserved) {
+        Map<Item, Map<String, NodeTask>> tasks = new LinkedHashMap<>();
+        for(Item item: reserved)
+            tasks.put(item, item.vlanProvisioning.createVLANTasks());
+        runGroupedByNode(tasks);
+
+        List<Item> configured = succeeded(reserved);
+        for(Item item: reserved){
+            if(item.isFailed())
+                rollback(item);
+        }
+        if(configured.isEmpty())
+            return;
+        recordPhase(configured,IntentJournal.Phase.CONFIGURED);
+        if(writeServices(configured)){
+            recordPhase(configured,IntentJournal.Phase.STORED);
+            intentJournal.endAll(intentIds(configured));
+            return;
+        }
+        for(Item item: configured)
+            rollback(item);
+    }
+
+    // Restore the devices of a failed service, close its intent and release its VLAN.
+    // If a node could not be restored the intent stays open and the VLAN reserved, until the recovery removes it
+    private void rollback(Item item) {
+        if(!item.vlanProvisioning.rollbackVLAN()){
+            item.result.addError("the VLAN could not be removed from all the devices and will be removed by the recovery");
+            return;
+        }
+        intentJournal.end(item.cs.getUuid().getValue());
+        vlanPool.release(item.nepKeys,item.result.vlan);
+    }
+
+    // The intents still open when the request ends are left to the recovery, their VLANs stay reserved
+    private void leaveToRecovery(List<Item> items) {
+        for(Item item: items){
+            if(item.cs != null && intentJournal.isOpen(item.cs.getUuid().getValue()))
+                intentJournal.leaveToRecovery(item.cs.getUuid().getValue());
+        }
+    }
+
+    // Record the intents of the services with a single force, if the journal fails all the services fail
+    private boolean beginIntents(List<Item> items, IntentJournal.Type type) {
+        List<IntentJournal.Intent> intents = new ArrayList<>();
+        for(Item item: items)
+            intents.add(new IntentJournal.Intent(item.cs.getUuid().getValue(),type,item.result.vlan,item.traversedNEPs));
+        try {
+            intentJournal.beginAll(intents);
+            return true;
+        } catch (ProvisioningException ex) {
+            intentJournal.endAll(intentIds(items));
+            for(Item item: items){
+                item.result.fail(ex.getMessage());
+            }
+            return false;
+        }
+    }
+
+    // The phase is only needed by the recovery, if it cannot be recorded the services go on
+    private void recordPhase(List<Item> items, IntentJournal.Phase phase) {
+        if(items.isEmpty())
+            return;
+        List<String> ids = intentIds(items);
+        try {
+            intentJournal.phaseAll(ids,phase);
+        } catch (ProvisioningException ex) {
+            LOG.error("BulkProvisioningService - error recording phase "+phase+" of "+ids.size()+" intents: "+ex.getMessage());
+        }
+    }
+
+    // The intent of a service has the UUID of the connectivity-service
+    private static List<String> intentIds(List<Item> items) {
+        List<String> ids = new ArrayList<>();
+        for(Item item: items)
+            ids.add(item.cs.getUuid().getValue());
+        return ids;
+    }
+
+    private static List<Item> succeeded(List<Item> items) {
+        List<Item> succeeded = new ArrayList<>();
+        for(Item item: items){
+            if(!item.isFailed())
+                succeeded.add(item);
+        }
+        return succeeded;
+    }
+
+    // CEPs, connectivity-services, connections and routes of all the services in one transaction.
+    // If it fails all the services fail
+    private boolean writeServices(List<Item> items) {
+        List<ConnectionEndPoint> allCeps = new ArrayList<>();
+        List<ConnectivityService> services = new ArrayList<>();
+        List<Connection> allConnections = new ArrayList<>();
+        List<ServiceRoute> routes = new ArrayList<>();
+        for(Item item: items){
+            allCeps.addAll(item.ceps);
+            services.add(item.cs);
+            allConnections.addAll(item.connections);
+            routes.add(item.route);
+        }
+        if(!TapiDataStoreManager.createConnectivityServices(dataBroker,allCeps,services,allConnections,routes)){
+            for(Item item: items)
+                item.result.fail("Error writing the connectivity-services");
+            return false;
+        }
+        for(Item item: items)
+            item.result.csUuid = item.cs.getUuid().getValue();
+        return true;
+    }
+
+    // DELETION
+    public CompletableFuture<List<ItemResult>> deleteConnectivityServices(List<String> csUuids, Executor executor){
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return removeConnectivityServices(csUuids);
+            } catch (ProvisioningException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    private List<ItemResult> removeConnectivityServices(List<String> csUuids) throws ProvisioningException {
+        List<Item> items = new ArrayList<>();
+        List<Item> pending = new ArrayList<>();
+        for(String csUuid: new LinkedHashSet<>(csUuids)){
+            Item item = new Item(csUuid);
+            items.add(item);
+            // connectivity-service, top level connection and route (null for the services created without it)
+            item.cs = TapiDataStoreManager.readConnectivityService(dataBroker,csUuid);
+            if(item.cs == null){
+                item.result.fail("Connectivity-service with UUID "+csUuid+" does not exist");
+                continue;
+            }
+            // a stored service without connections fails alone, the other services of the request are removed
+            if(item.cs.getConnection() == null || item.cs.getConnection().isEmpty()){
+                item.result.fail("Connectivity-service with UUID "+csUuid+" has no connection");
+                continue;
+            }
+            Uuid topConnectionUuid = item.cs.getConnection().get(0).getConnectionUuid();
+            Connection topConnection = TapiDataStoreManager.readConnection(dataBroker,topConnectionUuid.getValue());
+            if(topConnection == null){
+                item.result.fail("Top level connection "+topConnectionUuid.getValue()+" not found");
+                continue;
+            }
+            if(topConnection.getRoute() == null || topConnection.getRoute().isEmpty()
+                    || topConnection.getRoute().get(0).getConnectionEndPoint() == null){
+                item.result.fail("Top level connection "+topConnectionUuid.getValue()+" has no route");
+                continue;
+            }
+            item.connectionUuids.add(topConnectionUuid);
+            if(topConnection.getLowerConnection() != null){
+                for(LowerConnection lwc: topConnection.getLowerConnection())
+                    item.connectionUuids.add(lwc.getConnectionUuid());
+            }
+            item.route = TapiDataStoreManager.readServiceRoute(dataBroker,csUuid);
+            List<org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.route.ConnectionEndPoint> routeCeps =
+                    topConnection.getRoute().get(0).getConnectionEndPoint();
+            for(org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.route.ConnectionEndPoint cep: routeCeps){
+                item.nepKeys.add(ResourceLocks.nepKey(cep.getNodeUuid(),cep.getNodeEdgePointUuid()));
+                item.nodes.add(cep.getNodeUuid().getValue());
+            }
+            item.routeCeps = routeCeps;
+            try {
+                item.result.vlan = Integer.valueOf(provisioningService.getVLAN(item.cs.getEndPoint().get(0)));
+                provisioningService.checkNodesAvailable(item.nodes);
+            } catch (ProvisioningException | NumberFormatException ex) {
+                item.result.fail(ex.getMessage());
+                continue;
+            }
+            pending.add(item);
+        }
+        if(pending.isEmpty())
+            return results(items);
+
+        List<Lock> locks = provisioningService.lockNeps(allNepKeys(pending));
+        try {
+            // another request could have removed the same connectivity-services while waiting for the locks
+            List<Item> removed = new ArrayList<>();
+            List<String> removedUuids = new ArrayList<>();
+            List<Uuid> connectionUuids = new ArrayList<>();
+            List<org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.route.ConnectionEndPoint> routeCeps = new ArrayList<>();
+            for(Item item: pending){
+                if(!TapiDataStoreManager.existConnectivityService(dataBroker,item.result.id)){
+                    item.result.fail("Connectivity-service with UUID "+item.result.id+" does not exist");
+                    continue;
+                }
+                // NEPs where the VLAN has to be removed, needed by the intent before deleting anything
+                try {
+                    item.traversedNEPs = item.route != null && item.route.getTraversedNep() != null
+                            ? TapiConnectivityContextUtils.getTraversedNEPs(item.route)
+                            : provisioningService.getTraversedNEPsFromPCE(item.cs);
+                } catch (ProvisioningException | PathComputationException ex) {
+                    item.result.fail(ex.getMessage());
+                    continue;
+                }
+                removed.add(item);
+                removedUuids.add(item.result.id);
+                connectionUuids.addAll(item.connectionUuids);
+                routeCeps.addAll(item.routeCeps);
+            }
+            if(removed.isEmpty())
+                return results(items);
+            // INTENT JOURNAL, once recorded a failed or interrupted deletion is completed by the recovery
+            if(!beginIntents(removed,IntentJournal.Type.DELETE))
+                return results(items);
+            if(!TapiDataStoreManager.deleteConnectivityServices(dataBroker,removedUuids,connectionUuids,routeCeps)){
+                intentJournal.endAll(intentIds(removed));
+                for(Item item: removed){
+                    item.result.fail("Error deleting the connectivity-services");
+                }
+                return results(items);
+            }
+            recordPhase(removed,IntentJournal.Phase.STORED);
+
+            // DEVICE CONFIGURATION
+            Map<Item, Map<String, NodeTask>> tasks = new LinkedHashMap<>();
+            for(Item item: removed){
+                VLANProvisioning vlanProvisioning = new VLANProvisioning(mountpointManager,deviceConfigCache,nodeTaskExecutor,
+                        commitBatcher,item.traversedNEPs,String.valueOf(item.result.vlan));
+                tasks.put(item, vlanProvisioning.deleteVLANTasks());
+            }
+            runGroupedByNode(tasks);
+            // the VLAN is free again on the NEPs of the services removed from all the devices,
+            // for the others it stays reserved and the intent open until the recovery
+            List<Item> deleted = succeeded(removed);
+            intentJournal.endAll(intentIds(deleted));
+            for(Item item: deleted){
+                vlanPool.release(item.nepKeys,item.result.vlan);
+            }
+        } finally {
+            leaveToRecovery(pending);
+            resourceLocks.unlock(locks);
+        }
+        return results(items);
+    }
+
+    // DEVICE TASKS
+    // One task per node, running in sequence the configuration of each service traversing the node.
+    // The failure of a service is recorded in its result, the other services of the node go on
+    private void runGroupedByNode(Map<Item, Map<String, NodeTask>> tasks) {
+        Map<String, List<Runnable>> nodeSteps = new LinkedHashMap<>();
+        for(Map.Entry<Item, Map<String, NodeTask>> itemTasks: tasks.entrySet()){
+            Item item = itemTasks.getKey();
+            for(Map.Entry<String, NodeTask> task: itemTasks.getValue().entrySet()){
+                nodeSteps.computeIfAbsent(task.getKey(), k -> new ArrayList<>()).add(() -> {
+                    try {
+                        task.getValue().run();
+                    } catch (ProvisioningException | RuntimeException ex) {
+                        LOG.error("BulkProvisioningService - service "+item.result.id+" failed on node "+task.getKey()+": "+ex.getMessage());
+                        item.result.fail("Node "+task.getKey()+": "+ex.getMessage());
+                    }
+                });
+            }
+        }
+        Map<String, NodeTask> nodeTasks = new LinkedHashMap<>();
+        for(Map.Entry<String, List<Runnable>> steps: nodeSteps.entrySet()){
+            nodeTasks.put(steps.getKey(), () -> {
+                for(Runnable step: steps.getValue())
+                    step.run();
+            });
+        }
+        LOG.info("BulkProvisioningService - configuring "+tasks.size()+" connectivity-services on "+nodeTasks.size()+" nodes");
+        try {
+            nodeTaskExecutor.runAll(nodeTasks);
+        } catch (ProvisioningException ex) {
+            // the steps do not throw, only an interrupted wait gets here
+            for(Item item: tasks.keySet())
+                item.result.fail(ex.getMessage());
+        }
+    }
+
+    private static void collectNeps(Item item){
+        for(NodeEdgePoint nep: item.traversedNEPs){
+            item.nepKeys.add(ResourceLocks.nepKey(nep.getNodeUuid(),nep.getNodeEdgePointUuid()));
+            item.nodes.add(nep.getNodeUuid().getValue());
+        }
+    }
+
+    private static List<String> allNepKeys(List<Item> items){
+        Set<String> nepKeys = new LinkedHashSet<>();
+        for(Item item: items)
+            nepKeys.addAll(item.nepKeys);
+        return new ArrayList<>(nepKeys);
+    }
+
+    private static List<ItemResult> results(List<Item> items){
+        List<ItemResult> results = new ArrayList<>();
+        for(Item item: items)
+            results.add(item.result);
+        return results;
+    }
+
+    private static String errorMessage(Throwable ex){
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        return cause.getMessage();
+    }
+}
@@ -0,0 +1,335 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.nextworks.provisioningappcomplete.impl.netconf.MountpointManager;
+import it.nextworks.provisioningappcomplete.impl.netconf.NodeAvailabilityListener;
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiTopologyIndex;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.SubNetwork;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.sub.network.NetworkElement;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.sub.network.NetworkElementKey;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.sub.network.network.element.Shelf;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.sub.network.network.element.ShelfKey;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.sub.network.network.element.shelf.Slot;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.sub.network.network.element.shelf.SlotKey;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.sub.network.network.element.shelf.slot.Card;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.facility.rev200710.Card1;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.facility.rev200710.sub.network.network.element.shelf.slot.card.EthernetCard;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.facility.rev200710.sub.network.network.element.shelf.slot.card.ethernet.card.EthernetPort;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.facility.rev200710.sub.network.network.element.shelf.slot.card.ethernet.card.EthernetPortKey;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.NetworkElement1;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.sub.network.network.element.MpFlow;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Node;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Cache of the configuration read from the Adva devices: eth-ports and mp-flow lists.
+// - entries are loaded at mount time (warm-up on the NEPs of the node) or on the first miss, only from the nodes
+//   connected according to the MountpointManager: a node not connected is an error, not a missing entry
+// - our own commits update the cache (write-through), a failed commit invalidates the node.
+//   A read from the device started before a write-through does not overwrite it: the mp-flows of a network element
+//   are loaded and written through holding the lock of the network element, an eth-port read is not stored
+//   if the eth-port has been written through meanwhile
+// - a node is invalidated when it disconnects or reconnects, and each entry expires after the TTL,
+//   so changes made on the device by others are seen at most TTL seconds later
+// - mp-flows are indexed also by flowpoint, to find the flow of a connectivity-service without scanning the list
+// - the IDs of the mp-flows are allocated locally, seeded from the device each time its mp-flows are read
+//   (see MpFlowIdAllocator)
+public class DeviceConfigCache implements NodeAvailabilityListener, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceConfigCache.class);
+    // the devices are read through the shared MountpointManager, which knows the nodes connected
+    private final MountpointManager mountpointManager;
+    private final TapiTopologyIndex topologyIndex;
+    private final long ttlMillis;
+    private final Map<String, NodeConfig> nodes = new ConcurrentHashMap<>();
+    private final ExecutorService warmUpExecutor;
+    private final MpFlowIdAllocator mpFlowIds = new MpFlowIdAllocator();
+    // one lock for the mp-flows of each network element ("node/ne"), kept when the node is invalidated
+    private final Map<String, Object> mpFlowLocks = new ConcurrentHashMap<>();
+
+    private static final class Entry<T> {
+        private final T value;
+        private final long loadedAt;
+
+        private Entry(T value) {
+            this.value = value;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+
+    // mp-flows of a network element by flow id, with the reverse index flowpoint -> flow id
+    private static final class MpFlowTable {
+        private final Map<Long, MpFlow> flows = new ConcurrentHashMap<>();
+        private final Map<InstanceIdentifier<?>, Long> flowIdByFlowpoint = new ConcurrentHashMap<>();
+
+        private synchronized void put(MpFlow flow) {
+            remove(flow.getMpFlowId());
+            flows.put(flow.getMpFlowId(), flow);
+            if (flow.getFlowpoint() != null) {
+                for (InstanceIdentifier<?> flowpoint : flow.getFlowpoint())
+                    flowIdByFlowpoint.put(flowpoint, flow.getMpFlowId());
+            }
+        }
+
+        private synchronized void remove(Long flowId) {
+            MpFlow removed = flows.remove(flowId);
+            if (removed != null && removed.getFlowpoint() != null) {
+                for (InstanceIdentifier<?> flowpoint : removed.getFlowpoint())
+                    flowIdByFlowpoint.remove(flowpoint, flowId);
+            }
+        }
+
+        // The flow of the first flowpoint, if it is made of exactly the given flowpoints
+        private Long find(List<InstanceIdentifier<?>> flowpoints) {
+            Long flowId = flowIdByFlowpoint.get(flowpoints.get(0));
+            MpFlow flow = flowId == null ? null : flows.get(flowId);
+            if (flow == null || flow.getFlowpoint() == null || flow.getFlowpoint().size() != flowpoints.size())
+                return null;
+            return new HashSet<>(flow.getFlowpoint()).equals(new HashSet<>(flowpoints)) ? flowId : null;
+        }
+    }
+
+    // eth-ports by "ne-shelf-slot-port" and mp-flows by network element
+    private static final class NodeConfig {
+        private final Map<String, Entry<EthernetPort>> ethernetPorts = new ConcurrentHashMap<>();
+        private final Map<Long, Entry<MpFlowTable>> mpFlows = new ConcurrentHashMap<>();
+    }
+
+    public DeviceConfigCache(MountpointManager mountpointManager, TapiTopologyIndex topologyIndex, long ttlSeconds) {
+        this.mountpointManager = mountpointManager;
+        this.topologyIndex = topologyIndex;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.warmUpExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("device-cache-warmup-%d").setDaemon(true).build());
+    }
+
+    // READS
+    public Optional<EthernetPort> getEthernetPort(String nodeId, Long networkElement, Long shelf, Long slot, Long portId)
+            throws ProvisioningException {
+        String key = ethernetPortKey(networkElement, shelf, slot, portId);
+        Entry<EthernetPort> entry = node(nodeId).ethernetPorts.get(key);
+        if (isValid(entry))
+            return Optional.of(entry.value);
+        return readEthernetPort(nodeId, networkElement, shelf, slot, portId);
+    }
+
+    // The eth-port as it is now on the device, bypassing the cache, which is refreshed
+    // unless the eth-port has been written through while reading it
+    public Optional<EthernetPort> readEthernetPort(String nodeId, Long networkElement, Long shelf, Long slot, Long portId)
+            throws ProvisioningException {
+        String key = ethernetPortKey(networkElement, shelf, slot, portId);
+        long readStart = System.currentTimeMillis();
+        Optional<EthernetPort> ethernetPort = mountpointManager.readFromDataStore(
+                ethernetPortIid(networkElement, shelf, slot, portId), nodeId);
+        if (ethernetPort.isPresent())
+            node(nodeId).ethernetPorts.compute(key, (k, cached) -> cached != null && cached.loadedAt >= readStart
+                    ? cached : new Entry<>(ethernetPort.get()));
+        return ethernetPort;
+    }
+
+    // mp-flows of the network element, an empty list if there are none
+    public List<MpFlow> getMultiPointFlows(String nodeId, Long networkElement) throws ProvisioningException {
+        return new ArrayList<>(mpFlowTable(nodeId, networkElement).flows.values());
+    }
+
+    // ID of the mp-flow made of the given flowpoints (in any order), null if there is none
+    public Long findMultiPointFlowId(String nodeId, Long networkElement, List<InstanceIdentifier<?>> flowpoints)
+            throws ProvisioningException {
+        if (flowpoints.isEmpty())
+            return null;
+        return mpFlowTable(nodeId, networkElement).find(flowpoints);
+    }
+
+    // ID of the mp-flow made of the given flowpoints as it is now on the device, the mp-flows are loaded again.
+    // To be used when the flow is not found in the cache but it is expected on the device
+    public Long readMultiPointFlowId(String nodeId, Long networkElement, List<InstanceIdentifier<?>> flowpoints)
+            throws ProvisioningException {
+        if (flowpoints.isEmpty())
+            return null;
+        synchronized (mpFlowLock(nodeId, networkElement)) {
+            return loadMultiPointFlows(nodeId, networkElement).value.find(flowpoints);
+        }
+    }
+
+    private MpFlowTable mpFlowTable(String nodeId, Long networkElement) throws ProvisioningException {
+        Entry<MpFlowTable> entry = node(nodeId).mpFlows.get(networkElement);
+        if (isValid(entry))
+            return entry.value;
+        synchronized (mpFlowLock(nodeId, networkElement)) {
+            // loaded meanwhile by another request
+            entry = node(nodeId).mpFlows.get(networkElement);
+            if (!isValid(entry))
+                entry = loadMultiPointFlows(nodeId, networkElement);
+            return entry.value;
+        }
+    }
+
+    // The IDs found are added to the allocator: the flows created by others since the last read are not reused,
+    // the IDs allocated here and not yet on the device are kept.
+    // Called holding the lock of the network element, so no flow is written through while the table is replaced
+    private Entry<MpFlowTable> loadMultiPointFlows(String nodeId, Long networkElement) throws ProvisioningException {
+        Optional<NetworkElement1> optAugment = mountpointManager.readFromDataStore(multiPointFlowsIid(networkElement), nodeId);
+        MpFlowTable table = new MpFlowTable();
+        List<Long> ids = new ArrayList<>();
+        if (optAugment.isPresent() && optAugment.get().getMpFlow() != null) {
+            for (MpFlow flow : optAugment.get().getMpFlow()) {
+                table.put(flow);
+                ids.add(flow.getMpFlowId());
+            }
+        }
+        mpFlowIds.seed(nodeId, networkElement, ids);
+        Entry<MpFlowTable> entry = new Entry<>(table);
+        node(nodeId).mpFlows.put(networkElement, entry);
+        return entry;
+    }
+
+    // DEVICE READS, for the reconciliation: the cache is neither used nor refreshed, so what is read without
+    // the locks of the NEPs never replaces what the requests wrote through
+    public Optional<EthernetPort> fetchEthernetPort(String nodeId, Long networkElement, Long shelf, Long slot, Long portId)
+            throws ProvisioningException {
+        return mountpointManager.readFromDataStore(ethernetPortIid(networkElement, shelf, slot, portId), nodeId);
+    }
+
+    // mp-flows of the network element on the device, an empty list if there are none
+    public List<MpFlow> fetchMultiPointFlows(String nodeId, Long networkElement) throws ProvisioningException {
+        Optional<NetworkElement1> optAugment = mountpointManager.readFromDataStore(multiPointFlowsIid(networkElement), nodeId);
+        if (optAugment.isPresent() && optAugment.get().getMpFlow() != null)
+            return new ArrayList<>(optAugment.get().getMpFlow());
+        return new ArrayList<>();
+    }
+
+    // MP-FLOW IDS
+    // The allocation is done in memory, the mp-flows are read only if not loaded or expired
+    public Long allocateMultiPointFlowId(String nodeId, Long networkElement) throws ProvisioningException {
+        mpFlowTable(nodeId, networkElement);
+        return mpFlowIds.allocate(nodeId, networkElement);
+    }
+
+    // To be called when the mp-flow with an allocated ID has not been created
+    public void releaseMultiPointFlowId(String nodeId, Long networkElement, Long flowId) {
+        mpFlowIds.release(nodeId, networkElement, flowId);
+    }
+
+    // WRITE-THROUGH, called after a successful commit on the device
+    public void putEthernetPort(String nodeId, Long networkElement, Long shelf, Long slot, Long portId, EthernetPort ethernetPort) {
+        node(nodeId).ethernetPorts.put(ethernetPortKey(networkElement, shelf, slot, portId), new Entry<>(ethernetPort));
+    }
+
+    // A table being loaded is replaced first, then the flow is added to the new one
+    public void putMultiPointFlow(String nodeId, Long networkElement, MpFlow flow) {
+        synchronized (mpFlowLock(nodeId, networkElement)) {
+            Entry<MpFlowTable> entry = node(nodeId).mpFlows.get(networkElement);
+            if (entry != null)
+                entry.value.put(flow);
+        }
+    }
+
+    public void removeMultiPointFlow(String nodeId, Long networkElement, Long flowId) {
+        synchronized (mpFlowLock(nodeId, networkElement)) {
+            Entry<MpFlowTable> entry = node(nodeId).mpFlows.get(networkElement);
+            if (entry != null)
+                entry.value.remove(flowId);
+        }
+        mpFlowIds.release(nodeId, networkElement, flowId);
+    }
+
+    public void invalidate(String nodeId) {
+        if (nodes.remove(nodeId) != null)
+            LOG.info("DeviceConfigCache - configuration of node " + nodeId + " invalidated");
+    }
+
+    // NODE AVAILABILITY
+    // A (re)connected node may have been changed meanwhile: drop what we know and read again its eth-ports
+    @Override
+    public void onNodeAvailable(String nodeId) {
+        invalidate(nodeId);
+        mpFlowIds.clear(nodeId);
+        warmUpExecutor.execute(() -> warmUp(nodeId));
+    }
+
+    @Override
+    public void onNodeUnavailable(String nodeId) {
+        invalidate(nodeId);
+        mpFlowIds.clear(nodeId);
+    }
+
+    // Load the eth-ports of all the NEPs of the node in the topology and the mp-flows of their network elements
+    private void warmUp(String nodeId) {
+        Node node = topologyIndex.getNode(nodeId);
+        if (node == null || node.getOwnedNodeEdgePoint() == null)
+            return;
+        Set<Long> networkElements = new HashSet<>();
+        int loaded = 0;
+        for (OwnedNodeEdgePoint onep : node.getOwnedNodeEdgePoint()) {
+            // NEP Uuid is similar to 1-1-1-1
+            String[] nepInfo = onep.getUuid().getValue().split("-");
+            try {
+                Long networkElement = Long.valueOf(nepInfo[0]);
+                if (getEthernetPort(nodeId, networkElement, Long.valueOf(nepInfo[1]), Long.valueOf(nepInfo[2]),
+                        Long.valueOf(nepInfo[3])).isPresent())
+                    loaded++;
+                if (networkElements.add(networkElement))
+                    mpFlowTable(nodeId, networkElement);
+            } catch (ProvisioningException | RuntimeException e) {
+                LOG.warn("DeviceConfigCache - warmUp: NEP " + onep.getUuid().getValue() + " of node " + nodeId
+                        + " not loaded: " + e.getMessage());
+            }
+        }
+        LOG.info("DeviceConfigCache - warmUp: loaded " + loaded + " eth-ports and the mp-flows of "
+                + networkElements.size() + " network elements for node " + nodeId);
+    }
+
+    private NodeConfig node(String nodeId) {
+        return nodes.computeIfAbsent(nodeId, k -> new NodeConfig());
+    }
+
+    private boolean isValid(Entry<?> entry) {
+        return entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMillis;
+    }
+
+    private Object mpFlowLock(String nodeId, Long networkElement) {
+        return mpFlowLocks.computeIfAbsent(nodeId + "/" + networkElement, k -> new Object());
+    }
+
+    // DEVICE DATASTORE
+    // eth-ports are in the ethernet-card of the card of each slot, mp-flows in the NetworkElement1 augmentation
+    private static InstanceIdentifier<EthernetPort> ethernetPortIid(Long networkElement, Long shelf, Long slot, Long portId) {
+        return InstanceIdentifier.create(SubNetwork.class)
+                .child(NetworkElement.class, new NetworkElementKey(networkElement))
+                .child(Shelf.class, new ShelfKey(shelf))
+                .child(Slot.class, new SlotKey(slot))
+                .child(Card.class)
+                .augmentation(Card1.class)
+                .child(EthernetCard.class)
+                .child(EthernetPort.class, new EthernetPortKey(portId));
+    }
+
+    private static InstanceIdentifier<NetworkElement1> multiPointFlowsIid(Long networkElement) {
+        return InstanceIdentifier.create(SubNetwork.class)
+                .child(NetworkElement.class, new NetworkElementKey(networkElement))
+                .augmentation(NetworkElement1.class);
+    }
+
+    private static String ethernetPortKey(Long networkElement, Long shelf, Long slot, Long portId) {
+        return networkElement + "-" + shelf + "-" + slot + "-" + portId;
+    }
+
+    @Override
+    public void close() {
+        warmUpExecutor.shutdownNow();
+        nodes.clear();
+    }
+}
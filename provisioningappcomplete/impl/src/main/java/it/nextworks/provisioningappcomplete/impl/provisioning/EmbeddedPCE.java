@@ -0,0 +1,81 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.PathComputationException;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiTopologyIndex;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.ForwardingDirection;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.path.computation.rev200423.path.Link;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.path.computation.rev200423.path.LinkBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.path.computation.rev200423.path.computation.context.Path;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.path.computation.rev200423.path.computation.context.PathBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+// In-process PCE: computes the minimum hop path between 2 SIPs directly on the TAPI topology
+// indexed by TapiTopologyIndex, avoiding the round trips towards the external PCE.
+// The computed paths are not kept: the traversed NEPs of a connectivity-service are stored with its route,
+// so a path is never asked again and getP2PPath finds nothing.
+public class EmbeddedPCE implements PathComputationEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedPCE.class);
+    private final TapiTopologyIndex topologyIndex;
+
+    public EmbeddedPCE(TapiTopologyIndex topologyIndex) {
+        this.topologyIndex = topologyIndex;
+    }
+
+    @Override
+    public CompletableFuture<Path> createP2PPath(String sip1, String sip2) {
+        try {
+            return CompletableFuture.completedFuture(computeP2PPath(sip1, sip2));
+        } catch (PathComputationException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    private Path computeP2PPath(String sip1, String sip2) throws PathComputationException {
+        TopologyGraph graph = topologyIndex.getGraph();
+        int src = graph.nodeOfSip(sip1);
+        int dst = graph.nodeOfSip(sip2);
+        if (src < 0 || dst < 0) {
+            throw new PathComputationException("SIPs " + sip1 + " and " + sip2 + " are not mapped on any node");
+        }
+        int[] linkSequence = graph.shortestPath(src, dst);
+        if (linkSequence == null) {
+            throw new PathComputationException("No path between " + sip1 + " and " + sip2);
+        }
+
+        ArrayList<Link> linkList = new ArrayList<>(linkSequence.length);
+        for (int link : linkSequence) {
+            linkList.add(new LinkBuilder()
+                    .setTopologyUuid(graph.getLinkTopologyUuid(link))
+                    .setLinkUuid(new Uuid(graph.getLinkUuid(link)))
+                    .build());
+        }
+        Path path = new PathBuilder()
+                .setUuid(new Uuid(UUID.randomUUID().toString()))
+                .setLink(linkList)
+                .setDirection(ForwardingDirection.BIDIRECTIONAL)
+                .build();
+        LOG.info("EmbeddedPCE - computed path " + path.getUuid().getValue() + " between " + sip1 + " and " + sip2
+                + " with " + linkList.size() + " links");
+        return path;
+    }
+
+    @Override
+    public CompletableFuture<Path> getP2PPath(String pathId) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteP2PPath(String pathId) {
+        return CompletableFuture.completedFuture(false);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,340 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePointBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Write-ahead journal of the provisioning intents, in an append-only memory-mapped file.
+// An intent is recorded (BEGIN, with the VLAN and the traversed NEPs) before touching the datastore or a device,
+// then each phase reached is appended, so after a restart the unfinished intents are known without auditing the devices.
+// A record is [length][crc32][payload]: a zero length is the end of the journal, a wrong crc a torn write.
+// Every record is forced to disk before the call returns, in batches: a force covers all the records appended before it,
+// so the threads waiting for the same force share it.
+// When the file is full, or when it is opened, it is rewritten with only the unfinished intents.
+public class IntentJournal implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(IntentJournal.class);
+    private static final int RECORD_HEADER = 8;
+    private static final String SEPARATOR = "|";
+    private static final String NEP_SEPARATOR = ";";
+    private static final String NEP_FIELD_SEPARATOR = ",";
+
+    public enum Type { CREATE, DELETE }
+
+    public enum Phase {
+        BEGIN,
+        // the connectivity-service is written in the datastore
+        STORED,
+        // the VLAN is configured on all the devices
+        CONFIGURED,
+        // the intent is completed or rolled back
+        END
+    }
+
+    // An unfinished provisioning operation on a connectivity-service
+    public static final class Intent {
+        private final String id;
+        private final Type type;
+        private final int vlan;
+        private final List<NodeEdgePoint> traversedNEPs;
+        private final Set<Phase> phases = EnumSet.of(Phase.BEGIN);
+
+        public Intent(String id, Type type, int vlan, List<NodeEdgePoint> traversedNEPs) {
+            this.id = id;
+            this.type = type;
+            this.vlan = vlan;
+            this.traversedNEPs = new ArrayList<>(traversedNEPs);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getVlan() {
+            return vlan;
+        }
+
+        public ArrayList<NodeEdgePoint> getTraversedNEPs() {
+            return new ArrayList<>(traversedNEPs);
+        }
+
+        public boolean reached(Phase phase) {
+            return phases.contains(phase);
+        }
+    }
+
+    private final Path path;
+    private final int size;
+    private FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+    private final Map<String, Intent> openIntents = new LinkedHashMap<>();
+    // open intents of the requests that failed, not taken by the recovery yet
+    private final Set<String> leftToRecovery = new LinkedHashSet<>();
+    // records appended and records forced to disk, as sequence numbers
+    private volatile long written;
+    private volatile long synced;
+    private final Object syncLock = new Object();
+
+    public IntentJournal(String path, int size) {
+        this.path = Paths.get(path);
+        this.size = size;
+    }
+
+    // Read the journal left by the previous run and return its unfinished intents.
+    // The journal is then compacted, so it contains only these intents
+    public synchronized List<Intent> open() throws ProvisioningException {
+        if (Files.exists(path)) {
+            try (FileChannel previous = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer content = previous.map(FileChannel.MapMode.READ_ONLY, 0, previous.size());
+                int records = 0;
+                String payload;
+                while ((payload = readRecord(content)) != null) {
+                    apply(payload);
+                    records++;
+                }
+                LOG.info("IntentJournal - open: " + records + " records read, " + openIntents.size() + " unfinished intents");
+            } catch (IOException | RuntimeException ex) {
+                throw new ProvisioningException("Error reading the intent journal " + path + ": " + ex.getMessage());
+            }
+        }
+        compact();
+        return new ArrayList<>(openIntents.values());
+    }
+
+    // Record a new intent, it returns when the record is on disk
+    public void begin(Intent intent) throws ProvisioningException {
+        beginAll(Collections.singletonList(intent));
+    }
+
+    // Record several intents with a single force
+    public void beginAll(Collection<Intent> intents) throws ProvisioningException {
+        long seq = 0;
+        for (Intent intent : intents)
+            seq = append(intent, encode(intent));
+        sync(seq);
+    }
+
+    // Record the phase reached by an intent, it returns when the record is on disk
+    public void phase(String id, Phase phase) throws ProvisioningException {
+        phaseAll(Collections.singletonList(id), phase);
+    }
+
+    public void phaseAll(Collection<String> ids, Phase phase) throws ProvisioningException {
+        long seq = 0;
+        for (String id : ids)
+            seq = append(null, phase.name() + SEPARATOR + id);
+        sync(seq);
+    }
+
+    // Close the intent, it returns when the record is on disk. A lost END would be recovered again after a restart,
+    // removing from the devices a VLAN that another connectivity-service may have taken meanwhile on the same NEPs
+    public void end(String id) {
+        endAll(Collections.singletonList(id));
+    }
+
+    // Close several intents with a single force
+    public void endAll(Collection<String> ids) {
+        try {
+            long seq = 0;
+            for (String id : ids)
+                seq = append(null, Phase.END.name() + SEPARATOR + id);
+            sync(seq);
+        } catch (ProvisioningException ex) {
+            LOG.error("IntentJournal - end: " + ex.getMessage());
+        }
+    }
+
+    // A request failed leaving its intent open: the intent is handed to the recovery, which completes or rolls it back
+    public synchronized void leaveToRecovery(String id) {
+        if (openIntents.containsKey(id))
+            leftToRecovery.add(id);
+    }
+
+    // The intents left to the recovery since the last call, and still open
+    public synchronized List<Intent> takeIntentsLeftToRecovery() {
+        List<Intent> intents = new ArrayList<>();
+        for (String id : leftToRecovery) {
+            Intent intent = openIntents.get(id);
+            if (intent != null)
+                intents.add(intent);
+        }
+        leftToRecovery.clear();
+        return intents;
+    }
+
+    public synchronized boolean isOpen(String id) {
+        return openIntents.containsKey(id);
+    }
+
+    // The intents in progress or not recovered yet
+    public synchronized List<Intent> getOpenIntents() {
+        return new ArrayList<>(openIntents.values());
+    }
+
+    private synchronized long append(Intent intent, String payload) throws ProvisioningException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < RECORD_HEADER + bytes.length + 4) {
+            compact();
+            if (buffer.remaining() < RECORD_HEADER + bytes.length + 4)
+                throw new ProvisioningException("Intent journal full");
+        }
+        if (intent != null)
+            openIntents.put(intent.id, intent);
+        else
+            apply(payload);
+        writeRecord(bytes);
+        return ++written;
+    }
+
+    private void writeRecord(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        // the length is written last, so a record is never seen before its payload
+        int start = buffer.position();
+        buffer.position(start + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(bytes);
+        buffer.putInt(start, bytes.length);
+    }
+
+    private void sync(long seq) throws ProvisioningException {
+        synchronized (syncLock) {
+            // forced by another thread meanwhile
+            if (synced >= seq)
+                return;
+            long target = written;
+            try {
+                buffer.force();
+            } catch (RuntimeException ex) {
+                throw new ProvisioningException("Error writing the intent journal: " + ex.getMessage());
+            }
+            synced = target;
+        }
+    }
+
+    // Rewrite the journal with the unfinished intents (and the phases they reached) in a new file,
+    // which replaces the current one only when it is complete on disk
+    private synchronized void compact() throws ProvisioningException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            FileChannel newChannel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            FileChannel oldChannel = channel;
+            synchronized (syncLock) {
+                buffer = newBuffer;
+                channel = newChannel;
+                for (Intent intent : openIntents.values()) {
+                    writeRecord(encode(intent).getBytes(StandardCharsets.UTF_8));
+                    for (Phase phase : intent.phases) {
+                        if (phase != Phase.BEGIN)
+                            writeRecord((phase.name() + SEPARATOR + intent.id).getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                newBuffer.force();
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                synced = written;
+            }
+            if (oldChannel != null)
+                oldChannel.close();
+            LOG.info("IntentJournal - compact: " + openIntents.size() + " unfinished intents kept");
+        } catch (IOException | BufferOverflowException ex) {
+            throw new ProvisioningException("Error compacting the intent journal: " + ex);
+        }
+    }
+
+    // Update the unfinished intents with a record read from the file or just appended
+    private void apply(String payload) {
+        String[] fields = payload.split("\\" + SEPARATOR, -1);
+        Phase phase = Phase.valueOf(fields[0]);
+        String id = fields[1];
+        if (phase == Phase.BEGIN) {
+            List<NodeEdgePoint> neps = new ArrayList<>();
+            if (!fields[4].isEmpty()) {
+                for (String nep : fields[4].split(NEP_SEPARATOR)) {
+                    String[] nepFields = nep.split(NEP_FIELD_SEPARATOR);
+                    neps.add(new NodeEdgePointBuilder()
+                            .setTopologyUuid(new Uuid(nepFields[0]))
+                            .setNodeUuid(new Uuid(nepFields[1]))
+                            .setNodeEdgePointUuid(new Uuid(nepFields[2]))
+                            .build());
+                }
+            }
+            openIntents.put(id, new Intent(id, Type.valueOf(fields[2]), Integer.parseInt(fields[3]), neps));
+        } else if (phase == Phase.END) {
+            openIntents.remove(id);
+        } else {
+            Intent intent = openIntents.get(id);
+            if (intent != null)
+                intent.phases.add(phase);
+        }
+    }
+
+    private static String encode(Intent intent) {
+        List<String> neps = new ArrayList<>();
+        for (NodeEdgePoint nep : intent.traversedNEPs)
+            neps.add(nep.getTopologyUuid().getValue() + NEP_FIELD_SEPARATOR + nep.getNodeUuid().getValue()
+                    + NEP_FIELD_SEPARATOR + nep.getNodeEdgePointUuid().getValue());
+        return Phase.BEGIN.name() + SEPARATOR + intent.id + SEPARATOR + intent.type.name() + SEPARATOR + intent.vlan
+                + SEPARATOR + String.join(NEP_SEPARATOR, neps);
+    }
+
+    // Next valid record of the buffer, null at the end of the journal or at a torn record
+    private static String readRecord(ByteBuffer content) {
+        if (content.remaining() < RECORD_HEADER)
+            return null;
+        int length = content.getInt();
+        int crc = content.getInt();
+        if (length <= 0 || length > content.remaining())
+            return null;
+        byte[] bytes = new byte[length];
+        content.get(bytes);
+        CRC32 check = new CRC32();
+        check.update(bytes);
+        if ((int) check.getValue() != crc) {
+            LOG.warn("IntentJournal - open: torn record at position " + (content.position() - length - RECORD_HEADER));
+            return null;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (buffer != null)
+                buffer.force();
+            if (channel != null)
+                channel.close();
+        } catch (IOException | RuntimeException ex) {
+            LOG.error("IntentJournal - close: " + ex.getMessage());
+        }
+    }
+}
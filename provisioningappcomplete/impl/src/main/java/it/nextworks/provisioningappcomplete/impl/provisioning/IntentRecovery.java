@@ -0,0 +1,102 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectivityService;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.context.ConnectivityContext;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Recovery of the intents left unfinished by the previous run (see IntentJournal), and of the intents left open
+// by the requests failed since then, taken from the journal at each run.
+// An intent is recovered when all its nodes are connected: until then it is retried every retrySeconds,
+// and its VLAN stays reserved so that no new connectivity-service can use it on the same NEPs.
+public class IntentRecovery implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(IntentRecovery.class);
+    private final ProvisioningService provisioningService;
+    private final IntentJournal intentJournal;
+    private final List<IntentJournal.Intent> pending;
+    private final long retrySeconds;
+    private final ScheduledExecutorService scheduler;
+
+    public IntentRecovery(ProvisioningService provisioningService, IntentJournal intentJournal, List<IntentJournal.Intent> intents,
+                          long retrySeconds) {
+        this.provisioningService = provisioningService;
+        this.intentJournal = intentJournal;
+        this.pending = new ArrayList<>(intents);
+        this.retrySeconds = retrySeconds;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("intent-recovery-%d").setDaemon(true).build());
+    }
+
+    // To be called after the pool is rebuilt from the datastore, the VLANs of the intents not stored are not in it.
+    // If the VLAN of an intent not stored is already reserved, another connectivity-service uses it on some of the NEPs:
+    // removing it from the devices would break that service, so the intent is closed without touching them
+    // and what it left on the devices is reported by the reconciliation
+    public synchronized void reserveVlans(VlanPool vlanPool, ConnectivityContext ctx) {
+        Set<String> storedServices = new HashSet<>();
+        if (ctx != null && ctx.getConnectivityService() != null) {
+            for (ConnectivityService cs : ctx.getConnectivityService())
+                storedServices.add(cs.getUuid().getValue());
+        }
+        Iterator<IntentJournal.Intent> it = pending.iterator();
+        while (it.hasNext()) {
+            IntentJournal.Intent intent = it.next();
+            if (storedServices.contains(intent.getId()) || vlanPool.reserve(nepKeys(intent), intent.getVlan()))
+                continue;
+            LOG.warn("IntentRecovery - " + intent.getType() + " of connectivity-service " + intent.getId() + " not recovered: VLAN "
+                    + intent.getVlan() + " used by another connectivity-service on its NEPs");
+            intentJournal.end(intent.getId());
+            it.remove();
+        }
+    }
+
+    public synchronized void start() {
+        LOG.info("IntentRecovery - start: " + pending.size() + " unfinished intents to recover");
+        scheduler.scheduleWithFixedDelay(this::recoverPending, 0, retrySeconds, TimeUnit.SECONDS);
+    }
+
+    private synchronized void recoverPending() {
+        for (IntentJournal.Intent intent : intentJournal.takeIntentsLeftToRecovery()) {
+            if (pending.stream().noneMatch(p -> p.getId().equals(intent.getId())))
+                pending.add(intent);
+        }
+        if (pending.isEmpty())
+            return;
+        Iterator<IntentJournal.Intent> it = pending.iterator();
+        while (it.hasNext()) {
+            IntentJournal.Intent intent = it.next();
+            try {
+                provisioningService.recoverIntent(intent);
+                it.remove();
+            } catch (ProvisioningException | RuntimeException ex) {
+                LOG.warn("IntentRecovery - " + intent.getType() + " of connectivity-service " + intent.getId()
+                        + " not recovered, retry in " + retrySeconds + " s: " + ex.getMessage());
+            }
+        }
+        if (pending.isEmpty())
+            LOG.info("IntentRecovery - all the unfinished intents are recovered");
+    }
+
+    private static List<String> nepKeys(IntentJournal.Intent intent) {
+        List<String> nepKeys = new ArrayList<>();
+        for (NodeEdgePoint nep : intent.getTraversedNEPs())
+            nepKeys.add(ResourceLocks.nepKey(nep.getNodeUuid(), nep.getNodeEdgePointUuid()));
+        return nepKeys;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
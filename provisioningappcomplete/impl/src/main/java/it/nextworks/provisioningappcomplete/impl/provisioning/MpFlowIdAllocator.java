@@ -0,0 +1,57 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Allocator of the mp-flow IDs of each network element of a node, a bit set to 1 is an ID in use.
+// Seeded with the IDs found on the device each time its mp-flows are read, and kept updated on create and delete,
+// so the lowest free ID is found without reading the mp-flow list of the device.
+// IDs freed by a delete are reused, instead of colliding as with "number of flows + 1".
+public class MpFlowIdAllocator {
+    private static final int FIRST_ID = 1;
+    private final Map<String, BitSet> usedIds = new ConcurrentHashMap<>();
+
+    public boolean isSeeded(String nodeId, Long networkElement) {
+        return usedIds.containsKey(key(nodeId, networkElement));
+    }
+
+    // Mark as used the IDs already on the device. A new seed adds to the IDs in use: the ones allocated
+    // and not yet on the device are kept, the ones released are freed only by release
+    public void seed(String nodeId, Long networkElement, Collection<Long> ids) {
+        BitSet bits = usedIds.computeIfAbsent(key(nodeId, networkElement), k -> new BitSet());
+        synchronized (bits) {
+            for (Long id : ids)
+                bits.set(id.intValue());
+        }
+    }
+
+    // Reserve the lowest free ID, the caller releases it if the mp-flow is not created
+    public Long allocate(String nodeId, Long networkElement) {
+        BitSet bits = usedIds.computeIfAbsent(key(nodeId, networkElement), k -> new BitSet());
+        synchronized (bits) {
+            int id = bits.nextClearBit(FIRST_ID);
+            bits.set(id);
+            return Long.valueOf(id);
+        }
+    }
+
+    public void release(String nodeId, Long networkElement, Long id) {
+        BitSet bits = usedIds.get(key(nodeId, networkElement));
+        if (bits == null)
+            return;
+        synchronized (bits) {
+            bits.clear(id.intValue());
+        }
+    }
+
+    // Forget the IDs of all the network elements of the node, they are seeded again from the device
+    public void clear(String nodeId) {
+        usedIds.keySet().removeIf(key -> key.startsWith(nodeId + "/"));
+    }
+
+    private static String key(String nodeId, Long networkElement) {
+        return nodeId + "/" + networkElement;
+    }
+}
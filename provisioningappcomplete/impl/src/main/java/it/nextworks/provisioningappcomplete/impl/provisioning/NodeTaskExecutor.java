@@ -0,0 +1,168 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// Executes the configuration of the nodes of a path in parallel.
+// The pool is shared by all the requests and bounded, moreover at most maxTasksPerNode tasks
+// run at the same time on the same device, in order not to overload its NETCONF server.
+// The limit is applied before the tasks reach the pool: the tasks of a busy node wait in the queue of the node,
+// not on a pool thread, and the thread completing a task of the node starts the next one.
+// So a busy node never takes more than maxTasksPerNode threads and the other nodes are not starved.
+public class NodeTaskExecutor implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(NodeTaskExecutor.class);
+    private final ExecutorService executor;
+    private final int maxTasksPerNode;
+    // tasks running and waiting on each node, guarded by this
+    private final Map<String, NodeQueue> nodeQueues = new HashMap<>();
+
+    // Work to be done on a single node
+    public interface NodeTask {
+        void run() throws ProvisioningException;
+    }
+
+    private static final class QueuedTask {
+        private final NodeTask task;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private QueuedTask(NodeTask task) {
+            this.task = task;
+        }
+    }
+
+    // A task given to the pool, its result is failed if the pool is closed before running it
+    private final class Dispatched implements Runnable {
+        private final String nodeId;
+        private final QueuedTask queued;
+
+        private Dispatched(String nodeId, QueuedTask queued) {
+            this.nodeId = nodeId;
+            this.queued = queued;
+        }
+
+        @Override
+        public void run() {
+            runOnNode(nodeId, queued);
+        }
+    }
+
+    private static final class NodeQueue {
+        private final Deque<QueuedTask> waiting = new ArrayDeque<>();
+        private int running;
+    }
+
+    public NodeTaskExecutor(int threads, int maxTasksPerNode) {
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("node-config-%d").setDaemon(true).build());
+        this.maxTasksPerNode = maxTasksPerNode;
+        if (maxTasksPerNode >= threads)
+            LOG.warn("NodeTaskExecutor - " + maxTasksPerNode + " tasks per node on " + threads
+                    + " threads: a single busy node can take all the threads");
+    }
+
+    // Run the tasks (node id -> task) in parallel and wait for all of them, also when some fail.
+    // The failures of the single nodes are aggregated in one ProvisioningException
+    public void runAll(Map<String, NodeTask> tasks) throws ProvisioningException {
+        Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, NodeTask> task : tasks.entrySet())
+            futures.put(task.getKey(), submit(task.getKey(), task.getValue()));
+
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<Void>> future : futures.entrySet()) {
+            try {
+                future.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failures.add(future.getKey() + ": interrupted");
+            } catch (ExecutionException e) {
+                LOG.error("NodeTaskExecutor - runAll: node " + future.getKey() + " failed: " + e.getCause().getMessage());
+                failures.add(future.getKey() + ": " + e.getCause().getMessage());
+            }
+        }
+        if (!failures.isEmpty())
+            throw new ProvisioningException("Configuration failed on " + failures.size() + "/" + tasks.size()
+                    + " nodes " + failures);
+    }
+
+    // The task is dispatched to the pool if the node has a free slot, otherwise it is queued on the node
+    CompletableFuture<Void> submit(String nodeId, NodeTask task) {
+        QueuedTask queued = new QueuedTask(task);
+        synchronized (this) {
+            NodeQueue queue = nodeQueues.computeIfAbsent(nodeId, k -> new NodeQueue());
+            if (queue.running >= maxTasksPerNode) {
+                queue.waiting.add(queued);
+                return queued.result;
+            }
+            queue.running++;
+        }
+        dispatch(nodeId, queued);
+        return queued.result;
+    }
+
+    private void dispatch(String nodeId, QueuedTask queued) {
+        try {
+            executor.execute(new Dispatched(nodeId, queued));
+        } catch (RejectedExecutionException e) {
+            // closed meanwhile
+            queued.result.completeExceptionally(new ProvisioningException("Node task executor closed"));
+            next(nodeId);
+        }
+    }
+
+    private void runOnNode(String nodeId, QueuedTask queued) {
+        try {
+            queued.task.run();
+            queued.result.complete(null);
+        } catch (Throwable e) {
+            queued.result.completeExceptionally(e);
+        } finally {
+            next(nodeId);
+        }
+    }
+
+    // The slot of the completed task goes to the next task waiting on the node, if any
+    private void next(String nodeId) {
+        QueuedTask next;
+        synchronized (this) {
+            NodeQueue queue = nodeQueues.get(nodeId);
+            // closed meanwhile
+            if (queue == null)
+                return;
+            next = queue.waiting.poll();
+            if (next == null) {
+                queue.running--;
+                if (queue.running == 0)
+                    nodeQueues.remove(nodeId);
+                return;
+            }
+        }
+        dispatch(nodeId, next);
+    }
+
+    @Override
+    public void close() {
+        for (Runnable notStarted : executor.shutdownNow())
+            ((Dispatched) notStarted).queued.result.completeExceptionally(new ProvisioningException("Node task executor closed"));
+        synchronized (this) {
+            for (NodeQueue queue : nodeQueues.values())
+                for (QueuedTask queued : queue.waiting)
+                    queued.result.completeExceptionally(new ProvisioningException("Node task executor closed"));
+            nodeQueues.clear();
+        }
+    }
+}
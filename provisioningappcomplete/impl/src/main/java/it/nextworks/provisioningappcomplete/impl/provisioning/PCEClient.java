@@ -1,7 +1,7 @@
 package it.nextworks.provisioningappcomplete.impl.provisioning;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.PathComputationException;
-import it.nextworks.provisioningappcomplete.impl.tapi.TapiUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.ForwardingDirection;
@@ -13,54 +13,82 @@ import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.path.computation.rev2
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.ArrayList;
-
-public class PCEClient {
-    private static final Logger LOG = LoggerFactory.getLogger(TapiUtils.class);
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Client of the external PCE.
+// A single instance is shared by all the provisioning requests: the underlying HttpClient keeps a pool of
+// keep-alive connections towards the PCE and all the requests are sent asynchronously, returning futures.
+public class PCEClient implements PathComputationEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(PCEClient.class);
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+    private static final int HTTP_THREADS = 4;
     private String PCEServerIP;
     private String PCEServerPort;
     private String computeP2PPathURL = "/operations/tapi-path-computation:compute-p-2-p-path/";
     private String deleteP2PPathURL = "/operations/tapi-path-computation:delete-p-2-p-path/";
     // path /data/tapi-common:context/tapi-path-computation:path-computation-context/path=1907188993/
     private String getP2PPathURL = "/data/tapi-common:context/tapi-path-computation:path-computation-context/";
+    private final ExecutorService httpExecutor;
+    private final HttpClient httpClient;
 
     public PCEClient(String PCEServerIP, String PCEServerPort) {
         this.PCEServerIP = PCEServerIP;
         this.PCEServerPort = PCEServerPort;
+        this.httpExecutor = Executors.newFixedThreadPool(HTTP_THREADS,
+                new ThreadFactoryBuilder().setNameFormat("pce-client-%d").setDaemon(true).build());
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .executor(httpExecutor)
+                .build();
+    }
+
+    // Release the threads used by the HTTP client. HttpClient has no close in Java 11 and stopping its executor does not
+    // close the pooled connections: the idle ones are closed by the client after its keep-alive timeout
+    // (jdk.httpclient.keepalive.timeout) or once the client is garbage collected
+    @Override
+    public void close() {
+        httpExecutor.shutdownNow();
     }
 
     // *******
     // CREATE P2P PATH
     // *******
-    public Path createP2PPath(String sip1, String sip2) throws PathComputationException {
+    @Override
+    public CompletableFuture<Path> createP2PPath(String sip1, String sip2) {
         // 1. Create jsonBody to createPathComputation
         String jsonBody = buildPathComputationCreateInput(sip1,sip2);
         LOG.info("PCEClient - createP2PPath Input JSON of createP2PPath: "+jsonBody);
         // 2. Make request to PCE server
-        String jsonOutput = createPath(jsonBody);
-        LOG.info("PCEClient - createP2PPath response "+jsonOutput);
-        // 3. Parse response to extract the path-uuid, if existing
-        if(jsonOutput == null) {
-            throw new PathComputationException("Error creating the path");
-        }
-        String pathId = parsePathComputationCreateOutput(jsonOutput);
-
-        // 4. Make request to retrieve the path to PCE server
-        if(pathId == null){
-            LOG.error("PCEClient - createP2PPath PathUUID not found in the response");
-            throw new PathComputationException("PathUUID not found in the PCE response");
-        }
-        LOG.info("PCEClient - createP2PPath PathUUID: "+pathId);
+        return createPath(jsonBody).thenCompose(jsonOutput -> {
+            LOG.info("PCEClient - createP2PPath response "+jsonOutput);
+            // 3. Parse response to extract the path-uuid, if existing
+            if(jsonOutput == null) {
+                throw new CompletionException(new PathComputationException("Error creating the path"));
+            }
+            String pathId = parsePathComputationCreateOutput(jsonOutput);
 
-        // 4. Parse the response and return path
-        return getP2PPath(pathId);
+            // 4. Make request to retrieve the path to PCE server
+            if(pathId == null){
+                LOG.error("PCEClient - createP2PPath PathUUID not found in the response");
+                throw new CompletionException(new PathComputationException("PathUUID not found in the PCE response"));
+            }
+            LOG.info("PCEClient - createP2PPath PathUUID: "+pathId);
 
+            // 5. Parse the response and return path
+            return getP2PPath(pathId);
+        });
     }
 
 
@@ -106,74 +134,40 @@ public class PCEClient {
         return input.toString();
     }
 
-
-//    private String createPath(String jsonBodyRequest){
-//        return null;
-//    }
-
-    private String createPath(String jsonBodyRequest){
-        HttpURLConnection insecureconnection = null;
-        OutputStream os = null;
-        BufferedReader br = null;
-        URL url = null;
-        int responseCode = 0;
-
+    // The body of the response is returned only if the request is successful, null otherwise
+    private CompletableFuture<String> createPath(String jsonBodyRequest){
         String urlString = "http://"+PCEServerIP+":"+PCEServerPort+computeP2PPathURL;
         LOG.info("PCEClient - createP2PPath URL: "+urlString);
-        try {
-            url = new URL(urlString);
-            insecureconnection = (HttpURLConnection) url.openConnection();
-            insecureconnection.setConnectTimeout(5000);
-            insecureconnection.setReadTimeout(5000);
-            insecureconnection.setRequestMethod("POST");
-            insecureconnection.setRequestProperty("Content-Type", "application/yang-data+json");
-            insecureconnection.setRequestProperty("Accept", "application/yang-data+json");
-            insecureconnection.setDoOutput(true);
-
-            os = insecureconnection.getOutputStream();
-            byte[] input = jsonBodyRequest.getBytes("utf-8");
-            os.write(input, 0, input.length);
-
-            // Send request
-            responseCode = insecureconnection.getResponseCode();
-            LOG.info("PCEClient - createP2PPath POST createP2PPath -> ResponseCode: " + responseCode);
-
-            if (os != null) os.close();
-            if (br != null) br.close();
-
-            // Retrieve the POST response
-            if (responseCode == HttpURLConnection.HTTP_OK) { // success
-                BufferedReader in = new BufferedReader(new InputStreamReader(insecureconnection.getInputStream()));
-                String inputLine;
-                StringBuffer response = new StringBuffer();
-
-                while ((inputLine = in.readLine()) != null) {
-                    response.append(inputLine);
-                }
-                in.close();
-                // close inputStream
-                insecureconnection.getInputStream().close();
-                return response.toString();
-            } else {
-                return null;
-            }
-        } catch (IOException e) {
-            LOG.error(e.getMessage());
-            e.printStackTrace();
-            return null;
-        }
+        HttpRequest request = buildRequest(urlString)
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBodyRequest))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, ex) -> {
+                    if (ex != null) {
+                        LOG.error("PCEClient - createP2PPath POST createP2PPath failed: " + ex.getMessage());
+                        return null;
+                    }
+                    LOG.info("PCEClient - createP2PPath POST createP2PPath -> ResponseCode: " + response.statusCode());
+                    if (response.statusCode() == HttpURLConnection.HTTP_OK) { // success
+                        return response.body();
+                    }
+                    return null;
+                });
     }
 
     // *******
     // GET P2P PATH
     // *******
-    public Path getP2PPath(String pathId){
-        String jsonBody = getPath(pathId);
-        LOG.info("getP2PPath json Response "+jsonBody);
-        if(jsonBody == null){
-            return null;
-        }
-        return parsePathComputationGetOutput(jsonBody);
+    // The future is completed with null if the path is not returned by the PCE
+    @Override
+    public CompletableFuture<Path> getP2PPath(String pathId){
+        return getPath(pathId).thenApply(jsonBody -> {
+            LOG.info("getP2PPath json Response "+jsonBody);
+            if(jsonBody == null){
+                return null;
+            }
+            return parsePathComputationGetOutput(jsonBody);
+        });
     }
 
     // The output is "{\"path\": {\"name\": null,\"uuid\": \"1072127650\",\"layer-protocol-name\": null,\"link\": [{\"topology-uuid\": " +
@@ -203,64 +197,36 @@ public class PCEClient {
         return pathBuilder.build();
     }
 
-    private String getPath(String pathId){
-        HttpURLConnection insecureconnection = null;
-        OutputStream os = null;
-        BufferedReader br = null;
-        URL url = null;
-        int responseCode = 0;
-
+    private CompletableFuture<String> getPath(String pathId){
         String urlString = "http://"+PCEServerIP+":"+PCEServerPort+getP2PPathURL+"path="+pathId+"/";
         LOG.info("PCEClient - getP2PPath URL: "+urlString);
-        try {
-            url = new URL(urlString);
-            insecureconnection = (HttpURLConnection) url.openConnection();
-            insecureconnection.setConnectTimeout(5000);
-            insecureconnection.setReadTimeout(5000);
-            insecureconnection.setRequestMethod("GET");
-            insecureconnection.setRequestProperty("Content-Type", "application/yang-data+json");
-            insecureconnection.setRequestProperty("Accept", "application/yang-data+json");
-
-            // Send request
-            responseCode = insecureconnection.getResponseCode();
-            LOG.info("PCEClient - getP2PPath GET getP2PPath -> ResponseCode: " + responseCode);
-
-            if (os != null) os.close();
-            if (br != null) br.close();
-
-            // Retrieve the POST response
-            if (responseCode == HttpURLConnection.HTTP_OK) { // success
-                BufferedReader in = new BufferedReader(new InputStreamReader(insecureconnection.getInputStream()));
-                String inputLine;
-                StringBuffer response = new StringBuffer();
-
-                while ((inputLine = in.readLine()) != null) {
-                    response.append(inputLine);
-                }
-                in.close();
-                // close inputStream
-                insecureconnection.getInputStream().close();
-                return response.toString();
-            } else {
-                return null;
-            }
-        } catch (IOException e) {
-            LOG.error(e.getMessage());
-            e.printStackTrace();
-            return null;
-        }
+        HttpRequest request = buildRequest(urlString)
+                .GET()
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, ex) -> {
+                    if (ex != null) {
+                        LOG.error("PCEClient - getP2PPath GET getP2PPath failed: " + ex.getMessage());
+                        return null;
+                    }
+                    LOG.info("PCEClient - getP2PPath GET getP2PPath -> ResponseCode: " + response.statusCode());
+                    if (response.statusCode() == HttpURLConnection.HTTP_OK) { // success
+                        return response.body();
+                    }
+                    return null;
+                });
     }
 
     // *******
     // DELETE P2P PATH
     // *******
-    public boolean deleteP2PPath(String pathId){
+    @Override
+    public CompletableFuture<Boolean> deleteP2PPath(String pathId){
         // 1. Build the input json
         String jsonInput = buildPathComputationDeleteInput(pathId);
         LOG.info("PCEClient - deleteP2PPath jsonInput "+ jsonInput);
         // 2. Make request
-        Boolean output = deletePath(jsonInput);
-        return false;
+        return deletePath(jsonInput);
     }
 
     // Create the input of the request to delete a path
@@ -273,46 +239,29 @@ public class PCEClient {
     }
 
     // output is: "{\"output\": null}"
-    private boolean deletePath(String jsonBodyRequest){
-        HttpURLConnection insecureconnection = null;
-        OutputStream os = null;
-        BufferedReader br = null;
-        URL url = null;
-        int responseCode = 0;
-
+    private CompletableFuture<Boolean> deletePath(String jsonBodyRequest){
         String urlString = "http://"+PCEServerIP+":"+PCEServerPort+deleteP2PPathURL;
         LOG.info("PCEClient - deleteP2PPath URL: "+urlString);
-        try {
-            url = new URL(urlString);
-            insecureconnection = (HttpURLConnection) url.openConnection();
-            insecureconnection.setConnectTimeout(5000);
-            insecureconnection.setReadTimeout(5000);
-            insecureconnection.setRequestMethod("POST");
-            insecureconnection.setRequestProperty("Content-Type", "application/yang-data+json");
-            insecureconnection.setRequestProperty("Accept", "application/yang-data+json");
-            insecureconnection.setDoOutput(true);
-
-            os = insecureconnection.getOutputStream();
-            byte[] input = jsonBodyRequest.getBytes("utf-8");
-            os.write(input, 0, input.length);
-
-            // Send request
-            responseCode = insecureconnection.getResponseCode();
-            LOG.info("PCEClient - deleteP2PPath POST deletePath -> ResponseCode: " + responseCode);
-
-            if (os != null) os.close();
-            if (br != null) br.close();
+        HttpRequest request = buildRequest(urlString)
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBodyRequest))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, ex) -> {
+                    if (ex != null) {
+                        LOG.error("PCEClient - deleteP2PPath POST deletePath failed: " + ex.getMessage());
+                        return false;
+                    }
+                    LOG.info("PCEClient - deleteP2PPath POST deletePath -> ResponseCode: " + response.statusCode());
+                    // error if >= 400
+                    return response.statusCode() < 400;
+                });
+    }
 
-            if (responseCode >= 400) { // error
-                return false;
-            } else {
-                return true;
-            }
-        } catch (IOException e) {
-            LOG.error(e.getMessage());
-            e.printStackTrace();
-            return false;
-        }
+    private HttpRequest.Builder buildRequest(String urlString){
+        return HttpRequest.newBuilder(URI.create(urlString))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/yang-data+json")
+                .header("Accept", "application/yang-data+json");
     }
 
 }
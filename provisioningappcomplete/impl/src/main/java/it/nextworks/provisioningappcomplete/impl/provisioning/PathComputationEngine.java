@@ -0,0 +1,21 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.path.computation.rev200423.path.computation.context.Path;
+
+import java.util.concurrent.CompletableFuture;
+
+// Path computation used by the provisioning: it can be the external PCE (PCEClient)
+// or the in-process one working directly on the TAPI topology (EmbeddedPCE).
+// The selection is done with the pce.mode parameter of complete.properties
+public interface PathComputationEngine {
+
+    // Compute a path between the 2 SIPs, the future fails with a PathComputationException if no path is found
+    CompletableFuture<Path> createP2PPath(String sip1, String sip2);
+
+    // Retrieve a computed path, the future is completed with null if the path does not exist
+    CompletableFuture<Path> getP2PPath(String pathId);
+
+    CompletableFuture<Boolean> deleteP2PPath(String pathId);
+
+    void close();
+}
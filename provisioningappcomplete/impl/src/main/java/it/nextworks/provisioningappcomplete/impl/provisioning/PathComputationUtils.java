@@ -2,19 +2,15 @@ package it.nextworks.provisioningappcomplete.impl.provisioning;
 
 import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.PathComputationException;
 import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiTopologyIndex;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.path.computation.rev200423.path.computation.context.Path;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePointBuilder;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.edge.point.MappedServiceInterfacePoint;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Link;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Node;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.Topology;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 public class PathComputationUtils {
@@ -23,18 +19,18 @@ public class PathComputationUtils {
         throw new IllegalStateException("Instantiating utility class.");
     }
 
-    public static ArrayList<NodeEdgePoint> buildTraversedNEPList(Topology topology, Path path, ArrayList<String> sipList)
+    public static ArrayList<NodeEdgePoint> buildTraversedNEPList(TapiTopologyIndex topologyIndex, Path path, ArrayList<String> sipList)
             throws ProvisioningException, PathComputationException {
         // Retrive all the (TAPI Topology) links traversed in the computed path
-        ArrayList<Link> traversedTopologyLinks = retriveTraversedTopologyLink(topology,path);
-        // Retrieve internal traversed NEPs (excluding the ones with the SIP, added later)
-        ArrayList<NodeEdgePoint> traversedNEPs = retrieveInternalTraversedNEPS(traversedTopologyLinks);
+        ArrayList<Link> traversedTopologyLinks = retriveTraversedTopologyLink(topologyIndex,path);
         // Adding edge NEPs (related to the SIPs)
-        NodeEdgePoint firstNEP = retrieveNEP(topology, sipList.get(0));
-        NodeEdgePoint lastNEP = retrieveNEP(topology, sipList.get(1));
+        NodeEdgePoint firstNEP = topologyIndex.getNepOfSip(sipList.get(0));
+        NodeEdgePoint lastNEP = topologyIndex.getNepOfSip(sipList.get(1));
         if(firstNEP == null || lastNEP == null){
             throw new ProvisioningException("Empty NodeEdgePoint from SIPs");
         }
+        // Retrieve internal traversed NEPs (excluding the ones with the SIP, added later)
+        ArrayList<NodeEdgePoint> traversedNEPs = retrieveInternalTraversedNEPS(traversedTopologyLinks, firstNEP);
         traversedNEPs.add(0,firstNEP);
         traversedNEPs.add(lastNEP);
         LOG.info("ALL traversed NEPs "+printTraversedNEPs(traversedNEPs));
@@ -49,24 +45,19 @@ public class PathComputationUtils {
         return output;
     }
 
-    private static ArrayList<Link> retriveTraversedTopologyLink(Topology topology, Path path) throws PathComputationException {
-        List<Link> topologyLinks = topology.getLink();
+    private static ArrayList<Link> retriveTraversedTopologyLink(TapiTopologyIndex topologyIndex, Path path) throws PathComputationException {
         ArrayList<Link> traversedTopologyLinks = new ArrayList<>();
         List<org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.path.computation.rev200423.path.Link> pathLinks = path.getLink();
         if(pathLinks != null) {
             // For each link in the computed path -> search the corresponding topology link
             for (org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.path.computation.rev200423.path.Link pathLink : pathLinks) {
-//                LOG.info("retriveTopologyLink - ERO " + pathLink.getLinkUuid().getValue());
-                Iterator iterator = topologyLinks.iterator();
-                while (iterator.hasNext()) {
-                    Link topologyLink = (Link) iterator.next();
-//                    LOG.info("retriveTopologyLink - topologyLink" + topologyLink.getUuid().getValue());
-                    if (topologyLink.getUuid().getValue().equals(pathLink.getLinkUuid().getValue())) {
-                        traversedTopologyLinks.add(topologyLink);
-                        LOG.info("retriveTopologyLink - traversedTopologyLink " + topologyLink.getUuid().getValue());
-                        break;
-                    }
+                Link topologyLink = topologyIndex.getLink(pathLink.getLinkUuid().getValue());
+                if (topologyLink == null) {
+                    LOG.error("retriveTopologyLink - Link " + pathLink.getLinkUuid().getValue() + " not found in the topology");
+                    throw new PathComputationException("Computed Path contains unknown link " + pathLink.getLinkUuid().getValue());
                 }
+                traversedTopologyLinks.add(topologyLink);
+                LOG.info("retriveTopologyLink - traversedTopologyLink " + topologyLink.getUuid().getValue());
             }
             return traversedTopologyLinks;
         } else {
@@ -75,32 +66,22 @@ public class PathComputationUtils {
         }
     }
 
-    private static NodeEdgePoint retrieveNEP(Topology topology, String sipUuid){
-        List<Node> topologyNodes = topology.getNode();
-        for(Node node: topologyNodes){
-            for(OwnedNodeEdgePoint onep: node.getOwnedNodeEdgePoint()){
-                if(onep.getMappedServiceInterfacePoint() != null) {
-                    for (MappedServiceInterfacePoint msip : onep.getMappedServiceInterfacePoint()) {
-                        if (sipUuid.equals(msip.getServiceInterfacePointUuid().getValue())) {
-                            NodeEdgePointBuilder nodeEdgePointBuilder = new NodeEdgePointBuilder()
-                                    .setTopologyUuid(topology.getUuid())
-                                    .setNodeUuid(node.getUuid())
-                                    .setNodeEdgePointUuid(onep.getUuid());
-                            return nodeEdgePointBuilder.build();
-                        }
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
-    private static ArrayList<NodeEdgePoint> retrieveInternalTraversedNEPS(ArrayList<Link> traversedTopologyLinks){
+    // The NEPs of each link are added following the direction of the path (the first one belongs to the node
+    // reached so far), so that each couple of NEPs in the output list belongs to the same node
+    private static ArrayList<NodeEdgePoint> retrieveInternalTraversedNEPS(ArrayList<Link> traversedTopologyLinks, NodeEdgePoint firstNEP){
         ArrayList<NodeEdgePoint> traversedNEPs = new ArrayList<>();
+        Uuid currentNode = firstNEP.getNodeUuid();
         for(Link link: traversedTopologyLinks){
             // Add 2 termination point, only internal NEP
-            traversedNEPs.add(link.getNodeEdgePoint().get(0));
-            traversedNEPs.add(link.getNodeEdgePoint().get(1));
+            NodeEdgePoint nep1 = link.getNodeEdgePoint().get(0);
+            NodeEdgePoint nep2 = link.getNodeEdgePoint().get(1);
+            if(!nep1.getNodeUuid().equals(currentNode)){
+                nep1 = link.getNodeEdgePoint().get(1);
+                nep2 = link.getNodeEdgePoint().get(0);
+            }
+            traversedNEPs.add(nep1);
+            traversedNEPs.add(nep2);
+            currentNode = nep2.getNodeUuid();
         }
         return traversedNEPs;
     }
@@ -1,118 +1,280 @@
 package it.nextworks.provisioningappcomplete.impl.provisioning;
 
+import it.nextworks.provisioningappcomplete.impl.netconf.DeviceCommitBatcher;
+import it.nextworks.provisioningappcomplete.impl.netconf.MountpointManager;
 import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.PathComputationException;
 import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
 import it.nextworks.provisioningappcomplete.impl.tapi.TapiDataStoreManager;
-import it.nextworks.provisioningappcomplete.impl.tapi.TapiTopologyBuilder;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiTopologyIndex;
 import org.opendaylight.mdsal.binding.api.DataBroker;
-import org.opendaylight.mdsal.binding.api.MountPointService;
 import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.common.rev200310.VlanTag;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.global._class.Name;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.tapi.context.ServiceInterfacePoint;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.CreateConnectivityServiceInput;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connection.*;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.Connection;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectivityService;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.context.ConnectivityContext;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.create.connectivity.service.input.EndPoint;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.eth.rev200423.*;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.path.computation.rev200423.path.computation.context.Path;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.Topology;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.service.routes.ServiceRoute;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
 
 public class ProvisioningService {
     private static final Logger LOG = LoggerFactory.getLogger(ProvisioningService.class);
     private DataBroker dataBroker;
-    private String pceIp;
-    private String pcePort;
-    private MountPointService mps;
+    private PathComputationEngine pce;
+    private TapiTopologyIndex topologyIndex;
+    private ResourceLocks resourceLocks;
+    private VlanPool vlanPool;
+    private NodeTaskExecutor nodeTaskExecutor;
+    private DeviceCommitBatcher commitBatcher;
+    private IntentJournal intentJournal;
+    // devices configured before the datastore is updated, and restored if any of them fails
+    private boolean atomic;
+    private MountpointManager mountpointManager;
+    private DeviceConfigCache deviceConfigCache;
 
-    public ProvisioningService(DataBroker db, MountPointService mps, String pceIp, String pcePort){
+    public ProvisioningService(DataBroker db, MountpointManager mountpointManager,
+                               DeviceConfigCache deviceConfigCache, PathComputationEngine pce,
+                               TapiTopologyIndex topologyIndex, ResourceLocks resourceLocks, VlanPool vlanPool,
+                               NodeTaskExecutor nodeTaskExecutor, DeviceCommitBatcher commitBatcher, boolean atomic,
+                               IntentJournal intentJournal){
         this.dataBroker = db;
-        this.pceIp = pceIp;
-        this.pcePort = pcePort;
-        this.mps = mps;
+        this.mountpointManager = mountpointManager;
+        this.deviceConfigCache = deviceConfigCache;
+        this.pce = pce;
+        this.topologyIndex = topologyIndex;
+        this.resourceLocks = resourceLocks;
+        this.vlanPool = vlanPool;
+        this.nodeTaskExecutor = nodeTaskExecutor;
+        this.commitBatcher = commitBatcher;
+        this.atomic = atomic;
+        this.intentJournal = intentJournal;
     }
 
-    // Connectivity Service creation logic
+    // Connectivity Service creation logic, as a chain of stages that does not block the caller
     // 1. Check parameter in the request, for example VLAN info and if SIPs exist in the topology
-    // 2. Interaction with PCE to compute and retrieve the path
-    // 3. Configure the device in the path
+    // 2. Interaction with PCE to compute and retrieve the path, without holding any thread while waiting
+    // 3. On the executor: reservation of the VLAN on the traversed NEPs, a free one is assigned if the request has no VLAN
     // 4. Update the topology creating CEPs over NEPs
     //      and update the connectivity-context, creating the connectivity service and the connection
-    public ConnectivityService createConnectivityService(CreateConnectivityServiceInput input) throws ProvisioningException, PathComputationException {
-        // check VLAN params  and SIPs info
-        String VLANID = checkVLAN(input);
-        ArrayList<String> sipList = checkSIPs(input);
-
-        // Compute the path
-        PCEClient pceClient = new PCEClient(pceIp,pcePort);
-        Path path = pceClient.createP2PPath(sipList.get(0), sipList.get(1));
+    // 5. Configure the device in the path
+    // In atomic mode the devices are configured first and restored if any of them fails,
+    // the datastore is updated in a single transaction only when all the devices are configured
+    // The future fails with a CompletionException wrapping the ProvisioningException or PathComputationException
+    public CompletableFuture<ConnectivityService> createConnectivityService(CreateConnectivityServiceInput input, Executor executor){
+        Integer requestedVlan;
+        ArrayList<String> sipList;
+        try {
+            // check VLAN params (null if the VLAN has to be assigned) and SIPs info
+            requestedVlan = checkVLAN(input);
+            sipList = checkSIPs(input);
+        } catch (ProvisioningException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return pce.createP2PPath(sipList.get(0), sipList.get(1))
+                .thenApplyAsync(path -> {
+                    try {
+                        return provisionConnectivityService(input, requestedVlan, sipList, path);
+                    } catch (ProvisioningException | PathComputationException ex) {
+                        throw new CompletionException(ex);
+                    }
+                }, executor);
+    }
+
+    // Datastore update and device configuration are done in the same stage, since the NEP locks are owned by the thread
+    private ConnectivityService provisionConnectivityService(CreateConnectivityServiceInput input, Integer requestedVlan,
+                                                             ArrayList<String> sipList, Path path)
+            throws ProvisioningException, PathComputationException {
         if (path == null){
             throw new PathComputationException("Error computing path");
         }
 
         // UPDATE TOPOLOGY
-        Topology topology = TapiDataStoreManager.readTopology(dataBroker);
         // Retrieve all the traversed NEPs using the computed PATH, the internal ones are retrieved from the traversed links
         // the "edge" NEPs are added retrieving them from the SIPs
-        ArrayList<NodeEdgePoint> traversedNEPs = PathComputationUtils.buildTraversedNEPList(topology,path,sipList);
-        TapiTopologyBuilder topologyBuilder = new TapiTopologyBuilder(topology);
-        // Create a CEP over each traversed NEP in the Topology and update it. It returns also the entire list of created CEPs
-        ArrayList<ConnectionEndPoint> connCepList = topologyBuilder.addCEPsToTopologyNodes(traversedNEPs);
-        TapiDataStoreManager.writeTopology(dataBroker,topologyBuilder.getTopology());
-
-        // UPDATE CONNECTIVITY-CONTEXT
-        // Retrieve the actual connectivity-context, update it adding new connections and connectivity-service and store it
-        for(ConnectionEndPoint cep: connCepList){
-            LOG.info("new CEP "+cep.getConnectionEndPointUuid().getValue());
+        ArrayList<NodeEdgePoint> traversedNEPs = PathComputationUtils.buildTraversedNEPList(topologyIndex,path,sipList);
+        // The traversed NEPs are locked until the devices are configured, concurrent requests on other NEPs proceed in parallel
+        List<String> nepKeys = new ArrayList<>();
+        Set<String> nodes = new LinkedHashSet<>();
+        for(NodeEdgePoint nep: traversedNEPs){
+            nepKeys.add(ResourceLocks.nepKey(nep.getNodeUuid(),nep.getNodeEdgePointUuid()));
+            nodes.add(nep.getNodeUuid().getValue());
         }
+        checkNodesAvailable(nodes);
+        List<Lock> locks = lockNeps(nepKeys);
+        Integer vlan = null;
+        boolean stored = false;
         Uuid csUuidString = new Uuid(UUID.randomUUID().toString());
+        try {
+            vlan = reserveVLAN(nepKeys,requestedVlan);
+            String VLANID = String.valueOf(vlan);
+            LOG.info("createConnectivityService - VLAN "+VLANID+" reserved on "+nepKeys.size()+" NEPs");
+
+            // INTENT JOURNAL
+            // The intent is on disk before the datastore or a device is touched, an unfinished intent is recovered
+            // by IntentRecovery: right away if the request fails, at restart if it is interrupted
+            beginIntent(new IntentJournal.Intent(csUuidString.getValue(),IntentJournal.Type.CREATE,vlan,traversedNEPs));
+            if(atomic){
+                ConnectivityService cs = provisionAtomically(input,path,traversedNEPs,csUuidString,VLANID);
+                stored = true;
+                return cs;
+            }
+
+            // Create a CEP over each traversed NEP, only the cep-lists of these NEPs are updated in the Topology
+            ArrayList<ConnectionEndPoint> connCepList = TapiConnectivityContextUtils.createCEPs(csUuidString,traversedNEPs);
+            if(!TapiDataStoreManager.addCEPs(dataBroker,connCepList)){
+                intentJournal.end(csUuidString.getValue());
+                throw new ProvisioningException("Error adding CEPs to the topology");
+            }
+
+            // UPDATE CONNECTIVITY-CONTEXT
+            // Create the new connections and connectivity-service and store them
+            for(ConnectionEndPoint cep: connCepList){
+                LOG.info("new CEP "+cep.getConnectionEndPointUuid().getValue());
+            }
+            Uuid topLevelConnectionUuid = new Uuid(UUID.randomUUID().toString());
+            List<Connection> connections = TapiConnectivityContextUtils.createConnections(connCepList,topLevelConnectionUuid);
+            ConnectivityService cs = TapiConnectivityContextUtils.createConnectivityService(input,topLevelConnectionUuid,csUuidString,
+                    path.getUuid().getValue(),VLANID);
+
+            // the traversed NEPs are stored in order, so that the delete does not need the PCE
+            ServiceRoute route = TapiConnectivityContextUtils.createServiceRoute(csUuidString,path.getUuid().getValue(),traversedNEPs);
+            if(!TapiDataStoreManager.writeConnectivityService(dataBroker,cs,connections,route)){
+                // the CEPs just added are removed, otherwise the intent stays open and the recovery removes them
+                if(!TapiDataStoreManager.removeCEPs(dataBroker,connCepList))
+                    throw new ProvisioningException("Error writing connectivity-service "+csUuidString.getValue()
+                            +", its CEPs will be removed by the recovery");
+                intentJournal.end(csUuidString.getValue());
+                throw new ProvisioningException("Error writing connectivity-service "+csUuidString.getValue());
+            }
+            // from now on the VLAN is recorded in the connectivity-context
+            stored = true;
+            intentJournal.phase(csUuidString.getValue(),IntentJournal.Phase.STORED);
+
+            // DEVICE CONFIGURATION
+            // If a device fails the intent stays open, the connectivity-service is removed by the recovery.
+            // The atomic mode restores the devices immediately instead
+            VLANProvisioning vlanProvisioning = vlanProvisioning(traversedNEPs,VLANID);
+            vlanProvisioning.createVLAN();
+            intentJournal.phase(csUuidString.getValue(),IntentJournal.Phase.CONFIGURED);
+            intentJournal.end(csUuidString.getValue());
+            return cs;
+        } finally {
+            // an intent still open is left to the recovery, and its VLAN stays reserved until it is recovered
+            if(intentJournal.isOpen(csUuidString.getValue()))
+                intentJournal.leaveToRecovery(csUuidString.getValue());
+            else if(vlan != null && !stored)
+                vlanPool.release(nepKeys,vlan);
+            resourceLocks.unlock(locks);
+        }
+    }
+
+    // Record the intent, it is closed if it could not be written
+    private void beginIntent(IntentJournal.Intent intent) throws ProvisioningException {
+        try {
+            intentJournal.begin(intent);
+        } catch (ProvisioningException ex) {
+            intentJournal.end(intent.getId());
+            throw ex;
+        }
+    }
+
+    // Device configuration, then CEPs, connectivity-service, connections and route written in one transaction.
+    // If a device or the datastore fails the devices already configured are restored
+    private ConnectivityService provisionAtomically(CreateConnectivityServiceInput input, Path path,
+                                                    ArrayList<NodeEdgePoint> traversedNEPs, Uuid csUuidString, String VLANID)
+            throws ProvisioningException {
+        ArrayList<ConnectionEndPoint> connCepList = TapiConnectivityContextUtils.createCEPs(csUuidString,traversedNEPs);
         Uuid topLevelConnectionUuid = new Uuid(UUID.randomUUID().toString());
         List<Connection> connections = TapiConnectivityContextUtils.createConnections(connCepList,topLevelConnectionUuid);
-        ConnectivityService cs = TapiConnectivityContextUtils.createConnectivityService(input,topLevelConnectionUuid,csUuidString,path.getUuid().getValue());
+        ConnectivityService cs = TapiConnectivityContextUtils.createConnectivityService(input,topLevelConnectionUuid,csUuidString,
+                path.getUuid().getValue(),VLANID);
+        ServiceRoute route = TapiConnectivityContextUtils.createServiceRoute(csUuidString,path.getUuid().getValue(),traversedNEPs);
 
-        ConnectivityContext cctx = TapiDataStoreManager.readConnectivityContext(dataBroker);
-        TapiConnectivityContextBuilder builder = new TapiConnectivityContextBuilder(cctx);
-        builder.addConnectivityService(cs).addConnections(connections);
-        TapiDataStoreManager.writeConnectivityContext(dataBroker, builder.getConnectivityContext());
+        // DEVICE CONFIGURATION, all the nodes or none of them
+        VLANProvisioning vlanProvisioning = vlanProvisioning(traversedNEPs,VLANID);
+        try {
+            vlanProvisioning.createVLAN();
+        } catch (ProvisioningException ex) {
+            rollbackCreation(vlanProvisioning,csUuidString.getValue(),ex.getMessage());
+        }
+        intentJournal.phase(csUuidString.getValue(),IntentJournal.Phase.CONFIGURED);
 
-        // DEVICE CONFIGURATION
-        VLANProvisioning vlanProvisioning = new VLANProvisioning(mps,traversedNEPs,VLANID);
-        vlanProvisioning.createVLAN();
-        // TODO if something goes wrong delete the CS?
+        // UPDATE TOPOLOGY AND CONNECTIVITY-CONTEXT
+        if(!TapiDataStoreManager.createConnectivityServices(dataBroker,connCepList,Collections.singletonList(cs),connections,
+                Collections.singletonList(route))){
+            rollbackCreation(vlanProvisioning,csUuidString.getValue(),"Error writing connectivity-service "+csUuidString.getValue());
+        }
+        intentJournal.phase(csUuidString.getValue(),IntentJournal.Phase.STORED);
+        intentJournal.end(csUuidString.getValue());
         return cs;
     }
 
-    private String checkVLAN(CreateConnectivityServiceInput input) throws ProvisioningException {
+    // Restore the devices of a failed creation and close its intent, it always throws.
+    // If a node could not be restored the intent stays open and the VLAN is removed by the recovery
+    private void rollbackCreation(VLANProvisioning vlanProvisioning, String csUuid, String error) throws ProvisioningException {
+        if(!vlanProvisioning.rollbackVLAN())
+            throw new ProvisioningException(error+", the VLAN could not be removed from all the devices and will be removed by the recovery");
+        intentJournal.end(csUuid);
+        throw new ProvisioningException(error);
+    }
+
+    // It returns the VLAN requested by the endpoints, null if no endpoint declares a VLAN (port-vid)
+    private Integer checkVLAN(CreateConnectivityServiceInput input) throws ProvisioningException {
         // Check VLAN params
         if(input.getEndPoint()== null || input.getEndPoint().size()!=2){
             throw new ProvisioningException("Connectivity-Service creation request must contain 2 endpoints");
         }
-        EndPoint ep1 = input.getEndPoint().get(0);
-        EndPoint ep2 = input.getEndPoint().get(1);
-        EndPoint2 ethAugm1 = ep1.augmentation(EndPoint2.class);
-        EndPoint2 ethAugm2 = ep2.augmentation(EndPoint2.class);
-
-        if (ethAugm1==null || ethAugm1.getEthConnectivityServiceEndPointSpec() == null ||
-                ethAugm1.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac() == null ||
-                ethAugm1.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac().getPortVid()==null ||
-                ethAugm2==null || ethAugm2.getEthConnectivityServiceEndPointSpec() == null ||
-                ethAugm2.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac() == null ||
-                ethAugm2.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac().getPortVid()==null) {
-            throw new ProvisioningException("Connectivity-Service creation request missing VLAN info");
+        String vlanId1 = getPortVid(input.getEndPoint().get(0));
+        String vlanId2 = getPortVid(input.getEndPoint().get(1));
+        if(vlanId1 == null && vlanId2 == null){
+            return null;
         }
-        String vlanId1 = ethAugm1.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac().getPortVid().getValue();
-        String vlanId2 = ethAugm2.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac().getPortVid().getValue();
-        if(!vlanId1.equals(vlanId2)){
+        if(vlanId1 == null || vlanId2 == null || !vlanId1.equals(vlanId2)){
             throw new ProvisioningException("Connectivity-Service creation request endpoints should declare the same VLAN ID");
         }
-        return vlanId1;
+        try {
+            int vlan = Integer.parseInt(vlanId1);
+            if(vlan < VlanPool.MIN_VLAN || vlan > VlanPool.MAX_VLAN)
+                throw new ProvisioningException("VLAN ID "+vlanId1+" out of range");
+            return vlan;
+        } catch (NumberFormatException e) {
+            throw new ProvisioningException("VLAN ID "+vlanId1+" not correctly formatted");
+        }
+    }
+
+    private String getPortVid(EndPoint ep){
+        EndPoint2 ethAugm = ep.augmentation(EndPoint2.class);
+        if (ethAugm==null || ethAugm.getEthConnectivityServiceEndPointSpec() == null ||
+                ethAugm.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac() == null ||
+                ethAugm.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac().getPortVid()==null) {
+            return null;
+        }
+        return ethAugm.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac().getPortVid().getValue();
+    }
+
+    // Reserve the requested VLAN on the NEPs of the path, or the lowest VLAN free on all of them
+    int reserveVLAN(List<String> nepKeys, Integer requestedVlan) throws ProvisioningException {
+        if(requestedVlan == null){
+            Integer vlan = vlanPool.allocate(nepKeys);
+            if(vlan == null)
+                throw new ProvisioningException("No VLAN free along the path");
+            return vlan;
+        }
+        if(!vlanPool.reserve(nepKeys,requestedVlan))
+            throw new ProvisioningException("VLAN "+requestedVlan+" already used on the path");
+        return requestedVlan;
     }
 
     private ArrayList<String> checkSIPs(CreateConnectivityServiceInput input) throws ProvisioningException {
@@ -129,9 +291,8 @@ public class ProvisioningService {
         srcSIP = input.getEndPoint().get(0).getServiceInterfacePoint().getServiceInterfacePointUuid().getValue();
         dstSIP = input.getEndPoint().get(1).getServiceInterfacePoint().getServiceInterfacePointUuid().getValue();
 
-        // Retrieve context and check that they exist
-        List<ServiceInterfacePoint> sipList = TapiDataStoreManager.readSIPList(dataBroker);
-        if(!checkSIPs(sipList,srcSIP,dstSIP)){
+        // Check that they exist in the topology
+        if(!topologyIndex.existSip(srcSIP) || !topologyIndex.existSip(dstSIP)){
             throw new ProvisioningException("Connectivity-Service creation request contains non-existent SIP or SIPs");
         }
         sips.add(srcSIP);
@@ -139,79 +300,222 @@ public class ProvisioningService {
         return sips;
     }
 
-    private boolean checkSIPs(List<ServiceInterfacePoint> sipList, String srcSIP, String dstSIP){
-        boolean srcSIPexists = false;
-        boolean dstSIPexists = false;
 
-        for(ServiceInterfacePoint sip : sipList){
-            if(sip.getUuid().getValue().equals(srcSIP)){
-                LOG.info("ProvisioningService - createConnectivityService: source SIP exists");
-                srcSIPexists = true;
-            }
-            if(sip.getUuid().getValue().equals(dstSIP)){
-                LOG.info("ProvisioningService - createConnectivityService: destination SIP exists");
-                dstSIPexists = true;
+    // Connectivity Service deletion, run on the executor
+    public CompletableFuture<Void> deleteConnectivityService(String csUuid, Executor executor){
+        return CompletableFuture.runAsync(() -> {
+            try {
+                deleteConnectivityService(csUuid);
+            } catch (ProvisioningException | PathComputationException ex) {
+                throw new CompletionException(ex);
             }
-        }
-        return (srcSIPexists && dstSIPexists);
+        }, executor);
     }
 
-
-    public void deleteConnectivityService(String csUuid) throws ProvisioningException, PathComputationException {
-        // check if the connectivity-service exists, before removing it
-        if(!TapiDataStoreManager.existConnectivityService(dataBroker,csUuid))
-            throw new ProvisioningException("Connectivity-service with UUID "+csUuid+" does not exist");
-
+    private void deleteConnectivityService(String csUuid) throws ProvisioningException, PathComputationException {
         // UPDATE CONNECTIVITY-CONTEXT
-        // Retrieve connectivity-context, inizialize the TAPI Connectivity-Context builder
-        // Delete connectivity-service with uuid = csUuid and retrieve it
-        // Retrieve the top level connection and delete it from the connection list of the connectivity-context
-        // Retrieve the Delete low level connections from the top-level conn. and delete them
-        // Store the new connectivity-context
-        ConnectivityContext connectivityContext = TapiDataStoreManager.readConnectivityContext(dataBroker);
-        TapiConnectivityContextBuilder contextBuilder = new TapiConnectivityContextBuilder(connectivityContext);
-        ConnectivityService removedCs = contextBuilder.removeConnectivityService(csUuid);
+        // Retrieve the connectivity-service with uuid = csUuid (null if it does not exist) and its top level connection by key
+        // Delete the connectivity-service, the top level connection and the low level connections referenced by it
+        ConnectivityService removedCs = TapiDataStoreManager.readConnectivityService(dataBroker,csUuid);
+        if(removedCs == null)
+            throw new ProvisioningException("Connectivity-service with UUID "+csUuid+" does not exist");
         Uuid topConnectionUuid = removedCs.getConnection().get(0).getConnectionUuid();
-        Connection topConnection = contextBuilder.removeConnection(topConnectionUuid);
+        Connection topConnection = TapiDataStoreManager.readConnection(dataBroker,topConnectionUuid.getValue());
+        if(topConnection == null)
+            throw new ProvisioningException("Top level connection "+topConnectionUuid.getValue()+" not found");
+        List<Uuid> connectionUuids = new ArrayList<>();
+        connectionUuids.add(topConnectionUuid);
         for(LowerConnection lwc: topConnection.getLowerConnection()){
-            contextBuilder.removeConnection(lwc.getConnectionUuid());
+            connectionUuids.add(lwc.getConnectionUuid());
+        }
+        // The route is deleted together with the connectivity-service
+        ServiceRoute route = TapiDataStoreManager.readServiceRoute(dataBroker,csUuid);
+
+        // Lock the NEPs used by the connectivity-service, the route of the top connection contains all its CEPs
+        List<org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.route.ConnectionEndPoint> routeCeps =
+                topConnection.getRoute().get(0).getConnectionEndPoint();
+        List<String> nepKeys = new ArrayList<>();
+        Set<String> nodes = new LinkedHashSet<>();
+        for(org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.route.ConnectionEndPoint cep: routeCeps){
+            nepKeys.add(ResourceLocks.nepKey(cep.getNodeUuid(),cep.getNodeEdgePointUuid()));
+            nodes.add(cep.getNodeUuid().getValue());
         }
-        TapiDataStoreManager.writeConnectivityContext(dataBroker,contextBuilder.getConnectivityContext());
+        checkNodesAvailable(nodes);
+        List<Lock> locks = lockNeps(nepKeys);
+        try {
+            // another request could have removed the same connectivity-service while waiting for the locks
+            if(!TapiDataStoreManager.existConnectivityService(dataBroker,csUuid))
+                throw new ProvisioningException("Connectivity-service with UUID "+csUuid+" does not exist");
+            // The traversed NEPs are taken from the stored route, the PCE is used only for the connectivity-services without it
+            ArrayList<NodeEdgePoint> traversedNEPs;
+            if(route != null && route.getTraversedNep() != null){
+                traversedNEPs = TapiConnectivityContextUtils.getTraversedNEPs(route);
+            } else {
+                LOG.warn("deleteConnectivityService - route of "+csUuid+" not stored, asking the PCE");
+                traversedNEPs = getTraversedNEPsFromPCE(removedCs);
+            }
+            String VLANID = getVLAN(removedCs.getEndPoint().get(0));
 
-        // UPDATE TOPOLOGY-CONTEXT
-        // Delete all CEP used in this CS: for this step, use the ROUTE field of the topConnection
-        // which contains, as first element, the list (unordered) of all used CEPs.
-        Topology topology = TapiDataStoreManager.readTopology(dataBroker,topConnection.getConnectionEndPoint().get(0).getTopologyUuid().getValue());
-        TapiTopologyBuilder topologyBuilder = new TapiTopologyBuilder(topology);
-        topologyBuilder.removeCEPsToTopologyNodes(topConnection.getRoute().get(0).getConnectionEndPoint());
-        TapiDataStoreManager.writeTopology(dataBroker,topologyBuilder.getTopology());
+            // INTENT JOURNAL
+            // Once recorded, the deletion is completed by the recovery if it fails or is interrupted
+            beginIntent(new IntentJournal.Intent(csUuid,IntentJournal.Type.DELETE,Integer.parseInt(VLANID),traversedNEPs));
+            if(!TapiDataStoreManager.deleteConnectivityService(dataBroker,csUuid,connectionUuids)){
+                intentJournal.end(csUuid);
+                throw new ProvisioningException("Error deleting connectivity-service "+csUuid);
+            }
 
-        // DEVICE CONFIGURATION
-        // Retrive the pathID from connectivity-service, retrive the path with pathID from PCE and compute of traversed NEPs
-        String pathID = TapiConnectivityContextUtils.searchPathID(removedCs.getName());
+            // UPDATE TOPOLOGY-CONTEXT
+            // Delete all CEP used in this CS: for this step, use the ROUTE field of the topConnection
+            // which contains, as first element, the list (unordered) of all used CEPs.
+            if(!TapiDataStoreManager.removeCEPs(dataBroker,routeCeps)){
+                throw new ProvisioningException("Error removing CEPs from the topology");
+            }
+            intentJournal.phase(csUuid,IntentJournal.Phase.STORED);
+
+            // DEVICE CONFIGURATION
+            VLANProvisioning vlanProvisioning = vlanProvisioning(traversedNEPs,VLANID);
+            vlanProvisioning.deleteVLAN();
+            intentJournal.end(csUuid);
+            // the VLAN is free again on the NEPs of the connectivity-service,
+            // if a device failed it stays reserved until the recovery removes it
+            vlanPool.release(nepKeys,Integer.parseInt(VLANID));
+        } finally {
+            if(intentJournal.isOpen(csUuid))
+                intentJournal.leaveToRecovery(csUuid);
+            resourceLocks.unlock(locks);
+        }
+    }
+
+    // RECOVERY
+    // Complete or roll back an intent left unfinished by the previous run, the steps already done are skipped:
+    // - a creation that reached both the datastore and the devices is completed
+    // - any other creation is rolled back and a deletion is completed: the connectivity-service is removed
+    //   from the datastore if still there, and the VLAN from the devices where it is still configured.
+    //   The CEPs of a creation may have been added without the connectivity-service, they are removed by their UUID
+    public void recoverIntent(IntentJournal.Intent intent) throws ProvisioningException {
+        String csUuid = intent.getId();
+        List<String> nepKeys = new ArrayList<>();
+        Set<String> nodes = new LinkedHashSet<>();
+        for(NodeEdgePoint nep: intent.getTraversedNEPs()){
+            nepKeys.add(ResourceLocks.nepKey(nep.getNodeUuid(),nep.getNodeEdgePointUuid()));
+            nodes.add(nep.getNodeUuid().getValue());
+        }
+        checkNodesAvailable(nodes);
+        List<Lock> locks = lockNeps(nepKeys);
+        try {
+            boolean exists = TapiDataStoreManager.existConnectivityService(dataBroker,csUuid);
+            if(intent.getType() == IntentJournal.Type.CREATE && intent.reached(IntentJournal.Phase.CONFIGURED)
+                    && (exists || intent.reached(IntentJournal.Phase.STORED))){
+                LOG.info("recoverIntent - creation of connectivity-service "+csUuid+" was completed");
+                intentJournal.end(csUuid);
+                return;
+            }
+            if(exists)
+                removeFromDataStore(csUuid);
+            else if(intent.getType() == IntentJournal.Type.CREATE
+                    && !TapiDataStoreManager.removeCEPs(dataBroker,TapiConnectivityContextUtils.createCEPs(new Uuid(csUuid),intent.getTraversedNEPs())))
+                throw new ProvisioningException("Error removing CEPs from the topology");
+            VLANProvisioning vlanProvisioning = vlanProvisioning(intent.getTraversedNEPs(),String.valueOf(intent.getVlan()));
+            vlanProvisioning.removeVLAN();
+            intentJournal.end(csUuid);
+            vlanPool.release(nepKeys,intent.getVlan());
+            LOG.info("recoverIntent - "+intent.getType()+" of connectivity-service "+csUuid+" recovered, VLAN "
+                    +intent.getVlan()+" removed");
+        } finally {
+            resourceLocks.unlock(locks);
+        }
+    }
+
+    // Delete the connectivity-service, its connections and route, and its CEPs from the topology
+    private void removeFromDataStore(String csUuid) throws ProvisioningException {
+        ConnectivityService cs = TapiDataStoreManager.readConnectivityService(dataBroker,csUuid);
+        if(cs == null)
+            return;
+        List<Uuid> connectionUuids = new ArrayList<>();
+        List<org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.route.ConnectionEndPoint> routeCeps =
+                new ArrayList<>();
+        if(cs.getConnection() != null && !cs.getConnection().isEmpty()){
+            Uuid topConnectionUuid = cs.getConnection().get(0).getConnectionUuid();
+            connectionUuids.add(topConnectionUuid);
+            Connection topConnection = TapiDataStoreManager.readConnection(dataBroker,topConnectionUuid.getValue());
+            if(topConnection != null){
+                if(topConnection.getLowerConnection() != null){
+                    for(LowerConnection lwc: topConnection.getLowerConnection())
+                        connectionUuids.add(lwc.getConnectionUuid());
+                }
+                if(topConnection.getRoute() != null && !topConnection.getRoute().isEmpty())
+                    routeCeps = topConnection.getRoute().get(0).getConnectionEndPoint();
+            }
+        }
+        if(!TapiDataStoreManager.deleteConnectivityService(dataBroker,csUuid,connectionUuids))
+            throw new ProvisioningException("Error deleting connectivity-service "+csUuid);
+        if(!routeCeps.isEmpty() && !TapiDataStoreManager.removeCEPs(dataBroker,routeCeps))
+            throw new ProvisioningException("Error removing CEPs from the topology");
+    }
+
+    // Retrive the pathID from connectivity-service, retrive the path with pathID from PCE and compute of traversed NEPs
+    ArrayList<NodeEdgePoint> getTraversedNEPsFromPCE(ConnectivityService cs) throws ProvisioningException, PathComputationException {
+        String pathID = TapiConnectivityContextUtils.searchPathID(cs.getName());
         LOG.info("deleteConnectivityService - PathID "+pathID);
         if (pathID == null){
             throw new PathComputationException("Path not found in connectivity-service");
         }
-        PCEClient pceClient = new PCEClient(pceIp,pcePort);
-        Path path = pceClient.getP2PPath(pathID);
+        Path path = waitForPath(pce.getP2PPath(pathID));
         if (path == null){
             throw new PathComputationException("Path not found from PCE");
         }
         // Retrieve all the traversed NEPs using the computed PATH, the internal ones are retrieved from the traversed links
         // the "edge" NEPs are added retrieving them from the SIPs
         ArrayList<String> sips = new ArrayList<>();
-        sips.add(removedCs.getEndPoint().get(0).getServiceInterfacePoint().getServiceInterfacePointUuid().getValue());
-        sips.add(removedCs.getEndPoint().get(1).getServiceInterfacePoint().getServiceInterfacePointUuid().getValue());
-        ArrayList<NodeEdgePoint> traversedNEPs = PathComputationUtils.buildTraversedNEPList(topology,path,sips);
+        sips.add(cs.getEndPoint().get(0).getServiceInterfacePoint().getServiceInterfacePointUuid().getValue());
+        sips.add(cs.getEndPoint().get(1).getServiceInterfacePoint().getServiceInterfacePointUuid().getValue());
+        return PathComputationUtils.buildTraversedNEPList(topologyIndex,path,sips);
+    }
 
-        String VLANID = getVLAN(removedCs.getEndPoint().get(0));
-        VLANProvisioning vlanProvisioning = new VLANProvisioning(mps,traversedNEPs,VLANID);
-        vlanProvisioning.deleteVLAN();
+    // Configuration of the VLAN on the devices of the traversed NEPs
+    VLANProvisioning vlanProvisioning(ArrayList<NodeEdgePoint> traversedNEPs, String VLANID) throws ProvisioningException {
+        return new VLANProvisioning(mountpointManager,deviceConfigCache,nodeTaskExecutor,commitBatcher,traversedNEPs,VLANID);
     }
 
+    // Reject the request before touching the datastore or any device if a node of the path is not connected
+    void checkNodesAvailable(Set<String> nodes) throws ProvisioningException {
+        List<String> notAvailable = new ArrayList<>();
+        for(String node: nodes){
+            if(!mountpointManager.isAvailable(node))
+                notAvailable.add(node);
+        }
+        if(!notAvailable.isEmpty())
+            throw new ProvisioningException("Nodes not connected: "+notAvailable);
+    }
+
+    List<Lock> lockNeps(List<String> nepKeys) throws ProvisioningException {
+        try {
+            List<Lock> locks = resourceLocks.lockNeps(nepKeys);
+            if(locks == null)
+                throw new ProvisioningException("Timeout waiting for the NEPs used by other connectivity-services");
+            return locks;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProvisioningException("Interrupted while waiting for the NEPs locks");
+        }
+    }
+
+
+    // Wait for the answer of the PCE, unwrapping the PathComputationException raised by the client
+    private Path waitForPath(CompletableFuture<Path> futurePath) throws PathComputationException {
+        try {
+            return futurePath.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PathComputationException("Interrupted while waiting for the PCE");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PathComputationException)
+                throw (PathComputationException) e.getCause();
+            throw new PathComputationException("Error contacting the PCE: " + e.getCause().getMessage());
+        }
+    }
 
-    private String getVLAN(org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.service.EndPoint ep)
+    String getVLAN(org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.service.EndPoint ep)
             throws ProvisioningException {
         EndPoint1 ethAugm1 = ep.augmentation(EndPoint1.class);
 
@@ -0,0 +1,463 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.nextworks.provisioningappcomplete.impl.netconf.DeviceCommitBatcher;
+import it.nextworks.provisioningappcomplete.impl.netconf.DeviceWriteBatch;
+import it.nextworks.provisioningappcomplete.impl.netconf.MountpointManager;
+import it.nextworks.provisioningappcomplete.impl.netconf.NodeAvailabilityListener;
+import it.nextworks.provisioningappcomplete.impl.provisioning.NodeTaskExecutor.NodeTask;
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiDataStoreManager;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiTopologyIndex;
+import org.opendaylight.mdsal.binding.api.DataBroker;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.sub.network.network.element.MpFlow;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.context.ConnectivityContext;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+// Reconciliation of the devices with the connectivity-services in the datastore.
+// Each run reconciles the next nodesPerRun connected nodes (the nodes just reconnected first) in parallel on the
+// NodeTaskExecutor, so the network is covered incrementally and a device is never read by more than maxTasksPerNode tasks.
+// The eth-ports of the connectivity-services of a node and the mp-flows of its network elements are read again from
+// the device, not from the DeviceConfigCache, which is neither filled nor cleared, and compared with the VlanServiceIndex
+// (the eth-ports of each connectivity-service holding the locks of its NEPs):
+// - missing: a connectivity-service whose flowpoints or mp-flow are not on the device
+// - orphan: an mp-flow on the device not belonging to any connectivity-service
+// A request in progress may change a device while it is read, so a drift is repaired (when enabled) only if it is
+// found again at the next run of the node: a missing VLAN is configured again if none of its flowpoints is on the device,
+// an orphan mp-flow is removed. Any other drift is only reported.
+public class ReconciliationService implements NodeAvailabilityListener, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ReconciliationService.class);
+    private final DataBroker dataBroker;
+    private final MountpointManager mountpointManager;
+    private final DeviceConfigCache deviceConfigCache;
+    private final TapiTopologyIndex topologyIndex;
+    private final ResourceLocks resourceLocks;
+    private final NodeTaskExecutor nodeTaskExecutor;
+    private final DeviceCommitBatcher commitBatcher;
+    private final IntentJournal intentJournal;
+    private final boolean repair;
+    private final int nodesPerRun;
+    private final long periodSeconds;
+    private final ScheduledExecutorService scheduler;
+    // nodes to be reconciled at the next run, before the others
+    private final Set<String> reconnectedNodes = new LinkedHashSet<>();
+    private int nextNode;
+    // drifts found at the last run of each node
+    private final Map<String, Set<String>> suspectedDrifts = new ConcurrentHashMap<>();
+    // metrics, since the start
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong nodesReconciled = new AtomicLong();
+    private final AtomicLong objectsRead = new AtomicLong();
+    private final AtomicLong missingFound = new AtomicLong();
+    private final AtomicLong orphansFound = new AtomicLong();
+    private final AtomicLong repaired = new AtomicLong();
+    private volatile long lastRunMillis;
+    private volatile double lastRunObjectsPerSecond;
+
+    // Outcome of the reconciliation of a node
+    private static final class NodeReport {
+        private int objectsRead;
+        private int missing;
+        private int orphans;
+        private int repaired;
+    }
+
+    public ReconciliationService(DataBroker dataBroker, MountpointManager mountpointManager,
+                                 DeviceConfigCache deviceConfigCache, TapiTopologyIndex topologyIndex, ResourceLocks resourceLocks,
+                                 NodeTaskExecutor nodeTaskExecutor, DeviceCommitBatcher commitBatcher, IntentJournal intentJournal,
+                                 boolean repair, int nodesPerRun, long periodSeconds) {
+        this.dataBroker = dataBroker;
+        this.mountpointManager = mountpointManager;
+        this.deviceConfigCache = deviceConfigCache;
+        this.topologyIndex = topologyIndex;
+        this.resourceLocks = resourceLocks;
+        this.nodeTaskExecutor = nodeTaskExecutor;
+        this.commitBatcher = commitBatcher;
+        this.intentJournal = intentJournal;
+        this.repair = repair;
+        this.nodesPerRun = nodesPerRun;
+        this.periodSeconds = periodSeconds;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("reconciliation-%d").setDaemon(true).build());
+    }
+
+    // A period of 0 disables the reconciliation
+    public void start() {
+        if (periodSeconds <= 0)
+            return;
+        LOG.info("ReconciliationService - start: " + nodesPerRun + " nodes every " + periodSeconds + " s, repair "
+                + (repair ? "enabled" : "disabled"));
+        scheduler.scheduleWithFixedDelay(this::reconcile, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    // NODE AVAILABILITY
+    // A reconnected node may have been changed meanwhile, the drifts found before are not valid anymore
+    @Override
+    public void onNodeAvailable(String nodeId) {
+        suspectedDrifts.remove(nodeId);
+        synchronized (reconnectedNodes) {
+            reconnectedNodes.add(nodeId);
+        }
+    }
+
+    @Override
+    public void onNodeUnavailable(String nodeId) {
+        suspectedDrifts.remove(nodeId);
+        synchronized (reconnectedNodes) {
+            reconnectedNodes.remove(nodeId);
+        }
+    }
+
+    // RUN
+    private void reconcile() {
+        // an exception would cancel the next runs
+        try {
+            List<String> nodes = nextNodes();
+            if (nodes.isEmpty())
+                return;
+            long start = System.currentTimeMillis();
+            VlanServiceIndex index = VlanServiceIndex.build(TapiDataStoreManager.readConnectivityContext(dataBroker),
+                    TapiDataStoreManager.readServiceRoutes(dataBroker), intentJournal.getOpenIntents());
+            Map<String, NodeReport> reports = new ConcurrentHashMap<>();
+            Map<String, NodeTask> tasks = new LinkedHashMap<>();
+            for (String nodeId : nodes)
+                tasks.put(nodeId, () -> reports.put(nodeId, reconcileNode(nodeId, index)));
+            try {
+                nodeTaskExecutor.runAll(tasks);
+            } catch (ProvisioningException ex) {
+                LOG.warn("ReconciliationService - reconcile: " + ex.getMessage());
+            }
+            record(reports.values(), System.currentTimeMillis() - start);
+        } catch (RuntimeException ex) {
+            LOG.error("ReconciliationService - reconcile: " + ex.getMessage());
+        }
+    }
+
+    // The reconnected nodes, then the connected ones in order starting after the last reconciled
+    private List<String> nextNodes() {
+        List<String> available = new ArrayList<>(new TreeSet<>(mountpointManager.getAvailableNodes()));
+        Set<String> selected = new LinkedHashSet<>();
+        synchronized (reconnectedNodes) {
+            for (String nodeId : new ArrayList<>(reconnectedNodes)) {
+                if (selected.size() == nodesPerRun)
+                    break;
+                reconnectedNodes.remove(nodeId);
+                if (available.contains(nodeId))
+                    selected.add(nodeId);
+            }
+        }
+        for (int i = 0; i < available.size() && selected.size() < nodesPerRun; i++) {
+            selected.add(available.get(nextNode % available.size()));
+            nextNode = (nextNode + 1) % available.size();
+        }
+        return new ArrayList<>(selected);
+    }
+
+    private NodeReport reconcileNode(String nodeId, VlanServiceIndex index) throws ProvisioningException {
+        NodeReport report = new NodeReport();
+        Set<String> previous = suspectedDrifts.getOrDefault(nodeId, Collections.emptySet());
+        Set<String> drifts = new HashSet<>();
+        // the eth-ports and mp-flows are read from the device, not from the cache, and they are not cached:
+        // only the requests, holding the locks of the NEPs, fill the cache
+        Map<Long, List<MpFlow>> mpFlows = new HashMap<>();
+
+        // CONNECTIVITY-SERVICES -> DEVICE
+        // mp-flows of the connectivity-services, by network element
+        Map<Long, Set<Long>> knownFlows = new HashMap<>();
+        for (VlanServiceIndex.Entry entry : index.getNode(nodeId)) {
+            // a request on the NEPs would change them while they are read
+            List<Lock> locks = lockNeps(nepKeys(entry));
+            if (locks == null) {
+                LOG.warn("ReconciliationService - node " + nodeId + ": VLAN " + entry.getVlan() + " not checked: NEPs busy");
+                continue;
+            }
+            VLANProvisioning.VlanOnNode onDevice;
+            try {
+                onDevice = vlanProvisioning(entry).inspectVLANOnDevice(entry.getNepIndex(), mpFlows);
+            } catch (ProvisioningException ex) {
+                LOG.warn("ReconciliationService - node " + nodeId + ": VLAN " + entry.getVlan() + " not checked: " + ex.getMessage());
+                continue;
+            } finally {
+                resourceLocks.unlock(locks);
+            }
+            report.objectsRead += 2;
+            if (onDevice.getFlowId() != null)
+                knownFlows.computeIfAbsent(networkElement(nodeNep(entry)), k -> new HashSet<>()).add(onDevice.getFlowId());
+            // an intent in progress may have configured the device or not yet
+            if (onDevice.isConfigured() || entry.isInProgress())
+                continue;
+            String drift = "missing " + entry.getCsUuid();
+            report.missing++;
+            LOG.warn("ReconciliationService - node " + nodeId + ": VLAN " + entry.getVlan() + " of connectivity-service "
+                    + entry.getCsUuid() + " missing on the device (" + onDevice + ")");
+            if (repair && previous.contains(drift) && repairMissing(nodeId, entry, onDevice))
+                report.repaired++;
+            else
+                drifts.add(drift);
+        }
+
+        // DEVICE -> CONNECTIVITY-SERVICES
+        for (Long networkElement : networkElements(nodeId, index)) {
+            List<MpFlow> flows = mpFlows.get(networkElement);
+            if (flows == null)
+                flows = deviceConfigCache.fetchMultiPointFlows(nodeId, networkElement);
+            report.objectsRead += flows.size();
+            for (MpFlow flow : flows) {
+                if (knownFlows.getOrDefault(networkElement, Collections.emptySet()).contains(flow.getMpFlowId()))
+                    continue;
+                // the flowpoints are part of the drift, an ID released and allocated again is another mp-flow
+                String drift = "orphan " + networkElement + "/" + flow.getMpFlowId() + "/"
+                        + (flow.getFlowpoint() == null ? 0 : new HashSet<>(flow.getFlowpoint()).hashCode());
+                report.orphans++;
+                LOG.warn("ReconciliationService - node " + nodeId + ": mp-flow " + flow.getMpFlowId() + " of network element "
+                        + networkElement + " not used by any connectivity-service");
+                if (repair && previous.contains(drift) && removeOrphan(nodeId, networkElement, flow, index))
+                    report.repaired++;
+                else
+                    drifts.add(drift);
+            }
+        }
+        if (drifts.isEmpty())
+            suspectedDrifts.remove(nodeId);
+        else
+            suspectedDrifts.put(nodeId, drifts);
+        return report;
+    }
+
+    // REPAIR
+    // Configure again the VLAN on the node holding the NEPs, as a request would do: the connectivity-service
+    // must still be stored and not changed by a request meanwhile
+    private boolean repairMissing(String nodeId, VlanServiceIndex.Entry entry, VLANProvisioning.VlanOnNode onDevice) {
+        if (!onDevice.isAbsent()) {
+            LOG.warn("ReconciliationService - node " + nodeId + ": VLAN " + entry.getVlan() + " of connectivity-service "
+                    + entry.getCsUuid() + " partially configured, to be repaired manually");
+            return false;
+        }
+        List<Lock> locks = lockNeps(nepKeys(entry));
+        if (locks == null)
+            return false;
+        try {
+            if (!TapiDataStoreManager.existConnectivityService(dataBroker, entry.getCsUuid()) || intentJournal.isOpen(entry.getCsUuid()))
+                return false;
+            VLANProvisioning vlanProvisioning = vlanProvisioning(entry);
+            if (!vlanProvisioning.inspectVLANOnDevice(entry.getNepIndex(), new HashMap<Long, List<MpFlow>>()).isAbsent())
+                return false;
+            vlanProvisioning.repairVLANOnNode(entry.getNepIndex());
+            LOG.info("ReconciliationService - node " + nodeId + ": VLAN " + entry.getVlan() + " of connectivity-service "
+                    + entry.getCsUuid() + " configured again");
+            return true;
+        } catch (ProvisioningException ex) {
+            LOG.error("ReconciliationService - node " + nodeId + ": VLAN " + entry.getVlan() + " not repaired: " + ex.getMessage());
+            return false;
+        } finally {
+            resourceLocks.unlock(locks);
+        }
+    }
+
+    // Remove the mp-flow holding the locks of the NEPs of its network element, as a request would do: the mp-flow
+    // must still be on the device and not be used by a connectivity-service stored or in progress meanwhile.
+    // The flowpoints of the mp-flow are left on the eth-ports, their VLAN is not known
+    private boolean removeOrphan(String nodeId, Long networkElement, MpFlow flow, VlanServiceIndex index) {
+        if (flow.getFlowpoint() == null || flow.getFlowpoint().isEmpty()) {
+            LOG.warn("ReconciliationService - node " + nodeId + ": mp-flow " + flow.getMpFlowId() + " without flowpoints, to be removed manually");
+            return false;
+        }
+        List<Lock> locks = lockNeps(networkElementNepKeys(nodeId, networkElement, index));
+        if (locks == null)
+            return false;
+        try {
+            if (!isStillOrphan(nodeId, networkElement, flow)) {
+                LOG.info("ReconciliationService - node " + nodeId + ": mp-flow " + flow.getMpFlowId() + " changed meanwhile, not removed");
+                return false;
+            }
+            DeviceWriteBatch batch = new DeviceWriteBatch(mountpointManager, nodeId)
+                    .delete(VLANProvisioning.mpFlowIid(flow.getFlowpoint().get(0), flow.getMpFlowId()));
+            // a failed transaction leaves the device as it is, the cache is still valid
+            if (!commitBatcher.commit(batch)) {
+                LOG.error("ReconciliationService - node " + nodeId + ": mp-flow " + flow.getMpFlowId() + " not removed");
+                return false;
+            }
+            deviceConfigCache.removeMultiPointFlow(nodeId, networkElement, flow.getMpFlowId());
+            LOG.info("ReconciliationService - node " + nodeId + ": orphan mp-flow " + flow.getMpFlowId() + " removed");
+            return true;
+        } catch (ProvisioningException ex) {
+            LOG.error("ReconciliationService - node " + nodeId + ": mp-flow " + flow.getMpFlowId() + " not removed: " + ex.getMessage());
+            return false;
+        } finally {
+            resourceLocks.unlock(locks);
+        }
+    }
+
+    // To be called holding the locks of the NEPs of the network element: the mp-flow is still on the device with the same
+    // flowpoints, and none of the connectivity-services now stored or in progress on the node uses it
+    private boolean isStillOrphan(String nodeId, Long networkElement, MpFlow flow) throws ProvisioningException {
+        List<MpFlow> flows = deviceConfigCache.fetchMultiPointFlows(nodeId, networkElement);
+        if (!flow.getMpFlowId().equals(VLANProvisioning.findMultiPointFlowId(flows, flow.getFlowpoint())))
+            return false;
+        ConnectivityContext ctx = TapiDataStoreManager.readConnectivityContext(dataBroker);
+        // the connectivity-services are not known
+        if (ctx == null)
+            return false;
+        VlanServiceIndex index = VlanServiceIndex.build(ctx, TapiDataStoreManager.readServiceRoutes(dataBroker),
+                intentJournal.getOpenIntents());
+        Map<Long, List<MpFlow>> mpFlows = new HashMap<>();
+        mpFlows.put(networkElement, flows);
+        for (VlanServiceIndex.Entry entry : index.getNode(nodeId)) {
+            if (networkElement.equals(networkElement(nodeNep(entry)))
+                    && flow.getMpFlowId().equals(vlanProvisioning(entry).inspectVLANOnDevice(entry.getNepIndex(), mpFlows).getFlowId()))
+                return false;
+        }
+        return true;
+    }
+
+    // LOCKS
+    // The locks of the NEPs, null if not acquired
+    private List<Lock> lockNeps(Collection<String> nepKeys) {
+        try {
+            return resourceLocks.lockNeps(nepKeys);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // The 2 NEPs of the connectivity-service on the node
+    private static List<String> nepKeys(VlanServiceIndex.Entry entry) {
+        List<String> nepKeys = new ArrayList<>();
+        for (NodeEdgePoint nep : entry.getTraversedNEPs().subList(entry.getNepIndex(), entry.getNepIndex() + 2))
+            nepKeys.add(ResourceLocks.nepKey(nep.getNodeUuid(), nep.getNodeEdgePointUuid()));
+        return nepKeys;
+    }
+
+    // The NEPs of the network element in the topology and in the connectivity-services of the node:
+    // no request can create or remove an mp-flow of the network element while they are held
+    private List<String> networkElementNepKeys(String nodeId, Long networkElement, VlanServiceIndex index) {
+        Set<String> nepKeys = new TreeSet<>();
+        for (VlanServiceIndex.Entry entry : index.getNode(nodeId)) {
+            if (networkElement.equals(networkElement(nodeNep(entry))))
+                nepKeys.addAll(nepKeys(entry));
+        }
+        Node node = topologyIndex.getNode(nodeId);
+        if (node != null && node.getOwnedNodeEdgePoint() != null) {
+            for (OwnedNodeEdgePoint onep : node.getOwnedNodeEdgePoint()) {
+                if (onep.getUuid().getValue().startsWith(networkElement + "-"))
+                    nepKeys.add(ResourceLocks.nepKey(node.getUuid(), onep.getUuid()));
+            }
+        }
+        return new ArrayList<>(nepKeys);
+    }
+
+    private VLANProvisioning vlanProvisioning(VlanServiceIndex.Entry entry) throws ProvisioningException {
+        return new VLANProvisioning(mountpointManager, deviceConfigCache, nodeTaskExecutor, commitBatcher,
+                entry.getTraversedNEPs(), String.valueOf(entry.getVlan()));
+    }
+
+    // The network elements of the NEPs of the node in the topology and of its connectivity-services
+    private Set<Long> networkElements(String nodeId, VlanServiceIndex index) {
+        Set<Long> networkElements = new TreeSet<>();
+        for (VlanServiceIndex.Entry entry : index.getNode(nodeId))
+            networkElements.add(networkElement(nodeNep(entry)));
+        Node node = topologyIndex.getNode(nodeId);
+        if (node != null && node.getOwnedNodeEdgePoint() != null) {
+            for (OwnedNodeEdgePoint onep : node.getOwnedNodeEdgePoint()) {
+                try {
+                    networkElements.add(Long.valueOf(onep.getUuid().getValue().split("-")[0]));
+                } catch (NumberFormatException ex) {
+                    LOG.warn("ReconciliationService - NEP " + onep.getUuid().getValue() + " of node " + nodeId + " not valid");
+                }
+            }
+        }
+        return networkElements;
+    }
+
+    private static NodeEdgePoint nodeNep(VlanServiceIndex.Entry entry) {
+        return entry.getTraversedNEPs().get(entry.getNepIndex());
+    }
+
+    // NEP Uuid is similar to 1-1-1-1, the network element first
+    private static Long networkElement(NodeEdgePoint nep) {
+        return Long.valueOf(nep.getNodeEdgePointUuid().getValue().split("-")[0]);
+    }
+
+    // METRICS
+    private void record(Iterable<NodeReport> reports, long millis) {
+        int nodes = 0, objects = 0, missing = 0, orphans = 0, fixed = 0;
+        for (NodeReport report : reports) {
+            nodes++;
+            objects += report.objectsRead;
+            missing += report.missing;
+            orphans += report.orphans;
+            fixed += report.repaired;
+        }
+        runs.incrementAndGet();
+        nodesReconciled.addAndGet(nodes);
+        objectsRead.addAndGet(objects);
+        missingFound.addAndGet(missing);
+        orphansFound.addAndGet(orphans);
+        repaired.addAndGet(fixed);
+        lastRunMillis = millis;
+        lastRunObjectsPerSecond = millis == 0 ? objects : objects * 1000.0 / millis;
+        LOG.info("ReconciliationService - " + nodes + " nodes reconciled in " + millis + " ms, " + objects + " objects read ("
+                + String.format("%.1f", lastRunObjectsPerSecond) + "/s), " + missing + " missing, " + orphans + " orphans, "
+                + fixed + " repaired");
+    }
+
+    public long getRuns() {
+        return runs.get();
+    }
+
+    public long getNodesReconciled() {
+        return nodesReconciled.get();
+    }
+
+    public long getObjectsRead() {
+        return objectsRead.get();
+    }
+
+    public long getMissingFound() {
+        return missingFound.get();
+    }
+
+    public long getOrphansFound() {
+        return orphansFound.get();
+    }
+
+    public long getRepaired() {
+        return repaired.get();
+    }
+
+    public long getLastRunMillis() {
+        return lastRunMillis;
+    }
+
+    public double getLastRunObjectsPerSecond() {
+        return lastRunObjectsPerSecond;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
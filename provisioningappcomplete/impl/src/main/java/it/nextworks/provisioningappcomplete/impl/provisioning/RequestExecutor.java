@@ -0,0 +1,32 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Executes the stages of the connectivity-service requests, so that the RPC threads return immediately.
+// Threads and queue are bounded: when the queue is full the request is rejected (RejectedExecutionException)
+// instead of piling up without limit.
+public class RequestExecutor implements Executor, AutoCloseable {
+    private final ThreadPoolExecutor executor;
+
+    public RequestExecutor(int threads, int queueSize) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("provisioning-request-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
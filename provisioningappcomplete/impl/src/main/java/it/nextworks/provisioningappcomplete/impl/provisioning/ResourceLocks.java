@@ -0,0 +1,46 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import com.google.common.util.concurrent.Striped;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+// Locks on the NEPs used by the connectivity-services, striped on the node UUID and NEP UUID.
+// Requests whose paths do not share any NEP proceed in parallel, the ones sharing a NEP are serialized
+// while they configure the devices and update the datastore.
+// The stripes are always acquired in the same order (Striped.bulkGet), so 2 requests cannot deadlock.
+public class ResourceLocks {
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceLocks.class);
+    private static final int STRIPES = 1024;
+    private static final long LOCK_TIMEOUT_SECONDS = 60;
+    private final Striped<Lock> stripes = Striped.lock(STRIPES);
+
+    // Acquire the locks of all the NEPs, it returns the acquired locks or null if they are not available before the timeout
+    public List<Lock> lockNeps(Collection<String> nepKeys) throws InterruptedException {
+        List<Lock> acquired = new ArrayList<>();
+        for (Lock lock : stripes.bulkGet(nepKeys)) {
+            if (!lock.tryLock(LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.error("ResourceLocks - lockNeps: timeout waiting for NEPs " + nepKeys);
+                unlock(acquired);
+                return null;
+            }
+            acquired.add(lock);
+        }
+        return acquired;
+    }
+
+    public void unlock(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--)
+            locks.get(i).unlock();
+    }
+
+    public static String nepKey(Uuid nodeUuid, Uuid nepUuid) {
+        return nodeUuid.getValue() + "/" + nepUuid.getValue();
+    }
+}
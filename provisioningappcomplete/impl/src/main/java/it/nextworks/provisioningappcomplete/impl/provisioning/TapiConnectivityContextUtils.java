@@ -14,12 +14,22 @@ import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev20061
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectivityServiceBuilder;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.service.EndPoint;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.service.EndPointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.service.end.point.ServiceInterfacePointBuilder;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.eth.rev200423.*;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.eth.rev200423.context.connectivity.context.connectivity.service.end.point.EthConnectivityServiceEndPointSpecBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.eth.rev200423.eth.connectivity.service.end.point.spec.EthTerminationCommonPacBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.service.routes.ServiceRoute;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.service.routes.ServiceRouteBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.service.routes.service.route.TraversedNep;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.service.routes.service.route.TraversedNepBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.UUID;
 
@@ -30,6 +40,23 @@ public class TapiConnectivityContextUtils {
         throw new IllegalStateException("Instantiating utility class.");
     }
 
+    // Create a new CEP reference for each traversed NEP, keeping the order of the path. The UUID of a CEP is derived from
+    // the connectivity-service and the NEP, so the CEPs of an intent can be removed by the recovery without reading them
+    public static ArrayList<ConnectionEndPoint> createCEPs(Uuid csUuid, List<NodeEdgePoint> traversedNEPs){
+        ArrayList<ConnectionEndPoint> connCepList = new ArrayList<>();
+        for(NodeEdgePoint nep: traversedNEPs){
+            String cepName = csUuid.getValue()+"/"+nep.getTopologyUuid().getValue()+"/"+nep.getNodeUuid().getValue()
+                    +"/"+nep.getNodeEdgePointUuid().getValue();
+            connCepList.add(new ConnectionEndPointBuilder()
+                    .setConnectionEndPointUuid(new Uuid(UUID.nameUUIDFromBytes(cepName.getBytes(StandardCharsets.UTF_8)).toString()))
+                    .setNodeEdgePointUuid(nep.getNodeEdgePointUuid())
+                    .setNodeUuid(nep.getNodeUuid())
+                    .setTopologyUuid(nep.getTopologyUuid())
+                    .build());
+        }
+        return connCepList;
+    }
+
     // This method takes as argument the list of created CEPs and the UUID of the topLevelConnection,
     // which is linked in the cs. Basically it
     //      1. Creates the top-level connection, from first CEP (over SIP1) to last CEP (over SIP2)
@@ -103,25 +130,50 @@ public class TapiConnectivityContextUtils {
         return connections;
     }
 
-    public static ConnectivityService createConnectivityService(CreateConnectivityServiceInput input, Uuid topLevelConnectionUuid, Uuid csUuid, String pathId){
-        ConnectivityServiceBuilder csBuilder = new ConnectivityServiceBuilder();
+    // The VLAN is the one requested or the one assigned by the VlanPool, it is stored as port-vid of both endpoints
+    public static ConnectivityService createConnectivityService(CreateConnectivityServiceInput input, Uuid topLevelConnectionUuid, Uuid csUuid,
+                                                                String pathId, String vlanId){
         // Endpoints are taken from the connectivity-service creation request
-        List<EndPoint> endPointList = new ArrayList<>();
-
         org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.create.connectivity.service.input.EndPoint inputEp1 = input.getEndPoint().get(0);
         org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.create.connectivity.service.input.EndPoint inputEp2 = input.getEndPoint().get(1);
 
         // Inizialize new Augmentation with VLAN info, only one augm because it is equal for both endpoints
         EndPoint2 augmInputEp1 = inputEp1.augmentation(EndPoint2.class);
+        EthTerminationCommonPacBuilder ethTermPac = new EthTerminationCommonPacBuilder();
+        if(augmInputEp1 != null && augmInputEp1.getEthConnectivityServiceEndPointSpec() != null &&
+                augmInputEp1.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac() != null){
+            ethTermPac = new EthTerminationCommonPacBuilder(augmInputEp1.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac());
+        }
+        return buildConnectivityService(new EndPointBuilder(inputEp1), new EndPointBuilder(inputEp2), ethTermPac,
+                topLevelConnectionUuid, csUuid, pathId, vlanId);
+    }
+
+    // Connectivity-service between 2 SIPs, as requested by the bulk creation
+    public static ConnectivityService createConnectivityService(String srcSip, String dstSip, Uuid topLevelConnectionUuid, Uuid csUuid,
+                                                                String pathId, String vlanId){
+        return buildConnectivityService(createEndPoint(srcSip), createEndPoint(dstSip), new EthTerminationCommonPacBuilder(),
+                topLevelConnectionUuid, csUuid, pathId, vlanId);
+    }
+
+    // the SIP is used as local-id of the endpoint, it is unique in the connectivity-service
+    private static EndPointBuilder createEndPoint(String sip){
+        return new EndPointBuilder()
+                .setLocalId(sip)
+                .setServiceInterfacePoint(new ServiceInterfacePointBuilder().setServiceInterfacePointUuid(new Uuid(sip)).build());
+    }
+
+    private static ConnectivityService buildConnectivityService(EndPointBuilder epBuilder1, EndPointBuilder epBuilder2,
+                                                                EthTerminationCommonPacBuilder ethTermPac, Uuid topLevelConnectionUuid,
+                                                                Uuid csUuid, String pathId, String vlanId){
+        ConnectivityServiceBuilder csBuilder = new ConnectivityServiceBuilder();
+        List<EndPoint> endPointList = new ArrayList<>();
         EthConnectivityServiceEndPointSpecBuilder ethConnSpec1 = new EthConnectivityServiceEndPointSpecBuilder()
-                .setEthTerminationCommonPac(augmInputEp1.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac());
-
-        EndPointBuilder epBuilder1 = new EndPointBuilder(inputEp1)
-                .addAugmentation(EndPoint1.class, new EndPoint1Builder()
-                        .setEthConnectivityServiceEndPointSpec(ethConnSpec1.build()).build());
-        EndPointBuilder epBuilder2 = new EndPointBuilder(inputEp2)
-                .addAugmentation(EndPoint1.class, new EndPoint1Builder()
-                        .setEthConnectivityServiceEndPointSpec(ethConnSpec1.build()).build());
+                .setEthTerminationCommonPac(ethTermPac.setPortVid(new Vid(vlanId)).build());
+
+        epBuilder1.addAugmentation(EndPoint1.class, new EndPoint1Builder()
+                .setEthConnectivityServiceEndPointSpec(ethConnSpec1.build()).build());
+        epBuilder2.addAugmentation(EndPoint1.class, new EndPoint1Builder()
+                .setEthConnectivityServiceEndPointSpec(ethConnSpec1.build()).build());
         endPointList.add(epBuilder1.build());
         endPointList.add(epBuilder2.build());
 
@@ -145,6 +197,40 @@ public class TapiConnectivityContextUtils {
         return csBuilder.build();
     }
 
+    // Route of the connectivity-service: the traversed NEPs in the order of the path
+    public static ServiceRoute createServiceRoute(Uuid csUuid, String pathId, List<NodeEdgePoint> traversedNEPs){
+        List<TraversedNep> neps = new ArrayList<>();
+        for(int i=0; i<traversedNEPs.size(); i++){
+            NodeEdgePoint nep = traversedNEPs.get(i);
+            neps.add(new TraversedNepBuilder()
+                    .setIndex(i)
+                    .setTopologyUuid(nep.getTopologyUuid().getValue())
+                    .setNodeUuid(nep.getNodeUuid().getValue())
+                    .setNodeEdgePointUuid(nep.getNodeEdgePointUuid().getValue())
+                    .build());
+        }
+        return new ServiceRouteBuilder()
+                .setConnectivityServiceUuid(csUuid.getValue())
+                .setPathId(pathId)
+                .setTraversedNep(neps)
+                .build();
+    }
+
+    // Traversed NEPs of a stored route, sorted by index since the list order is not kept in the datastore
+    public static ArrayList<NodeEdgePoint> getTraversedNEPs(ServiceRoute route){
+        List<TraversedNep> neps = new ArrayList<>(route.getTraversedNep());
+        neps.sort(Comparator.comparing(TraversedNep::getIndex));
+        ArrayList<NodeEdgePoint> traversedNEPs = new ArrayList<>();
+        for(TraversedNep nep: neps){
+            traversedNEPs.add(new NodeEdgePointBuilder()
+                    .setTopologyUuid(new Uuid(nep.getTopologyUuid()))
+                    .setNodeUuid(new Uuid(nep.getNodeUuid()))
+                    .setNodeEdgePointUuid(new Uuid(nep.getNodeEdgePointUuid()))
+                    .build());
+        }
+        return traversedNEPs;
+    }
+
     public static String searchPathID(List<Name> names){
         if (names!=null){
             for(Name name : names){
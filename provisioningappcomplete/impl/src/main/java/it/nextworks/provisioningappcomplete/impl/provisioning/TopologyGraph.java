@@ -0,0 +1,166 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.edge.point.MappedServiceInterfacePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Link;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact representation of the TAPI topology used by the EmbeddedPCE.
+// Nodes and links are identified by int indexes and the adjacency is stored in CSR format
+// (adjOffset/adjTarget/adjLink arrays), so that the search does not allocate anything per edge.
+public class TopologyGraph {
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyGraph.class);
+    private final String[] nodeUuids;
+    private final String[] linkUuids;
+    private final Uuid[] linkTopologyUuids;
+    private final Map<String, Integer> sipNodeIndex;
+    // neighbours of node i are adjTarget[adjOffset[i]] .. adjTarget[adjOffset[i+1]-1], reached through adjLink[]
+    private final int[] adjOffset;
+    private final int[] adjTarget;
+    private final int[] adjLink;
+
+    private TopologyGraph(String[] nodeUuids, String[] linkUuids, Uuid[] linkTopologyUuids,
+                          Map<String, Integer> sipNodeIndex, int[] adjOffset, int[] adjTarget, int[] adjLink) {
+        this.nodeUuids = nodeUuids;
+        this.linkUuids = linkUuids;
+        this.linkTopologyUuids = linkTopologyUuids;
+        this.sipNodeIndex = sipNodeIndex;
+        this.adjOffset = adjOffset;
+        this.adjTarget = adjTarget;
+        this.adjLink = adjLink;
+    }
+
+    public static TopologyGraph build(Collection<Node> nodes, Collection<Link> links) {
+        int nodeCount = nodes.size();
+        String[] nodeUuids = new String[nodeCount];
+        Map<String, Integer> nodeIndex = new HashMap<>(nodeCount * 2);
+        Map<String, Integer> sipNodeIndex = new HashMap<>();
+        int i = 0;
+        for (Node node : nodes) {
+            nodeUuids[i] = node.getUuid().getValue();
+            nodeIndex.put(nodeUuids[i], i);
+            // SIP -> node, using the NEP mappings
+            if (node.getOwnedNodeEdgePoint() != null) {
+                for (OwnedNodeEdgePoint onep : node.getOwnedNodeEdgePoint()) {
+                    if (onep.getMappedServiceInterfacePoint() != null) {
+                        for (MappedServiceInterfacePoint msip : onep.getMappedServiceInterfacePoint()) {
+                            sipNodeIndex.put(msip.getServiceInterfacePointUuid().getValue(), i);
+                        }
+                    }
+                }
+            }
+            i++;
+        }
+
+        // Each link is used in both directions, first count the degree of each node then fill the CSR arrays
+        int linkCount = links.size();
+        String[] linkUuids = new String[linkCount];
+        Uuid[] linkTopologyUuids = new Uuid[linkCount];
+        int[] linkSrc = new int[linkCount];
+        int[] linkDst = new int[linkCount];
+        int[] adjOffset = new int[nodeCount + 1];
+        int l = -1;
+        for (Link link : links) {
+            l++;
+            linkUuids[l] = link.getUuid().getValue();
+            linkSrc[l] = -1;
+            linkDst[l] = -1;
+            List<NodeEdgePoint> neps = link.getNodeEdgePoint();
+            if (neps == null || neps.size() != 2) {
+                LOG.warn("TopologyGraph - link " + linkUuids[l] + " does not have 2 node-edge-points, ignored");
+                continue;
+            }
+            linkTopologyUuids[l] = neps.get(0).getTopologyUuid();
+            Integer src = nodeIndex.get(neps.get(0).getNodeUuid().getValue());
+            Integer dst = nodeIndex.get(neps.get(1).getNodeUuid().getValue());
+            if (src == null || dst == null) {
+                LOG.warn("TopologyGraph - link " + linkUuids[l] + " references unknown nodes, ignored");
+                continue;
+            }
+            linkSrc[l] = src;
+            linkDst[l] = dst;
+            adjOffset[src + 1]++;
+            adjOffset[dst + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            adjOffset[n + 1] += adjOffset[n];
+        }
+        int[] adjTarget = new int[adjOffset[nodeCount]];
+        int[] adjLink = new int[adjOffset[nodeCount]];
+        int[] fill = Arrays.copyOf(adjOffset, nodeCount);
+        for (int e = 0; e < linkCount; e++) {
+            if (linkSrc[e] < 0)
+                continue;
+            adjTarget[fill[linkSrc[e]]] = linkDst[e];
+            adjLink[fill[linkSrc[e]]++] = e;
+            adjTarget[fill[linkDst[e]]] = linkSrc[e];
+            adjLink[fill[linkDst[e]]++] = e;
+        }
+        return new TopologyGraph(nodeUuids, linkUuids, linkTopologyUuids, sipNodeIndex,
+                adjOffset, adjTarget, adjLink);
+    }
+
+    public Uuid getLinkTopologyUuid(int link) {
+        return linkTopologyUuids[link];
+    }
+
+    public String getLinkUuid(int link) {
+        return linkUuids[link];
+    }
+
+    // Index of the node owning the NEP mapped on the SIP, -1 if the SIP is not mapped
+    public int nodeOfSip(String sipUuid) {
+        Integer node = sipNodeIndex.get(sipUuid);
+        return node == null ? -1 : node;
+    }
+
+    // Minimum hop path (BFS) between src and dst nodes.
+    // It returns the ordered indexes of the traversed links, an empty array if src == dst, null if dst is unreachable
+    public int[] shortestPath(int src, int dst) {
+        if (src == dst)
+            return new int[0];
+        int nodeCount = nodeUuids.length;
+        int[] prevNode = new int[nodeCount];
+        int[] prevLink = new int[nodeCount];
+        Arrays.fill(prevNode, -1);
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = src;
+        prevNode[src] = src;
+        while (head < tail) {
+            int current = queue[head++];
+            for (int e = adjOffset[current]; e < adjOffset[current + 1]; e++) {
+                int next = adjTarget[e];
+                if (prevNode[next] != -1)
+                    continue;
+                prevNode[next] = current;
+                prevLink[next] = adjLink[e];
+                if (next == dst)
+                    return buildLinkSequence(prevNode, prevLink, src, dst);
+                queue[tail++] = next;
+            }
+        }
+        return null;
+    }
+
+    private int[] buildLinkSequence(int[] prevNode, int[] prevLink, int src, int dst) {
+        int hops = 0;
+        for (int n = dst; n != src; n = prevNode[n])
+            hops++;
+        int[] links = new int[hops];
+        for (int n = dst; n != src; n = prevNode[n])
+            links[--hops] = prevLink[n];
+        return links;
+    }
+}
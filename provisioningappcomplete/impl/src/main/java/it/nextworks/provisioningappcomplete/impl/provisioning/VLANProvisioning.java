@@ -1,39 +1,86 @@
 package it.nextworks.provisioningappcomplete.impl.provisioning;
 
 import com.google.common.collect.Iterables;
+import it.nextworks.provisioningappcomplete.impl.netconf.DeviceCommitBatcher;
+import it.nextworks.provisioningappcomplete.impl.netconf.DeviceWriteBatch;
+import it.nextworks.provisioningappcomplete.impl.netconf.MountpointManager;
+import it.nextworks.provisioningappcomplete.impl.provisioning.NodeTaskExecutor.NodeTask;
 import it.nextworks.provisioningappcomplete.impl.provisioning.adva.AdvaEthernetPortBuilder;
-import it.nextworks.provisioningappcomplete.impl.provisioning.adva.AdvaFSP150XG400Driver;
 import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
-import org.opendaylight.mdsal.binding.api.MountPointService;
 import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.common.rev200310.AdminState;
 import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.common.rev200310.LearningType;
 import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.common.rev200310.VlanTag;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.sub.network.NetworkElement;
 import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.facility.rev200710.l2.flow.info.group.Flow;
 import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.facility.rev200710.sub.network.network.element.shelf.slot.card.ethernet.card.EthernetPort;
 import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.NetworkElement1;
-import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.NetworkElement1Builder;
-import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.flowpoint.info.group.Flowpoint;
 import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.sub.network.network.element.MpFlow;
 import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.sub.network.network.element.MpFlowBuilder;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.sub.network.network.element.MpFlowKey;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class VLANProvisioning {
     private static final Logger LOG = LoggerFactory.getLogger(VLANProvisioning.class);
-    private MountPointService mps;
+    private MountpointManager mountpointManager;
+    private DeviceConfigCache deviceConfigCache;
+    private NodeTaskExecutor nodeTaskExecutor;
+    private DeviceCommitBatcher commitBatcher;
     private ArrayList<NodeEdgePoint> traversedNEPs;
     private String vlanID;
     private VlanTag vlanTag;
-    private ArrayList<InstanceIdentifier<?>> flowpointIIDList;
+    // Tasks restoring the nodes configured by createVLAN (node id -> task), used to roll back a partial creation
+    private Map<String, NodeTask> rollbackTasks = new ConcurrentHashMap<>();
+
+    // The VLAN on a node as found on the device, null for what is missing
+    static final class VlanOnNode {
+        private final InstanceIdentifier<?> flowpoint1;
+        private final InstanceIdentifier<?> flowpoint2;
+        private final Long flowId;
+
+        private VlanOnNode(InstanceIdentifier<?> flowpoint1, InstanceIdentifier<?> flowpoint2, Long flowId) {
+            this.flowpoint1 = flowpoint1;
+            this.flowpoint2 = flowpoint2;
+            this.flowId = flowId;
+        }
+
+        Long getFlowId() {
+            return flowId;
+        }
+
+        boolean isConfigured() {
+            return flowpoint1 != null && flowpoint2 != null && flowId != null;
+        }
+
+        boolean isAbsent() {
+            return flowpoint1 == null && flowpoint2 == null;
+        }
+
+        @Override
+        public String toString() {
+            return "flowpoints " + (flowpoint1 != null) + "/" + (flowpoint2 != null) + ", mp-flow " + flowId;
+        }
+    }
 
-    public VLANProvisioning(MountPointService mps, ArrayList<NodeEdgePoint> traversedNEPs, String vlanID) throws ProvisioningException {
-        this.mps = mps;
+    public VLANProvisioning(MountpointManager mountpointManager, DeviceConfigCache deviceConfigCache,
+                            NodeTaskExecutor nodeTaskExecutor, DeviceCommitBatcher commitBatcher, ArrayList<NodeEdgePoint> traversedNEPs,
+                            String vlanID) throws ProvisioningException {
+        this.mountpointManager = mountpointManager;
+        this.deviceConfigCache = deviceConfigCache;
+        this.nodeTaskExecutor = nodeTaskExecutor;
+        this.commitBatcher = commitBatcher;
         this.traversedNEPs = traversedNEPs;
         this.vlanID = vlanID;
 
@@ -54,36 +101,149 @@ public class VLANProvisioning {
     // - declaring a FP with this VLAN over each interface (e.g. eth-port) for each node
     // - setting VLAN config on that FP
     // - creating the MultiFlow in each node, grouping FP of same VLAN
+    // The nodes are independent, so they are configured in parallel
     void createVLAN() throws ProvisioningException {
-        // Configure interfaces in each node, for each node 2 FPs that have to be used to create the MPFlow
-        // First and last interface should be configured as access port, so in a different way
+        nodeTaskExecutor.runAll(createVLANTasks());
+    }
+
+    // Restore the eth-ports and remove the mp-flows of the nodes configured by createVLAN, in parallel.
+    // It returns false if some node could not be restored, it needs then to be cleaned manually
+    boolean rollbackVLAN() {
+        if(rollbackTasks.isEmpty())
+            return true;
+        Map<String, NodeTask> tasks = new LinkedHashMap<>(rollbackTasks);
+        rollbackTasks.clear();
+        LOG.info("VLANProvisioning - Rolling back VLAN "+vlanID+" on "+tasks.size()+" nodes");
+        try {
+            nodeTaskExecutor.runAll(tasks);
+            return true;
+        } catch (ProvisioningException ex) {
+            LOG.error("VLANProvisioning - Rollback of VLAN "+vlanID+" failed: "+ex.getMessage());
+            return false;
+        }
+    }
+
+    // The configuration of each node (node id -> task), to be run by the caller
+    Map<String, NodeTask> createVLANTasks() {
+        Map<String, NodeTask> tasks = new LinkedHashMap<>();
         for(int i=0; i<traversedNEPs.size(); i=i+2){
-            ArrayList<InstanceIdentifier<?>> flowpointList = new ArrayList<>();
-            LOG.info("VLANProvisioning - Creating flowpoints for node "+traversedNEPs.get(i).getNodeUuid().getValue() +"... ");
+            final int index = i;
+            addNodeTask(tasks, traversedNEPs.get(i).getNodeUuid().getValue(), () -> createVLANOnNode(index, false));
+        }
+        return tasks;
+    }
 
-            AdvaEthernetPortBuilder builder1 = initAdvaEthernetPortBuilder(traversedNEPs.get(i));
-            // first interface config as access port
-            if( i==0 ){
-                builder1.setAsAccessPort();
-            }
-            flowpointList.add(builder1.createFlowpoint());
-            storeAdvaEthernetPortBuilder(builder1);
+    // Configure again the VLAN on the node of the NEPs i and i+1, to be called holding their locks.
+    // The eth-ports are read from the device: the cache may not know the drift being repaired
+    void repairVLANOnNode(int i) throws ProvisioningException {
+        createVLANOnNode(i, true);
+    }
 
-            AdvaEthernetPortBuilder builder2 = initAdvaEthernetPortBuilder(traversedNEPs.get(i+1));
-            // last interface config as access port
-            if( i+1 == traversedNEPs.size()-1){
-                builder2.setAsAccessPort();
+    // Configure interfaces in the node, 2 FPs that have to be used to create the MPFlow
+    // First and last interface should be configured as access port, so in a different way
+    // fromDevice: read the eth-ports from the device even if they are in the cache
+    private void createVLANOnNode(int i, boolean fromDevice) throws ProvisioningException {
+        ArrayList<InstanceIdentifier<?>> flowpointList = new ArrayList<>();
+        LOG.info("VLANProvisioning - Creating flowpoints for node "+traversedNEPs.get(i).getNodeUuid().getValue() +"... ");
+
+        AdvaEthernetPortBuilder builder1 = initAdvaEthernetPortBuilder(traversedNEPs.get(i), fromDevice);
+        // first interface config as access port
+        if( i==0 ){
+            builder1.setAsAccessPort();
+        }
+        flowpointList.add(builder1.createFlowpoint());
+
+        AdvaEthernetPortBuilder builder2 = initAdvaEthernetPortBuilder(traversedNEPs.get(i+1), fromDevice);
+        // last interface config as access port
+        if( i+1 == traversedNEPs.size()-1){
+            builder2.setAsAccessPort();
+        }
+        flowpointList.add(builder2.createFlowpoint());
+
+        // Both eth-ports and the MPFlow are written in a single transaction on the device,
+        // possibly grouped with the changes of other requests for the same node
+        DeviceWriteBatch batch = new DeviceWriteBatch(mountpointManager, traversedNEPs.get(i).getNodeUuid().getValue());
+        storeAdvaEthernetPortBuilder(batch,builder1,flowpointList.get(0));
+        storeAdvaEthernetPortBuilder(batch,builder2,flowpointList.get(1));
+        MpFlow mpFlow = createMultiPointFlow(batch,traversedNEPs.get(i),flowpointList);
+        // the id of the MPFlow is released also when the node is not connected anymore
+        boolean committed = false;
+        try {
+            committed = commitBatcher.commit(batch);
+        } finally {
+            if(!committed){
+                deviceConfigCache.releaseMultiPointFlowId(builder1.getNodeId(),builder1.getNetworkElement(),mpFlow.getMpFlowId());
+                deviceConfigCache.invalidate(batch.getNodeId());
             }
-            flowpointList.add(builder2.createFlowpoint());
-            storeAdvaEthernetPortBuilder(builder2);
-            createMultiPointFlow(traversedNEPs.get(i),traversedNEPs.get(i),flowpointList);
         }
+        if(!committed){
+            throw new ProvisioningException("Error configuring VLAN "+vlanID+" on node "+batch.getNodeId());
+        }
+        cacheEthernetPort(builder1);
+        cacheEthernetPort(builder2);
+        deviceConfigCache.putMultiPointFlow(builder1.getNodeId(),builder1.getNetworkElement(),mpFlow);
+        final Long flowId = mpFlow.getMpFlowId();
+        addNodeTask(rollbackTasks, batch.getNodeId(), () -> restoreNode(i, flowId));
+    }
+
+    // Remove the MPFlow created by createVLANOnNode and the flowpoints of the VLAN from the eth-ports.
+    // The eth-ports are read again from the device, not from the cache nor as they were before the change:
+    // what else changed on them in the meantime is kept
+    private void restoreNode(int i, Long flowId) throws ProvisioningException {
+        AdvaEthernetPortBuilder builder1 = new AdvaEthernetPortBuilder(traversedNEPs.get(i),
+                readEthernetPort(traversedNEPs.get(i), true), vlanTag);
+        InstanceIdentifier<?> iid1 = builder1.deleteFlowpoint();
+        AdvaEthernetPortBuilder builder2 = new AdvaEthernetPortBuilder(traversedNEPs.get(i+1),
+                readEthernetPort(traversedNEPs.get(i+1), true), vlanTag);
+        InstanceIdentifier<?> iid2 = builder2.deleteFlowpoint();
+        if( iid1 == null || iid2 == null){
+            throw new ProvisioningException("Flowpoint with VLANTAG not found rolling back VLAN "+vlanID+" on node "
+                    +builder1.getNodeId());
+        }
+        if( i==0 ){
+            builder1.resetAccessPort();
+        }
+        if( i+1 == traversedNEPs.size()-1){
+            builder2.resetAccessPort();
+        }
+
+        DeviceWriteBatch batch = new DeviceWriteBatch(mountpointManager, builder1.getNodeId());
+        batch.delete(mpFlowIid(iid1,flowId));
+        storeAdvaEthernetPortBuilder(batch,builder1,iid1);
+        storeAdvaEthernetPortBuilder(batch,builder2,iid2);
+        if(!commitBatcher.commit(batch)){
+            deviceConfigCache.invalidate(batch.getNodeId());
+            throw new ProvisioningException("Error rolling back VLAN "+vlanID+" on node "+batch.getNodeId());
+        }
+        cacheEthernetPort(builder1);
+        cacheEthernetPort(builder2);
+        deviceConfigCache.removeMultiPointFlow(builder1.getNodeId(),builder1.getNetworkElement(),flowId);
+        LOG.info("VLANProvisioning - VLAN "+vlanID+" rolled back on node "+batch.getNodeId());
+    }
+
+    // A shortest path traverses each node once, in any case tasks on the same node are executed in sequence
+    private static void addNodeTask(Map<String, NodeTask> tasks, String nodeId, NodeTask task){
+        tasks.merge(nodeId, task, (first, second) -> () -> {
+            first.run();
+            second.run();
+        });
     }
 
 
     private AdvaEthernetPortBuilder initAdvaEthernetPortBuilder(NodeEdgePoint nep) throws ProvisioningException {
-        AdvaFSP150XG400Driver netconfDriver = new AdvaFSP150XG400Driver(mps);
+        return initAdvaEthernetPortBuilder(nep, false);
+    }
+
+    private AdvaEthernetPortBuilder initAdvaEthernetPortBuilder(NodeEdgePoint nep, boolean fromDevice) throws ProvisioningException {
+        return new AdvaEthernetPortBuilder(nep, readEthernetPort(nep, fromDevice), vlanTag);
+    }
+
+    private EthernetPort readEthernetPort(NodeEdgePoint nep) throws ProvisioningException {
+        return readEthernetPort(nep, false);
+    }
 
+    // fromDevice: read the eth-port from the device even if it is in the cache
+    private EthernetPort readEthernetPort(NodeEdgePoint nep, boolean fromDevice) throws ProvisioningException {
         String nodeId = nep.getNodeUuid().getValue();
         // NEP Uuid is similar to 1-1-1-1
         String[] nepInfo = nep.getNodeEdgePointUuid().getValue().split("-");
@@ -91,155 +251,204 @@ public class VLANProvisioning {
         Long shelf = Long.valueOf(nepInfo[1]);
         Long slot = Long.valueOf(nepInfo[2]);
         Long portId = Long.valueOf(nepInfo[3]);
-        // retrieve current ethport
-        Optional<EthernetPort> optionalEthernetPort = netconfDriver.getEthernetPort(nodeId,networkElement,shelf,slot,portId);
+        // retrieve current ethport, from the cache if already read
+        Optional<EthernetPort> optionalEthernetPort = fromDevice
+                ? deviceConfigCache.readEthernetPort(nodeId,networkElement,shelf,slot,portId)
+                : deviceConfigCache.getEthernetPort(nodeId,networkElement,shelf,slot,portId);
         if(!optionalEthernetPort.isPresent()){
             throw new ProvisioningException("Ethernet Port in node "+nodeId + " and portId "+portId +" not defined.");
         }
-        EthernetPort ethPort = optionalEthernetPort.get();
-        AdvaEthernetPortBuilder builder = new AdvaEthernetPortBuilder(nep, ethPort,vlanTag);
-        return builder;
+        return optionalEthernetPort.get();
     }
 
-    private void storeAdvaEthernetPortBuilder(AdvaEthernetPortBuilder builder) throws ProvisioningException {
-        AdvaFSP150XG400Driver netconfDriver = new AdvaFSP150XG400Driver(mps);
+    // The eth-port as it is now on the device, the cache is neither used nor refreshed
+    private EthernetPort fetchEthernetPort(NodeEdgePoint nep) throws ProvisioningException {
+        String nodeId = nep.getNodeUuid().getValue();
+        // NEP Uuid is similar to 1-1-1-1
+        String[] nepInfo = nep.getNodeEdgePointUuid().getValue().split("-");
+        Optional<EthernetPort> optionalEthernetPort = deviceConfigCache.fetchEthernetPort(nodeId,Long.valueOf(nepInfo[0]),
+                Long.valueOf(nepInfo[1]),Long.valueOf(nepInfo[2]),Long.valueOf(nepInfo[3]));
+        if(!optionalEthernetPort.isPresent()){
+            throw new ProvisioningException("Ethernet Port in node "+nodeId + " and portId "+nepInfo[3] +" not defined.");
+        }
+        return optionalEthernetPort.get();
+    }
+
+    private void storeAdvaEthernetPortBuilder(DeviceWriteBatch batch, AdvaEthernetPortBuilder builder, InstanceIdentifier<?> flowpointIid) {
+        batch.put(ethernetPortIid(flowpointIid), builder.getEthernetPort());
+    }
 
-        netconfDriver.setEthernetPortAsAccessPort(builder.getNodeId(),builder.getNetworkElement(),builder.getShelf(),
+    private void cacheEthernetPort(AdvaEthernetPortBuilder builder) {
+        deviceConfigCache.putEthernetPort(builder.getNodeId(),builder.getNetworkElement(),builder.getShelf(),
                 builder.getSlot(),builder.getPortId(),builder.getEthernetPort());
     }
 
 
-    private void createMultiPointFlow(NodeEdgePoint nep1, NodeEdgePoint nep2, List<InstanceIdentifier<?>> fpList) throws ProvisioningException {
-        // Both NEPs belong to the same node
-        String nodeId = nep1.getNodeUuid().getValue();
-        String[] nepInfo = nep1.getNodeEdgePointUuid().getValue().split("-");
+    private MpFlow createMultiPointFlow(DeviceWriteBatch batch, NodeEdgePoint nep, List<InstanceIdentifier<?>> fpList) throws ProvisioningException {
+        // Both flowpoints belong to the same node
+        String nodeId = nep.getNodeUuid().getValue();
+        String[] nepInfo = nep.getNodeEdgePointUuid().getValue().split("-");
         Long networkElement = Long.valueOf(nepInfo[0]);
 
-        // Retrieve current MPF list
-        List<MpFlow> flowList = null;
-        Long flowId = Long.valueOf(1);
-
-        AdvaFSP150XG400Driver netconfDriver = new AdvaFSP150XG400Driver(mps);
-        Optional<NetworkElement1> optAugment = netconfDriver.getMultiPointFlows(nodeId,networkElement);
-        if(optAugment.isPresent()){
-            flowList = optAugment.get().getMpFlow();
-            if(flowList!=null && !flowList.isEmpty()){
-                flowId = Long.valueOf(flowList.size()+1);
-            }
-        }
+        // Lowest free MPF id, released if the transaction fails
+        Long flowId = deviceConfigCache.allocateMultiPointFlowId(nodeId,networkElement);
 
-        // create a new MPF
-        MpFlowBuilder builder = new MpFlowBuilder()
+        // create a new MPF, only the new entry of the mp-flow list is written
+        MpFlow mpFlow = new MpFlowBuilder()
                 .setMpFlowId(flowId)
                 .setFlowpoint(fpList)
                 .setAdminState(AdminState.InService)
-                .setTableFullAction(LearningType.Forward);
+                .setTableFullAction(LearningType.Forward)
+                .build();
+        batch.put(mpFlowIid(fpList.get(0),flowId), mpFlow);
+        LOG.info("VLANProvisioning - MPFlow "+flowId+" added to the transaction for node "+nodeId);
+        return mpFlow;
+    }
 
-        NetworkElement1Builder networkElement1Builder;
+    // The eth-port containing the flowpoint
+    private static InstanceIdentifier<EthernetPort> ethernetPortIid(InstanceIdentifier<?> flowpointIid){
+        return flowpointIid.firstIdentifierOf(EthernetPort.class);
+    }
 
-        if(flowList==null){
-            flowList = new ArrayList<>();
-        }
-        flowList.add(builder.build());
-        networkElement1Builder = new NetworkElement1Builder()
-                .setMpFlow(flowList);
-        netconfDriver.createMultiPointFlow(nodeId,networkElement,networkElement1Builder.build());
-        LOG.info("VLANProvisioning - Created MPFlow for node "+nodeId);
+    // The mp-flow entry of the network-element containing the flowpoint, mp-flows are in its NetworkElement1 augmentation
+    static InstanceIdentifier<MpFlow> mpFlowIid(InstanceIdentifier<?> flowpointIid, Long flowId){
+        return flowpointIid.firstIdentifierOf(NetworkElement.class)
+                .augmentation(NetworkElement1.class)
+                .child(MpFlow.class, new MpFlowKey(flowId));
     }
 
 
     // this method deletes a VLAN for a "flow" e.g. a MultiFlow point in Adva FSP150
     // trying to delete a FP with the MPFlow referencing it causes an error.
     // first identify and remove the MPFlow, then remove each FP of that flow
+    // The nodes are independent, so they are configured in parallel
     public void deleteVLAN() throws ProvisioningException {
-        // First, need to remove the MPFlow, and in order to identify which is the one to be removed,
-        // store all the EthBuilder and removed flowpoints
-        // then remove the MPFlow
-        // then update all the eth-ports and flowpoints
-        ArrayList<InstanceIdentifier<?>> allFlowpoints = new ArrayList<>();
-        for(int i=0; i<traversedNEPs.size(); i=i+2){
-            ArrayList<InstanceIdentifier<?>> flowpointList = new ArrayList<>();
-            LOG.info("VLANProvisioning - Deleting flowpoints for node "+traversedNEPs.get(i).getNodeUuid().getValue() +"... ");
-
-            AdvaEthernetPortBuilder builder1 = initAdvaEthernetPortBuilder(traversedNEPs.get(i));
-            InstanceIdentifier<?> iid1 = builder1.deleteFlowpoint();
-            if( iid1 == null){
-                throw new ProvisioningException("Flowpoint with VLANTAG not found");
-            }
-            flowpointList.add(iid1);
-            // first interface config as access port
-            if( i==0 ){
-                builder1.resetAccessPort();
-            }
-
+        nodeTaskExecutor.runAll(deleteVLANTasks());
+    }
 
-            AdvaEthernetPortBuilder builder2 = initAdvaEthernetPortBuilder(traversedNEPs.get(i+1));
-            InstanceIdentifier<?> iid2 = builder2.deleteFlowpoint();
-            if( iid2 == null){
-                throw new ProvisioningException("Flowpoint with VLANTAG not found");
-            }
-            flowpointList.add(iid2);
-            // last interface config as access port
-            if( i+1 == traversedNEPs.size()-1){
-                builder2.resetAccessPort();
-            }
+    Map<String, NodeTask> deleteVLANTasks() {
+        return deleteVLANTasks(false);
+    }
 
-            // First remove the MPflow for this node, then write the new eth-port
-            deleteMultiPointFlow(traversedNEPs.get(i),traversedNEPs.get(i),flowpointList);
-            storeAdvaEthernetPortBuilder(builder1);
-            storeAdvaEthernetPortBuilder(builder2);
+    // As deleteVLAN, but the nodes where the VLAN is not configured are skipped.
+    // Used by the recovery, which does not know which nodes were reached before the restart
+    void removeVLAN() throws ProvisioningException {
+        nodeTaskExecutor.runAll(deleteVLANTasks(true));
+    }
 
+    private Map<String, NodeTask> deleteVLANTasks(boolean onlyIfConfigured) {
+        Map<String, NodeTask> tasks = new LinkedHashMap<>();
+        for(int i=0; i<traversedNEPs.size(); i=i+2){
+            final int index = i;
+            addNodeTask(tasks, traversedNEPs.get(i).getNodeUuid().getValue(), () -> deleteVLANOnNode(index, onlyIfConfigured));
         }
+        return tasks;
     }
 
-    // This method deletes a MPFlow composed of the FPs in fpList
-    private void deleteMultiPointFlow(NodeEdgePoint nep1, NodeEdgePoint nep2, List<InstanceIdentifier<?>> fpList) throws ProvisioningException {
-        // Both NEPs belong to the same node
-        String nodeId = nep1.getNodeUuid().getValue();
-        String[] nepInfo = nep1.getNodeEdgePointUuid().getValue().split("-");
-        Long networkElement = Long.valueOf(nepInfo[0]);
-
-        // Retrieve current MPF list
-        List<MpFlow> flowList = null;
-
-        AdvaFSP150XG400Driver netconfDriver = new AdvaFSP150XG400Driver(mps);
-        Optional<NetworkElement1> optAugment = netconfDriver.getMultiPointFlows(nodeId,networkElement);
-        if(!optAugment.isPresent()){
-            throw new ProvisioningException("mp-flow augment not found for node "+nodeId +" and networkElement "+networkElement);
+    // First, need to remove the MPFlow, and in order to identify which is the one to be removed,
+    // store all the EthBuilder and removed flowpoints
+    // then remove the MPFlow
+    // then update all the eth-ports and flowpoints
+    private void deleteVLANOnNode(int i, boolean onlyIfConfigured) throws ProvisioningException {
+        ArrayList<InstanceIdentifier<?>> flowpointList = new ArrayList<>();
+        LOG.info("VLANProvisioning - Deleting flowpoints for node "+traversedNEPs.get(i).getNodeUuid().getValue() +"... ");
+
+        AdvaEthernetPortBuilder builder1 = initAdvaEthernetPortBuilder(traversedNEPs.get(i));
+        InstanceIdentifier<?> iid1 = builder1.deleteFlowpoint();
+        AdvaEthernetPortBuilder builder2 = initAdvaEthernetPortBuilder(traversedNEPs.get(i+1));
+        InstanceIdentifier<?> iid2 = builder2.deleteFlowpoint();
+        // the flowpoints of a node are created in the same transaction, so either both or none are on the device
+        if( onlyIfConfigured && iid1 == null && iid2 == null){
+            LOG.info("VLANProvisioning - VLAN "+vlanID+" not configured on node "+traversedNEPs.get(i).getNodeUuid().getValue());
+            return;
         }
-        flowList = optAugment.get().getMpFlow();
-        if(flowList==null || flowList.isEmpty()){
-            throw new ProvisioningException("mp-flow list is EMPTY for node "+nodeId +" and networkElement "+networkElement);
+        if( iid1 == null || iid2 == null){
+            throw new ProvisioningException("Flowpoint with VLANTAG not found");
         }
-        Long flowpointID = Long.valueOf(0);
-        for(MpFlow flow : flowList){
-            if( compareFlowpointLists(flow.getFlowpoint(),fpList) ){
-                LOG.info("MPFlow found! It will be removed..." );
-                flowpointID = flow.getMpFlowId();
-            }
+        flowpointList.add(iid1);
+        // first interface config as access port
+        if( i==0 ){
+            builder1.resetAccessPort();
         }
-        if(flowpointID == Long.valueOf(0)){
-            throw new ProvisioningException("MPFlow not found in node "+nodeId +" and networkElement "+networkElement);
+
+        flowpointList.add(iid2);
+        // last interface config as access port
+        if( i+1 == traversedNEPs.size()-1){
+            builder2.resetAccessPort();
         }
-        // remove flowpointid from device
-        if(netconfDriver.deleteMultiPointFlow(nodeId,networkElement,flowpointID)==false){
-            throw new ProvisioningException("Error deleting from "+nodeId +" and networkElement "+networkElement + " MPFlow with ID "+flowpointID);
+
+        // Remove the MPflow for this node and write the new eth-ports in a single transaction on the device
+        DeviceWriteBatch batch = new DeviceWriteBatch(mountpointManager, traversedNEPs.get(i).getNodeUuid().getValue());
+        Long flowId = deleteMultiPointFlow(batch,traversedNEPs.get(i),flowpointList);
+        storeAdvaEthernetPortBuilder(batch,builder1,iid1);
+        storeAdvaEthernetPortBuilder(batch,builder2,iid2);
+        if(!commitBatcher.commit(batch)){
+            deviceConfigCache.invalidate(batch.getNodeId());
+            throw new ProvisioningException("Error removing VLAN "+vlanID+" from node "+batch.getNodeId());
         }
+        cacheEthernetPort(builder1);
+        cacheEthernetPort(builder2);
+        deviceConfigCache.removeMultiPointFlow(builder1.getNodeId(),builder1.getNetworkElement(),flowId);
     }
 
-    // utility method to compare 2 lists of IIDs
-    private boolean compareFlowpointLists(List<InstanceIdentifier<?>> list1, List<InstanceIdentifier<?>> list2){
-        if(list1.size()==list2.size()){
-            for(int i=0; i<list1.size(); i++){
-                InstanceIdentifier<Flowpoint> iid1 = (InstanceIdentifier<Flowpoint>)list1.get(i);
-//                LOG.info(""+list2.contains(iid1));
-                if(!list2.contains(iid1)){
-                    return false;
-                }
+    // RECONCILIATION
+    // Flowpoints and mp-flow of the VLAN on the node of the NEPs i and i+1, as they are now on the device: the cache is
+    // neither used nor refreshed, the caller holds the locks of the NEPs.
+    // mpFlows are the mp-flows of the network elements of the node read from the device by the caller; those of the
+    // network element are read again if the flowpoints are there but their mp-flow is not in the list.
+    // Nothing is written: the builders work on their own eth-port, deleteFlowpoint only looks for the flowpoint with the VLAN tag
+    VlanOnNode inspectVLANOnDevice(int i, Map<Long, List<MpFlow>> mpFlows) throws ProvisioningException {
+        NodeEdgePoint nep = traversedNEPs.get(i);
+        InstanceIdentifier<?> flowpoint1 = new AdvaEthernetPortBuilder(nep, fetchEthernetPort(nep), vlanTag).deleteFlowpoint();
+        InstanceIdentifier<?> flowpoint2 = new AdvaEthernetPortBuilder(traversedNEPs.get(i+1),
+                fetchEthernetPort(traversedNEPs.get(i+1)), vlanTag).deleteFlowpoint();
+        Long flowId = null;
+        if(flowpoint1 != null && flowpoint2 != null){
+            String nodeId = nep.getNodeUuid().getValue();
+            Long networkElement = Long.valueOf(nep.getNodeEdgePointUuid().getValue().split("-")[0]);
+            List<InstanceIdentifier<?>> flowpoints = Arrays.asList(flowpoint1,flowpoint2);
+            List<MpFlow> flows = mpFlows.get(networkElement);
+            flowId = flows == null ? null : findMultiPointFlowId(flows,flowpoints);
+            if(flowId == null){
+                flows = deviceConfigCache.fetchMultiPointFlows(nodeId,networkElement);
+                mpFlows.put(networkElement,flows);
+                flowId = findMultiPointFlowId(flows,flowpoints);
             }
-            return true;
-        } else {
-            return false;
         }
+        return new VlanOnNode(flowpoint1,flowpoint2,flowId);
+    }
+
+    // ID of the mp-flow in flows made of the given flowpoints (in any order), null if there is none
+    static Long findMultiPointFlowId(List<MpFlow> flows, List<InstanceIdentifier<?>> flowpoints){
+        Set<InstanceIdentifier<?>> wanted = new HashSet<>(flowpoints);
+        for(MpFlow flow : flows){
+            if(flow.getFlowpoint() != null && flow.getFlowpoint().size() == wanted.size()
+                    && new HashSet<>(flow.getFlowpoint()).equals(wanted)){
+                return flow.getMpFlowId();
+            }
+        }
+        return null;
+    }
+
+    // This method deletes a MPFlow composed of the FPs in fpList, it returns the ID of the removed MPFlow
+    private Long deleteMultiPointFlow(DeviceWriteBatch batch, NodeEdgePoint nep, List<InstanceIdentifier<?>> fpList) throws ProvisioningException {
+        // Both flowpoints belong to the same node
+        String nodeId = nep.getNodeUuid().getValue();
+        String[] nepInfo = nep.getNodeEdgePointUuid().getValue().split("-");
+        Long networkElement = Long.valueOf(nepInfo[0]);
+
+        // Find the MPF through the flowpoint index of the cache, then on the device if the cache does not know it
+        Long flowpointID = deviceConfigCache.findMultiPointFlowId(nodeId,networkElement,fpList);
+        if(flowpointID == null){
+            LOG.info("VLANProvisioning - MPFlow not in the cache of node "+nodeId+", reading the device");
+            flowpointID = deviceConfigCache.readMultiPointFlowId(nodeId,networkElement,fpList);
+        }
+        if(flowpointID == null){
+            throw new ProvisioningException("MPFlow not found in node "+nodeId +" and networkElement "+networkElement);
+        }
+        LOG.info("MPFlow "+flowpointID+" found! It will be removed..." );
+        // remove flowpointid from device
+        batch.delete(mpFlowIid(fpList.get(0),flowpointID));
+        return flowpointID;
     }
 }
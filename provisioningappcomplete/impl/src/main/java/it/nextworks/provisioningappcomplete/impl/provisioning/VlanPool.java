@@ -0,0 +1,116 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.Connection;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectivityService;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectivityContext;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.route.ConnectionEndPoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.eth.rev200423.EndPoint1;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// VLANs in use on each NEP (keyed as in ResourceLocks), a bit set to 1 is a VLAN in use.
+// A VLAN is free on a path when it is free on all the traversed NEPs: the used bits of the NEPs
+// are OR-ed (the AND of the free bits) and the first clear bit is the lowest VLAN free along the path.
+// The pool is rebuilt from the connectivity-services stored in the connectivity-context.
+public class VlanPool {
+    private static final Logger LOG = LoggerFactory.getLogger(VlanPool.class);
+    public static final int MIN_VLAN = 1;
+    public static final int MAX_VLAN = 4094;
+    private final Map<String, BitSet> usedVlans = new HashMap<>();
+
+    // Reserve the VLANs of the connectivity-services already provisioned, on the NEPs of their top level connection
+    public synchronized void rebuild(ConnectivityContext ctx) {
+        usedVlans.clear();
+        if (ctx == null || ctx.getConnectivityService() == null)
+            return;
+        Map<String, Connection> connections = new HashMap<>();
+        if (ctx.getConnection() != null) {
+            for (Connection connection : ctx.getConnection())
+                connections.put(connection.getUuid().getValue(), connection);
+        }
+        int reserved = 0;
+        for (ConnectivityService cs : ctx.getConnectivityService()) {
+            Integer vlan = vlanOf(cs);
+            if (vlan == null || cs.getConnection() == null || cs.getConnection().isEmpty()) {
+                LOG.warn("VlanPool - rebuild: VLAN or connection missing in connectivity-service " + cs.getUuid().getValue());
+                continue;
+            }
+            Connection topConnection = connections.get(cs.getConnection().get(0).getConnectionUuid().getValue());
+            if (topConnection == null || topConnection.getRoute() == null || topConnection.getRoute().isEmpty())
+                continue;
+            List<String> nepKeys = new ArrayList<>();
+            for (ConnectionEndPoint cep : topConnection.getRoute().get(0).getConnectionEndPoint())
+                nepKeys.add(ResourceLocks.nepKey(cep.getNodeUuid(), cep.getNodeEdgePointUuid()));
+            for (String nepKey : nepKeys)
+                used(nepKey).set(vlan);
+            reserved++;
+        }
+        LOG.info("VlanPool - rebuild: reserved the VLANs of " + reserved + " connectivity-services on " + usedVlans.size() + " NEPs");
+    }
+
+    // Reserve the lowest VLAN free on all the NEPs, null if there is none
+    public synchronized Integer allocate(Collection<String> nepKeys) {
+        BitSet pathUsed = new BitSet(MAX_VLAN + 1);
+        for (String nepKey : nepKeys) {
+            BitSet used = usedVlans.get(nepKey);
+            if (used != null)
+                pathUsed.or(used);
+        }
+        int vlan = pathUsed.nextClearBit(MIN_VLAN);
+        if (vlan > MAX_VLAN)
+            return null;
+        for (String nepKey : nepKeys)
+            used(nepKey).set(vlan);
+        return vlan;
+    }
+
+    // Reserve the requested VLAN, false if it is already used on one of the NEPs
+    public synchronized boolean reserve(Collection<String> nepKeys, int vlan) {
+        for (String nepKey : nepKeys) {
+            BitSet used = usedVlans.get(nepKey);
+            if (used != null && used.get(vlan))
+                return false;
+        }
+        for (String nepKey : nepKeys)
+            used(nepKey).set(vlan);
+        return true;
+    }
+
+    public synchronized void release(Collection<String> nepKeys, int vlan) {
+        for (String nepKey : nepKeys) {
+            BitSet used = usedVlans.get(nepKey);
+            if (used == null)
+                continue;
+            used.clear(vlan);
+            if (used.isEmpty())
+                usedVlans.remove(nepKey);
+        }
+    }
+
+    private BitSet used(String nepKey) {
+        return usedVlans.computeIfAbsent(nepKey, k -> new BitSet(MAX_VLAN + 1));
+    }
+
+    // port-vid of the first endpoint, both endpoints declare the same VLAN
+    static Integer vlanOf(ConnectivityService cs) {
+        if (cs.getEndPoint() == null || cs.getEndPoint().isEmpty())
+            return null;
+        EndPoint1 ethAugm = cs.getEndPoint().get(0).augmentation(EndPoint1.class);
+        if (ethAugm == null || ethAugm.getEthConnectivityServiceEndPointSpec() == null ||
+                ethAugm.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac() == null ||
+                ethAugm.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac().getPortVid() == null)
+            return null;
+        try {
+            return Integer.valueOf(ethAugm.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac().getPortVid().getValue());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
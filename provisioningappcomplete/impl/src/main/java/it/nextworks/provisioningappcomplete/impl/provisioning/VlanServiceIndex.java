@@ -0,0 +1,123 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectivityService;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.context.ConnectivityContext;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.service.routes.ServiceRoute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// What should be configured on each device: the connectivity-services indexed by node, pair of NEPs and VLAN.
+// On a node a connectivity-service has a pair of flowpoints with its VLAN (the NEPs i and i+1 of its route)
+// grouped by an mp-flow. The VLANs are reserved per NEP, so a VLAN can be used on a node by several
+// connectivity-services through different NEPs, but by a single one on a pair of NEPs.
+// The intents in progress are indexed too, since the devices may be configured before the datastore is updated.
+public class VlanServiceIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(VlanServiceIndex.class);
+    private final Map<String, Map<String, Entry>> entries = new HashMap<>();
+
+    // A connectivity-service on a node
+    public static final class Entry {
+        private final String csUuid;
+        private final int vlan;
+        private final ArrayList<NodeEdgePoint> traversedNEPs;
+        private final int nepIndex;
+        private final boolean inProgress;
+
+        private Entry(String csUuid, int vlan, ArrayList<NodeEdgePoint> traversedNEPs, int nepIndex, boolean inProgress) {
+            this.csUuid = csUuid;
+            this.vlan = vlan;
+            this.traversedNEPs = traversedNEPs;
+            this.nepIndex = nepIndex;
+            this.inProgress = inProgress;
+        }
+
+        public String getCsUuid() {
+            return csUuid;
+        }
+
+        public int getVlan() {
+            return vlan;
+        }
+
+        // The whole route, the NEPs of this node are at getNepIndex() and getNepIndex()+1
+        public ArrayList<NodeEdgePoint> getTraversedNEPs() {
+            return traversedNEPs;
+        }
+
+        public int getNepIndex() {
+            return nepIndex;
+        }
+
+        // created or deleted right now, or not recovered yet: its flowpoints may be there or not
+        public boolean isInProgress() {
+            return inProgress;
+        }
+    }
+
+    // Index of the stored connectivity-services with a route, and of the open intents
+    public static VlanServiceIndex build(ConnectivityContext ctx, List<ServiceRoute> routes, List<IntentJournal.Intent> openIntents) {
+        VlanServiceIndex index = new VlanServiceIndex();
+        Map<String, ServiceRoute> routeByService = new HashMap<>();
+        for (ServiceRoute route : routes)
+            routeByService.put(route.getConnectivityServiceUuid(), route);
+        if (ctx != null && ctx.getConnectivityService() != null) {
+            for (ConnectivityService cs : ctx.getConnectivityService()) {
+                Integer vlan = VlanPool.vlanOf(cs);
+                ServiceRoute route = routeByService.get(cs.getUuid().getValue());
+                if (vlan == null || route == null || route.getTraversedNep() == null) {
+                    LOG.warn("VlanServiceIndex - build: VLAN or route missing in connectivity-service " + cs.getUuid().getValue());
+                    continue;
+                }
+                index.add(cs.getUuid().getValue(), vlan, TapiConnectivityContextUtils.getTraversedNEPs(route), false);
+            }
+        }
+        // an intent replaces the stored connectivity-service, which may be deleted right now
+        for (IntentJournal.Intent intent : openIntents)
+            index.add(intent.getId(), intent.getVlan(), intent.getTraversedNEPs(), true);
+        return index;
+    }
+
+    public void add(String csUuid, int vlan, ArrayList<NodeEdgePoint> traversedNEPs, boolean inProgress) {
+        for (int i = 0; i + 1 < traversedNEPs.size(); i = i + 2) {
+            String nodeId = traversedNEPs.get(i).getNodeUuid().getValue();
+            String key = traversedNEPs.get(i).getNodeEdgePointUuid().getValue() + "/"
+                    + traversedNEPs.get(i + 1).getNodeEdgePointUuid().getValue() + "/" + vlan;
+            Entry previous = entries.computeIfAbsent(nodeId, k -> new HashMap<>())
+                    .put(key, new Entry(csUuid, vlan, traversedNEPs, i, inProgress));
+            if (previous != null && !previous.csUuid.equals(csUuid))
+                LOG.warn("VlanServiceIndex - add: VLAN " + vlan + " on NEPs " + key + " of node " + nodeId
+                        + " used by connectivity-services " + previous.csUuid + " and " + csUuid);
+        }
+    }
+
+    // The connectivity-services of the node, empty if there are none
+    public Collection<Entry> getNode(String nodeId) {
+        Map<String, Entry> nodeEntries = entries.get(nodeId);
+        return nodeEntries == null ? Collections.emptyList() : Collections.unmodifiableCollection(nodeEntries.values());
+    }
+
+    // The connectivity-services using the VLAN on the node, one for each pair of NEPs
+    public List<Entry> get(String nodeId, int vlan) {
+        List<Entry> vlanEntries = new ArrayList<>();
+        for (Entry entry : getNode(nodeId)) {
+            if (entry.vlan == vlan)
+                vlanEntries.add(entry);
+        }
+        return vlanEntries;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<String, Entry> nodeEntries : entries.values())
+            size += nodeEntries.size();
+        return size;
+    }
+}
@@ -0,0 +1,7 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning.exceptions;
+
+public class NodeNotConnectedException extends ProvisioningException {
+    public NodeNotConnectedException(String nodeId) {
+        super("Node " + nodeId + " not connected: mountpoint not found");
+    }
+}
@@ -0,0 +1,115 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning.rpc;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import it.nextworks.provisioningappcomplete.impl.provisioning.BulkProvisioningService;
+import it.nextworks.provisioningappcomplete.impl.provisioning.BulkProvisioningService.CreateRequest;
+import it.nextworks.provisioningappcomplete.impl.provisioning.BulkProvisioningService.ItemResult;
+import it.nextworks.provisioningappcomplete.impl.provisioning.RequestExecutor;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.CreateConnectivityServicesInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.CreateConnectivityServicesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.CreateConnectivityServicesOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.DeleteConnectivityServicesInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.DeleteConnectivityServicesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.DeleteConnectivityServicesOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.ProvisioningappcompleteService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.create.connectivity.services.input.Service;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.create.connectivity.services.output.Result;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.create.connectivity.services.output.ResultBuilder;
+import org.opendaylight.yangtools.yang.binding.RpcOutput;
+import org.opendaylight.yangtools.yang.common.RpcError;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+// Bulk RPCs of provisioningappcomplete.yang, each service of the request has its own result in the output
+public class ProvisioningappcompleteServiceImpl implements ProvisioningappcompleteService {
+    private static final Logger LOG = LoggerFactory.getLogger(ProvisioningappcompleteServiceImpl.class);
+    private BulkProvisioningService bulkProvisioningService;
+    private RequestExecutor requestExecutor;
+
+    public ProvisioningappcompleteServiceImpl(BulkProvisioningService bulkProvisioningService, RequestExecutor requestExecutor){
+        this.bulkProvisioningService = bulkProvisioningService;
+        this.requestExecutor = requestExecutor;
+    }
+
+    @Override
+    public ListenableFuture<RpcResult<CreateConnectivityServicesOutput>> createConnectivityServices(CreateConnectivityServicesInput input) {
+        List<CreateRequest> requests = new ArrayList<>();
+        if (input.getService() != null) {
+            for (Service service : input.getService())
+                requests.add(new CreateRequest(service.getRequestId(), service.getSrcSip(), service.getDstSip(), service.getVlanId()));
+        }
+        LOG.info("ProvisioningappcompleteService - creation request for " + requests.size() + " connectivity-services");
+        SettableFuture<RpcResult<CreateConnectivityServicesOutput>> result = SettableFuture.create();
+        bulkProvisioningService.createConnectivityServices(requests, requestExecutor)
+                .whenComplete((itemResults, ex) -> {
+                    if (ex != null) {
+                        result.setFuture(buildGenericErrorMessage(CreateConnectivityServicesOutput.class, errorMessage(ex)));
+                        return;
+                    }
+                    List<Result> results = new ArrayList<>();
+                    for (ItemResult itemResult : itemResults) {
+                        results.add(new ResultBuilder()
+                                .setRequestId(itemResult.getId())
+                                .setConnectivityServiceUuid(itemResult.getConnectivityServiceUuid())
+                                .setVlanId(itemResult.isSuccess() ? itemResult.getVlan() : null)
+                                .setSuccess(itemResult.isSuccess())
+                                .setErrorMessage(itemResult.getError())
+                                .build());
+                    }
+                    result.set(RpcResultBuilder.success(new CreateConnectivityServicesOutputBuilder().setResult(results).build()).build());
+                });
+        return result;
+    }
+
+    @Override
+    public ListenableFuture<RpcResult<DeleteConnectivityServicesOutput>> deleteConnectivityServices(DeleteConnectivityServicesInput input) {
+        List<String> csUuids = input.getConnectivityServiceUuid() != null ? input.getConnectivityServiceUuid() : new ArrayList<>();
+        LOG.info("ProvisioningappcompleteService - delete request for " + csUuids.size() + " connectivity-services");
+        SettableFuture<RpcResult<DeleteConnectivityServicesOutput>> result = SettableFuture.create();
+        try {
+            bulkProvisioningService.deleteConnectivityServices(csUuids, requestExecutor)
+                    .whenComplete((itemResults, ex) -> {
+                        if (ex != null) {
+                            result.setFuture(buildGenericErrorMessage(DeleteConnectivityServicesOutput.class, errorMessage(ex)));
+                            return;
+                        }
+                        List<org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.delete.connectivity.services.output.Result> results =
+                                new ArrayList<>();
+                        for (ItemResult itemResult : itemResults) {
+                            results.add(new org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.delete.connectivity.services.output.ResultBuilder()
+                                    .setConnectivityServiceUuid(itemResult.getId())
+                                    .setSuccess(itemResult.isSuccess())
+                                    .setErrorMessage(itemResult.getError())
+                                    .build());
+                        }
+                        result.set(RpcResultBuilder.success(new DeleteConnectivityServicesOutputBuilder().setResult(results).build()).build());
+                    });
+        } catch (RejectedExecutionException ex) {
+            return buildGenericErrorMessage(DeleteConnectivityServicesOutput.class, errorMessage(ex));
+        }
+        return result;
+    }
+
+    // Method to handle errors
+    private <T extends RpcOutput> ListenableFuture<RpcResult<T>> buildGenericErrorMessage(Class<T> name, String errorMessage){
+        RpcResultBuilder<T> rpcResultBuilder = RpcResultBuilder.failed();
+        rpcResultBuilder.withError(RpcError.ErrorType.APPLICATION, errorMessage);
+        LOG.error(errorMessage);
+        return rpcResultBuilder.buildFuture();
+    }
+
+    private static String errorMessage(Throwable ex){
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        if (cause instanceof RejectedExecutionException)
+            return "Too many connectivity-service requests in progress, retry later";
+        return cause.getMessage();
+    }
+}
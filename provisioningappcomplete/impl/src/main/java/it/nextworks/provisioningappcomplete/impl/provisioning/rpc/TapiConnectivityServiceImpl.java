@@ -1,17 +1,14 @@
 package it.nextworks.provisioningappcomplete.impl.provisioning.rpc;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import it.nextworks.provisioningappcomplete.impl.provisioning.ProvisioningService;
-import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.PathComputationException;
-import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
-import org.opendaylight.mdsal.binding.api.DataBroker;
-import org.opendaylight.mdsal.binding.api.MountPointService;
+import it.nextworks.provisioningappcomplete.impl.provisioning.RequestExecutor;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.*;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.service.EndPoint;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.service.EndPointBuilder;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.create.connectivity.service.output.ServiceBuilder;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.eth.rev200423.*;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.eth.rev200423.context.connectivity.context.connectivity.service.end.point.EthConnectivityServiceEndPointSpecBuilder;
 import org.opendaylight.yangtools.yang.binding.RpcOutput;
 import org.opendaylight.yangtools.yang.common.RpcError;
 import org.opendaylight.yangtools.yang.common.RpcResult;
@@ -21,19 +18,18 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 public class TapiConnectivityServiceImpl implements TapiConnectivityService {
     private static final Logger LOG = LoggerFactory.getLogger(TapiConnectivityServiceImpl.class);
-    private DataBroker dataBroker;
-    private String pceIp;
-    private String pcePort;
-    private MountPointService mps;
-
-    public TapiConnectivityServiceImpl(DataBroker db, MountPointService mps, String pceIp, String pcePort){
-        this.dataBroker = db;
-        this.pceIp = pceIp;
-        this.pcePort = pcePort;
-        this.mps = mps;
+    // shared by all the requests, so that they share NEP locks, VLANs and intent journal
+    private ProvisioningService provisioningService;
+    private RequestExecutor requestExecutor;
+
+    public TapiConnectivityServiceImpl(ProvisioningService provisioningService, RequestExecutor requestExecutor){
+        this.provisioningService = provisioningService;
+        this.requestExecutor = requestExecutor;
     }
 
 
@@ -55,14 +51,21 @@ public class TapiConnectivityServiceImpl implements TapiConnectivityService {
     @Override
     public ListenableFuture<RpcResult<DeleteConnectivityServiceOutput>> deleteConnectivityService(DeleteConnectivityServiceInput input) {
         LOG.info("TapiConnectivityService - Connectivity-service delete request");
-        ProvisioningService provisioningService = new ProvisioningService(dataBroker,mps,pceIp,pcePort);
+        SettableFuture<RpcResult<DeleteConnectivityServiceOutput>> result = SettableFuture.create();
         try {
-            provisioningService.deleteConnectivityService(input.getServiceIdOrName());
-        } catch (ProvisioningException | PathComputationException ex){
-            return buildGenericErrorMessage(DeleteConnectivityServiceOutput.class, ex.getMessage());
+            provisioningService.deleteConnectivityService(input.getServiceIdOrName(),requestExecutor)
+                    .whenComplete((done, ex) -> {
+                        if (ex != null) {
+                            result.setFuture(buildGenericErrorMessage(DeleteConnectivityServiceOutput.class, errorMessage(ex)));
+                            return;
+                        }
+                        RpcResultBuilder<DeleteConnectivityServiceOutput> rpcResultBuilder = RpcResultBuilder.success();
+                        result.setFuture(rpcResultBuilder.buildFuture());
+                    });
+        } catch (RejectedExecutionException ex) {
+            return buildGenericErrorMessage(DeleteConnectivityServiceOutput.class, errorMessage(ex));
         }
-        RpcResultBuilder<DeleteConnectivityServiceOutput> rpcResultBuilder = RpcResultBuilder.success();
-        return rpcResultBuilder.buildFuture();
+        return result;
     }
 
     @Override
@@ -77,27 +80,26 @@ public class TapiConnectivityServiceImpl implements TapiConnectivityService {
 
     @Override
     public ListenableFuture<RpcResult<CreateConnectivityServiceOutput>> createConnectivityService(CreateConnectivityServiceInput input) {
-        CreateConnectivityServiceOutputBuilder builder = new CreateConnectivityServiceOutputBuilder();
         LOG.info("TapiConnectivityService - Connectivity-service creation request");
-        ProvisioningService provisioningService = new ProvisioningService(dataBroker,mps,pceIp,pcePort);
-        ConnectivityService cs = null;
-        try {
-            cs = provisioningService.createConnectivityService(input);
-        } catch (ProvisioningException | PathComputationException ex){
-            return buildGenericErrorMessage(CreateConnectivityServiceOutput.class, ex.getMessage());
-        }
-        // Transf. of input augmentation in an output augm.
-        List<EndPoint> endPointList = new ArrayList<>();
-        org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.create.connectivity.service.input.EndPoint inputEp1 = input.getEndPoint().get(0);
-        org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.create.connectivity.service.input.EndPoint inputEp2 = input.getEndPoint().get(1);
-
-        // Inizialize new Augmentation with VLAN info, only one augm because it is equal for both endpoints
-        EndPoint2 augmInputEp1 = inputEp1.augmentation(EndPoint2.class);
-        EthConnectivityServiceEndPointSpecBuilder ethConnSpec1 = new EthConnectivityServiceEndPointSpecBuilder()
-                .setEthTerminationCommonPac(augmInputEp1.getEthConnectivityServiceEndPointSpec().getEthTerminationCommonPac());
+        // The RPC thread returns immediately, the result is set when the provisioning completes
+        SettableFuture<RpcResult<CreateConnectivityServiceOutput>> result = SettableFuture.create();
+        provisioningService.createConnectivityService(input,requestExecutor)
+                .whenComplete((cs, ex) -> {
+                    if (ex != null)
+                        result.setFuture(buildGenericErrorMessage(CreateConnectivityServiceOutput.class, errorMessage(ex)));
+                    else
+                        result.set(buildCreateOutput(cs));
+                });
+        return result;
+    }
 
-        EndPointBuilder epBuilder1 = new EndPointBuilder(inputEp1).removeAugmentation(EndPoint1.class);
-        EndPointBuilder epBuilder2 = new EndPointBuilder(inputEp2).removeAugmentation(EndPoint1.class);
+    private RpcResult<CreateConnectivityServiceOutput> buildCreateOutput(ConnectivityService cs){
+        CreateConnectivityServiceOutputBuilder builder = new CreateConnectivityServiceOutputBuilder();
+        // Output endpoints without the VLAN augmentation of the connectivity-context,
+        // the VLAN (also when assigned by the controller) is in the stored connectivity-service
+        List<EndPoint> endPointList = new ArrayList<>();
+        EndPointBuilder epBuilder1 = new EndPointBuilder(cs.getEndPoint().get(0)).removeAugmentation(EndPoint1.class);
+        EndPointBuilder epBuilder2 = new EndPointBuilder(cs.getEndPoint().get(1)).removeAugmentation(EndPoint1.class);
         endPointList.add(epBuilder1.build());
         endPointList.add(epBuilder2.build());
 
@@ -107,7 +109,15 @@ public class TapiConnectivityServiceImpl implements TapiConnectivityService {
                 .setAdministrativeState(cs.getAdministrativeState())
                 .setOperationalState(cs.getOperationalState());
         builder.setService(service.build());
-        return RpcResultBuilder.success(builder.build()).buildFuture();
+        return RpcResultBuilder.success(builder.build()).build();
+    }
+
+    // Message of the ProvisioningException or PathComputationException wrapped by the failed stage
+    private static String errorMessage(Throwable ex){
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        if (cause instanceof RejectedExecutionException)
+            return "Too many connectivity-service requests in progress, retry later";
+        return cause.getMessage();
     }
 
     // Method to handle errors
@@ -4,18 +4,21 @@ import org.opendaylight.mdsal.binding.api.DataBroker;
 import org.opendaylight.mdsal.binding.api.ReadTransaction;
 import org.opendaylight.mdsal.binding.api.WriteTransaction;
 import org.opendaylight.mdsal.common.api.LogicalDatastoreType;
+import org.opendaylight.mdsal.common.api.OptimisticLockFailedException;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Context;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.ContextBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.tapi.context.ServiceInterfacePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.ConnectionEndPointRef;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.cep.list.ConnectionEndPoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.cep.list.ConnectionEndPointBuilder;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.Connection;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectivityService;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.context.ConnectivityContext;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.context.ConnectivityContextBuilder;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.Context1;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.Context1Builder;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.context.TopologyContext;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.context.TopologyContextBuilder;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.Topology;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.ServiceRoutes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.service.routes.ServiceRoute;
 import org.opendaylight.yangtools.yang.binding.DataObject;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
 import org.slf4j.Logger;
@@ -25,9 +28,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 public class TapiDataStoreManager {
     private static final Logger LOG = LoggerFactory.getLogger(TapiDataStoreManager.class);
+    static final int MAX_COMMIT_ATTEMPTS = 5;
 
     private static <T extends DataObject> boolean existsInDataStore(DataBroker dataBroker, LogicalDatastoreType datastoreType, InstanceIdentifier<T> iid){
         final ReadTransaction transaction = dataBroker.newReadOnlyTransaction();
@@ -49,29 +54,41 @@ public class TapiDataStoreManager {
 
     private static <T extends DataObject> boolean writeInDataStore(DataBroker dataBroker, LogicalDatastoreType datastoreType,
                                                                    InstanceIdentifier<T> iid, T data){
-        WriteTransaction wtx = dataBroker.newWriteOnlyTransaction();
         LOG.info("TapiManager - writing "+ data.implementedInterface().getSimpleName() +" in "+datastoreType+" DS");
-        wtx.put(datastoreType, iid, data);
-        try {
-            wtx.commit().get();
+        if(submitTransaction(dataBroker, wtx -> wtx.put(datastoreType, iid, data))){
             LOG.info("TapiManager - "+ data.implementedInterface().getSimpleName() +" written in "+datastoreType+" DS");
             return true;
-        } catch (final InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-            return false;
         }
+        return false;
     }
 
     private static <T extends DataObject> boolean deleteFromDataStore(DataBroker dataBroker, LogicalDatastoreType datastoreType,InstanceIdentifier<T> iid){
-        WriteTransaction wtx = dataBroker.newWriteOnlyTransaction();
-        wtx.delete(datastoreType, iid);
-        try {
-            wtx.commit().get();
-            return true;
-        } catch (final InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-            return false;
+        return submitTransaction(dataBroker, wtx -> wtx.delete(datastoreType, iid));
+    }
+
+    // Concurrent requests touching the same subtree can make the commit fail with an OptimisticLockFailedException:
+    // in that case the operations are applied again on a new transaction, up to MAX_COMMIT_ATTEMPTS times
+    static boolean submitTransaction(DataBroker dataBroker, Consumer<WriteTransaction> operations){
+        for(int attempt = 1; attempt <= MAX_COMMIT_ATTEMPTS; attempt++){
+            WriteTransaction wtx = dataBroker.newWriteOnlyTransaction();
+            operations.accept(wtx);
+            try {
+                wtx.commit().get();
+                return true;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.error("TapiManager - commit interrupted");
+                return false;
+            } catch (final ExecutionException e) {
+                if(!(e.getCause() instanceof OptimisticLockFailedException)){
+                    LOG.error("TapiManager - commit failed: "+e.getMessage());
+                    return false;
+                }
+                LOG.warn("TapiManager - optimistic lock failure at attempt "+attempt+"/"+MAX_COMMIT_ATTEMPTS+", retrying");
+            }
         }
+        LOG.error("TapiManager - commit failed after "+MAX_COMMIT_ATTEMPTS+" attempts");
+        return false;
     }
 
     private static <T extends DataObject> T readFromDataStore(DataBroker dataBroker, LogicalDatastoreType datastoreType, InstanceIdentifier<T> iid){
@@ -103,28 +120,40 @@ public class TapiDataStoreManager {
 
     public static Topology readTopology(DataBroker dataBroker){
         TopologyContext topologyContext = TapiDataStoreManager.readFromDataStore(dataBroker, LogicalDatastoreType.OPERATIONAL, TapiUtils.topologyContextIId());
+        if(topologyContext == null || topologyContext.getTopology() == null || topologyContext.getTopology().isEmpty())
+            return null;
         return topologyContext.getTopology().get(0);
     }
 
-    public static boolean writeTopology(DataBroker dataBroker, Topology topology){
-        InstanceIdentifier<TopologyContext> iidtc = TapiUtils.topologyContextIId();
-        ArrayList<Topology> topologies = new ArrayList<>();
-        topologies.add(topology);
-        ContextBuilder cxt = new ContextBuilder();
-        TopologyContext topologyContext = new TopologyContextBuilder()
-                .setTopology(topologies)
-                .build();
-        Context1Builder topoaugm = new Context1Builder()
-                .setTopologyContext(topologyContext);
-        cxt.addAugmentation(Context1.class, topoaugm.build());
-        return writeInDataStore(dataBroker,LogicalDatastoreType.OPERATIONAL, iidtc, topologyContext);
-    }
-
     public static boolean deleteTopology(DataBroker dataBroker, String topologyUuid){
         InstanceIdentifier<Topology> iidtc = TapiUtils.topologyIId(topologyUuid);
         return deleteFromDataStore(dataBroker,LogicalDatastoreType.OPERATIONAL,iidtc);
     }
 
+    // CEP
+    // Each CEP is merged in the cep-list of its NEP, so only the NEPs traversed by the connection are written
+    public static boolean addCEPs(DataBroker dataBroker, List<? extends ConnectionEndPointRef> cepRefs){
+        LOG.info("TapiManager - addCEPs: merging "+cepRefs.size()+" CEPs in OPERATIONAL DS");
+        return submitTransaction(dataBroker, wtx -> {
+            for(ConnectionEndPointRef cepRef : cepRefs){
+                InstanceIdentifier<ConnectionEndPoint> iid = TapiUtils.cepIid(cepRef.getTopologyUuid().getValue(),
+                        cepRef.getNodeUuid().getValue(),cepRef.getNodeEdgePointUuid().getValue(),cepRef.getConnectionEndPointUuid().getValue());
+                ConnectionEndPoint cep = new ConnectionEndPointBuilder().setUuid(cepRef.getConnectionEndPointUuid()).build();
+                wtx.merge(LogicalDatastoreType.OPERATIONAL, iid, cep, WriteTransaction.CREATE_MISSING_PARENTS);
+            }
+        });
+    }
+
+    public static boolean removeCEPs(DataBroker dataBroker, List<? extends ConnectionEndPointRef> cepRefs){
+        LOG.info("TapiManager - removeCEPs: deleting "+cepRefs.size()+" CEPs from OPERATIONAL DS");
+        return submitTransaction(dataBroker, wtx -> {
+            for(ConnectionEndPointRef cepRef : cepRefs){
+                wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.cepIid(cepRef.getTopologyUuid().getValue(),
+                        cepRef.getNodeUuid().getValue(),cepRef.getNodeEdgePointUuid().getValue(),cepRef.getConnectionEndPointUuid().getValue()));
+            }
+        });
+    }
+
     // SIP
     public static boolean writeSIPList(DataBroker dataBroker, List<ServiceInterfacePoint> sipList){
         Context currentContext = readFromDataStore(dataBroker,LogicalDatastoreType.OPERATIONAL,TapiUtils.contextIid());
@@ -147,10 +176,6 @@ public class TapiDataStoreManager {
         return cCtx;
     }
 
-    public static boolean writeConnectivityContext(DataBroker dataBroker, ConnectivityContext connectivityContext){
-        return writeInDataStore(dataBroker,LogicalDatastoreType.OPERATIONAL,TapiUtils.connectivityContextIid(),connectivityContext);
-    }
-
     // CONNECTIVITY-SERVICE
     public static Boolean existConnectivityService(DataBroker dataBroker, String csUuid){
         return TapiDataStoreManager.existsInDataStore(dataBroker, LogicalDatastoreType.OPERATIONAL, TapiUtils.connectivityServiceIid(csUuid));
@@ -161,26 +186,112 @@ public class TapiDataStoreManager {
         return cs;
     }
 
+    // The connectivity-service, its connections and its route are written as single list entries in one transaction,
+    // the rest of the connectivity-context is not touched
+    public static boolean writeConnectivityService(DataBroker dataBroker, ConnectivityService cs, List<Connection> connections,
+                                                   ServiceRoute route){
+        LOG.info("TapiManager - writeConnectivityService: writing connectivity-service "+cs.getUuid().getValue()
+                +" with "+connections.size()+" connections in OPERATIONAL DS");
+        return submitTransaction(dataBroker, wtx -> {
+            wtx.put(LogicalDatastoreType.OPERATIONAL, TapiUtils.connectivityServiceIid(cs.getUuid().getValue()), cs,
+                    WriteTransaction.CREATE_MISSING_PARENTS);
+            for(Connection connection : connections){
+                wtx.put(LogicalDatastoreType.OPERATIONAL, TapiUtils.connectionIid(connection.getUuid().getValue()), connection,
+                        WriteTransaction.CREATE_MISSING_PARENTS);
+            }
+            wtx.put(LogicalDatastoreType.OPERATIONAL, TapiUtils.serviceRouteIid(cs.getUuid().getValue()), route,
+                    WriteTransaction.CREATE_MISSING_PARENTS);
+        });
+    }
+
     public static boolean deleteConnectivityService(DataBroker dataBroker, String csUuid){
         InstanceIdentifier<ConnectivityService> iid = TapiUtils.connectivityServiceIid(csUuid);
         return deleteFromDataStore(dataBroker,LogicalDatastoreType.OPERATIONAL,iid);
     }
 
+    public static boolean deleteConnectivityService(DataBroker dataBroker, String csUuid, List<Uuid> connectionUuids){
+        LOG.info("TapiManager - deleteConnectivityService: deleting connectivity-service "+csUuid
+                +" with "+connectionUuids.size()+" connections from OPERATIONAL DS");
+        return submitTransaction(dataBroker, wtx -> {
+            wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.connectivityServiceIid(csUuid));
+            for(Uuid connectionUuid : connectionUuids){
+                wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.connectionIid(connectionUuid.getValue()));
+            }
+            wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.serviceRouteIid(csUuid));
+        });
+    }
+
+    // BULK
+    // All the CEPs, connectivity-services, connections and routes of a bulk creation in a single transaction
+    public static boolean createConnectivityServices(DataBroker dataBroker, List<? extends ConnectionEndPointRef> cepRefs,
+                                                     List<ConnectivityService> services, List<Connection> connections,
+                                                     List<ServiceRoute> routes){
+        LOG.info("TapiManager - createConnectivityServices: writing "+services.size()+" connectivity-services, "
+                +connections.size()+" connections and "+cepRefs.size()+" CEPs in OPERATIONAL DS");
+        return submitTransaction(dataBroker, wtx -> {
+            for(ConnectionEndPointRef cepRef : cepRefs){
+                InstanceIdentifier<ConnectionEndPoint> iid = TapiUtils.cepIid(cepRef.getTopologyUuid().getValue(),
+                        cepRef.getNodeUuid().getValue(),cepRef.getNodeEdgePointUuid().getValue(),cepRef.getConnectionEndPointUuid().getValue());
+                ConnectionEndPoint cep = new ConnectionEndPointBuilder().setUuid(cepRef.getConnectionEndPointUuid()).build();
+                wtx.merge(LogicalDatastoreType.OPERATIONAL, iid, cep, WriteTransaction.CREATE_MISSING_PARENTS);
+            }
+            for(ConnectivityService cs : services){
+                wtx.put(LogicalDatastoreType.OPERATIONAL, TapiUtils.connectivityServiceIid(cs.getUuid().getValue()), cs,
+                        WriteTransaction.CREATE_MISSING_PARENTS);
+            }
+            for(Connection connection : connections){
+                wtx.put(LogicalDatastoreType.OPERATIONAL, TapiUtils.connectionIid(connection.getUuid().getValue()), connection,
+                        WriteTransaction.CREATE_MISSING_PARENTS);
+            }
+            for(ServiceRoute route : routes){
+                wtx.put(LogicalDatastoreType.OPERATIONAL, TapiUtils.serviceRouteIid(route.getConnectivityServiceUuid()), route,
+                        WriteTransaction.CREATE_MISSING_PARENTS);
+            }
+        });
+    }
+
+    // All the connectivity-services of a bulk deletion, with their connections, routes and CEPs, in a single transaction
+    public static boolean deleteConnectivityServices(DataBroker dataBroker, List<String> csUuids, List<Uuid> connectionUuids,
+                                                     List<? extends ConnectionEndPointRef> cepRefs){
+        LOG.info("TapiManager - deleteConnectivityServices: deleting "+csUuids.size()+" connectivity-services, "
+                +connectionUuids.size()+" connections and "+cepRefs.size()+" CEPs from OPERATIONAL DS");
+        return submitTransaction(dataBroker, wtx -> {
+            for(String csUuid : csUuids){
+                wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.connectivityServiceIid(csUuid));
+                wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.serviceRouteIid(csUuid));
+            }
+            for(Uuid connectionUuid : connectionUuids){
+                wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.connectionIid(connectionUuid.getValue()));
+            }
+            for(ConnectionEndPointRef cepRef : cepRefs){
+                wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.cepIid(cepRef.getTopologyUuid().getValue(),
+                        cepRef.getNodeUuid().getValue(),cepRef.getNodeEdgePointUuid().getValue(),cepRef.getConnectionEndPointUuid().getValue()));
+            }
+        });
+    }
+
+    // SERVICE ROUTES
+    // null if the connectivity-service has been created without storing its route
+    public static ServiceRoute readServiceRoute(DataBroker dataBroker, String csUuid){
+        return TapiDataStoreManager.readFromDataStore(dataBroker, LogicalDatastoreType.OPERATIONAL, TapiUtils.serviceRouteIid(csUuid));
+    }
+
+    // All the stored routes, an empty list if there are none
+    public static List<ServiceRoute> readServiceRoutes(DataBroker dataBroker){
+        ServiceRoutes routes = TapiDataStoreManager.readFromDataStore(dataBroker, LogicalDatastoreType.OPERATIONAL, TapiUtils.serviceRoutesIid());
+        if(routes == null || routes.getServiceRoute() == null)
+            return new ArrayList<>();
+        return routes.getServiceRoute();
+    }
+
     // CONNECTIONS
+    public static Connection readConnection(DataBroker dataBroker, String connectionUuid){
+        return TapiDataStoreManager.readFromDataStore(dataBroker, LogicalDatastoreType.OPERATIONAL, TapiUtils.connectionIid(connectionUuid));
+    }
+
     public static List<Connection> readConnections(DataBroker dataBroker){
         ConnectivityContext ctx = TapiDataStoreManager.readFromDataStore(dataBroker, LogicalDatastoreType.OPERATIONAL, TapiUtils.connectivityContextIid());
         return ctx.getConnection();
     }
 
-    public static boolean writeConnections(DataBroker dataBroker, List<Connection> connections){
-        ConnectivityContext conCtx = readConnectivityContext(dataBroker);
-        ConnectivityContextBuilder builder;
-        if(conCtx!=null)
-            builder = new ConnectivityContextBuilder(conCtx);
-        else
-            builder = new ConnectivityContextBuilder();
-        builder.setConnection(connections);
-        return writeConnectivityContext(dataBroker,builder.build());
-    }
-
 }
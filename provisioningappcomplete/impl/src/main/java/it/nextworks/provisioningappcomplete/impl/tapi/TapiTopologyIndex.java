@@ -0,0 +1,246 @@
+package it.nextworks.provisioningappcomplete.impl.tapi;
+
+import it.nextworks.provisioningappcomplete.impl.provisioning.TopologyGraph;
+import org.opendaylight.mdsal.binding.api.DataBroker;
+import org.opendaylight.mdsal.binding.api.DataObjectModification;
+import org.opendaylight.mdsal.binding.api.DataTreeChangeListener;
+import org.opendaylight.mdsal.binding.api.DataTreeIdentifier;
+import org.opendaylight.mdsal.binding.api.DataTreeModification;
+import org.opendaylight.mdsal.common.api.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.context.TopologyContext;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.edge.point.MappedServiceInterfacePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Link;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Node;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.Topology;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// In-memory view of the TAPI topology context, kept up to date by a DataTreeChangeListener.
+// It provides O(1) lookups of nodes, NEPs, SIPs and links without reading the datastore at each request.
+// NEP UUIDs are unique only inside a node, so NEPs are indexed by node UUID and NEP UUID.
+// Only the modified nodes and links are re-indexed at each change.
+public class TapiTopologyIndex implements DataTreeChangeListener<TopologyContext>, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(TapiTopologyIndex.class);
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    private final Map<String, Uuid> nodeTopology = new ConcurrentHashMap<>();
+    private final Map<String, OwnedNodeEdgePoint> neps = new ConcurrentHashMap<>();
+    private final Map<String, NodeEdgePoint> sips = new ConcurrentHashMap<>();
+    private final Map<String, Link> links = new ConcurrentHashMap<>();
+    // graph used by the embedded PCE, rebuilt lazily when nodes, links or SIP mappings change
+    private volatile TopologyGraph graph;
+    private ListenerRegistration<TapiTopologyIndex> registration;
+
+    public void register(DataBroker dataBroker) {
+        registration = dataBroker.registerDataTreeChangeListener(
+                DataTreeIdentifier.create(LogicalDatastoreType.OPERATIONAL, TapiUtils.topologyContextIId()), this);
+        LOG.info("TapiTopologyIndex - listening on TAPI topology context");
+    }
+
+    @Override
+    public void close() {
+        if (registration != null)
+            registration.close();
+    }
+
+    // LOOKUPS
+    public Node getNode(String nodeUuid) {
+        return nodes.get(nodeUuid);
+    }
+
+    public OwnedNodeEdgePoint getNep(String nodeUuid, String nepUuid) {
+        return neps.get(nepKey(nodeUuid, nepUuid));
+    }
+
+    // NEP (with topology and node) on which the SIP is mapped, null if the SIP does not exist
+    public NodeEdgePoint getNepOfSip(String sipUuid) {
+        return sips.get(sipUuid);
+    }
+
+    public boolean existSip(String sipUuid) {
+        return sips.containsKey(sipUuid);
+    }
+
+    public Uuid getNodeTopology(String nodeUuid) {
+        return nodeTopology.get(nodeUuid);
+    }
+
+    public Link getLink(String linkUuid) {
+        return links.get(linkUuid);
+    }
+
+    public TopologyGraph getGraph() {
+        TopologyGraph current = graph;
+        if (current == null) {
+            synchronized (this) {
+                current = graph;
+                if (current == null) {
+                    current = TopologyGraph.build(nodes.values(), links.values());
+                    graph = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    // UPDATES
+    @Override
+    public void onDataTreeChanged(Collection<DataTreeModification<TopologyContext>> changes) {
+        for (DataTreeModification<TopologyContext> change : changes) {
+            DataObjectModification<TopologyContext> root = change.getRootNode();
+            switch (root.getModificationType()) {
+                case DELETE:
+                    clear();
+                    break;
+                case WRITE:
+                    clear();
+                    if (root.getDataAfter() != null && root.getDataAfter().getTopology() != null) {
+                        for (Topology topology : root.getDataAfter().getTopology())
+                            addTopology(topology);
+                    }
+                    break;
+                case SUBTREE_MODIFIED:
+                    for (DataObjectModification<Topology> topologyMod : root.getModifiedChildren(Topology.class))
+                        applyTopology(topologyMod);
+                    break;
+                default:
+                    break;
+            }
+        }
+        LOG.debug("TapiTopologyIndex - indexed " + nodes.size() + " nodes, " + neps.size() + " NEPs, "
+                + sips.size() + " SIPs, " + links.size() + " links");
+    }
+
+    private void applyTopology(DataObjectModification<Topology> topologyMod) {
+        switch (topologyMod.getModificationType()) {
+            case DELETE:
+                removeTopology(topologyMod.getDataBefore());
+                break;
+            case WRITE:
+                removeTopology(topologyMod.getDataBefore());
+                addTopology(topologyMod.getDataAfter());
+                break;
+            case SUBTREE_MODIFIED:
+                Uuid topologyUuid = topologyMod.getDataAfter().getUuid();
+                for (DataObjectModification<Node> nodeMod : topologyMod.getModifiedChildren(Node.class))
+                    applyNode(topologyUuid, nodeMod.getDataBefore(), nodeMod.getDataAfter());
+                for (DataObjectModification<Link> linkMod : topologyMod.getModifiedChildren(Link.class)) {
+                    if (linkMod.getDataBefore() != null)
+                        links.remove(linkMod.getDataBefore().getUuid().getValue());
+                    if (linkMod.getDataAfter() != null)
+                        links.put(linkMod.getDataAfter().getUuid().getValue(), linkMod.getDataAfter());
+                    invalidateGraph();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void addTopology(Topology topology) {
+        if (topology.getNode() != null) {
+            for (Node node : topology.getNode())
+                addNode(topology.getUuid(), node);
+        }
+        if (topology.getLink() != null) {
+            for (Link link : topology.getLink())
+                links.put(link.getUuid().getValue(), link);
+        }
+        invalidateGraph();
+    }
+
+    private void removeTopology(Topology topology) {
+        if (topology == null)
+            return;
+        if (topology.getNode() != null) {
+            for (Node node : topology.getNode())
+                removeNode(node);
+        }
+        if (topology.getLink() != null) {
+            for (Link link : topology.getLink())
+                links.remove(link.getUuid().getValue());
+        }
+        invalidateGraph();
+    }
+
+    // A node modification (e.g. a new CEP on one of its NEPs) re-indexes only that node.
+    // The graph is invalidated only if the node appears, disappears or changes its SIP mappings
+    private void applyNode(Uuid topologyUuid, Node before, Node after) {
+        Set<String> sipsBefore = before == null ? null : removeNode(before);
+        Set<String> sipsAfter = after == null ? null : addNode(topologyUuid, after);
+        if (sipsBefore == null || sipsAfter == null || !sipsBefore.equals(sipsAfter))
+            invalidateGraph();
+    }
+
+    // It returns the SIPs mapped on the node
+    private Set<String> addNode(Uuid topologyUuid, Node node) {
+        String nodeUuid = node.getUuid().getValue();
+        nodes.put(nodeUuid, node);
+        nodeTopology.put(nodeUuid, topologyUuid);
+        Set<String> nodeSips = new HashSet<>();
+        if (node.getOwnedNodeEdgePoint() == null)
+            return nodeSips;
+        for (OwnedNodeEdgePoint onep : node.getOwnedNodeEdgePoint()) {
+            neps.put(nepKey(nodeUuid, onep.getUuid().getValue()), onep);
+            if (onep.getMappedServiceInterfacePoint() != null) {
+                NodeEdgePoint nepRef = new NodeEdgePointBuilder()
+                        .setTopologyUuid(topologyUuid)
+                        .setNodeUuid(node.getUuid())
+                        .setNodeEdgePointUuid(onep.getUuid())
+                        .build();
+                for (MappedServiceInterfacePoint msip : onep.getMappedServiceInterfacePoint()) {
+                    sips.put(msip.getServiceInterfacePointUuid().getValue(), nepRef);
+                    nodeSips.add(msip.getServiceInterfacePointUuid().getValue());
+                }
+            }
+        }
+        return nodeSips;
+    }
+
+    // It returns the SIPs that were mapped on the node
+    private Set<String> removeNode(Node node) {
+        String nodeUuid = node.getUuid().getValue();
+        nodes.remove(nodeUuid);
+        nodeTopology.remove(nodeUuid);
+        Set<String> nodeSips = new HashSet<>();
+        if (node.getOwnedNodeEdgePoint() == null)
+            return nodeSips;
+        for (OwnedNodeEdgePoint onep : node.getOwnedNodeEdgePoint()) {
+            neps.remove(nepKey(nodeUuid, onep.getUuid().getValue()));
+            if (onep.getMappedServiceInterfacePoint() != null) {
+                for (MappedServiceInterfacePoint msip : onep.getMappedServiceInterfacePoint()) {
+                    sips.remove(msip.getServiceInterfacePointUuid().getValue());
+                    nodeSips.add(msip.getServiceInterfacePointUuid().getValue());
+                }
+            }
+        }
+        return nodeSips;
+    }
+
+    private synchronized void invalidateGraph() {
+        graph = null;
+    }
+
+    private void clear() {
+        nodes.clear();
+        nodeTopology.clear();
+        neps.clear();
+        sips.clear();
+        links.clear();
+        invalidateGraph();
+    }
+
+    private static String nepKey(String nodeUuid, String nepUuid) {
+        return nodeUuid + "/" + nepUuid;
+    }
+}
@@ -4,11 +4,19 @@ import  org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Con
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.tapi.context.ServiceInterfacePoint;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.tapi.context.ServiceInterfacePointKey;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.OwnedNodeEdgePoint1;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.cep.list.ConnectionEndPoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.cep.list.ConnectionEndPointKey;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.Connection;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectionKey;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectivityService;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectivityServiceKey;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.context.ConnectivityContext;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.context.topology.context.topology.node.owned.node.edge.point.CepList;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.Context1;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.ServiceRoutes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.service.routes.ServiceRoute;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.provisioningappcomplete.rev180517.service.routes.ServiceRouteKey;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.context.TopologyContext;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePointKey;
@@ -87,6 +95,13 @@ public class TapiUtils {
                 .child(OwnedNodeEdgePoint.class, new OwnedNodeEdgePointKey(new Uuid(nepId)));
     }
 
+    public static InstanceIdentifier<ConnectionEndPoint> cepIid(final String topologyId, final String nodeId, final String nepId, final String cepId) {
+        return nepIid(topologyId, nodeId, nepId)
+                .augmentation(OwnedNodeEdgePoint1.class)
+                .child(CepList.class)
+                .child(ConnectionEndPoint.class, new ConnectionEndPointKey(new Uuid(cepId)));
+    }
+
     public static InstanceIdentifier<ConnectivityContext> connectivityContextIid() {
         return InstanceIdentifier.create(Context.class)
                 .augmentation(org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.Context1.class)
@@ -100,10 +115,20 @@ public class TapiUtils {
                 .child(ConnectivityService.class, new ConnectivityServiceKey(new Uuid(uuid)));
     }
 
-    public static InstanceIdentifier<Connection> connectionIid() {
+    public static InstanceIdentifier<Connection> connectionIid(String uuid) {
         return InstanceIdentifier.create(Context.class)
                 .augmentation(org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.Context1.class)
                 .child(ConnectivityContext.class)
-                .child(Connection.class);
+                .child(Connection.class, new ConnectionKey(new Uuid(uuid)));
+    }
+
+    public static InstanceIdentifier<ServiceRoutes> serviceRoutesIid() {
+        return InstanceIdentifier.create(ServiceRoutes.class);
+    }
+
+    // Route of a connectivity-service, in the model of this application
+    public static InstanceIdentifier<ServiceRoute> serviceRouteIid(String csUuid) {
+        return InstanceIdentifier.create(ServiceRoutes.class)
+                .child(ServiceRoute.class, new ServiceRouteKey(csUuid));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package it.nextworks.provisioningappcomplete.impl.netconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.NodeNotConnectedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.junit.Test;
+import org.opendaylight.mdsal.binding.api.WriteTransaction;
+
+// Concurrent requests on a slow device: their changes must be grouped in a few transactions,
+// sent one at a time, and every request must get the result of its own changes.
+public class DeviceCommitBatcherTest {
+    private static final String NODE = "node-1";
+    private static final int REQUESTS = 40;
+
+    // Device taking commitMillis for each transaction, failing the ones with more than maxOperations changes
+    private static class SlowDevice extends MountpointManager {
+        private final long commitMillis;
+        private final int maxOperations;
+        private final AtomicInteger commits = new AtomicInteger();
+        private final AtomicInteger inProgress = new AtomicInteger();
+        private final AtomicInteger maxInProgress = new AtomicInteger();
+        private volatile boolean connected = true;
+
+        SlowDevice(long commitMillis, int maxOperations) {
+            super(null);
+            this.commitMillis = commitMillis;
+            this.maxOperations = maxOperations;
+        }
+
+        @Override
+        public boolean isAvailable(String nodeId) {
+            return connected;
+        }
+
+        @Override
+        public boolean submitToDataStore(String nodeId, Consumer<WriteTransaction> operations) {
+            WriteTransaction wtx = mock(WriteTransaction.class);
+            operations.accept(wtx);
+            commits.incrementAndGet();
+            maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(commitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inProgress.decrementAndGet();
+            }
+            return mockingDetails(wtx).getInvocations().size() <= maxOperations;
+        }
+    }
+
+    @Test
+    public void concurrentBatchesAreGrouped() throws Exception {
+        SlowDevice device = new SlowDevice(100, Integer.MAX_VALUE);
+        List<Boolean> results = commitConcurrently(device, new DeviceCommitBatcher(device, 20, 64, 4));
+
+        assertEquals(REQUESTS, results.size());
+        assertTrue(results.stream().allMatch(Boolean::booleanValue));
+        assertTrue("commits: " + device.commits.get(), device.commits.get() < REQUESTS / 4);
+        assertEquals(1, device.maxInProgress.get());
+    }
+
+    @Test
+    public void failedGroupIsCommittedOneByOne() throws Exception {
+        // only single batches are accepted by the device
+        SlowDevice device = new SlowDevice(10, 1);
+        List<Boolean> results = commitConcurrently(device, new DeviceCommitBatcher(device, 20, 64, 4));
+
+        assertTrue(results.stream().allMatch(Boolean::booleanValue));
+        assertTrue(device.commits.get() > REQUESTS);
+    }
+
+    @Test
+    public void maxBatchSizeIsRespected() throws Exception {
+        SlowDevice device = new SlowDevice(10, 5);
+        List<Boolean> results = commitConcurrently(device, new DeviceCommitBatcher(device, 1000, 5, 4));
+
+        // every grouped transaction is accepted, so no batch is committed alone
+        assertTrue(results.stream().allMatch(Boolean::booleanValue));
+        assertEquals(REQUESTS / 5, device.commits.get());
+    }
+
+    @Test
+    public void busyNodeDoesNotHoldTheCommitThreads() throws Exception {
+        SlowDevice device = new SlowDevice(500, Integer.MAX_VALUE);
+        DeviceCommitBatcher batcher = new DeviceCommitBatcher(device, 10, 64, 2);
+        try {
+            Future<Boolean> first = batcher.submit(new DeviceWriteBatch(device, NODE).delete(null));
+            Thread.sleep(50);
+            // its window ends while the first transaction is in progress on the same node
+            Future<Boolean> second = batcher.submit(new DeviceWriteBatch(device, NODE).delete(null));
+            Thread.sleep(50);
+            // a thread is still free for another node: it does not wait for the 2 transactions of NODE
+            long start = System.nanoTime();
+            assertTrue(batcher.submit(new DeviceWriteBatch(device, "node-2").delete(null)).get(10, TimeUnit.SECONDS));
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("elapsed: " + elapsedMillis, elapsedMillis < 800);
+            assertTrue(first.get(10, TimeUnit.SECONDS));
+            assertTrue(second.get(10, TimeUnit.SECONDS));
+            assertEquals(3, device.commits.get());
+        } finally {
+            batcher.close();
+        }
+    }
+
+    @Test
+    public void disconnectedNodeFailsImmediately() throws Exception {
+        SlowDevice device = new SlowDevice(10, Integer.MAX_VALUE);
+        device.connected = false;
+        DeviceCommitBatcher batcher = new DeviceCommitBatcher(device, 1000, 64, 2);
+        try {
+            batcher.commit(new DeviceWriteBatch(device, NODE).delete(null));
+            fail("commit on a node not connected");
+        } catch (NodeNotConnectedException e) {
+            // the node id is reported to the caller, without waiting for the window
+            assertTrue(e.getMessage(), e.getMessage().contains(NODE));
+            assertEquals(0, device.commits.get());
+        } finally {
+            batcher.close();
+        }
+    }
+
+    private static List<Boolean> commitConcurrently(SlowDevice device, DeviceCommitBatcher batcher) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(REQUESTS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return batcher.commit(new DeviceWriteBatch(device, NODE).delete(null));
+            }));
+        }
+        start.countDown();
+        List<Boolean> results = new ArrayList<>();
+        for (Future<Boolean> future : futures)
+            results.add(future.get(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        batcher.close();
+        return results;
+    }
+}
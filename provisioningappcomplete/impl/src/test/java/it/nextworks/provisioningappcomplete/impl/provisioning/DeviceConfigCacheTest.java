@@ -0,0 +1,95 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import it.nextworks.provisioningappcomplete.impl.netconf.MountpointManager;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiTopologyIndex;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.SubNetwork;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.sub.network.NetworkElement;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.entity.rev200710.sub.network.NetworkElementKey;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.NetworkElement1;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.sub.network.network.element.MpFlow;
+import org.opendaylight.yang.gen.v1.http.www.advaoptical.com.ns.yang.fsp150cm.fpm.rev200710.sub.network.network.element.MpFlowBuilder;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+// The mp-flows written through while the table of the network element is loaded again must not be lost,
+// and a flow missing from the cache is looked up again on the device.
+public class DeviceConfigCacheTest {
+    private static final String NODE = "node-1";
+    private static final Long NETWORK_ELEMENT = 1L;
+    private static final Long FLOW_ID = 7L;
+
+    private static final List<InstanceIdentifier<?>> FLOWPOINTS = Arrays.asList(
+            InstanceIdentifier.create(SubNetwork.class).child(NetworkElement.class, new NetworkElementKey(2L)),
+            InstanceIdentifier.create(SubNetwork.class).child(NetworkElement.class, new NetworkElementKey(3L)));
+
+    private static MpFlow flow() {
+        return new MpFlowBuilder().setMpFlowId(FLOW_ID).setFlowpoint(FLOWPOINTS).build();
+    }
+
+    @Test
+    public void flowWrittenThroughDuringReloadIsKept() throws Exception {
+        MountpointManager mountpointManager = mock(MountpointManager.class);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch readDone = new CountDownLatch(1);
+        // the device is read before the commit of the flow
+        doAnswer(invocation -> {
+            reading.countDown();
+            readDone.await(5, TimeUnit.SECONDS);
+            return Optional.empty();
+        }).when(mountpointManager).readFromDataStore(any(), eq(NODE));
+        DeviceConfigCache cache = new DeviceConfigCache(mountpointManager, mock(TapiTopologyIndex.class), 60);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<MpFlow>> load = executor.submit(() -> cache.getMultiPointFlows(NODE, NETWORK_ELEMENT));
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+            // the flow is committed and written through while the mp-flows are being read
+            Future<?> writeThrough = executor.submit(() -> cache.putMultiPointFlow(NODE, NETWORK_ELEMENT, flow()));
+            Thread.sleep(100);
+            readDone.countDown();
+            load.get(5, TimeUnit.SECONDS);
+            writeThrough.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+            cache.close();
+        }
+        assertEquals(FLOW_ID, cache.findMultiPointFlowId(NODE, NETWORK_ELEMENT, FLOWPOINTS));
+    }
+
+    @Test
+    public void flowMissingFromTheCacheIsReadFromTheDevice() throws Exception {
+        MountpointManager mountpointManager = mock(MountpointManager.class);
+        NetworkElement1 mpFlows = mock(NetworkElement1.class);
+        when(mpFlows.getMpFlow()).thenReturn(Collections.singletonList(flow()));
+        // the flow is created on the device after the first read
+        doReturn(Optional.empty(), Optional.of(mpFlows)).when(mountpointManager).readFromDataStore(any(), eq(NODE));
+        DeviceConfigCache cache = new DeviceConfigCache(mountpointManager, mock(TapiTopologyIndex.class), 60);
+        try {
+            assertNull(cache.findMultiPointFlowId(NODE, NETWORK_ELEMENT, FLOWPOINTS));
+            assertEquals(FLOW_ID, cache.readMultiPointFlowId(NODE, NETWORK_ELEMENT, FLOWPOINTS));
+            // the cache is refreshed
+            assertEquals(FLOW_ID, cache.findMultiPointFlowId(NODE, NETWORK_ELEMENT, FLOWPOINTS));
+        } finally {
+            cache.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePointBuilder;
+
+// Intents written by a "previous run" must be found unfinished, with their phases, NEPs and VLAN,
+// unless they were ended; a torn record at the end of the file is ignored.
+public class IntentJournalTest {
+    private static final int SIZE = 64 * 1024;
+    private Path dir;
+    private String file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("intent-journal");
+        file = dir.resolve("intents.journal").toString();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    @Test
+    public void unfinishedIntentsAreReplayed() throws Exception {
+        IntentJournal journal = new IntentJournal(file, SIZE);
+        assertTrue(journal.open().isEmpty());
+        journal.begin(intent("cs-1", IntentJournal.Type.CREATE, 100));
+        journal.begin(intent("cs-2", IntentJournal.Type.CREATE, 101));
+        journal.begin(intent("cs-3", IntentJournal.Type.DELETE, 102));
+        journal.phase("cs-1", IntentJournal.Phase.CONFIGURED);
+        journal.phase("cs-2", IntentJournal.Phase.STORED);
+        journal.phase("cs-2", IntentJournal.Phase.CONFIGURED);
+        journal.end("cs-2");
+        journal.close();
+
+        List<IntentJournal.Intent> unfinished = new IntentJournal(file, SIZE).open();
+        assertEquals(2, unfinished.size());
+        IntentJournal.Intent create = unfinished.get(0);
+        assertEquals("cs-1", create.getId());
+        assertEquals(IntentJournal.Type.CREATE, create.getType());
+        assertEquals(100, create.getVlan());
+        assertTrue(create.reached(IntentJournal.Phase.CONFIGURED));
+        assertFalse(create.reached(IntentJournal.Phase.STORED));
+        assertEquals(4, create.getTraversedNEPs().size());
+        assertEquals("node-2", create.getTraversedNEPs().get(2).getNodeUuid().getValue());
+        assertEquals("1-1-1-3", create.getTraversedNEPs().get(2).getNodeEdgePointUuid().getValue());
+        assertEquals(IntentJournal.Type.DELETE, unfinished.get(1).getType());
+    }
+
+    @Test
+    public void failedRequestsLeaveTheirIntentsToTheRecovery() throws Exception {
+        IntentJournal journal = new IntentJournal(file, SIZE);
+        journal.open();
+        journal.begin(intent("cs-1", IntentJournal.Type.CREATE, 100));
+        journal.begin(intent("cs-2", IntentJournal.Type.DELETE, 101));
+        journal.leaveToRecovery("cs-1");
+        journal.leaveToRecovery("cs-2");
+        // closed meanwhile: nothing to recover
+        journal.end("cs-2");
+        journal.leaveToRecovery("cs-3");
+
+        List<IntentJournal.Intent> left = journal.takeIntentsLeftToRecovery();
+        assertEquals(1, left.size());
+        assertEquals("cs-1", left.get(0).getId());
+        assertTrue(journal.takeIntentsLeftToRecovery().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void tornRecordIsIgnored() throws Exception {
+        IntentJournal journal = new IntentJournal(file, SIZE);
+        journal.open();
+        journal.begin(intent("cs-1", IntentJournal.Type.CREATE, 100));
+        journal.begin(intent("cs-2", IntentJournal.Type.CREATE, 101));
+        journal.close();
+
+        // corrupt the payload of the last record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long end = 0;
+            raf.seek(0);
+            while (true) {
+                int length = raf.readInt();
+                if (length == 0)
+                    break;
+                end = raf.getFilePointer() + 4 + length;
+                raf.seek(end);
+            }
+            raf.seek(end - 1);
+            raf.write('X');
+        }
+
+        List<IntentJournal.Intent> unfinished = new IntentJournal(file, SIZE).open();
+        assertEquals(1, unfinished.size());
+        assertEquals("cs-1", unfinished.get(0).getId());
+    }
+
+    @Test
+    public void fullJournalIsCompacted() throws Exception {
+        IntentJournal journal = new IntentJournal(file, 4 * 1024);
+        journal.open();
+        journal.begin(intent("open", IntentJournal.Type.CREATE, 7));
+        // many more records than the file can hold, all ended
+        for (int i = 0; i < 500; i++) {
+            journal.begin(intent("cs-" + i, IntentJournal.Type.CREATE, 100));
+            journal.phase("cs-" + i, IntentJournal.Phase.STORED);
+            journal.end("cs-" + i);
+        }
+        journal.close();
+
+        List<IntentJournal.Intent> unfinished = new IntentJournal(file, 4 * 1024).open();
+        assertEquals(1, unfinished.size());
+        assertEquals("open", unfinished.get(0).getId());
+        assertEquals(7, unfinished.get(0).getVlan());
+    }
+
+    @Test
+    public void concurrentIntentsShareTheForce() throws Exception {
+        IntentJournal journal = new IntentJournal(file, 1024 * 1024);
+        journal.open();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final String id = "cs-" + i;
+            futures.add(executor.submit(() -> {
+                journal.begin(intent(id, IntentJournal.Type.CREATE, 100));
+                journal.phase(id, IntentJournal.Phase.CONFIGURED);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+        executor.shutdown();
+        journal.close();
+
+        assertEquals(200, new IntentJournal(file, 1024 * 1024).open().size());
+    }
+
+    private static IntentJournal.Intent intent(String id, IntentJournal.Type type, int vlan) {
+        List<NodeEdgePoint> neps = Arrays.asList(nep("node-1", "1-1-1-1"), nep("node-1", "1-1-1-2"),
+                nep("node-2", "1-1-1-3"), nep("node-2", "1-1-1-4"));
+        return new IntentJournal.Intent(id, type, vlan, neps);
+    }
+
+    private static NodeEdgePoint nep(String node, String nep) {
+        return new NodeEdgePointBuilder()
+                .setTopologyUuid(new Uuid("topology"))
+                .setNodeUuid(new Uuid(node))
+                .setNodeEdgePointUuid(new Uuid(nep))
+                .build();
+    }
+}
@@ -0,0 +1,58 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class MpFlowIdAllocatorTest {
+
+    @Test
+    public void allocatesLowestFreeIdAfterSeed() {
+        MpFlowIdAllocator allocator = new MpFlowIdAllocator();
+        assertFalse(allocator.isSeeded("node-1", 1L));
+        allocator.seed("node-1", 1L, Arrays.asList(1L, 2L, 4L));
+        assertTrue(allocator.isSeeded("node-1", 1L));
+
+        assertEquals(Long.valueOf(3), allocator.allocate("node-1", 1L));
+        assertEquals(Long.valueOf(5), allocator.allocate("node-1", 1L));
+    }
+
+    @Test
+    public void reusesReleasedIds() {
+        MpFlowIdAllocator allocator = new MpFlowIdAllocator();
+        allocator.seed("node-1", 1L, Arrays.asList(1L, 2L, 3L));
+        // a flow in the middle is deleted: the list size is 2, but ID 3 is still in use
+        allocator.release("node-1", 1L, 2L);
+        assertEquals(Long.valueOf(2), allocator.allocate("node-1", 1L));
+        assertEquals(Long.valueOf(4), allocator.allocate("node-1", 1L));
+    }
+
+    @Test
+    public void reseedKeepsTheAllocatedIds() {
+        MpFlowIdAllocator allocator = new MpFlowIdAllocator();
+        allocator.seed("node-1", 1L, Arrays.asList(1L, 2L));
+        assertEquals(Long.valueOf(3), allocator.allocate("node-1", 1L));
+        // the mp-flows read again after the TTL: 3 is not on the device yet, 4 was created by someone else
+        allocator.seed("node-1", 1L, Arrays.asList(1L, 2L, 4L));
+        assertEquals(Long.valueOf(5), allocator.allocate("node-1", 1L));
+    }
+
+    @Test
+    public void networkElementsAndNodesAreIndependent() {
+        MpFlowIdAllocator allocator = new MpFlowIdAllocator();
+        allocator.seed("node-1", 1L, Collections.singletonList(1L));
+        allocator.seed("node-1", 2L, Collections.emptyList());
+        allocator.seed("node-10", 1L, Collections.singletonList(1L));
+        assertEquals(Long.valueOf(2), allocator.allocate("node-1", 1L));
+        assertEquals(Long.valueOf(1), allocator.allocate("node-1", 2L));
+
+        allocator.clear("node-1");
+        assertFalse(allocator.isSeeded("node-1", 1L));
+        assertFalse(allocator.isSeeded("node-1", 2L));
+        assertTrue(allocator.isSeeded("node-10", 1L));
+    }
+}
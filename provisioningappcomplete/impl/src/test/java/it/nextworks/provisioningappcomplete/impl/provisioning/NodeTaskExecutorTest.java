@@ -0,0 +1,97 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+// The tasks of a node beyond maxTasksPerNode wait in the queue of the node, not on a pool thread:
+// a busy node must not delay the other nodes, and never runs more than maxTasksPerNode tasks at a time.
+public class NodeTaskExecutorTest {
+    private static final long TASK_MILLIS = 200;
+
+    private static NodeTaskExecutor.NodeTask slowTask(AtomicInteger inProgress, AtomicInteger maxInProgress) {
+        return () -> {
+            maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(TASK_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inProgress.decrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void busyNodeDoesNotHoldThePoolThreads() throws Exception {
+        NodeTaskExecutor executor = new NodeTaskExecutor(2, 1);
+        try {
+            AtomicInteger inProgress = new AtomicInteger();
+            AtomicInteger maxInProgress = new AtomicInteger();
+            List<CompletableFuture<Void>> busy = new ArrayList<>();
+            for (int t = 0; t < 3; t++)
+                busy.add(executor.submit("node-1", slowTask(inProgress, maxInProgress)));
+
+            // one thread runs the task of node-1, the other is free: node-2 does not wait for node-1
+            long start = System.nanoTime();
+            executor.submit("node-2", () -> { }).get(5, TimeUnit.SECONDS);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("node-2 waited " + elapsedMillis + " ms", elapsedMillis < TASK_MILLIS);
+
+            CompletableFuture.allOf(busy.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+            assertEquals(1, maxInProgress.get());
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void tasksPerNodeAreLimited() throws Exception {
+        NodeTaskExecutor executor = new NodeTaskExecutor(8, 2);
+        try {
+            AtomicInteger inProgress = new AtomicInteger();
+            AtomicInteger maxInProgress = new AtomicInteger();
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (int t = 0; t < 6; t++)
+                tasks.add(executor.submit("node-1", slowTask(inProgress, maxInProgress)));
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+            assertEquals(2, maxInProgress.get());
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void failuresAreAggregated() {
+        NodeTaskExecutor executor = new NodeTaskExecutor(2, 1);
+        AtomicInteger completed = new AtomicInteger();
+        try {
+            Map<String, NodeTaskExecutor.NodeTask> tasks = new LinkedHashMap<>();
+            tasks.put("node-1", () -> {
+                throw new ProvisioningException("device error");
+            });
+            tasks.put("node-2", completed::incrementAndGet);
+            tasks.put("node-3", () -> {
+                throw new ProvisioningException("device error");
+            });
+            executor.runAll(tasks);
+            fail("the failures of node-1 and node-3 are not reported");
+        } catch (ProvisioningException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Configuration failed on 2/3 nodes"));
+            // the other nodes are configured anyway
+            assertEquals(1, completed.get());
+        } finally {
+            executor.close();
+        }
+    }
+}
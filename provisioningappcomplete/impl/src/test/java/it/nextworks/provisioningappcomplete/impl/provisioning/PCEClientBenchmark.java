@@ -0,0 +1,193 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Path computations against a stub PCE answering in-process, each one a POST followed by a GET, comparing
+// the blocking HttpURLConnection requests the PCE client used to send, run on a thread each, with the shared
+// asynchronous PCEClient. Reports the p50 and p99 latency of a path computation and the connections opened.
+// Run with: mvn test -Dtest=PCEClientBenchmark
+public class PCEClientBenchmark {
+    private static final int REQUESTS = 500;
+    private static final int IN_FLIGHT = 16;
+    private static final String COMPUTE_URL = "/operations/tapi-path-computation:compute-p-2-p-path/";
+    private static final String GET_URL = "/data/tapi-common:context/tapi-path-computation:path-computation-context/";
+    private static final String COMPUTE_OUTPUT = "{\"output\": {\"service\": {\"uuid\": null, \"path\": [{\"path-uuid\": \"%d\"}]}}}";
+    private static final String GET_OUTPUT = "{\"path\": {\"name\": null, \"uuid\": \"%s\", \"link\": [{\"topology-uuid\": "
+            + "\"topology\", \"link-uuid\": \"linkA-B\"}, {\"topology-uuid\": \"topology\", \"link-uuid\": \"linkB-C\"}], "
+            + "\"direction\": \"BIDIRECTIONAL\"}}";
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String baseUrl;
+    private final AtomicInteger pathIds = new AtomicInteger();
+    // client ports seen by the stub, one per connection
+    private final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void startStubPce() throws IOException {
+        // without TCP_NODELAY each exchange waits for the delayed ACK of the stub, hiding the clients
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverExecutor = Executors.newFixedThreadPool(IN_FLIGHT);
+        server.setExecutor(serverExecutor);
+        server.createContext(COMPUTE_URL, exchange -> respond(exchange, String.format(COMPUTE_OUTPUT, pathIds.incrementAndGet())));
+        server.createContext(GET_URL, exchange -> {
+            String uri = exchange.getRequestURI().getPath();
+            String pathId = uri.substring(uri.indexOf("path=") + "path=".length(), uri.length() - 1);
+            respond(exchange, String.format(GET_OUTPUT, pathId));
+        });
+        server.start();
+        baseUrl = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopStubPce() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private void respond(HttpExchange exchange, String body) throws IOException {
+        connections.add(exchange.getRemoteAddress().getPort());
+        try (InputStream request = exchange.getRequestBody()) {
+            request.readAllBytes();
+        }
+        byte[] response = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    @Test
+    public void concurrentPathComputations() throws Exception {
+        System.out.println(String.format("%-16s %10s %10s %10s %12s", "client", "total (ms)", "p50 (ms)", "p99 (ms)", "connections"));
+
+        ExecutorService requestThreads = Executors.newFixedThreadPool(IN_FLIGHT);
+        try {
+            run("HttpURLConnection", r -> CompletableFuture.supplyAsync(() -> blockingPathComputation(r), requestThreads));
+        } finally {
+            requestThreads.shutdownNow();
+        }
+
+        PCEClient pce = new PCEClient(server.getAddress().getHostString(), String.valueOf(server.getAddress().getPort()));
+        try {
+            int pooledConnections = run("PCEClient", r -> pce.createP2PPath("sip-a-" + r, "sip-c-" + r)
+                    .thenApply(path -> {
+                        assertNotNull(path);
+                        assertEquals(2, path.getLink().size());
+                        return path.getUuid().getValue();
+                    }));
+            // the connections are kept alive and reused, not opened per request
+            assertTrue("connections: " + pooledConnections, pooledConnections <= 2 * IN_FLIGHT);
+        } finally {
+            pce.close();
+        }
+    }
+
+    private interface PathComputation {
+        CompletableFuture<String> compute(int request);
+    }
+
+    // Runs REQUESTS path computations, IN_FLIGHT at a time, after a warm-up, and prints their latency.
+    // Returns the number of connections opened
+    private int run(String client, PathComputation computation) throws Exception {
+        assertNotNull(computation.compute(-1).get(10, TimeUnit.SECONDS));
+        connections.clear();
+
+        long[] latencies = new long[REQUESTS];
+        Semaphore inFlight = new Semaphore(IN_FLIGHT);
+        List<CompletableFuture<String>> paths = new ArrayList<>(REQUESTS);
+        long start = System.nanoTime();
+        for (int r = 0; r < REQUESTS; r++) {
+            inFlight.acquire();
+            int request = r;
+            long sent = System.nanoTime();
+            paths.add(computation.compute(r).whenComplete((pathId, ex) -> {
+                latencies[request] = System.nanoTime() - sent;
+                inFlight.release();
+            }));
+        }
+        CompletableFuture.allOf(paths.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        for (CompletableFuture<String> path : paths)
+            assertNotNull(path.get());
+
+        Arrays.sort(latencies);
+        System.out.println(String.format("%-16s %10d %10.2f %10.2f %12d", client, totalMillis,
+                percentileMillis(latencies, 0.50), percentileMillis(latencies, 0.99), connections.size()));
+        return connections.size();
+    }
+
+    private static double percentileMillis(long[] sortedNanos, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    // A path computation as the PCE client sent it before, blocking its thread: a new HttpURLConnection
+    // for the POST and one for the GET
+    private String blockingPathComputation(int request) {
+        String computeInput = "{\"input\": {\"sep\": [{\"local-id\": \"1\", \"service-interface-point\": "
+                + "{\"service-interface-point-uuid\": \"sip-a-" + request + "\"}, \"direction\": \"BIDIRECTIONAL\"}, "
+                + "{\"local-id\": \"2\", \"service-interface-point\": {\"service-interface-point-uuid\": \"sip-c-" + request
+                + "\"}, \"direction\": \"BIDIRECTIONAL\"}]}}";
+        String computeOutput = blockingRequest("POST", baseUrl + COMPUTE_URL, computeInput);
+        String pathId = new JSONObject(computeOutput).getJSONObject("output").getJSONObject("service")
+                .getJSONArray("path").getJSONObject(0).getString("path-uuid");
+        String path = blockingRequest("GET", baseUrl + GET_URL + "path=" + pathId + "/", null);
+        return new JSONObject(path).getJSONObject("path").getString("uuid");
+    }
+
+    private static String blockingRequest(String method, String urlString, String body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(urlString).openConnection();
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(5000);
+            connection.setRequestMethod(method);
+            connection.setRequestProperty("Content-Type", "application/yang-data+json");
+            connection.setRequestProperty("Accept", "application/yang-data+json");
+            if (body != null) {
+                connection.setDoOutput(true);
+                try (OutputStream os = connection.getOutputStream()) {
+                    os.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                in.transferTo(response);
+            }
+            return response.toString(StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new IllegalStateException(method + " " + urlString + " failed: " + ex.getMessage(), ex);
+        }
+    }
+}
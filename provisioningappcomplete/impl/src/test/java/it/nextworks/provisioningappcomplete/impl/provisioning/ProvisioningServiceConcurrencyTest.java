@@ -0,0 +1,272 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import it.nextworks.provisioningappcomplete.impl.netconf.DeviceCommitBatcher;
+import it.nextworks.provisioningappcomplete.impl.netconf.MountpointManager;
+import it.nextworks.provisioningappcomplete.impl.provisioning.exceptions.ProvisioningException;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiDataStoreManager;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiTopologyIndex;
+import it.nextworks.provisioningappcomplete.impl.tapi.TapiUtils;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.mdsal.binding.api.WriteTransaction;
+import org.opendaylight.mdsal.binding.dom.adapter.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.mdsal.common.api.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.CreateConnectivityServiceInput;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.CreateConnectivityServiceInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.OwnedNodeEdgePoint1;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.cep.list.ConnectionEndPoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.Connection;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.context.ConnectivityService;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.connectivity.service.end.point.ServiceInterfacePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.context.ConnectivityContext;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.create.connectivity.service.input.EndPoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.create.connectivity.service.input.EndPointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.context.TopologyContextBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.edge.point.MappedServiceInterfacePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Link;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.LinkBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Node;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.NodeBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.Topology;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.TopologyBuilder;
+
+// Overlapping creates through the ProvisioningService on an in-memory datastore: node-a -- node-b -- node-c,
+// every path crosses the links of node-b. Only the devices are replaced, the VLAN configured on each NEP is recorded.
+// No CEP may be shared by two connectivity-services and no VLAN may be allocated twice on a NEP,
+// both in the datastore and on the devices.
+public class ProvisioningServiceConcurrencyTest extends AbstractConcurrentDataBrokerTest {
+    private static final String TOPOLOGY = "topology";
+    private static final int SIPS_PER_NODE = 4;
+    private static final int REQUESTS = 32;
+    private static final int THREADS = 8;
+
+    private Path dir;
+    private TapiTopologyIndex topologyIndex;
+    private IntentJournal intentJournal;
+    private ExecutorService executor;
+    // nepKey/VLAN configured on the devices
+    private final Set<String> configured = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger doubleConfigured = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("intent-journal");
+        intentJournal = new IntentJournal(dir.resolve("intents.journal").toString(), 1024 * 1024);
+        intentJournal.open();
+        executor = Executors.newFixedThreadPool(THREADS);
+
+        topologyIndex = new TapiTopologyIndex();
+        topologyIndex.register(getDataBroker());
+        WriteTransaction wtx = getDataBroker().newWriteOnlyTransaction();
+        wtx.put(LogicalDatastoreType.OPERATIONAL, TapiUtils.topologyContextIId(), new TopologyContextBuilder()
+                .setTopology(Arrays.asList(topology())).build(), WriteTransaction.CREATE_MISSING_PARENTS);
+        wtx.commit().get(5, TimeUnit.SECONDS);
+        // the index is updated by its listener
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!(topologyIndex.existSip(sip("a", SIPS_PER_NODE)) && topologyIndex.existSip(sip("c", SIPS_PER_NODE)))
+                && System.nanoTime() < deadline)
+            Thread.sleep(10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        topologyIndex.close();
+        intentJournal.close();
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    @Test
+    public void overlappingCreatesDoNotShareResources() throws Exception {
+        runOverlappingCreates(false);
+    }
+
+    @Test
+    public void overlappingAtomicCreatesDoNotShareResources() throws Exception {
+        runOverlappingCreates(true);
+    }
+
+    private void runOverlappingCreates(boolean atomic) throws Exception {
+        ProvisioningService provisioningService = provisioningService(atomic);
+        List<CompletableFuture<ConnectivityService>> creates = new ArrayList<>();
+        for (int r = 0; r < REQUESTS; r++) {
+            String sipA = sip("a", r % SIPS_PER_NODE + 1);
+            String sipC = sip("c", r / SIPS_PER_NODE % SIPS_PER_NODE + 1);
+            // half of the requests go the other way round, the NEPs are locked in a different order
+            creates.add(provisioningService.createConnectivityService(r % 2 == 0 ? input(sipA, sipC) : input(sipC, sipA), executor));
+        }
+        for (CompletableFuture<ConnectivityService> create : creates)
+            assertNotNull(create.get(30, TimeUnit.SECONDS));
+
+        ConnectivityContext ctx = TapiDataStoreManager.readConnectivityContext(getDataBroker());
+        assertNotNull(ctx);
+        assertEquals(REQUESTS, ctx.getConnectivityService().size());
+        Map<String, Connection> connections = new HashMap<>();
+        for (Connection connection : ctx.getConnection())
+            connections.put(connection.getUuid().getValue(), connection);
+
+        Map<String, Set<String>> topologyCeps = topologyCeps();
+        Map<String, String> cepOwners = new HashMap<>();
+        Map<String, Set<String>> nepVlans = new HashMap<>();
+        for (ConnectivityService cs : ctx.getConnectivityService()) {
+            String csUuid = cs.getUuid().getValue();
+            String vlan = provisioningService.getVLAN(cs.getEndPoint().get(0));
+            Connection topConnection = connections.get(cs.getConnection().get(0).getConnectionUuid().getValue());
+            assertNotNull(topConnection);
+            for (org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.connectivity.rev200616.route.ConnectionEndPoint cep
+                    : topConnection.getRoute().get(0).getConnectionEndPoint()) {
+                String nepKey = ResourceLocks.nepKey(cep.getNodeUuid(), cep.getNodeEdgePointUuid());
+                String cepUuid = cep.getConnectionEndPointUuid().getValue();
+                assertNull("CEP " + cepUuid + " shared by " + csUuid, cepOwners.put(cepUuid, csUuid));
+                assertTrue("CEP " + cepUuid + " missing on NEP " + nepKey,
+                        topologyCeps.getOrDefault(nepKey, new HashSet<>()).contains(cepUuid));
+                assertTrue("VLAN " + vlan + " allocated twice on NEP " + nepKey,
+                        nepVlans.computeIfAbsent(nepKey, k -> new HashSet<>()).add(vlan));
+            }
+        }
+        // no CEP is left in the topology without its connectivity-service
+        int cepCount = 0;
+        for (Set<String> ceps : topologyCeps.values())
+            cepCount += ceps.size();
+        assertEquals(cepOwners.size(), cepCount);
+        assertEquals(0, doubleConfigured.get());
+        assertEquals(cepOwners.size(), configured.size());
+    }
+
+    private ProvisioningService provisioningService(boolean atomic) {
+        MountpointManager mountpointManager = mock(MountpointManager.class);
+        when(mountpointManager.isAvailable(anyString())).thenReturn(true);
+        return new ProvisioningService(getDataBroker(), mountpointManager, mock(DeviceConfigCache.class),
+                new EmbeddedPCE(topologyIndex), topologyIndex, new ResourceLocks(), new VlanPool(),
+                mock(NodeTaskExecutor.class), mock(DeviceCommitBatcher.class), atomic, intentJournal) {
+            @Override
+            VLANProvisioning vlanProvisioning(ArrayList<NodeEdgePoint> traversedNEPs, String VLANID) throws ProvisioningException {
+                return device(traversedNEPs, VLANID);
+            }
+        };
+    }
+
+    // The VLAN is "configured" on each NEP, a VLAN already configured on the NEP is counted
+    private VLANProvisioning device(List<NodeEdgePoint> traversedNEPs, String vlan) throws ProvisioningException {
+        VLANProvisioning device = mock(VLANProvisioning.class);
+        doAnswer(invocation -> {
+            for (NodeEdgePoint nep : traversedNEPs) {
+                if (!configured.add(ResourceLocks.nepKey(nep.getNodeUuid(), nep.getNodeEdgePointUuid()) + "/" + vlan))
+                    doubleConfigured.incrementAndGet();
+            }
+            return null;
+        }).when(device).createVLAN();
+        return device;
+    }
+
+    // CEPs in the cep-list of each NEP of the topology
+    private Map<String, Set<String>> topologyCeps() {
+        Map<String, Set<String>> ceps = new HashMap<>();
+        Topology topology = TapiDataStoreManager.readTopology(getDataBroker(), TOPOLOGY);
+        for (Node node : topology.getNode()) {
+            for (OwnedNodeEdgePoint onep : node.getOwnedNodeEdgePoint()) {
+                OwnedNodeEdgePoint1 cepAugm = onep.augmentation(OwnedNodeEdgePoint1.class);
+                if (cepAugm == null || cepAugm.getCepList() == null || cepAugm.getCepList().getConnectionEndPoint() == null)
+                    continue;
+                Set<String> nepCeps = ceps.computeIfAbsent(ResourceLocks.nepKey(node.getUuid(), onep.getUuid()), k -> new HashSet<>());
+                for (ConnectionEndPoint cep : cepAugm.getCepList().getConnectionEndPoint())
+                    nepCeps.add(cep.getUuid().getValue());
+            }
+        }
+        return ceps;
+    }
+
+    private static CreateConnectivityServiceInput input(String srcSip, String dstSip) {
+        return new CreateConnectivityServiceInputBuilder()
+                .setEndPoint(Arrays.asList(endPoint(srcSip), endPoint(dstSip)))
+                .build();
+    }
+
+    private static EndPoint endPoint(String sip) {
+        return new EndPointBuilder()
+                .setLocalId(sip)
+                .setServiceInterfacePoint(new ServiceInterfacePointBuilder().setServiceInterfacePointUuid(new Uuid(sip)).build())
+                .build();
+    }
+
+    // node-a and node-c have SIPS_PER_NODE access NEPs each and an uplink towards node-b
+    private static Topology topology() {
+        return new TopologyBuilder()
+                .setUuid(new Uuid(TOPOLOGY))
+                .setNode(Arrays.asList(accessNode("a"), transitNode(), accessNode("c")))
+                .setLink(Arrays.asList(link("link-ab", "node-a", "a-uplink", "node-b", "b-west"),
+                        link("link-bc", "node-b", "b-east", "node-c", "c-uplink")))
+                .build();
+    }
+
+    private static Node accessNode(String name) {
+        List<OwnedNodeEdgePoint> neps = new ArrayList<>();
+        neps.add(new OwnedNodeEdgePointBuilder().setUuid(new Uuid(name + "-uplink")).build());
+        for (int i = 1; i <= SIPS_PER_NODE; i++) {
+            neps.add(new OwnedNodeEdgePointBuilder()
+                    .setUuid(new Uuid(name + "-" + i))
+                    .setMappedServiceInterfacePoint(Arrays.asList(new MappedServiceInterfacePointBuilder()
+                            .setServiceInterfacePointUuid(new Uuid(sip(name, i))).build()))
+                    .build());
+        }
+        return new NodeBuilder().setUuid(new Uuid("node-" + name)).setOwnedNodeEdgePoint(neps).build();
+    }
+
+    private static Node transitNode() {
+        return new NodeBuilder()
+                .setUuid(new Uuid("node-b"))
+                .setOwnedNodeEdgePoint(Arrays.asList(
+                        new OwnedNodeEdgePointBuilder().setUuid(new Uuid("b-west")).build(),
+                        new OwnedNodeEdgePointBuilder().setUuid(new Uuid("b-east")).build()))
+                .build();
+    }
+
+    private static Link link(String uuid, String node1, String nep1, String node2, String nep2) {
+        return new LinkBuilder()
+                .setUuid(new Uuid(uuid))
+                .setNodeEdgePoint(Arrays.asList(nep(node1, nep1), nep(node2, nep2)))
+                .build();
+    }
+
+    private static NodeEdgePoint nep(String node, String nep) {
+        return new NodeEdgePointBuilder()
+                .setTopologyUuid(new Uuid(TOPOLOGY))
+                .setNodeUuid(new Uuid(node))
+                .setNodeEdgePointUuid(new Uuid(nep))
+                .build();
+    }
+
+    private static String sip(String node, int i) {
+        return "sip-" + node + "-" + i;
+    }
+}
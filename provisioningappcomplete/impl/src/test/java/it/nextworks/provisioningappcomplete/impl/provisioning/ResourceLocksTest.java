@@ -0,0 +1,86 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import org.junit.Test;
+
+// Stress test: hundreds of concurrent "creates" on random overlapping paths.
+// Each NEP must be owned by at most one request at a time and every request must complete.
+public class ResourceLocksTest {
+    private static final int REQUESTS = 500;
+    private static final int THREADS = 32;
+    private static final int NEPS = 40;
+    private static final int PATH_LENGTH = 6;
+
+    @Test
+    public void concurrentRequestsOnOverlappingNeps() throws Exception {
+        ResourceLocks resourceLocks = new ResourceLocks();
+        Map<String, Integer> owners = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> cepCount = new ConcurrentHashMap<>();
+        AtomicInteger conflicts = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        Random random = new Random(42);
+
+        for (int r = 0; r < REQUESTS; r++) {
+            final int request = r;
+            final List<String> path = new ArrayList<>();
+            while (path.size() < PATH_LENGTH) {
+                String nep = "node-" + random.nextInt(NEPS / 4) + "/1-1-1-" + random.nextInt(4);
+                if (!path.contains(nep))
+                    path.add(nep);
+            }
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    List<Lock> locks = resourceLocks.lockNeps(path);
+                    assertNotNull(locks);
+                    try {
+                        for (String nep : path) {
+                            if (owners.putIfAbsent(nep, request) != null)
+                                conflicts.incrementAndGet();
+                        }
+                        // read-modify-write on each NEP, as done on the cep-list and on the device ports
+                        for (String nep : path) {
+                            AtomicInteger count = cepCount.computeIfAbsent(nep, k -> new AtomicInteger());
+                            int value = count.get();
+                            Thread.yield();
+                            count.set(value + 1);
+                        }
+                        for (String nep : path)
+                            owners.remove(nep, request);
+                    } finally {
+                        resourceLocks.unlock(locks);
+                    }
+                    completed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+        assertEquals(0, conflicts.get());
+        assertEquals(REQUESTS, completed.get());
+        int total = 0;
+        for (AtomicInteger count : cepCount.values())
+            total += count.get();
+        assertEquals(REQUESTS * PATH_LENGTH, total);
+    }
+}
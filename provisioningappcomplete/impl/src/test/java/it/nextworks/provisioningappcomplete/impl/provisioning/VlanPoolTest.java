@@ -0,0 +1,48 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class VlanPoolTest {
+    private static final List<String> PATH_A = Arrays.asList("node-1/1-1-1-1", "node-1/1-1-1-2", "node-2/1-1-1-1");
+    private static final List<String> PATH_B = Arrays.asList("node-2/1-1-1-1", "node-2/1-1-1-2");
+    private static final List<String> PATH_C = Arrays.asList("node-3/1-1-1-1", "node-3/1-1-1-2");
+
+    @Test
+    public void allocatesLowestVlanFreeOnAllNeps() {
+        VlanPool pool = new VlanPool();
+        assertTrue(pool.reserve(PATH_B, 1));
+        assertTrue(pool.reserve(Collections.singletonList("node-1/1-1-1-1"), 2));
+        // 1 is used on node-2, 2 on node-1: the first VLAN free on the whole path is 3
+        assertEquals(Integer.valueOf(3), pool.allocate(PATH_A));
+        // a disjoint path starts again from the first VLAN
+        assertEquals(Integer.valueOf(1), pool.allocate(PATH_C));
+    }
+
+    @Test
+    public void rejectsVlanAlreadyUsedOnSharedNep() {
+        VlanPool pool = new VlanPool();
+        assertTrue(pool.reserve(PATH_A, 100));
+        assertFalse(pool.reserve(PATH_B, 100));
+        assertTrue(pool.reserve(PATH_C, 100));
+
+        pool.release(PATH_A, 100);
+        assertTrue(pool.reserve(PATH_B, 100));
+    }
+
+    @Test
+    public void returnsNullWhenPathIsExhausted() {
+        VlanPool pool = new VlanPool();
+        for (int vlan = VlanPool.MIN_VLAN; vlan <= VlanPool.MAX_VLAN; vlan++)
+            assertTrue(pool.reserve(Collections.singletonList("node-2/1-1-1-2"), vlan));
+        assertNull(pool.allocate(PATH_B));
+        assertEquals(Integer.valueOf(1), pool.allocate(PATH_A));
+    }
+}
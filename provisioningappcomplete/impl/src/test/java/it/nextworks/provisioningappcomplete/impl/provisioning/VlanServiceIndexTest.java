@@ -0,0 +1,75 @@
+package it.nextworks.provisioningappcomplete.impl.provisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePointBuilder;
+
+public class VlanServiceIndexTest {
+    private static final ArrayList<NodeEdgePoint> PATH = new ArrayList<>(Arrays.asList(
+            nep("node-1", "1-1-1-1"), nep("node-1", "1-1-1-2"),
+            nep("node-2", "1-1-1-3"), nep("node-2", "1-1-1-4"),
+            nep("node-3", "2-1-1-1"), nep("node-3", "2-1-1-2")));
+
+    @Test
+    public void servicesAreIndexedByNodeAndVlan() {
+        VlanServiceIndex index = new VlanServiceIndex();
+        index.add("cs-1", 100, PATH, false);
+        index.add("cs-2", 101, new ArrayList<>(PATH.subList(2, 4)), false);
+
+        assertEquals(4, index.size());
+        assertEquals(2, index.getNode("node-2").size());
+        VlanServiceIndex.Entry entry = index.get("node-3", 100).get(0);
+        assertEquals("cs-1", entry.getCsUuid());
+        // the NEPs of node-3 are the last pair of the route
+        assertEquals(4, entry.getNepIndex());
+        assertEquals(0, index.get("node-2", 101).get(0).getNepIndex());
+        assertTrue(index.get("node-1", 101).isEmpty());
+        assertTrue(index.getNode("node-4").isEmpty());
+    }
+
+    @Test
+    public void vlanIsSharedByServicesOnDisjointNeps() {
+        VlanServiceIndex index = new VlanServiceIndex();
+        index.add("cs-1", 100, new ArrayList<>(Arrays.asList(nep("node-1", "1-1-1-1"), nep("node-1", "1-1-1-2"))), false);
+        index.add("cs-2", 100, new ArrayList<>(Arrays.asList(nep("node-1", "1-1-1-3"), nep("node-1", "1-1-1-4"))), false);
+
+        // both services are kept, so the mp-flow of neither is taken for an orphan
+        assertEquals(2, index.size());
+        List<VlanServiceIndex.Entry> entries = index.get("node-1", 100);
+        assertEquals(2, entries.size());
+        Set<String> services = new HashSet<>();
+        for (VlanServiceIndex.Entry entry : index.getNode("node-1"))
+            services.add(entry.getCsUuid());
+        assertEquals(new HashSet<>(Arrays.asList("cs-1", "cs-2")), services);
+    }
+
+    @Test
+    public void openIntentsReplaceStoredServices() {
+        IntentJournal.Intent deletion = new IntentJournal.Intent("cs-1", IntentJournal.Type.DELETE, 100, PATH);
+        VlanServiceIndex index = VlanServiceIndex.build(null, Collections.emptyList(), Collections.singletonList(deletion));
+        index.add("cs-2", 200, PATH, false);
+
+        assertTrue(index.get("node-1", 100).get(0).isInProgress());
+        assertFalse(index.get("node-1", 200).get(0).isInProgress());
+        assertEquals(6, index.size());
+    }
+
+    private static NodeEdgePoint nep(String node, String nep) {
+        return new NodeEdgePointBuilder()
+                .setTopologyUuid(new Uuid("topology"))
+                .setNodeUuid(new Uuid(node))
+                .setNodeEdgePointUuid(new Uuid(nep))
+                .build();
+    }
+}
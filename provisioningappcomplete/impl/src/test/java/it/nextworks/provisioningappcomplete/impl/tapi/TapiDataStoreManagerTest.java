@@ -0,0 +1,63 @@
+package it.nextworks.provisioningappcomplete.impl.tapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.opendaylight.mdsal.binding.api.DataBroker;
+import org.opendaylight.mdsal.binding.api.WriteTransaction;
+import org.opendaylight.mdsal.common.api.CommitInfo;
+import org.opendaylight.mdsal.common.api.OptimisticLockFailedException;
+import org.opendaylight.mdsal.common.api.TransactionCommitFailedException;
+import org.opendaylight.yangtools.util.concurrent.FluentFutures;
+
+// Commits failing with an OptimisticLockFailedException are retried on a new transaction,
+// up to MAX_COMMIT_ATTEMPTS times; any other failure is not retried.
+public class TapiDataStoreManagerTest {
+
+    // Broker failing its first commits, as many as failures, with the given exception
+    private static DataBroker failingBroker(int failures, Exception failure, AtomicInteger commits) {
+        DataBroker dataBroker = mock(DataBroker.class);
+        when(dataBroker.newWriteOnlyTransaction()).thenAnswer(invocation -> {
+            WriteTransaction wtx = mock(WriteTransaction.class);
+            when(wtx.commit()).thenAnswer(commit -> commits.incrementAndGet() <= failures
+                    ? FluentFutures.immediateFailedFluentFuture(failure)
+                    : CommitInfo.emptyFluentFuture());
+            return wtx;
+        });
+        return dataBroker;
+    }
+
+    @Test
+    public void optimisticLockFailuresAreRetried() {
+        AtomicInteger commits = new AtomicInteger();
+        AtomicInteger applied = new AtomicInteger();
+        DataBroker dataBroker = failingBroker(TapiDataStoreManager.MAX_COMMIT_ATTEMPTS - 1,
+                new OptimisticLockFailedException("conflict"), commits);
+        assertTrue(TapiDataStoreManager.submitTransaction(dataBroker, wtx -> applied.incrementAndGet()));
+        assertEquals(TapiDataStoreManager.MAX_COMMIT_ATTEMPTS, commits.get());
+        // the operations are applied again on each new transaction
+        assertEquals(TapiDataStoreManager.MAX_COMMIT_ATTEMPTS, applied.get());
+    }
+
+    @Test
+    public void commitFailsAfterTheLastAttempt() {
+        AtomicInteger commits = new AtomicInteger();
+        DataBroker dataBroker = failingBroker(TapiDataStoreManager.MAX_COMMIT_ATTEMPTS,
+                new OptimisticLockFailedException("conflict"), commits);
+        assertFalse(TapiDataStoreManager.submitTransaction(dataBroker, wtx -> { }));
+        assertEquals(TapiDataStoreManager.MAX_COMMIT_ATTEMPTS, commits.get());
+    }
+
+    @Test
+    public void otherFailuresAreNotRetried() {
+        AtomicInteger commits = new AtomicInteger();
+        DataBroker dataBroker = failingBroker(1, new TransactionCommitFailedException("invalid data"), commits);
+        assertFalse(TapiDataStoreManager.submitTransaction(dataBroker, wtx -> { }));
+        assertEquals(1, commits.get());
+    }
+}
@@ -0,0 +1,385 @@
+package it.nextworks.topologyappcomplete.impl.netconf;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.nextworks.topologyappcomplete.impl.tapi.TapiDataStoreManager;
+import org.opendaylight.mdsal.binding.api.DataBroker;
+import org.opendaylight.mdsal.binding.api.DataObjectModification;
+import org.opendaylight.mdsal.binding.api.DataTreeChangeListener;
+import org.opendaylight.mdsal.binding.api.DataTreeIdentifier;
+import org.opendaylight.mdsal.binding.api.DataTreeModification;
+import org.opendaylight.mdsal.binding.api.WriteTransaction;
+import org.opendaylight.mdsal.common.api.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.ConnectionState;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.TopologyReadiness;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.topology.readiness.TopologyStatus;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.topology.readiness.TopologyStatusBuilder;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.topology.readiness.TopologyStatusKey;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.topology.readiness.topology.status.NodeStatus;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.topology.readiness.topology.status.NodeStatusBuilder;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.topology.readiness.topology.status.NodeStatusKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.netconf.node.topology.rev150114.NetconfNode;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.netconf.node.topology.rev150114.NetconfNodeConnectionStatus;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Node;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Staged creation of the netconf-connectors of the static topologies.
+// At most maxConcurrentConnections connectors are connecting at the same time: a connector takes a slot when it is written
+// and releases it when its NetconfNode is connected or unable-to-connect, or after connectTimeoutSeconds.
+// The connection state of each node, and the number of connected nodes of each topology, are published in the
+// topology-readiness container of the OPERATIONAL datastore, so services can be provisioned on the ready nodes
+// before the whole topology is connected.
+// The state is only accessed by the rollout thread, which also writes the connectors and the readiness.
+public class ConnectionRolloutScheduler implements DataTreeChangeListener<Node>, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionRolloutScheduler.class);
+    private final DataBroker dataBroker;
+    private final String netconfUsername;
+    private final String netconfPsw;
+    private final NetconfSessionProfiles profiles;
+    // 0 means no limit
+    private final int maxConcurrentConnections;
+    private final long connectTimeoutSeconds;
+    private final ScheduledExecutorService executor;
+    // connectors waiting for a slot, in onboarding order
+    private final Deque<Connector> pending = new ArrayDeque<>();
+    // connectors holding a slot, with their timeout
+    private final Map<String, ScheduledFuture<?>> connecting = new HashMap<>();
+    private final Map<String, String> nodeTopology = new HashMap<>();
+    private final Map<String, ConnectionState> nodeStates = new HashMap<>();
+    private final Map<String, Integer> readyNodes = new HashMap<>();
+    private ListenerRegistration<ConnectionRolloutScheduler> registration;
+
+    // A netconf-connector to be created for a node of a topology
+    public static final class Connector {
+        private final String topologyUuid;
+        private final String nodeId;
+        private final String ip;
+        private final String port;
+        // null if the node has no device-model
+        private final String deviceModel;
+
+        public Connector(String topologyUuid, String nodeId, String ip, String port, String deviceModel) {
+            this.topologyUuid = topologyUuid;
+            this.nodeId = nodeId;
+            this.ip = ip;
+            this.port = port;
+            this.deviceModel = deviceModel;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+    }
+
+    public ConnectionRolloutScheduler(DataBroker dataBroker, String netconfUsername, String netconfPsw,
+                                      NetconfSessionProfiles profiles, int maxConcurrentConnections,
+                                      long connectTimeoutSeconds) {
+        this.dataBroker = dataBroker;
+        this.netconfUsername = netconfUsername;
+        this.netconfPsw = netconfPsw;
+        this.profiles = profiles;
+        this.maxConcurrentConnections = maxConcurrentConnections;
+        this.connectTimeoutSeconds = connectTimeoutSeconds;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("rollout-%d").setDaemon(true).build());
+    }
+
+    public void register() {
+        registration = dataBroker.registerDataTreeChangeListener(
+                DataTreeIdentifier.create(LogicalDatastoreType.OPERATIONAL, NetconfUtils.netconfNode()), this);
+        LOG.info("ConnectionRolloutScheduler - listening on netconf nodes, max concurrent connections "
+                + (maxConcurrentConnections > 0 ? maxConcurrentConnections : "unlimited"));
+    }
+
+    @Override
+    public void close() {
+        if (registration != null)
+            registration.close();
+        executor.shutdownNow();
+    }
+
+    // READINESS
+    public static InstanceIdentifier<TopologyStatus> topologyStatusIid(String topologyUuid) {
+        return InstanceIdentifier.create(TopologyReadiness.class)
+                .child(TopologyStatus.class, new TopologyStatusKey(topologyUuid));
+    }
+
+    public static InstanceIdentifier<NodeStatus> nodeStatusIid(String topologyUuid, String nodeId) {
+        return topologyStatusIid(topologyUuid).child(NodeStatus.class, new NodeStatusKey(nodeId));
+    }
+
+    // Add to a transaction of the caller the readiness of a new topology, with all its nodes pending
+    public static void putReadiness(WriteTransaction wtx, String topologyUuid, List<String> nodeIds) {
+        List<NodeStatus> nodeStatusList = new ArrayList<>();
+        for (String nodeId : nodeIds)
+            nodeStatusList.add(new NodeStatusBuilder().setNodeId(nodeId).setState(ConnectionState.Pending).build());
+        TopologyStatus status = new TopologyStatusBuilder()
+                .setTopologyUuid(topologyUuid)
+                .setTotalNodes((long) nodeIds.size())
+                .setReadyNodes(0L)
+                .setNodeStatus(nodeStatusList)
+                .build();
+        wtx.put(LogicalDatastoreType.OPERATIONAL, topologyStatusIid(topologyUuid), status,
+                WriteTransaction.CREATE_MISSING_PARENTS);
+    }
+
+    // Add to a transaction of the caller the changes of the readiness of a modified topology: the new total of nodes,
+    // the added nodes (or the nodes whose connector is replaced) pending, the removed nodes deleted
+    public static void mergeReadiness(WriteTransaction wtx, String topologyUuid, int totalNodes,
+                                      Collection<String> pendingNodeIds, Collection<String> removedNodeIds) {
+        wtx.merge(LogicalDatastoreType.OPERATIONAL, topologyStatusIid(topologyUuid), new TopologyStatusBuilder()
+                .setTopologyUuid(topologyUuid)
+                .setTotalNodes((long) totalNodes)
+                .build(), WriteTransaction.CREATE_MISSING_PARENTS);
+        for (String nodeId : pendingNodeIds)
+            wtx.put(LogicalDatastoreType.OPERATIONAL, nodeStatusIid(topologyUuid, nodeId),
+                    new NodeStatusBuilder().setNodeId(nodeId).setState(ConnectionState.Pending).build());
+        for (String nodeId : removedNodeIds)
+            wtx.delete(LogicalDatastoreType.OPERATIONAL, nodeStatusIid(topologyUuid, nodeId));
+    }
+
+    // ROLLOUT
+    // Queue the connectors of a topology, whose readiness is already stored. It does not wait for their creation
+    public void schedule(String topologyUuid, List<Connector> connectors) {
+        executor.execute(() -> {
+            for (Connector connector : connectors) {
+                nodeTopology.put(connector.nodeId, topologyUuid);
+                nodeStates.put(connector.nodeId, ConnectionState.Pending);
+                pending.add(connector);
+            }
+            readyNodes.putIfAbsent(topologyUuid, 0);
+            LOG.info("ConnectionRolloutScheduler - schedule: " + connectors.size() + " connectors of topology "
+                    + topologyUuid + " queued, " + pending.size() + " pending");
+            dispatch();
+        });
+    }
+
+    // Forget the nodes of a topology being removed and delete its readiness. The connectors already written
+    // are left to the caller. It returns when the rollout thread has stopped creating them
+    public boolean cancel(String topologyUuid) {
+        return runOnRolloutThread("cancel", () -> {
+            pending.removeIf(connector -> connector.topologyUuid.equals(topologyUuid));
+            List<String> nodeIds = new ArrayList<>();
+            for (Map.Entry<String, String> entry : nodeTopology.entrySet()) {
+                if (entry.getValue().equals(topologyUuid))
+                    nodeIds.add(entry.getKey());
+            }
+            for (String nodeId : nodeIds)
+                forget(nodeId);
+            readyNodes.remove(topologyUuid);
+            boolean deleted = TapiDataStoreManager.submitTransaction(dataBroker,
+                    wtx -> wtx.delete(LogicalDatastoreType.OPERATIONAL, topologyStatusIid(topologyUuid)));
+            // slots may have been released
+            dispatch();
+            return deleted;
+        });
+    }
+
+    // Forget some nodes of a topology, removed or whose connector is going to be replaced, and update the ready nodes
+    // of the topology. Their node-status and their connectors are left to the caller
+    public boolean cancelNodes(String topologyUuid, Collection<String> nodeIds) {
+        if (nodeIds.isEmpty())
+            return true;
+        return runOnRolloutThread("cancelNodes", () -> {
+            pending.removeIf(connector -> nodeIds.contains(connector.nodeId));
+            boolean wasReady = false;
+            for (String nodeId : nodeIds) {
+                if (topologyUuid.equals(nodeTopology.get(nodeId)) && forget(nodeId) == ConnectionState.Connected) {
+                    readyNodes.merge(topologyUuid, -1, Integer::sum);
+                    wasReady = true;
+                }
+            }
+            boolean stored = !wasReady || TapiDataStoreManager.submitTransaction(dataBroker,
+                    wtx -> mergeReadyNodes(wtx, topologyUuid));
+            dispatch();
+            return stored;
+        });
+    }
+
+    // Release the slot of the node and forget it, it returns its last state
+    private ConnectionState forget(String nodeId) {
+        ScheduledFuture<?> timeout = connecting.remove(nodeId);
+        if (timeout != null)
+            timeout.cancel(false);
+        nodeTopology.remove(nodeId);
+        return nodeStates.remove(nodeId);
+    }
+
+    private boolean runOnRolloutThread(String operation, Callable<Boolean> task) {
+        try {
+            return executor.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            LOG.error("ConnectionRolloutScheduler - " + operation + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Write as many pending connectors as the free slots, in a single transaction with their connecting state
+    private void dispatch() {
+        List<Connector> batch = new ArrayList<>();
+        while (!pending.isEmpty() && (maxConcurrentConnections <= 0
+                || connecting.size() + batch.size() < maxConcurrentConnections))
+            batch.add(pending.poll());
+        if (batch.isEmpty())
+            return;
+        boolean written = TapiDataStoreManager.submitTransaction(dataBroker, wtx -> {
+            for (Connector connector : batch) {
+                TopologyNetconfManager.putNetconfConnector(wtx, TopologyNetconfManager.prepareNode(connector.nodeId,
+                        connector.ip, connector.port, netconfUsername, netconfPsw, profiles.get(connector.deviceModel)));
+                mergeNodeState(wtx, connector.topologyUuid, connector.nodeId, ConnectionState.Connecting);
+            }
+        });
+        if (!written) {
+            // the nodes are reported as unable-to-connect, without taking a slot
+            LOG.error("ConnectionRolloutScheduler - dispatch: error writing " + batch.size() + " netconf-connectors");
+            Map<String, ConnectionState> failed = new LinkedHashMap<>();
+            for (Connector connector : batch)
+                failed.put(connector.nodeId, ConnectionState.UnableToConnect);
+            updateStates(failed);
+            return;
+        }
+        for (Connector connector : batch) {
+            nodeStates.put(connector.nodeId, ConnectionState.Connecting);
+            connecting.put(connector.nodeId,
+                    executor.schedule(() -> onTimeout(connector.nodeId), connectTimeoutSeconds, TimeUnit.SECONDS));
+        }
+        LOG.info("ConnectionRolloutScheduler - dispatch: " + batch.size() + " netconf-connectors written, "
+                + connecting.size() + " connecting, " + pending.size() + " pending");
+    }
+
+    // The node keeps connecting in background, but it does not hold back the rollout any more
+    private void onTimeout(String nodeId) {
+        if (connecting.remove(nodeId) == null)
+            return;
+        LOG.warn("ConnectionRolloutScheduler - node " + nodeId + " not connected after " + connectTimeoutSeconds
+                + " s, slot released");
+        dispatch();
+    }
+
+    @Override
+    public void onDataTreeChanged(Collection<DataTreeModification<Node>> changes) {
+        Map<String, ConnectionState> states = new LinkedHashMap<>();
+        for (DataTreeModification<Node> change : changes) {
+            DataObjectModification<Node> root = change.getRootNode();
+            if (root.getModificationType() == DataObjectModification.ModificationType.DELETE
+                    || root.getDataAfter() == null)
+                continue;
+            NetconfNode netconfNode = root.getDataAfter().augmentation(NetconfNode.class);
+            if (netconfNode == null || netconfNode.getConnectionStatus() == null)
+                continue;
+            states.put(root.getDataAfter().getNodeId().getValue(), stateOf(netconfNode.getConnectionStatus()));
+        }
+        if (!states.isEmpty())
+            executor.execute(() -> {
+                updateStates(states);
+                dispatch();
+            });
+    }
+
+    private static ConnectionState stateOf(NetconfNodeConnectionStatus.ConnectionStatus status) {
+        switch (status) {
+            case Connected:
+                return ConnectionState.Connected;
+            case UnableToConnect:
+                return ConnectionState.UnableToConnect;
+            default:
+                return ConnectionState.Connecting;
+        }
+    }
+
+    // Release the slots of the nodes with a final state and store the changed states, with the ready nodes of their topologies
+    private void updateStates(Map<String, ConnectionState> states) {
+        Map<String, ConnectionState> changed = new LinkedHashMap<>();
+        for (Map.Entry<String, ConnectionState> entry : states.entrySet()) {
+            String nodeId = entry.getKey();
+            ConnectionState state = entry.getValue();
+            String topologyUuid = nodeTopology.get(nodeId);
+            // not a node of the static topologies
+            if (topologyUuid == null)
+                continue;
+            if (state != ConnectionState.Connecting) {
+                ScheduledFuture<?> timeout = connecting.remove(nodeId);
+                if (timeout != null)
+                    timeout.cancel(false);
+            }
+            ConnectionState previous = nodeStates.put(nodeId, state);
+            if (previous == state)
+                continue;
+            if (state == ConnectionState.Connected)
+                readyNodes.merge(topologyUuid, 1, Integer::sum);
+            else if (previous == ConnectionState.Connected)
+                readyNodes.merge(topologyUuid, -1, Integer::sum);
+            changed.put(nodeId, state);
+        }
+        if (changed.isEmpty())
+            return;
+        Set<String> topologies = new HashSet<>();
+        for (String nodeId : changed.keySet())
+            topologies.add(nodeTopology.get(nodeId));
+        if (!TapiDataStoreManager.submitTransaction(dataBroker, wtx -> {
+            for (Map.Entry<String, ConnectionState> entry : changed.entrySet())
+                mergeNodeState(wtx, nodeTopology.get(entry.getKey()), entry.getKey(), entry.getValue());
+            for (String topologyUuid : topologies)
+                mergeReadyNodes(wtx, topologyUuid);
+        }))
+            LOG.error("ConnectionRolloutScheduler - error storing the state of " + changed.size() + " nodes");
+    }
+
+    private static void mergeNodeState(WriteTransaction wtx, String topologyUuid, String nodeId, ConnectionState state) {
+        wtx.merge(LogicalDatastoreType.OPERATIONAL, nodeStatusIid(topologyUuid, nodeId),
+                new NodeStatusBuilder().setNodeId(nodeId).setState(state).build());
+    }
+
+    private void mergeReadyNodes(WriteTransaction wtx, String topologyUuid) {
+        wtx.merge(LogicalDatastoreType.OPERATIONAL, topologyStatusIid(topologyUuid), new TopologyStatusBuilder()
+                .setTopologyUuid(topologyUuid)
+                .setReadyNodes((long) readyNodes.getOrDefault(topologyUuid, 0))
+                .build());
+    }
+
+    // METRICS, read on the rollout thread after the operations already queued
+    public int getConnectingCount() {
+        return query(connecting::size);
+    }
+
+    public int getPendingCount() {
+        return query(pending::size);
+    }
+
+    public int getReadyNodes(String topologyUuid) {
+        return query(() -> readyNodes.getOrDefault(topologyUuid, 0));
+    }
+
+    private int query(Callable<Integer> metric) {
+        try {
+            return executor.submit(metric).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (ExecutionException e) {
+            return -1;
+        }
+    }
+}
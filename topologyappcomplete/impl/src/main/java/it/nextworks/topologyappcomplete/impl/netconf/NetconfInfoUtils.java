@@ -11,6 +11,7 @@ public class NetconfInfoUtils {
     private static final Logger LOG = LoggerFactory.getLogger(NetconfInfoUtils.class);
     private static final String managementAddress = "management-address";
     private static final String managementPort = "management-port";
+    private static final String deviceModel = "device-model";
 
     private NetconfInfoUtils() {
         throw new IllegalStateException("Instantiating utility class.");
@@ -32,6 +33,15 @@ public class NetconfInfoUtils {
         return null;
     }
 
+    // Optional, it selects the netconf settings of the node (see NetconfSessionProfiles)
+    public static String getDeviceModel(List<Name> nameList){
+        for(Name name : nameList){
+            if(name.getValueName().equals(deviceModel))
+                return name.getValue();
+        }
+        return null;
+    }
+
     // Check if every node in the TAPI topology in input has mngm-ip and mngm-port. It returns:
     // TRUE if all nodes have mngm-ip and mngm-port
     // FALSE if at least one node does not have this info
@@ -0,0 +1,168 @@
+package it.nextworks.topologyappcomplete.impl.netconf;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.netconf.node.topology.rev150114.NetconfNodeBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+// Settings of the netconf-connectors by device model, read from complete.properties:
+//   netconf.<setting>=...                default of all the devices
+//   netconf.model.<model>.<setting>=...  devices whose TAPI node has the name device-model=<model>
+// The devices of a model share a schema-cache-directory (the model name, if not set), so their YANG schemas are
+// downloaded and compiled once and reused by the other devices with the same capabilities.
+// A setting not configured is left to the netconf topology default.
+public class NetconfSessionProfiles {
+    private static final Logger LOG = LoggerFactory.getLogger(NetconfSessionProfiles.class);
+    private static final String PREFIX = "netconf.";
+    private static final String MODEL_PREFIX = "netconf.model.";
+    static final String SCHEMA_CACHE_DIRECTORY = "schema-cache-directory";
+    static final String KEEPALIVE_DELAY_SECONDS = "keepalive-delay-seconds";
+    static final String CONNECTION_TIMEOUT_MILLIS = "connection-timeout-millis";
+    static final String DEFAULT_REQUEST_TIMEOUT_MILLIS = "default-request-timeout-millis";
+    static final String CONCURRENT_RPC_LIMIT = "concurrent-rpc-limit";
+
+    private final Profile defaultProfile;
+    private final Map<String, Profile> modelProfiles;
+
+    // Settings applied to a netconf-connector, null values are not set
+    public static final class Profile {
+        private final String schemaCacheDirectory;
+        private final Long keepaliveDelaySeconds;
+        private final Long connectionTimeoutMillis;
+        private final Long defaultRequestTimeoutMillis;
+        private final Integer concurrentRpcLimit;
+
+        Profile(String schemaCacheDirectory, Long keepaliveDelaySeconds, Long connectionTimeoutMillis,
+                Long defaultRequestTimeoutMillis, Integer concurrentRpcLimit) {
+            this.schemaCacheDirectory = schemaCacheDirectory;
+            this.keepaliveDelaySeconds = keepaliveDelaySeconds;
+            this.connectionTimeoutMillis = connectionTimeoutMillis;
+            this.defaultRequestTimeoutMillis = defaultRequestTimeoutMillis;
+            this.concurrentRpcLimit = concurrentRpcLimit;
+        }
+
+        public String getSchemaCacheDirectory() {
+            return schemaCacheDirectory;
+        }
+
+        public Long getKeepaliveDelaySeconds() {
+            return keepaliveDelaySeconds;
+        }
+
+        public Long getConnectionTimeoutMillis() {
+            return connectionTimeoutMillis;
+        }
+
+        public Long getDefaultRequestTimeoutMillis() {
+            return defaultRequestTimeoutMillis;
+        }
+
+        public Integer getConcurrentRpcLimit() {
+            return concurrentRpcLimit;
+        }
+
+        void applyTo(NetconfNodeBuilder builder) {
+            if (schemaCacheDirectory != null)
+                builder.setSchemaCacheDirectory(schemaCacheDirectory);
+            if (keepaliveDelaySeconds != null)
+                builder.setKeepaliveDelay(keepaliveDelaySeconds);
+            if (connectionTimeoutMillis != null)
+                builder.setConnectionTimeoutMillis(connectionTimeoutMillis);
+            if (defaultRequestTimeoutMillis != null)
+                builder.setDefaultRequestTimeoutMillis(defaultRequestTimeoutMillis);
+            if (concurrentRpcLimit != null)
+                builder.setConcurrentRpcLimit(concurrentRpcLimit);
+        }
+
+        @Override
+        public String toString() {
+            return "schema-cache-directory: " + schemaCacheDirectory + "  keepalive: " + keepaliveDelaySeconds
+                    + " s  connection-timeout: " + connectionTimeoutMillis + " ms  request-timeout: "
+                    + defaultRequestTimeoutMillis + " ms  concurrent-rpc-limit: " + concurrentRpcLimit;
+        }
+    }
+
+    NetconfSessionProfiles(Profile defaultProfile, Map<String, Profile> modelProfiles) {
+        this.defaultProfile = defaultProfile;
+        this.modelProfiles = modelProfiles;
+    }
+
+    // Only the netconf topology defaults
+    public static NetconfSessionProfiles defaults() {
+        return new NetconfSessionProfiles(new Profile(null, null, null, null, null), new HashMap<>());
+    }
+
+    public static NetconfSessionProfiles fromProperties(Properties prop) {
+        Profile defaultProfile = parseProfile(prop, PREFIX, null, null);
+        Map<String, Profile> modelProfiles = new HashMap<>();
+        for (String name : prop.stringPropertyNames()) {
+            if (!name.startsWith(MODEL_PREFIX))
+                continue;
+            int end = name.lastIndexOf('.');
+            if (end <= MODEL_PREFIX.length())
+                continue;
+            String model = name.substring(MODEL_PREFIX.length(), end);
+            if (!modelProfiles.containsKey(model))
+                modelProfiles.put(model, parseProfile(prop, MODEL_PREFIX + model + ".", model, defaultProfile));
+        }
+        return new NetconfSessionProfiles(defaultProfile, modelProfiles);
+    }
+
+    // The settings of a model are taken from the model properties, then from the defaults (but the schema-cache-directory)
+    private static Profile parseProfile(Properties prop, String prefix, String model, Profile parent) {
+        String schemaCacheDirectory = prop.getProperty(prefix + SCHEMA_CACHE_DIRECTORY);
+        Long keepalive = parseLong(prop, prefix + KEEPALIVE_DELAY_SECONDS);
+        Long connectionTimeout = parseLong(prop, prefix + CONNECTION_TIMEOUT_MILLIS);
+        Long requestTimeout = parseLong(prop, prefix + DEFAULT_REQUEST_TIMEOUT_MILLIS);
+        Long rpcLimit = parseLong(prop, prefix + CONCURRENT_RPC_LIMIT);
+        if (parent == null)
+            return new Profile(schemaCacheDirectory, keepalive, connectionTimeout, requestTimeout,
+                    rpcLimit == null ? null : rpcLimit.intValue());
+        return new Profile(schemaCacheDirectory != null ? schemaCacheDirectory : schemaCacheDirectoryOf(model),
+                keepalive != null ? keepalive : parent.keepaliveDelaySeconds,
+                connectionTimeout != null ? connectionTimeout : parent.connectionTimeoutMillis,
+                requestTimeout != null ? requestTimeout : parent.defaultRequestTimeoutMillis,
+                rpcLimit != null ? Integer.valueOf(rpcLimit.intValue()) : parent.concurrentRpcLimit);
+    }
+
+    private static Long parseLong(Properties prop, String name) {
+        String value = prop.getProperty(name);
+        if (value == null || value.trim().isEmpty())
+            return null;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            LOG.error("NetconfSessionProfiles - invalid value of " + name + ": " + value);
+            return null;
+        }
+    }
+
+    // The profile of a device model, the defaults if the model is null.
+    // A model without settings uses the defaults, with a schema-cache-directory of its own
+    public Profile get(String deviceModel) {
+        if (deviceModel == null || deviceModel.isEmpty())
+            return defaultProfile;
+        Profile profile = modelProfiles.get(deviceModel);
+        if (profile != null)
+            return profile;
+        return new Profile(schemaCacheDirectoryOf(deviceModel), defaultProfile.keepaliveDelaySeconds,
+                defaultProfile.connectionTimeoutMillis, defaultProfile.defaultRequestTimeoutMillis,
+                defaultProfile.concurrentRpcLimit);
+    }
+
+    public Profile getDefault() {
+        return defaultProfile;
+    }
+
+    public Map<String, Profile> getModelProfiles() {
+        return new HashMap<>(modelProfiles);
+    }
+
+    // The directory is created under the cache of the netconf topology, so only safe characters are kept
+    static String schemaCacheDirectoryOf(String deviceModel) {
+        return deviceModel.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -22,16 +22,20 @@ import java.util.concurrent.ExecutionException;
 public class TopologyNetconfManager {
     private static final Logger LOG = LoggerFactory.getLogger(TopologyNetconfManager.class);
 
-    private static Node prepareNode(String nodeUuidString, String ip, String port, String username, String psw){
+    // The session settings of the profile are set on the netconf-connector, null keeps the netconf topology defaults
+    static Node prepareNode(String nodeUuidString, String ip, String port, String username, String psw,
+                            NetconfSessionProfiles.Profile profile){
         final NodeId nodeUuid = new NodeId(nodeUuidString);
         // Prepare NetconfNode with info for the netconf-connection
-        NetconfNode netconfNode = new NetconfNodeBuilder()
+        NetconfNodeBuilder netconfNodeBuilder = new NetconfNodeBuilder()
                 .setHost(new Host(new IpAddress(new Ipv4Address(ip))))
                 .setPort(new PortNumber(Integer.valueOf(port)))
                 .setSchemaless(false)
                 .setCredentials(new LoginPasswordBuilder()
-                        .setUsername(username).setPassword(psw).build())
-                .build();
+                        .setUsername(username).setPassword(psw).build());
+        if (profile != null)
+            profile.applyTo(netconfNodeBuilder);
+        NetconfNode netconfNode = netconfNodeBuilder.build();
         // Prepare network-topology node
         final Node node = new NodeBuilder()
                 .withKey(new NodeKey(nodeUuid))
@@ -40,9 +44,8 @@ public class TopologyNetconfManager {
     }
 
     public static boolean createNetconfConnector(DataBroker dataBroker, String nodeUuid, String mngIp, String mngPort, String username, String psw){
-        Node node = prepareNode(nodeUuid,mngIp,mngPort,username,psw);
         final WriteTransaction transaction = dataBroker.newWriteOnlyTransaction();
-        transaction.put(LogicalDatastoreType.CONFIGURATION, NetconfUtils.netconfNodeIid(nodeUuid), node);
+        putNetconfConnector(transaction,nodeUuid,mngIp,mngPort,username,psw);
         try {
             transaction.commit().get();
             return true;
@@ -52,6 +55,20 @@ public class TopologyNetconfManager {
         }
     }
 
+    // Add the netconf-connector to a transaction of the caller, which commits it with other changes
+    public static void putNetconfConnector(WriteTransaction transaction, String nodeUuid, String mngIp, String mngPort, String username, String psw){
+        putNetconfConnector(transaction,prepareNode(nodeUuid,mngIp,mngPort,username,psw,null));
+    }
+
+    static void putNetconfConnector(WriteTransaction transaction, Node node){
+        transaction.put(LogicalDatastoreType.CONFIGURATION, NetconfUtils.netconfNodeIid(node.getNodeId().getValue()), node);
+    }
+
+    // Add the removal of the netconf-connector to a transaction of the caller, nothing happens if it does not exist
+    public static void deleteNetconfConnector(WriteTransaction transaction, String deviceName){
+        transaction.delete(LogicalDatastoreType.CONFIGURATION, NetconfUtils.netconfNodeIid(deviceName));
+    }
+
     public static boolean deleteNetconfConnector(DataBroker dataBroker, String deviceName){
         if (checkIfNetconfConnectorExists(dataBroker, deviceName)){
             final WriteTransaction transaction = dataBroker.newWriteOnlyTransaction();
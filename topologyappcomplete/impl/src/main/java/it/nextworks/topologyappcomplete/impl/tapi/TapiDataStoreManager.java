@@ -4,13 +4,17 @@ import org.opendaylight.mdsal.binding.api.DataBroker;
 import org.opendaylight.mdsal.binding.api.ReadTransaction;
 import org.opendaylight.mdsal.binding.api.WriteTransaction;
 import org.opendaylight.mdsal.common.api.LogicalDatastoreType;
+import org.opendaylight.mdsal.common.api.OptimisticLockFailedException;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Context;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.ContextBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.global._class.Name;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.tapi.context.ServiceInterfacePoint;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.Context1;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.Context1Builder;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.context.TopologyContext;
-import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.context.TopologyContextBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.edge.point.MappedServiceInterfacePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Link;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Node;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.NodeBuilder;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.Topology;
 import org.opendaylight.yangtools.yang.binding.DataObject;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
@@ -18,12 +22,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 public class TapiDataStoreManager {
     private static final Logger LOG = LoggerFactory.getLogger(TapiDataStoreManager.class);
+    private static final int MAX_COMMIT_ATTEMPTS = 5;
 
     private static <T extends DataObject> boolean existsInDataStore(DataBroker dataBroker, LogicalDatastoreType datastoreType, InstanceIdentifier<T> iid){
         final ReadTransaction transaction = dataBroker.newReadOnlyTransaction();
@@ -43,31 +51,30 @@ public class TapiDataStoreManager {
         return true;
     }
 
-    private static <T extends DataObject> boolean writeInDataStore(DataBroker dataBroker, LogicalDatastoreType datastoreType,
-                                                                   InstanceIdentifier<T> iid, T data){
-        WriteTransaction wtx = dataBroker.newWriteOnlyTransaction();
-        LOG.info("TapiManager - writing "+ data.implementedInterface().getSimpleName() +" in "+datastoreType+" DS");
-        wtx.put(datastoreType, iid, data);
-        try {
-            wtx.commit().get();
-            LOG.info("TapiManager - "+ data.implementedInterface().getSimpleName() +" written in "+datastoreType+" DS");
-            return true;
-        } catch (final InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-            return false;
-        }
-    }
-
-    private static <T extends DataObject> boolean deleteFromDataStore(DataBroker dataBroker, LogicalDatastoreType datastoreType,InstanceIdentifier<T> iid){
-        WriteTransaction wtx = dataBroker.newWriteOnlyTransaction();
-        wtx.delete(datastoreType, iid);
-        try {
-            wtx.commit().get();
-            return true;
-        } catch (final InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-            return false;
+    // Apply the operations in a single transaction. The provisioning writes in the same TAPI context, so the commit can fail
+    // with an OptimisticLockFailedException: in that case the operations are applied again on a new transaction,
+    // up to MAX_COMMIT_ATTEMPTS times
+    public static boolean submitTransaction(DataBroker dataBroker, Consumer<WriteTransaction> operations){
+        for(int attempt = 1; attempt <= MAX_COMMIT_ATTEMPTS; attempt++){
+            WriteTransaction wtx = dataBroker.newWriteOnlyTransaction();
+            operations.accept(wtx);
+            try {
+                wtx.commit().get();
+                return true;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.error("TapiManager - commit interrupted");
+                return false;
+            } catch (final ExecutionException e) {
+                if(!(e.getCause() instanceof OptimisticLockFailedException)){
+                    LOG.error("TapiManager - commit failed: "+e.getMessage());
+                    return false;
+                }
+                LOG.warn("TapiManager - optimistic lock failure at attempt "+attempt+"/"+MAX_COMMIT_ATTEMPTS+", retrying");
+            }
         }
+        LOG.error("TapiManager - commit failed after "+MAX_COMMIT_ATTEMPTS+" attempts");
+        return false;
     }
 
     private static <T extends DataObject> T readFromDataStore(DataBroker dataBroker, LogicalDatastoreType datastoreType, InstanceIdentifier<T> iid){
@@ -102,41 +109,95 @@ public class TapiDataStoreManager {
         return topologyContext.getTopology().get(0);
     }
 
-    public static boolean writeTopology(DataBroker dataBroker, Topology topology){
-        InstanceIdentifier<TopologyContext> iidtc = TapiUtils.topologyContextIId();
-        ArrayList<Topology> topologies = new ArrayList<>();
-        topologies.add(topology);
-        ContextBuilder cxt = new ContextBuilder();
-        TopologyContext topologyContext = new TopologyContextBuilder()
-                .setTopology(topologies)
-                .build();
-        Context1Builder topoaugm = new Context1Builder()
-                .setTopologyContext(topologyContext);
-        cxt.addAugmentation(Context1.class, topoaugm.build());
-        return writeInDataStore(dataBroker,LogicalDatastoreType.OPERATIONAL, iidtc, topologyContext);
+    // The topology as a single entry of the topology list, the other topologies are not touched
+    public static void putTopology(WriteTransaction wtx, Topology topology){
+        wtx.put(LogicalDatastoreType.OPERATIONAL, TapiUtils.topologyIId(topology.getUuid().getValue()), topology,
+                WriteTransaction.CREATE_MISSING_PARENTS);
     }
 
-    public static boolean deleteTopology(DataBroker dataBroker, String topologyUuid){
-        InstanceIdentifier<Topology> iidtc = TapiUtils.topologyIId(topologyUuid);
-        return deleteFromDataStore(dataBroker,LogicalDatastoreType.OPERATIONAL,iidtc);
+    // Single nodes and links of a stored topology, the rest of the topology is neither read nor rewritten.
+    // A node is put only when it is added to the topology
+    public static void putNode(WriteTransaction wtx, String topologyUuid, Node node){
+        wtx.put(LogicalDatastoreType.OPERATIONAL, TapiUtils.nodeIId(topologyUuid, node.getUuid().getValue()), node);
     }
 
-    // SIP
-    public static boolean writeSIPList(DataBroker dataBroker, List<ServiceInterfacePoint> sipList){
-        Context currentContext = readFromDataStore(dataBroker,LogicalDatastoreType.OPERATIONAL,TapiUtils.contextIid());
-        InstanceIdentifier<Context> iid = TapiUtils.contextIid();
-        LOG.info("TapiManager - writeSIPList - Writing SIP lists in OPERATIONAL DS");
-        ContextBuilder cxt = new ContextBuilder(currentContext);
-        cxt.setServiceInterfacePoint(sipList);
-        return writeInDataStore(dataBroker,LogicalDatastoreType.OPERATIONAL,iid, cxt.build());
+    // The NEPs of a stored node carry the connection-end-points written by the provisioning, so a stored node is never put:
+    // its attributes are merged without its NEPs, and the names no longer in the node are deleted by key
+    public static void mergeNodeAttributes(WriteTransaction wtx, String topologyUuid, Node stored, Node node){
+        InstanceIdentifier<Node> nodeIid = TapiUtils.nodeIId(topologyUuid, node.getUuid().getValue());
+        wtx.merge(LogicalDatastoreType.OPERATIONAL, nodeIid, new NodeBuilder(node).setOwnedNodeEdgePoint(null).build());
+        for(Name name : removedNames(stored.getName(), node.getName()))
+            wtx.delete(LogicalDatastoreType.OPERATIONAL, nodeIid.child(Name.class, name.key()));
+    }
 
+    public static void putNep(WriteTransaction wtx, String topologyUuid, String nodeUuid, OwnedNodeEdgePoint nep){
+        wtx.put(LogicalDatastoreType.OPERATIONAL, TapiUtils.nepIid(topologyUuid, nodeUuid, nep.getUuid().getValue()), nep);
     }
 
-    public static List<ServiceInterfacePoint> readSIPList(DataBroker dataBroker){
-        Context ctx = TapiDataStoreManager.readFromDataStore(dataBroker, LogicalDatastoreType.OPERATIONAL, TapiUtils.contextIid());
-        return ctx.getServiceInterfacePoint();
+    // The topology content of a stored NEP is merged, its connection-end-points are kept. The names and the mapped SIPs
+    // no longer in the NEP are deleted by key
+    public static void mergeNep(WriteTransaction wtx, String topologyUuid, String nodeUuid, OwnedNodeEdgePoint stored,
+                                OwnedNodeEdgePoint nep){
+        InstanceIdentifier<OwnedNodeEdgePoint> nepIid = TapiUtils.nepIid(topologyUuid, nodeUuid, nep.getUuid().getValue());
+        wtx.merge(LogicalDatastoreType.OPERATIONAL, nepIid, nep);
+        for(Name name : removedNames(stored.getName(), nep.getName()))
+            wtx.delete(LogicalDatastoreType.OPERATIONAL, nepIid.child(Name.class, name.key()));
+        if(stored.getMappedServiceInterfacePoint() != null) {
+            List<MappedServiceInterfacePoint> msips = nep.getMappedServiceInterfacePoint() == null ? Collections.emptyList()
+                    : nep.getMappedServiceInterfacePoint();
+            for (MappedServiceInterfacePoint msip : stored.getMappedServiceInterfacePoint()) {
+                if (msips.stream().noneMatch(m -> m.key().equals(msip.key())))
+                    wtx.delete(LogicalDatastoreType.OPERATIONAL, nepIid.child(MappedServiceInterfacePoint.class, msip.key()));
+            }
+        }
+    }
+
+    public static void deleteNep(WriteTransaction wtx, String topologyUuid, String nodeUuid, String nepUuid){
+        wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.nepIid(topologyUuid, nodeUuid, nepUuid));
     }
 
+    private static List<Name> removedNames(List<Name> stored, List<Name> names){
+        List<Name> removed = new ArrayList<>();
+        if(stored != null) {
+            for (Name name : stored) {
+                if (names == null || names.stream().noneMatch(n -> n.key().equals(name.key())))
+                    removed.add(name);
+            }
+        }
+        return removed;
+    }
+
+    public static void deleteNode(WriteTransaction wtx, String topologyUuid, String nodeUuid){
+        wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.nodeIId(topologyUuid, nodeUuid));
+    }
+
+    public static void putLink(WriteTransaction wtx, String topologyUuid, Link link){
+        wtx.put(LogicalDatastoreType.OPERATIONAL, TapiUtils.linkIId(topologyUuid, link.getUuid().getValue()), link);
+    }
+
+    public static void deleteLink(WriteTransaction wtx, String topologyUuid, String linkUuid){
+        wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.linkIId(topologyUuid, linkUuid));
+    }
+
+    public static void deleteTopology(WriteTransaction wtx, String topologyUuid){
+        wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.topologyIId(topologyUuid));
+    }
+
+    // SIP
+    // The SIPs are merged as single entries of the SIP list, the rest of the context is neither read nor rewritten
+    public static void mergeSIPs(WriteTransaction wtx, List<ServiceInterfacePoint> sipList){
+        for(ServiceInterfacePoint sip : sipList){
+            wtx.merge(LogicalDatastoreType.OPERATIONAL, TapiUtils.serviceInterfacePointIId(sip.getUuid().getValue()), sip,
+                    WriteTransaction.CREATE_MISSING_PARENTS);
+        }
+    }
+
+    // The SIPs are deleted as single entries of the SIP list
+    public static void deleteSIPs(WriteTransaction wtx, Collection<String> sipUuids){
+        for(String sipUuid : sipUuids){
+            wtx.delete(LogicalDatastoreType.OPERATIONAL, TapiUtils.serviceInterfacePointIId(sipUuid));
+        }
+    }
 
     // Have to initialize the Context "node" in the ODL tree, otherwise future topology (or other) writings would fail
     public static void initTapiContext(DataBroker dataBroker){
@@ -16,7 +16,8 @@ public class TapiTopologyBuilder {
     protected TopologyBuilder builder;
     protected Uuid topologyUuid;
 
-    public TapiTopologyBuilder(org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.add._static.topology.input.Topology input){
+    // The input of add-static-topology, update-static-topology or add-topology-elements
+    public TapiTopologyBuilder(org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.Topology input){
         topologyUuid = input.getUuid();
         LOG.info("TapiTopologyBuilder: Created topology with Uuid: "+topologyUuid);
 
@@ -0,0 +1,299 @@
+package it.nextworks.topologyappcomplete.impl.topology;
+
+import it.nextworks.topologyappcomplete.impl.netconf.NetconfInfoUtils;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.global._class.Name;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.edge.point.MappedServiceInterfacePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Link;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Node;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.NodeBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.Topology;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Differences between a stored TAPI topology and a new version of it, by node, link and mapped SIP.
+// Nodes and links are compared by UUID and then by content, so an unchanged element is not written again.
+// The nodes are compared only by the content the topology owns: the connection-end-points written in the NEPs
+// by the provisioning are left out, and an updated node is described by its changed attributes and NEPs.
+// The netconf-connector of an updated node is replaced only if its management-address, management-port
+// or device-model changed.
+public class TopologyDiff {
+    private final List<Node> addedNodes = new ArrayList<>();
+    private final List<Node> removedNodes = new ArrayList<>();
+    private final List<Node> updatedNodes = new ArrayList<>();
+    private final List<NodeUpdate> nodeUpdates = new ArrayList<>();
+    private final List<Node> reconnectedNodes = new ArrayList<>();
+    private final List<Link> addedLinks = new ArrayList<>();
+    private final List<Link> removedLinks = new ArrayList<>();
+    private final List<Link> updatedLinks = new ArrayList<>();
+    private final Set<String> addedSips = new LinkedHashSet<>();
+    private final Set<String> removedSips = new LinkedHashSet<>();
+
+    private TopologyDiff() {
+    }
+
+    public static TopologyDiff compute(Topology stored, Topology target) {
+        TopologyDiff diff = new TopologyDiff();
+        Map<String, Node> storedNodes = nodesByUuid(stored.getNode());
+        Map<String, Node> targetNodes = nodesByUuid(target.getNode());
+        for (Node node : targetNodes.values()) {
+            Node previous = storedNodes.get(node.getUuid().getValue());
+            if (previous == null)
+                diff.addedNodes.add(node);
+            else {
+                NodeUpdate update = NodeUpdate.compute(previous, node);
+                if (update.isEmpty())
+                    continue;
+                diff.updatedNodes.add(node);
+                diff.nodeUpdates.add(update);
+                if (!connectionInfo(previous).equals(connectionInfo(node)))
+                    diff.reconnectedNodes.add(node);
+            }
+        }
+        for (Node node : storedNodes.values()) {
+            if (!targetNodes.containsKey(node.getUuid().getValue()))
+                diff.removedNodes.add(node);
+        }
+
+        Map<String, Link> storedLinks = linksByUuid(stored.getLink());
+        Map<String, Link> targetLinks = linksByUuid(target.getLink());
+        for (Link link : targetLinks.values()) {
+            Link previous = storedLinks.get(link.getUuid().getValue());
+            if (previous == null)
+                diff.addedLinks.add(link);
+            else if (!previous.equals(link))
+                diff.updatedLinks.add(link);
+        }
+        for (Link link : storedLinks.values()) {
+            if (!targetLinks.containsKey(link.getUuid().getValue()))
+                diff.removedLinks.add(link);
+        }
+
+        Set<String> storedSips = mappedSips(storedNodes.values());
+        Set<String> targetSips = mappedSips(targetNodes.values());
+        for (String sip : targetSips) {
+            if (!storedSips.contains(sip))
+                diff.addedSips.add(sip);
+        }
+        for (String sip : storedSips) {
+            if (!targetSips.contains(sip))
+                diff.removedSips.add(sip);
+        }
+        return diff;
+    }
+
+    private static Map<String, Node> nodesByUuid(List<Node> nodeList) {
+        Map<String, Node> nodes = new LinkedHashMap<>();
+        if (nodeList != null) {
+            for (Node node : nodeList)
+                nodes.put(node.getUuid().getValue(), node);
+        }
+        return nodes;
+    }
+
+    private static Map<String, Link> linksByUuid(List<Link> linkList) {
+        Map<String, Link> links = new LinkedHashMap<>();
+        if (linkList != null) {
+            for (Link link : linkList)
+                links.put(link.getUuid().getValue(), link);
+        }
+        return links;
+    }
+
+    private static Map<String, OwnedNodeEdgePoint> nepsByUuid(List<OwnedNodeEdgePoint> nepList) {
+        Map<String, OwnedNodeEdgePoint> neps = new LinkedHashMap<>();
+        if (nepList != null) {
+            for (OwnedNodeEdgePoint nep : nepList)
+                neps.put(nep.getUuid().getValue(), nep);
+        }
+        return neps;
+    }
+
+    // The node without its NEPs
+    static Node attributes(Node node) {
+        return new NodeBuilder(node).setOwnedNodeEdgePoint(null).build();
+    }
+
+    // The NEP without the content the topology does not own: the cep-list augmentation of tapi-connectivity,
+    // written by the provisioning
+    static OwnedNodeEdgePoint topologyContent(OwnedNodeEdgePoint nep) {
+        OwnedNodeEdgePointBuilder builder = new OwnedNodeEdgePointBuilder();
+        builder.fieldsFrom(nep);
+        return builder.build();
+    }
+
+    // The cep-list is the only augmentation of the NEPs: a NEP carries connection-end-points if its copy,
+    // augmentations included, differs from its topology content
+    static boolean carriesConnectionEndPoints(OwnedNodeEdgePoint nep) {
+        return !new OwnedNodeEdgePointBuilder(nep).build().equals(topologyContent(nep));
+    }
+
+    static boolean carriesConnectionEndPoints(Node node) {
+        if (node.getOwnedNodeEdgePoint() != null) {
+            for (OwnedNodeEdgePoint nep : node.getOwnedNodeEdgePoint()) {
+                if (carriesConnectionEndPoints(nep))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // What the netconf-connector of the node is made of
+    private static List<String> connectionInfo(Node node) {
+        List<Name> names = node.getName() == null ? Collections.emptyList() : node.getName();
+        return Arrays.asList(NetconfInfoUtils.getManagementAddress(names), NetconfInfoUtils.getManagementPort(names),
+                NetconfInfoUtils.getDeviceModel(names));
+    }
+
+    // UUIDs of the SIPs mapped on the NEPs of the nodes
+    static Set<String> mappedSips(Iterable<Node> nodes) {
+        Set<String> sips = new LinkedHashSet<>();
+        for (Node node : nodes) {
+            if (node.getOwnedNodeEdgePoint() == null)
+                continue;
+            for (OwnedNodeEdgePoint onep : node.getOwnedNodeEdgePoint()) {
+                if (onep.getMappedServiceInterfacePoint() == null)
+                    continue;
+                for (MappedServiceInterfacePoint msip : onep.getMappedServiceInterfacePoint())
+                    sips.add(msip.getServiceInterfacePointUuid().getValue());
+            }
+        }
+        return sips;
+    }
+
+    public boolean isEmpty() {
+        return addedNodes.isEmpty() && removedNodes.isEmpty() && updatedNodes.isEmpty()
+                && addedLinks.isEmpty() && removedLinks.isEmpty() && updatedLinks.isEmpty()
+                && addedSips.isEmpty() && removedSips.isEmpty();
+    }
+
+    public List<Node> getAddedNodes() {
+        return addedNodes;
+    }
+
+    public List<Node> getRemovedNodes() {
+        return removedNodes;
+    }
+
+    // Also the nodes in getReconnectedNodes()
+    public List<Node> getUpdatedNodes() {
+        return updatedNodes;
+    }
+
+    // What changed in each of getUpdatedNodes()
+    public List<NodeUpdate> getNodeUpdates() {
+        return nodeUpdates;
+    }
+
+    // Updated nodes whose netconf-connector has to be replaced
+    public List<Node> getReconnectedNodes() {
+        return reconnectedNodes;
+    }
+
+    public List<Link> getAddedLinks() {
+        return addedLinks;
+    }
+
+    public List<Link> getRemovedLinks() {
+        return removedLinks;
+    }
+
+    public List<Link> getUpdatedLinks() {
+        return updatedLinks;
+    }
+
+    public Set<String> getAddedSips() {
+        return addedSips;
+    }
+
+    public Set<String> getRemovedSips() {
+        return removedSips;
+    }
+
+    @Override
+    public String toString() {
+        return "nodes +" + addedNodes.size() + " -" + removedNodes.size() + " ~" + updatedNodes.size()
+                + " (" + reconnectedNodes.size() + " reconnected), links +" + addedLinks.size() + " -" + removedLinks.size()
+                + " ~" + updatedLinks.size() + ", SIPs +" + addedSips.size() + " -" + removedSips.size();
+    }
+
+    // The changes of a stored node: its attributes and its NEPs are compared separately, so that only the changed
+    // NEPs are written and the others, with their connection-end-points, are not touched
+    public static class NodeUpdate {
+        private final Node stored;
+        private final Node node;
+        private final Map<String, OwnedNodeEdgePoint> storedNeps;
+        private final boolean attributesUpdated;
+        private final List<OwnedNodeEdgePoint> addedNeps = new ArrayList<>();
+        private final List<OwnedNodeEdgePoint> updatedNeps = new ArrayList<>();
+        private final List<OwnedNodeEdgePoint> removedNeps = new ArrayList<>();
+
+        private NodeUpdate(Node stored, Node node, boolean attributesUpdated) {
+            this.stored = stored;
+            this.node = node;
+            this.storedNeps = nepsByUuid(stored.getOwnedNodeEdgePoint());
+            this.attributesUpdated = attributesUpdated;
+        }
+
+        static NodeUpdate compute(Node stored, Node node) {
+            NodeUpdate update = new NodeUpdate(stored, node, !attributes(stored).equals(attributes(node)));
+            Map<String, OwnedNodeEdgePoint> storedNeps = update.storedNeps;
+            Map<String, OwnedNodeEdgePoint> targetNeps = nepsByUuid(node.getOwnedNodeEdgePoint());
+            for (OwnedNodeEdgePoint nep : targetNeps.values()) {
+                OwnedNodeEdgePoint previous = storedNeps.get(nep.getUuid().getValue());
+                if (previous == null)
+                    update.addedNeps.add(nep);
+                else if (!topologyContent(previous).equals(topologyContent(nep)))
+                    update.updatedNeps.add(nep);
+            }
+            for (OwnedNodeEdgePoint nep : storedNeps.values()) {
+                if (!targetNeps.containsKey(nep.getUuid().getValue()))
+                    update.removedNeps.add(nep);
+            }
+            return update;
+        }
+
+        boolean isEmpty() {
+            return !attributesUpdated && addedNeps.isEmpty() && updatedNeps.isEmpty() && removedNeps.isEmpty();
+        }
+
+        public Node getStored() {
+            return stored;
+        }
+
+        public Node getNode() {
+            return node;
+        }
+
+        // The attributes of the node other than its NEPs changed
+        public boolean isAttributesUpdated() {
+            return attributesUpdated;
+        }
+
+        public List<OwnedNodeEdgePoint> getAddedNeps() {
+            return addedNeps;
+        }
+
+        // The new version of the changed NEPs
+        public List<OwnedNodeEdgePoint> getUpdatedNeps() {
+            return updatedNeps;
+        }
+
+        // The stored version of the removed NEPs
+        public List<OwnedNodeEdgePoint> getRemovedNeps() {
+            return removedNeps;
+        }
+
+        public OwnedNodeEdgePoint getStoredNep(String nepUuid) {
+            return storedNeps.get(nepUuid);
+        }
+    }
+}
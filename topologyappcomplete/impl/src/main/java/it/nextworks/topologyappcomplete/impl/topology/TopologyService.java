@@ -1,37 +1,57 @@
 package it.nextworks.topologyappcomplete.impl.topology;
 
+import it.nextworks.topologyappcomplete.impl.netconf.ConnectionRolloutScheduler;
 import it.nextworks.topologyappcomplete.impl.netconf.NetconfInfoUtils;
 import it.nextworks.topologyappcomplete.impl.netconf.TopologyNetconfManager;
 import it.nextworks.topologyappcomplete.impl.tapi.TapiDataStoreManager;
 import it.nextworks.topologyappcomplete.impl.tapi.TapiTopologyBuilder;
 import it.nextworks.topologyappcomplete.impl.topology.exceptions.TopologyCreationException;
 import it.nextworks.topologyappcomplete.impl.topology.exceptions.TopologyRemovalException;
+import it.nextworks.topologyappcomplete.impl.topology.exceptions.TopologyUpdateException;
 import org.opendaylight.mdsal.binding.api.DataBroker;
+import org.opendaylight.mdsal.binding.api.WriteTransaction;
 import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.AddStaticTopologyInput;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.AddTopologyElementsInput;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.RemoveTopologyElementsInput;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.UpdateStaticTopologyInput;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.PortDirection;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.tapi.context.ServiceInterfacePoint;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.tapi.context.ServiceInterfacePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePoint;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.edge.point.MappedServiceInterfacePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Link;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Node;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.NodeBuilder;
 import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.Topology;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.TopologyBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class TopologyService {
     private static final Logger LOG = LoggerFactory.getLogger(TopologyService.class);
+    // A TopologyService is created at each request: the updates of the stored topologies are serialized,
+    // since each one reads a topology and writes its differences
+    private static final Object UPDATE_LOCK = new Object();
     private DataBroker dataBroker;
     private String netconfUsername;
     private String netconfPsw;
+    private ConnectionRolloutScheduler rollout;
 
-    public TopologyService(DataBroker db, String netconfUsername, String netconfPsw){
+    public TopologyService(DataBroker db, String netconfUsername, String netconfPsw, ConnectionRolloutScheduler rollout){
         this.dataBroker = db;
         this.netconfUsername = netconfUsername;
         this.netconfPsw = netconfPsw;
+        this.rollout = rollout;
     }
 
     public void createStaticTopology(AddStaticTopologyInput input) throws TopologyCreationException {
@@ -45,56 +65,253 @@ public class TopologyService {
             if (!NetconfInfoUtils.checkManagementInfo(nodeList))
                 throw new TopologyCreationException("Missing NETCONF info on some nodes");
             else {
-                // Creating netconf-connector for each node
-                if(!createNetconfConnectors(nodeList))
-                    throw new TopologyCreationException("Error creating netconf-connectors");
-
-                // Creating and storing TAPI topology
-                TapiTopologyBuilder tapiTopologyBuilder = new TapiTopologyBuilder(input.getTopology());
-                if (!TapiDataStoreManager.writeTopology(dataBroker, tapiTopologyBuilder.getTopology()))
-                    throw new TopologyCreationException("Error creating TAPI topology");
-
-                // parsing all SIPs on nodes and add them to the TAPI context
-                if(!storeSIPinContext(nodeList))
-                    throw new TopologyCreationException("Error storing SIPs in Context");
+                // The TAPI topology, its SIPs and its readiness (all nodes pending) are written in a single transaction:
+                // either the whole topology is onboarded or nothing is.
+                // The netconf-connectors are then created by the rollout scheduler, a few at a time
+                Topology topology = new TapiTopologyBuilder(input.getTopology()).getTopology();
+                List<ServiceInterfacePoint> sipList = collectSIPs(nodeList);
+                List<ConnectionRolloutScheduler.Connector> connectors = collectConnectors(tapiTopologyUuid, nodeList);
+                List<String> nodeIds = new ArrayList<>();
+                for (ConnectionRolloutScheduler.Connector connector : connectors)
+                    nodeIds.add(connector.getNodeId());
+                long start = System.currentTimeMillis();
+                if(!TapiDataStoreManager.submitTransaction(dataBroker, wtx -> {
+                    TapiDataStoreManager.putTopology(wtx, topology);
+                    TapiDataStoreManager.mergeSIPs(wtx, sipList);
+                    ConnectionRolloutScheduler.putReadiness(wtx, tapiTopologyUuid, nodeIds);
+                }))
+                    throw new TopologyCreationException("Error onboarding TAPI topology "+tapiTopologyUuid);
+                rollout.schedule(tapiTopologyUuid, connectors);
+                LOG.info("TopologyService - createStaticTopology: topology "+tapiTopologyUuid+" with "+nodeList.size()
+                        +" nodes and "+sipList.size()+" SIPs onboarded in "+(System.currentTimeMillis()-start)+" ms");
             }
         }
     }
 
-    private boolean createNetconfConnectors(List<Node> nodeList){
+    private List<ConnectionRolloutScheduler.Connector> collectConnectors(String topologyUuid, List<Node> nodeList){
+        List<ConnectionRolloutScheduler.Connector> connectors = new ArrayList<>();
         for (Node node : nodeList) {
-            String nodeUuidString = node.getUuid().getValue();
             String mngAddr = NetconfInfoUtils.getManagementAddress(node.getName());
             String mngPort = NetconfInfoUtils.getManagementPort(node.getName());
-            if (!TopologyNetconfManager.createNetconfConnector(dataBroker, nodeUuidString, mngAddr, mngPort, netconfUsername, netconfPsw)) {
-                LOG.error("TopologyService - createNetconfConnectors: Error creating netconf-connector for node "+nodeUuidString);
-                return false;
-            }
+            String deviceModel = NetconfInfoUtils.getDeviceModel(node.getName());
+            connectors.add(new ConnectionRolloutScheduler.Connector(topologyUuid, node.getUuid().getValue(), mngAddr, mngPort,
+                    deviceModel));
         }
-        return true;
+        return connectors;
     }
 
-    // Add SIPs to the list
-    private boolean storeSIPinContext(List<Node> nodeList){
+    // SIPs mapped on the NEPs of the nodes
+    private List<ServiceInterfacePoint> collectSIPs(List<Node> nodeList){
         ArrayList<ServiceInterfacePoint> sipList = new ArrayList<>();
         for(Node node : nodeList) {
             for (OwnedNodeEdgePoint onep : node.getOwnedNodeEdgePoint()) {
                 if (onep.getMappedServiceInterfacePoint()!=null && !onep.getMappedServiceInterfacePoint().isEmpty()) {
-                    for (MappedServiceInterfacePoint msip : onep.getMappedServiceInterfacePoint()) {
-                        ServiceInterfacePointBuilder sipBuilder = new ServiceInterfacePointBuilder()
-                                .setDirection(PortDirection.BIDIRECTIONAL)
-                                .setUuid(msip.getServiceInterfacePointUuid());
-                        sipList.add(sipBuilder.build());
-                    }
+                    for (MappedServiceInterfacePoint msip : onep.getMappedServiceInterfacePoint())
+                        sipList.add(buildSIP(msip.getServiceInterfacePointUuid()));
+                }
+            }
+        }
+        return sipList;
+    }
+
+    private static ServiceInterfacePoint buildSIP(Uuid sipUuid){
+        return new ServiceInterfacePointBuilder()
+                .setDirection(PortDirection.BIDIRECTIONAL)
+                .setUuid(sipUuid)
+                .build();
+    }
+
+    // INCREMENTAL UPDATES
+    // Replace the stored topology with the one in input, applying only the differences
+    public TopologyDiff updateStaticTopology(UpdateStaticTopologyInput input) throws TopologyUpdateException {
+        Topology target = new TapiTopologyBuilder(input.getTopology()).getTopology();
+        synchronized (UPDATE_LOCK) {
+            Topology stored = readStoredTopology(target.getUuid().getValue());
+            return applyDiff(stored, target);
+        }
+    }
+
+    // Add the nodes and links in input to the stored topology. The NEPs of a node already stored are added to it,
+    // or replace the topology content of the stored NEPs with the same UUID
+    public TopologyDiff addTopologyElements(AddTopologyElementsInput input) throws TopologyUpdateException {
+        Topology elements = new TapiTopologyBuilder(input.getTopology()).getTopology();
+        synchronized (UPDATE_LOCK) {
+            Topology stored = readStoredTopology(elements.getUuid().getValue());
+            Map<String, Node> nodes = new LinkedHashMap<>();
+            for (Node node : nullToEmpty(stored.getNode()))
+                nodes.put(node.getUuid().getValue(), node);
+            for (Node node : nullToEmpty(elements.getNode())) {
+                Node previous = nodes.get(node.getUuid().getValue());
+                nodes.put(node.getUuid().getValue(), previous == null ? node : mergeNeps(previous, node));
+            }
+            Map<String, Link> links = new LinkedHashMap<>();
+            for (Link link : nullToEmpty(stored.getLink()))
+                links.put(link.getUuid().getValue(), link);
+            for (Link link : nullToEmpty(elements.getLink()))
+                links.put(link.getUuid().getValue(), link);
+            Topology target = new TopologyBuilder(stored)
+                    .setNode(new ArrayList<>(nodes.values()))
+                    .setLink(new ArrayList<>(links.values()))
+                    .build();
+            return applyDiff(stored, target);
+        }
+    }
+
+    private static Node mergeNeps(Node stored, Node added){
+        Map<String, OwnedNodeEdgePoint> neps = new LinkedHashMap<>();
+        for (OwnedNodeEdgePoint nep : nullToEmpty(stored.getOwnedNodeEdgePoint()))
+            neps.put(nep.getUuid().getValue(), nep);
+        for (OwnedNodeEdgePoint nep : nullToEmpty(added.getOwnedNodeEdgePoint()))
+            neps.put(nep.getUuid().getValue(), nep);
+        return new NodeBuilder(stored).setOwnedNodeEdgePoint(new ArrayList<>(neps.values())).build();
+    }
+
+    // Remove the nodes, links and NEPs in input from the stored topology, with the links attached to them
+    public TopologyDiff removeTopologyElements(RemoveTopologyElementsInput input) throws TopologyUpdateException {
+        Set<String> removedNodes = new HashSet<>(nullToEmpty(input.getNode()));
+        Set<String> removedLinks = new HashSet<>(nullToEmpty(input.getLink()));
+        Set<String> removedNeps = new HashSet<>();
+        for (org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.remove.topology.elements.input.NodeEdgePoint nep
+                : nullToEmpty(input.getNodeEdgePoint()))
+            removedNeps.add(nepKey(nep.getNodeUuid(), nep.getNodeEdgePointUuid()));
+        synchronized (UPDATE_LOCK) {
+            Topology stored = readStoredTopology(input.getTopology());
+            List<Node> nodes = new ArrayList<>();
+            for (Node node : nullToEmpty(stored.getNode())) {
+                String nodeUuid = node.getUuid().getValue();
+                if (removedNodes.contains(nodeUuid))
+                    continue;
+                List<OwnedNodeEdgePoint> neps = new ArrayList<>();
+                for (OwnedNodeEdgePoint nep : nullToEmpty(node.getOwnedNodeEdgePoint())) {
+                    if (!removedNeps.contains(nepKey(nodeUuid, nep.getUuid().getValue())))
+                        neps.add(nep);
                 }
+                nodes.add(neps.size() == nullToEmpty(node.getOwnedNodeEdgePoint()).size() ? node
+                        : new NodeBuilder(node).setOwnedNodeEdgePoint(neps).build());
+            }
+            List<Link> links = new ArrayList<>();
+            for (Link link : nullToEmpty(stored.getLink())) {
+                if (!removedLinks.contains(link.getUuid().getValue()) && !isAttached(link, removedNodes, removedNeps))
+                    links.add(link);
             }
+            Topology target = new TopologyBuilder(stored).setNode(nodes).setLink(links).build();
+            return applyDiff(stored, target);
         }
-        if(!sipList.isEmpty()){
-            if(TapiDataStoreManager.writeSIPList(dataBroker,sipList))
+    }
+
+    private static boolean isAttached(Link link, Set<String> nodes, Set<String> neps){
+        for (NodeEdgePoint nep : nullToEmpty(link.getNodeEdgePoint())) {
+            if (nodes.contains(nep.getNodeUuid().getValue())
+                    || neps.contains(nepKey(nep.getNodeUuid().getValue(), nep.getNodeEdgePointUuid().getValue())))
                 return true;
-            else return false;
         }
-        return true;
+        return false;
+    }
+
+    private static String nepKey(String nodeUuid, String nepUuid){
+        return nodeUuid + "/" + nepUuid;
+    }
+
+    private static <T> List<T> nullToEmpty(List<T> list){
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    private Topology readStoredTopology(String topologyUuid) throws TopologyUpdateException {
+        Topology stored = TapiDataStoreManager.readTopology(dataBroker, topologyUuid);
+        if (stored == null)
+            throw new TopologyUpdateException("TAPI Topology with UUID "+topologyUuid+" does not exist");
+        return stored;
+    }
+
+    // Write the differences between the stored topology and the target one in a single transaction, with the
+    // readiness of the nodes. Only the netconf-connectors of the removed nodes, of the added nodes and of the nodes
+    // whose management info changed are touched: the new ones are created by the rollout scheduler
+    private TopologyDiff applyDiff(Topology stored, Topology target) throws TopologyUpdateException {
+        String topologyUuid = stored.getUuid().getValue();
+        TopologyDiff diff = TopologyDiff.compute(stored, target);
+        if (diff.isEmpty()) {
+            LOG.info("TopologyService - applyDiff: topology "+topologyUuid+" unchanged");
+            return diff;
+        }
+        List<Node> connectedNodes = new ArrayList<>(diff.getAddedNodes());
+        connectedNodes.addAll(diff.getReconnectedNodes());
+        if (!NetconfInfoUtils.checkManagementInfo(connectedNodes))
+            throw new TopologyUpdateException("Missing NETCONF info on some nodes");
+        checkConnectionEndPoints(diff);
+
+        List<String> removedNodeIds = new ArrayList<>();
+        for (Node node : diff.getRemovedNodes())
+            removedNodeIds.add(node.getUuid().getValue());
+        List<ConnectionRolloutScheduler.Connector> connectors = collectConnectors(topologyUuid, connectedNodes);
+        List<String> pendingNodeIds = new ArrayList<>();
+        List<String> cancelledNodeIds = new ArrayList<>(removedNodeIds);
+        for (ConnectionRolloutScheduler.Connector connector : connectors)
+            pendingNodeIds.add(connector.getNodeId());
+        for (Node node : diff.getReconnectedNodes())
+            cancelledNodeIds.add(node.getUuid().getValue());
+        // the connectors being removed or replaced must not be created meanwhile
+        rollout.cancelNodes(topologyUuid, cancelledNodeIds);
+
+        List<ServiceInterfacePoint> addedSips = new ArrayList<>();
+        for (String sipUuid : diff.getAddedSips())
+            addedSips.add(buildSIP(new Uuid(sipUuid)));
+        int totalNodes = nullToEmpty(target.getNode()).size();
+        long start = System.currentTimeMillis();
+        if (!TapiDataStoreManager.submitTransaction(dataBroker, wtx -> {
+            for (Node node : diff.getRemovedNodes())
+                TapiDataStoreManager.deleteNode(wtx, topologyUuid, node.getUuid().getValue());
+            for (Node node : diff.getAddedNodes())
+                TapiDataStoreManager.putNode(wtx, topologyUuid, node);
+            for (TopologyDiff.NodeUpdate update : diff.getNodeUpdates())
+                writeNodeUpdate(wtx, topologyUuid, update);
+            for (String nodeId : cancelledNodeIds)
+                TopologyNetconfManager.deleteNetconfConnector(wtx, nodeId);
+            for (Link link : diff.getRemovedLinks())
+                TapiDataStoreManager.deleteLink(wtx, topologyUuid, link.getUuid().getValue());
+            for (Link link : diff.getAddedLinks())
+                TapiDataStoreManager.putLink(wtx, topologyUuid, link);
+            for (Link link : diff.getUpdatedLinks())
+                TapiDataStoreManager.putLink(wtx, topologyUuid, link);
+            TapiDataStoreManager.deleteSIPs(wtx, diff.getRemovedSips());
+            TapiDataStoreManager.mergeSIPs(wtx, addedSips);
+            ConnectionRolloutScheduler.mergeReadiness(wtx, topologyUuid, totalNodes, pendingNodeIds, removedNodeIds);
+        }))
+            throw new TopologyUpdateException("Error updating TAPI topology "+topologyUuid);
+        if (!connectors.isEmpty())
+            rollout.schedule(topologyUuid, connectors);
+        LOG.info("TopologyService - applyDiff: topology "+topologyUuid+" updated in "
+                +(System.currentTimeMillis()-start)+" ms, "+diff);
+        return diff;
+    }
+
+    // The connection-end-points of the connectivity-services are stored in the NEPs: a node or a NEP still carrying some
+    // cannot be removed, the services using it have to be deleted first
+    private static void checkConnectionEndPoints(TopologyDiff diff) throws TopologyUpdateException {
+        for (Node node : diff.getRemovedNodes()) {
+            if (TopologyDiff.carriesConnectionEndPoints(node))
+                throw new TopologyUpdateException("Node "+node.getUuid().getValue()
+                        +" is used by some connectivity-services and cannot be removed");
+        }
+        for (TopologyDiff.NodeUpdate update : diff.getNodeUpdates()) {
+            for (OwnedNodeEdgePoint nep : update.getRemovedNeps()) {
+                if (TopologyDiff.carriesConnectionEndPoints(nep))
+                    throw new TopologyUpdateException("NEP "+nep.getUuid().getValue()+" of node "
+                            +update.getNode().getUuid().getValue()+" is used by some connectivity-services and cannot be removed");
+            }
+        }
+    }
+
+    // Only the changed attributes and NEPs of a stored node are written, the other NEPs are not touched
+    private static void writeNodeUpdate(WriteTransaction wtx, String topologyUuid, TopologyDiff.NodeUpdate update) {
+        String nodeUuid = update.getNode().getUuid().getValue();
+        if (update.isAttributesUpdated())
+            TapiDataStoreManager.mergeNodeAttributes(wtx, topologyUuid, update.getStored(), update.getNode());
+        for (OwnedNodeEdgePoint nep : update.getRemovedNeps())
+            TapiDataStoreManager.deleteNep(wtx, topologyUuid, nodeUuid, nep.getUuid().getValue());
+        for (OwnedNodeEdgePoint nep : update.getAddedNeps())
+            TapiDataStoreManager.putNep(wtx, topologyUuid, nodeUuid, nep);
+        for (OwnedNodeEdgePoint nep : update.getUpdatedNeps())
+            TapiDataStoreManager.mergeNep(wtx, topologyUuid, nodeUuid, update.getStoredNep(nep.getUuid().getValue()), nep);
     }
 
     public void deleteStaticTopology(String topologyUuid) throws TopologyRemovalException {
@@ -102,50 +319,23 @@ public class TopologyService {
         Topology tapiTopology = TapiDataStoreManager.readTopology(dataBroker,topologyUuid);
         if(tapiTopology == null)
             throw new TopologyRemovalException("TAPI Topology with UUID "+topologyUuid+" does not exist");
+        // Stop the rollout of the connectors, so none is created after its removal
+        if(!rollout.cancel(topologyUuid))
+            LOG.warn("deleteStaticTopology - error removing the readiness of topology "+topologyUuid);
 
         // For each node, check if a netconf-connector exists with this name and delete it
         for(Node node : tapiTopology.getNode()){
             String nodeUuid = node.getUuid().getValue();
             TopologyNetconfManager.deleteNetconfConnector(dataBroker,nodeUuid);
         }
-        ArrayList<String> sipsToBeRemoved = new ArrayList<>();
-        // For each SIP, found in the topology, delete it in context
-        for(Node node: tapiTopology.getNode()){
-            for(OwnedNodeEdgePoint onep: node.getOwnedNodeEdgePoint()){
-                // if SIPs on NEP exist
-                if(onep.getMappedServiceInterfacePoint() != null) {
-                    for (MappedServiceInterfacePoint msip : onep.getMappedServiceInterfacePoint()) {
-                        sipsToBeRemoved.add(msip.getServiceInterfacePointUuid().getValue());
-                    }
-                }
-            }
-        }
+        // The SIPs mapped on the NEPs of the topology are deleted one by one by key, in the same transaction
+        // as the TAPI topology: the SIP list of the context is neither read nor rewritten
+        Set<String> sipsToBeRemoved = TopologyDiff.mappedSips(tapiTopology.getNode());
         LOG.info("deleteStaticTopology - sips to be removed "+sipsToBeRemoved.size());
-        if(sipsToBeRemoved.size()>0)
-            removeSips(sipsToBeRemoved);
-
-        // Delete the TAPI topology
-        if(!TapiDataStoreManager.deleteTopology(dataBroker,topologyUuid))
+        if(!TapiDataStoreManager.submitTransaction(dataBroker, wtx -> {
+            TapiDataStoreManager.deleteSIPs(wtx, sipsToBeRemoved);
+            TapiDataStoreManager.deleteTopology(wtx, topologyUuid);
+        }))
             throw new TopologyRemovalException("Error deleting TAPI topology");
     }
-
-    private void removeSips(ArrayList<String> sipsToBeRemoved){
-        List<ServiceInterfacePoint> sipList = TapiDataStoreManager.readSIPList(dataBroker);
-        if(sipList != null){
-            for(String sipToBeRemoved: sipsToBeRemoved){
-                Iterator iterator = sipList.iterator();
-                while (iterator.hasNext()) {
-                    ServiceInterfacePoint sip = (ServiceInterfacePoint)iterator.next();
-                    if (sip.getUuid().getValue().equals(sipToBeRemoved)) {
-                        iterator.remove();
-                        LOG.info("deleteStaticTopology - Removed sip "+sipToBeRemoved);
-                        break;
-                    }
-                }
-            }
-        } else {
-            LOG.warn("deleteStaticTopology - no SIPs stored");
-        }
-        TapiDataStoreManager.writeSIPList(dataBroker,sipList);
-    }
 }
@@ -1,5 +1,7 @@
 package it.nextworks.topologyappcomplete.impl.topology;
 
+import it.nextworks.topologyappcomplete.impl.netconf.ConnectionRolloutScheduler;
+import it.nextworks.topologyappcomplete.impl.netconf.NetconfSessionProfiles;
 import it.nextworks.topologyappcomplete.impl.topology.rpc.TopologyappcompleteServiceImpl;
 import it.nextworks.topologyappcomplete.impl.tapi.TapiDataStoreManager;
 import org.opendaylight.mdsal.binding.api.DataBroker;
@@ -14,18 +16,25 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
 import java.util.Properties;
 
 public class TopologyappcompleteProvider {
     private static final Logger LOG = LoggerFactory.getLogger(TopologyappcompleteProvider.class);
+    private static final int DEFAULT_ROLLOUT_MAX_CONCURRENT_CONNECTIONS = 32;
+    private static final long DEFAULT_ROLLOUT_CONNECT_TIMEOUT_SECONDS = 120;
     private final DataBroker dataBroker;
     private final RpcProviderService rpcProviderService;
     private final MountPointService mountPointService;
     private ObjectRegistration<TopologyappcompleteServiceImpl> topologyAppInterface;
+    private ConnectionRolloutScheduler rolloutScheduler;
     private String netconfUsername;
     private String netconfPsw;
+    private NetconfSessionProfiles netconfProfiles;
     private String pceIp;
     private String pcePort;
+    private int rolloutMaxConcurrentConnections;
+    private long rolloutConnectTimeoutSeconds;
 
     public TopologyappcompleteProvider(final DataBroker dataBroker,
                                        final RpcProviderService rpcProviderService,
@@ -44,8 +53,11 @@ public class TopologyappcompleteProvider {
 
         LOG.info("TopologyappcompleteProvider Session Initiated");
         TapiDataStoreManager.initTapiContext(dataBroker);
+        rolloutScheduler = new ConnectionRolloutScheduler(dataBroker,netconfUsername,netconfPsw,netconfProfiles,
+                rolloutMaxConcurrentConnections,rolloutConnectTimeoutSeconds);
+        rolloutScheduler.register();
         topologyAppInterface = rpcProviderService.registerRpcImplementation(TopologyappcompleteService.class,
-                new TopologyappcompleteServiceImpl(dataBroker,netconfUsername,netconfPsw));
+                new TopologyappcompleteServiceImpl(dataBroker,netconfUsername,netconfPsw,rolloutScheduler));
     }
 
     /**
@@ -54,6 +66,8 @@ public class TopologyappcompleteProvider {
     public void close() {
         if (topologyAppInterface != null)
             topologyAppInterface.close();
+        if (rolloutScheduler != null)
+            rolloutScheduler.close();
         LOG.info("TopologyappcompleteProvider Closed");
     }
 
@@ -87,6 +101,11 @@ public class TopologyappcompleteProvider {
                 return false;
             }
             System.out.println("NETCONF configs, username: "+ netconfUsername + "  psw: " + netconfPsw);
+            // netconf-connector settings, by device model
+            netconfProfiles = NetconfSessionProfiles.fromProperties(prop);
+            System.out.println("NETCONF default settings, " + netconfProfiles.getDefault());
+            for (Map.Entry<String, NetconfSessionProfiles.Profile> entry : netconfProfiles.getModelProfiles().entrySet())
+                System.out.println("NETCONF settings of " + entry.getKey() + ", " + entry.getValue());
             // pce param
             pceIp = prop.getProperty("pce.ip");
             pcePort = prop.getProperty("pce.port");
@@ -96,6 +115,13 @@ public class TopologyappcompleteProvider {
                 return false;
             }
             System.out.println("PCE: ip: "+ pceIp + "  port: " + pcePort);
+            // rollout param: netconf-connectors connecting at the same time (0 means no limit), seconds a connector holds its slot
+            rolloutMaxConcurrentConnections = Integer.parseInt(prop.getProperty("topology.rollout.max-concurrent-connections",
+                    String.valueOf(DEFAULT_ROLLOUT_MAX_CONCURRENT_CONNECTIONS)));
+            rolloutConnectTimeoutSeconds = Long.parseLong(prop.getProperty("topology.rollout.connect-timeout-seconds",
+                    String.valueOf(DEFAULT_ROLLOUT_CONNECT_TIMEOUT_SECONDS)));
+            System.out.println("Rollout max concurrent connections: " + rolloutMaxConcurrentConnections
+                    + "  connect timeout: " + rolloutConnectTimeoutSeconds + " s");
         } catch (Exception ex) {
             System.out.println("TsntopologyappComplete - Error opening/parsing properties file");
             LOG.error(ex.getMessage());
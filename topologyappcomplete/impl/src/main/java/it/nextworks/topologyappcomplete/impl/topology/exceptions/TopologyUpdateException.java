@@ -0,0 +1,7 @@
+package it.nextworks.topologyappcomplete.impl.topology.exceptions;
+
+public class TopologyUpdateException extends Exception {
+    public TopologyUpdateException(String message) {
+        super(message);
+    }
+}
@@ -1,8 +1,11 @@
 package it.nextworks.topologyappcomplete.impl.topology.rpc;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import it.nextworks.topologyappcomplete.impl.netconf.ConnectionRolloutScheduler;
 import it.nextworks.topologyappcomplete.impl.topology.exceptions.TopologyCreationException;
 import it.nextworks.topologyappcomplete.impl.topology.exceptions.TopologyRemovalException;
+import it.nextworks.topologyappcomplete.impl.topology.exceptions.TopologyUpdateException;
+import it.nextworks.topologyappcomplete.impl.topology.TopologyDiff;
 import it.nextworks.topologyappcomplete.impl.topology.TopologyService;
 import org.opendaylight.mdsal.binding.api.DataBroker;
 import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.*;
@@ -19,22 +22,24 @@ public class TopologyappcompleteServiceImpl implements TopologyappcompleteServic
     private DataBroker dataBroker;
     private String netconfUsername;
     private String netconfPsw;
+    private ConnectionRolloutScheduler rollout;
 
-    public TopologyappcompleteServiceImpl(DataBroker db, String netconfUsername, String netconfPsw){
+    public TopologyappcompleteServiceImpl(DataBroker db, String netconfUsername, String netconfPsw, ConnectionRolloutScheduler rollout){
         this.dataBroker = db;
         this.netconfUsername = netconfUsername;
         this.netconfPsw = netconfPsw;
+        this.rollout = rollout;
     }
 
     // Receive in input a TAPI topology definition and
     // if the topology UUID does not exist yet
-    // create netconf-connector for each node
+    // create netconf-connector for each node, through the rollout scheduler
     // create a SIP for each mapped-sip on the nodes
     // store them
     @Override
     public ListenableFuture<RpcResult<AddStaticTopologyOutput>> addStaticTopology(AddStaticTopologyInput input) {
         LOG.info("TopologyappcompleteService - addStaticTopology");
-        TopologyService topologyService = new TopologyService(dataBroker,netconfUsername,netconfPsw);
+        TopologyService topologyService = new TopologyService(dataBroker,netconfUsername,netconfPsw,rollout);
         try {
             topologyService.createStaticTopology(input);
         } catch (TopologyCreationException ex){
@@ -48,7 +53,7 @@ public class TopologyappcompleteServiceImpl implements TopologyappcompleteServic
     @Override
     public ListenableFuture<RpcResult<RemoveStaticTopologyOutput>> removeStaticTopology(RemoveStaticTopologyInput input) {
         LOG.info("TopologyappcompleteService - removeStaticTopology");
-        TopologyService topologyService = new TopologyService(dataBroker,netconfUsername,netconfPsw);
+        TopologyService topologyService = new TopologyService(dataBroker,netconfUsername,netconfPsw,rollout);
         try {
             topologyService.deleteStaticTopology(input.getTopology());
         } catch (TopologyRemovalException ex){
@@ -58,6 +63,64 @@ public class TopologyappcompleteServiceImpl implements TopologyappcompleteServic
         return rpcResultBuilder.buildFuture();
     }
 
+    // Replace a stored topology with the one in input: only the nodes, links and SIPs that changed are written,
+    // and only the netconf-connectors of added nodes or of nodes with new management info are created
+    @Override
+    public ListenableFuture<RpcResult<UpdateStaticTopologyOutput>> updateStaticTopology(UpdateStaticTopologyInput input) {
+        LOG.info("TopologyappcompleteService - updateStaticTopology");
+        TopologyService topologyService = new TopologyService(dataBroker,netconfUsername,netconfPsw,rollout);
+        TopologyDiff diff;
+        try {
+            diff = topologyService.updateStaticTopology(input);
+        } catch (TopologyUpdateException ex){
+            return buildGenericErrorMessage(UpdateStaticTopologyOutput.class, ex.getMessage());
+        }
+        return RpcResultBuilder.success(buildDelta(diff)).buildFuture();
+    }
+
+    // Add nodes, links and NEPs to a stored topology
+    @Override
+    public ListenableFuture<RpcResult<AddTopologyElementsOutput>> addTopologyElements(AddTopologyElementsInput input) {
+        LOG.info("TopologyappcompleteService - addTopologyElements");
+        TopologyService topologyService = new TopologyService(dataBroker,netconfUsername,netconfPsw,rollout);
+        TopologyDiff diff;
+        try {
+            diff = topologyService.addTopologyElements(input);
+        } catch (TopologyUpdateException ex){
+            return buildGenericErrorMessage(AddTopologyElementsOutput.class, ex.getMessage());
+        }
+        return RpcResultBuilder.success(new AddTopologyElementsOutputBuilder(buildDelta(diff)).build()).buildFuture();
+    }
+
+    // Remove nodes, links and NEPs from a stored topology
+    @Override
+    public ListenableFuture<RpcResult<RemoveTopologyElementsOutput>> removeTopologyElements(RemoveTopologyElementsInput input) {
+        LOG.info("TopologyappcompleteService - removeTopologyElements");
+        TopologyService topologyService = new TopologyService(dataBroker,netconfUsername,netconfPsw,rollout);
+        TopologyDiff diff;
+        try {
+            diff = topologyService.removeTopologyElements(input);
+        } catch (TopologyUpdateException ex){
+            return buildGenericErrorMessage(RemoveTopologyElementsOutput.class, ex.getMessage());
+        }
+        return RpcResultBuilder.success(new RemoveTopologyElementsOutputBuilder(buildDelta(diff)).build()).buildFuture();
+    }
+
+    // The topology-delta of the outputs
+    private static UpdateStaticTopologyOutput buildDelta(TopologyDiff diff){
+        return new UpdateStaticTopologyOutputBuilder()
+                .setNodesAdded((long) diff.getAddedNodes().size())
+                .setNodesRemoved((long) diff.getRemovedNodes().size())
+                .setNodesUpdated((long) diff.getUpdatedNodes().size())
+                .setLinksAdded((long) diff.getAddedLinks().size())
+                .setLinksRemoved((long) diff.getRemovedLinks().size())
+                .setLinksUpdated((long) diff.getUpdatedLinks().size())
+                .setSipsAdded((long) diff.getAddedSips().size())
+                .setSipsRemoved((long) diff.getRemovedSips().size())
+                .setConnectorsReplaced((long) diff.getReconnectedNodes().size())
+                .build();
+    }
+
     // Method to handle errors
     private <T extends RpcOutput> ListenableFuture<RpcResult<T>> buildGenericErrorMessage(Class<T> name, String errorMessage){
         RpcResultBuilder<T> rpcResultBuilder = RpcResultBuilder.failed();
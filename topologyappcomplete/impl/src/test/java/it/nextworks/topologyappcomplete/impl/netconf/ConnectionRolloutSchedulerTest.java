@@ -0,0 +1,114 @@
+package it.nextworks.topologyappcomplete.impl.netconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.mdsal.binding.api.DataBroker;
+import org.opendaylight.mdsal.binding.api.DataObjectModification;
+import org.opendaylight.mdsal.binding.api.DataTreeModification;
+import org.opendaylight.mdsal.binding.api.WriteTransaction;
+import org.opendaylight.mdsal.common.api.CommitInfo;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.netconf.node.topology.rev150114.NetconfNode;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.netconf.node.topology.rev150114.NetconfNodeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.netconf.node.topology.rev150114.NetconfNodeConnectionStatus.ConnectionStatus;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.NodeId;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Node;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.NodeBuilder;
+
+public class ConnectionRolloutSchedulerTest {
+    private DataBroker dataBroker;
+
+    @Before
+    public void setUp() {
+        dataBroker = mock(DataBroker.class);
+        when(dataBroker.newWriteOnlyTransaction()).thenAnswer(invocation -> {
+            WriteTransaction wtx = mock(WriteTransaction.class);
+            when(wtx.commit()).thenReturn(CommitInfo.emptyFluentFuture());
+            return wtx;
+        });
+    }
+
+    @Test
+    public void connectorsWaitForAFreeSlot() {
+        try (ConnectionRolloutScheduler rollout = newRollout(2)) {
+            rollout.schedule("topology", connectors("topology", "node-", 5));
+            assertEquals(2, rollout.getConnectingCount());
+            assertEquals(3, rollout.getPendingCount());
+
+            // a connected node releases its slot to the next connector
+            rollout.onDataTreeChanged(Collections.singletonList(statusChange("node-0", ConnectionStatus.Connected)));
+            assertEquals(2, rollout.getConnectingCount());
+            assertEquals(2, rollout.getPendingCount());
+            assertEquals(1, rollout.getReadyNodes("topology"));
+
+            // still connecting: the slot is kept
+            rollout.onDataTreeChanged(Collections.singletonList(statusChange("node-1", ConnectionStatus.Connecting)));
+            assertEquals(2, rollout.getPendingCount());
+
+            rollout.onDataTreeChanged(Collections.singletonList(statusChange("node-1", ConnectionStatus.UnableToConnect)));
+            assertEquals(1, rollout.getPendingCount());
+            assertEquals(1, rollout.getReadyNodes("topology"));
+
+            // a ready node disconnected is not ready any more
+            rollout.onDataTreeChanged(Collections.singletonList(statusChange("node-0", ConnectionStatus.Connecting)));
+            assertEquals(0, rollout.getReadyNodes("topology"));
+        }
+    }
+
+    @Test
+    public void cancelDropsTheQueuedConnectors() {
+        try (ConnectionRolloutScheduler rollout = newRollout(1)) {
+            rollout.schedule("topology-1", connectors("topology-1", "a-", 3));
+            rollout.schedule("topology-2", connectors("topology-2", "b-", 2));
+            assertEquals(4, rollout.getPendingCount());
+
+            assertTrue(rollout.cancel("topology-1"));
+            // the slot of topology-1 goes to topology-2
+            assertEquals(1, rollout.getConnectingCount());
+            assertEquals(1, rollout.getPendingCount());
+        }
+    }
+
+    @Test
+    public void noLimitWritesAllTheConnectors() {
+        try (ConnectionRolloutScheduler rollout = newRollout(0)) {
+            rollout.schedule("topology", connectors("topology", "node-", 10));
+            assertEquals(10, rollout.getConnectingCount());
+            assertEquals(0, rollout.getPendingCount());
+        }
+    }
+
+    private ConnectionRolloutScheduler newRollout(int maxConcurrentConnections) {
+        return new ConnectionRolloutScheduler(dataBroker, "root", "root", NetconfSessionProfiles.defaults(),
+                maxConcurrentConnections, 120);
+    }
+
+    private static List<ConnectionRolloutScheduler.Connector> connectors(String topologyUuid, String nodePrefix, int size) {
+        List<ConnectionRolloutScheduler.Connector> connectors = new ArrayList<>();
+        for (int n = 0; n < size; n++)
+            connectors.add(new ConnectionRolloutScheduler.Connector(topologyUuid, nodePrefix + n, "10.0.0." + (n + 1), "830",
+                    null));
+        return connectors;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DataTreeModification<Node> statusChange(String nodeId, ConnectionStatus status) {
+        Node node = new NodeBuilder()
+                .setNodeId(new NodeId(nodeId))
+                .addAugmentation(NetconfNode.class, new NetconfNodeBuilder().setConnectionStatus(status).build())
+                .build();
+        DataObjectModification<Node> root = mock(DataObjectModification.class);
+        when(root.getModificationType()).thenReturn(DataObjectModification.ModificationType.WRITE);
+        when(root.getDataAfter()).thenReturn(node);
+        DataTreeModification<Node> change = mock(DataTreeModification.class);
+        when(change.getRootNode()).thenReturn(root);
+        return change;
+    }
+}
@@ -0,0 +1,56 @@
+package it.nextworks.topologyappcomplete.impl.netconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Properties;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.netconf.node.topology.rev150114.NetconfNode;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Node;
+
+public class NetconfSessionProfilesTest {
+
+    private static NetconfSessionProfiles profiles() {
+        Properties prop = new Properties();
+        prop.setProperty("netconf.username", "root");
+        prop.setProperty("netconf.keepalive-delay-seconds", "120");
+        prop.setProperty("netconf.connection-timeout-millis", "20000");
+        prop.setProperty("netconf.model.fsp150.xg400.schema-cache-directory", "adva-xg400");
+        prop.setProperty("netconf.model.fsp150.xg400.concurrent-rpc-limit", "4");
+        prop.setProperty("netconf.model.fsp150.xg400.connection-timeout-millis", "60000");
+        prop.setProperty("netconf.model.other.keepalive-delay-seconds", "30");
+        return NetconfSessionProfiles.fromProperties(prop);
+    }
+
+    @Test
+    public void modelSettingsOverrideTheDefaults() {
+        NetconfSessionProfiles.Profile profile = profiles().get("fsp150.xg400");
+        assertEquals("adva-xg400", profile.getSchemaCacheDirectory());
+        assertEquals(Integer.valueOf(4), profile.getConcurrentRpcLimit());
+        assertEquals(Long.valueOf(60000), profile.getConnectionTimeoutMillis());
+        assertEquals(Long.valueOf(120), profile.getKeepaliveDelaySeconds());
+        assertNull(profile.getDefaultRequestTimeoutMillis());
+    }
+
+    @Test
+    public void modelsShareASchemaCacheDirectory() {
+        NetconfSessionProfiles profiles = profiles();
+        assertEquals("other", profiles.get("other").getSchemaCacheDirectory());
+        assertEquals(Long.valueOf(30), profiles.get("other").getKeepaliveDelaySeconds());
+        // a model without settings still gets a directory of its own
+        assertEquals("vendor_box_1", profiles.get("vendor/box 1").getSchemaCacheDirectory());
+        assertEquals(Long.valueOf(20000), profiles.get("vendor/box 1").getConnectionTimeoutMillis());
+        assertNull(profiles.get(null).getSchemaCacheDirectory());
+    }
+
+    @Test
+    public void profileIsSetOnTheConnector() {
+        Node node = TopologyNetconfManager.prepareNode("node-1", "10.0.0.1", "830", "root", "root",
+                profiles().get("fsp150.xg400"));
+        NetconfNode netconfNode = node.augmentation(NetconfNode.class);
+        assertEquals("adva-xg400", netconfNode.getSchemaCacheDirectory());
+        assertEquals(Integer.valueOf(4), netconfNode.getConcurrentRpcLimit());
+        assertEquals(Long.valueOf(120), netconfNode.getKeepaliveDelay());
+        assertEquals(Boolean.FALSE, netconfNode.isSchemaless());
+    }
+}
@@ -0,0 +1,141 @@
+package it.nextworks.topologyappcomplete.impl.topology;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.global._class.NameBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.link.NodeEdgePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.edge.point.MappedServiceInterfacePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Link;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.LinkBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Node;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.NodeBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.Topology;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.context.TopologyBuilder;
+import org.opendaylight.yangtools.yang.binding.Augmentation;
+
+public class TopologyDiffTest {
+
+    // Stands for the cep-list augmentation written in the NEPs by the provisioning
+    interface CepList extends Augmentation<OwnedNodeEdgePoint> {
+    }
+
+    @Test
+    public void unchangedTopologyHasNoDifferences() {
+        Topology stored = topology(Arrays.asList(node("node-1", "10.0.0.1", 2), node("node-2", "10.0.0.2", 2)),
+                Collections.singletonList(link("link-1", "node-1", "node-2")));
+        Topology target = topology(Arrays.asList(node("node-1", "10.0.0.1", 2), node("node-2", "10.0.0.2", 2)),
+                Collections.singletonList(link("link-1", "node-1", "node-2")));
+        assertTrue(TopologyDiff.compute(stored, target).isEmpty());
+    }
+
+    @Test
+    public void onlyTheChangedElementsAreReported() {
+        Topology stored = topology(Arrays.asList(node("node-1", "10.0.0.1", 2), node("node-2", "10.0.0.2", 2),
+                node("node-3", "10.0.0.3", 2)), Collections.singletonList(link("link-1", "node-1", "node-2")));
+        Topology target = topology(Arrays.asList(
+                // a NEP more: updated, same connector
+                node("node-1", "10.0.0.1", 3),
+                // new address: its connector is replaced
+                node("node-2", "10.0.1.2", 2),
+                node("node-4", "10.0.0.4", 1)),
+                Arrays.asList(link("link-1", "node-1", "node-2"), link("link-2", "node-2", "node-4")));
+
+        TopologyDiff diff = TopologyDiff.compute(stored, target);
+        assertEquals(1, diff.getAddedNodes().size());
+        assertEquals("node-4", diff.getAddedNodes().get(0).getUuid().getValue());
+        assertEquals(1, diff.getRemovedNodes().size());
+        assertEquals("node-3", diff.getRemovedNodes().get(0).getUuid().getValue());
+        assertEquals(2, diff.getUpdatedNodes().size());
+        assertEquals(1, diff.getReconnectedNodes().size());
+        assertEquals("node-2", diff.getReconnectedNodes().get(0).getUuid().getValue());
+        assertEquals(1, diff.getAddedLinks().size());
+        assertTrue(diff.getRemovedLinks().isEmpty());
+        assertTrue(diff.getUpdatedLinks().isEmpty());
+        // the SIP of the new NEP of node-1 and the one of node-4 are added, the SIPs of node-3 removed
+        assertEquals(new ArrayList<>(Arrays.asList("sip-node-1-3", "sip-node-4-1")), new ArrayList<>(diff.getAddedSips()));
+        assertEquals(new ArrayList<>(Arrays.asList("sip-node-3-1", "sip-node-3-2")), new ArrayList<>(diff.getRemovedSips()));
+    }
+
+    @Test
+    public void connectionEndPointsAreNotTopologyContent() {
+        Topology stored = topology(Arrays.asList(withConnectionEndPoints(node("node-1", "10.0.0.1", 2)),
+                node("node-2", "10.0.0.2", 2)), Collections.singletonList(link("link-1", "node-1", "node-2")));
+        // the same topology submitted again: the node with connection-end-points is not updated
+        Topology target = topology(Arrays.asList(node("node-1", "10.0.0.1", 2), node("node-2", "10.0.0.2", 2)),
+                Collections.singletonList(link("link-1", "node-1", "node-2")));
+        assertTrue(TopologyDiff.compute(stored, target).isEmpty());
+
+        // a NEP more: only the new NEP is written, the one with connection-end-points is not touched
+        target = topology(Arrays.asList(node("node-1", "10.0.0.1", 3), node("node-2", "10.0.0.2", 2)),
+                Collections.singletonList(link("link-1", "node-1", "node-2")));
+        TopologyDiff diff = TopologyDiff.compute(stored, target);
+        assertEquals(1, diff.getNodeUpdates().size());
+        TopologyDiff.NodeUpdate update = diff.getNodeUpdates().get(0);
+        assertFalse(update.isAttributesUpdated());
+        assertEquals(1, update.getAddedNeps().size());
+        assertEquals("1-1-1-3", update.getAddedNeps().get(0).getUuid().getValue());
+        assertTrue(update.getUpdatedNeps().isEmpty());
+        assertTrue(update.getRemovedNeps().isEmpty());
+
+        // the NEP with connection-end-points removed
+        target = topology(Arrays.asList(node("node-1", "10.0.0.1", 0), node("node-2", "10.0.0.2", 2)),
+                Collections.singletonList(link("link-1", "node-1", "node-2")));
+        update = TopologyDiff.compute(stored, target).getNodeUpdates().get(0);
+        assertEquals(2, update.getRemovedNeps().size());
+        assertTrue(TopologyDiff.carriesConnectionEndPoints(update.getRemovedNeps().get(0)));
+        assertFalse(TopologyDiff.carriesConnectionEndPoints(update.getRemovedNeps().get(1)));
+        assertTrue(TopologyDiff.carriesConnectionEndPoints(stored.getNode().get(0)));
+        assertFalse(TopologyDiff.carriesConnectionEndPoints(stored.getNode().get(1)));
+    }
+
+    // The first NEP of the node carries connection-end-points
+    private static Node withConnectionEndPoints(Node node) {
+        List<OwnedNodeEdgePoint> neps = new ArrayList<>(node.getOwnedNodeEdgePoint());
+        neps.set(0, new OwnedNodeEdgePointBuilder(neps.get(0)).addAugmentation(CepList.class, mock(CepList.class)).build());
+        return new NodeBuilder(node).setOwnedNodeEdgePoint(neps).build();
+    }
+
+    private static Topology topology(List<Node> nodes, List<Link> links) {
+        return new TopologyBuilder().setUuid(new Uuid("topology")).setNode(nodes).setLink(links).build();
+    }
+
+    private static Node node(String uuid, String address, int neps) {
+        List<OwnedNodeEdgePoint> nepList = new ArrayList<>();
+        for (int p = 1; p <= neps; p++) {
+            nepList.add(new OwnedNodeEdgePointBuilder()
+                    .setUuid(new Uuid("1-1-1-" + p))
+                    .setMappedServiceInterfacePoint(Collections.singletonList(new MappedServiceInterfacePointBuilder()
+                            .setServiceInterfacePointUuid(new Uuid("sip-" + uuid + "-" + p)).build()))
+                    .build());
+        }
+        return new NodeBuilder()
+                .setUuid(new Uuid(uuid))
+                .setName(Arrays.asList(
+                        new NameBuilder().setValueName("management-address").setValue(address).build(),
+                        new NameBuilder().setValueName("management-port").setValue("830").build()))
+                .setOwnedNodeEdgePoint(nepList)
+                .build();
+    }
+
+    private static Link link(String uuid, String node1, String node2) {
+        return new LinkBuilder()
+                .setUuid(new Uuid(uuid))
+                .setNodeEdgePoint(Arrays.asList(
+                        new NodeEdgePointBuilder().setTopologyUuid(new Uuid("topology")).setNodeUuid(new Uuid(node1))
+                                .setNodeEdgePointUuid(new Uuid("1-1-1-1")).build(),
+                        new NodeEdgePointBuilder().setTopologyUuid(new Uuid("topology")).setNodeUuid(new Uuid(node2))
+                                .setNodeEdgePointUuid(new Uuid("1-1-1-1")).build()))
+                .build();
+    }
+}
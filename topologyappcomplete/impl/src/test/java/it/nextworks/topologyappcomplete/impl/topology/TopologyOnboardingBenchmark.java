@@ -0,0 +1,125 @@
+package it.nextworks.topologyappcomplete.impl.topology;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.FluentFuture;
+import com.google.common.util.concurrent.Futures;
+import it.nextworks.topologyappcomplete.impl.netconf.ConnectionRolloutScheduler;
+import it.nextworks.topologyappcomplete.impl.netconf.NetconfSessionProfiles;
+import it.nextworks.topologyappcomplete.impl.netconf.TopologyNetconfManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.opendaylight.mdsal.binding.api.DataBroker;
+import org.opendaylight.mdsal.binding.api.ReadTransaction;
+import org.opendaylight.mdsal.binding.api.WriteTransaction;
+import org.opendaylight.mdsal.common.api.CommitInfo;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.AddStaticTopologyInput;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.AddStaticTopologyInputBuilder;
+import org.opendaylight.yang.gen.v1.it.nextworks.yang.topologyappcomplete.rev200514.add._static.topology.input.TopologyBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.Uuid;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.common.rev200423.global._class.NameBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePoint;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.OwnedNodeEdgePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.node.edge.point.MappedServiceInterfacePointBuilder;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.Node;
+import org.opendaylight.yang.gen.v1.urn.onf.otcc.yang.tapi.topology.rev200423.topology.NodeBuilder;
+
+// Onboarding of synthetic topologies of increasing size on a datastore whose commits take COMMIT_MILLIS,
+// comparing one transaction per netconf-connector with createStaticTopology: a transaction for the topology,
+// its SIPs and its readiness, and one for the connectors written by the rollout scheduler without a concurrency limit.
+// Run with: mvn test -Dtest=TopologyOnboardingBenchmark
+public class TopologyOnboardingBenchmark {
+    private static final long COMMIT_MILLIS = 2;
+    private static final int NEPS_PER_NODE = 4;
+    private static final List<Integer> SIZES = Arrays.asList(100, 500, 1000, 2000);
+
+    // DataBroker counting the commits and the operations, the topology is never found
+    private static class SlowDataBroker {
+        private final AtomicInteger commits = new AtomicInteger();
+        private final AtomicInteger operations = new AtomicInteger();
+        private final DataBroker dataBroker = mock(DataBroker.class);
+
+        SlowDataBroker() {
+            ReadTransaction rtx = mock(ReadTransaction.class);
+            when(rtx.exists(any(), any())).thenReturn(FluentFuture.from(Futures.immediateFuture(false)));
+            when(dataBroker.newReadOnlyTransaction()).thenReturn(rtx);
+            when(dataBroker.newWriteOnlyTransaction()).thenAnswer(invocation -> newTransaction());
+        }
+
+        private WriteTransaction newTransaction() {
+            WriteTransaction wtx = mock(WriteTransaction.class, invocation -> {
+                if (invocation.getMethod().getName().equals("commit")) {
+                    commits.incrementAndGet();
+                    Thread.sleep(COMMIT_MILLIS);
+                    return CommitInfo.emptyFluentFuture();
+                }
+                operations.incrementAndGet();
+                return null;
+            });
+            return wtx;
+        }
+    }
+
+    @Test
+    public void onboardSyntheticTopologies() throws Exception {
+        System.out.println(String.format("%8s %22s %22s", "nodes", "per-connector (ms/tx)", "onboarding (ms/tx)"));
+        for (int size : SIZES) {
+            AddStaticTopologyInput input = syntheticTopology(size);
+
+            SlowDataBroker perConnector = new SlowDataBroker();
+            long start = System.nanoTime();
+            for (Node node : input.getTopology().getNode())
+                TopologyNetconfManager.createNetconfConnector(perConnector.dataBroker, node.getUuid().getValue(),
+                        "10.0.0.1", "830", "root", "root");
+            long perConnectorMillis = (System.nanoTime() - start) / 1_000_000;
+
+            SlowDataBroker singleTx = new SlowDataBroker();
+            long singleTxMillis;
+            try (ConnectionRolloutScheduler rollout = new ConnectionRolloutScheduler(singleTx.dataBroker, "root", "root",
+                    NetconfSessionProfiles.defaults(), 0, 120)) {
+                start = System.nanoTime();
+                new TopologyService(singleTx.dataBroker, "root", "root", rollout).createStaticTopology(input);
+                // waits for the connectors queued on the rollout thread
+                assertEquals(0, rollout.getPendingCount());
+                singleTxMillis = (System.nanoTime() - start) / 1_000_000;
+            }
+
+            System.out.println(String.format("%8d %15d / %-6d %15d / %-6d", size, perConnectorMillis,
+                    perConnector.commits.get(), singleTxMillis, singleTx.commits.get()));
+            assertEquals(2, singleTx.commits.get());
+            // the topology, a SIP per NEP and the readiness, then a connector and its connecting state per node
+            assertEquals(1 + size * NEPS_PER_NODE + 1 + size * 2, singleTx.operations.get());
+        }
+    }
+
+    private static AddStaticTopologyInput syntheticTopology(int size) {
+        List<Node> nodes = new ArrayList<>();
+        for (int n = 0; n < size; n++) {
+            List<OwnedNodeEdgePoint> neps = new ArrayList<>();
+            for (int p = 1; p <= NEPS_PER_NODE; p++) {
+                neps.add(new OwnedNodeEdgePointBuilder()
+                        .setUuid(new Uuid("1-1-1-" + p))
+                        .setMappedServiceInterfacePoint(Collections.singletonList(new MappedServiceInterfacePointBuilder()
+                                .setServiceInterfacePointUuid(new Uuid("sip-" + n + "-" + p)).build()))
+                        .build());
+            }
+            nodes.add(new NodeBuilder()
+                    .setUuid(new Uuid("node-" + n))
+                    .setName(Arrays.asList(
+                            new NameBuilder().setValueName("management-address").setValue("10.0." + n / 250 + "." + (n % 250 + 1)).build(),
+                            new NameBuilder().setValueName("management-port").setValue("830").build()))
+                    .setOwnedNodeEdgePoint(neps)
+                    .build());
+        }
+        return new AddStaticTopologyInputBuilder()
+                .setTopology(new TopologyBuilder().setUuid(new Uuid("synthetic-" + size)).setNode(nodes).build())
+                .build();
+    }
+}